@@ -0,0 +1,439 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.analytics;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import ubc.rtsp.client.model.Frame;
+
+/**
+ * Extracts a <code>LumaMap</code> from a JPEG frame. For baseline
+ * (Huffman-coded, sequential) images, only the entropy-coded data is walked:
+ * the DC coefficient of each luma block is decoded, and the AC coefficients
+ * are skipped without being dequantized or transformed, so no pixel is ever
+ * computed. Other images (progressive, arithmetic-coded or corrupted) are
+ * decoded with ImageIO at 1/8 of their size instead.
+ * 
+ * An instance keeps the tables of the last image it parsed, so it is not
+ * thread-safe; each stream should use its own decoder.
+ */
+public class JpegDcDecoder {
+
+	private static final int SOI = 0xD8;
+	private static final int EOI = 0xD9;
+	private static final int SOF0 = 0xC0;
+	private static final int SOF1 = 0xC1;
+	private static final int DHT = 0xC4;
+	private static final int SOS = 0xDA;
+	private static final int DQT = 0xDB;
+	private static final int DRI = 0xDD;
+
+	/**
+	 * A Huffman table, decoded as described in section F.2.2.3 of the JPEG
+	 * specification.
+	 */
+	private static class HuffmanTable {
+		private int[] maxCode = new int[18];
+		private int[] valueOffset = new int[17];
+		private byte[] values;
+		private boolean defined = false;
+
+		private void define(ByteBuffer segment) {
+			int[] counts = new int[17];
+			int total = 0;
+			for (int length = 1; length <= 16; length++) {
+				counts[length] = segment.get() & 0xFF;
+				total += counts[length];
+			}
+			values = new byte[total];
+			segment.get(values);
+			int code = 0;
+			int index = 0;
+			for (int length = 1; length <= 16; length++) {
+				valueOffset[length] = index - code;
+				code += counts[length];
+				index += counts[length];
+				maxCode[length] = counts[length] == 0 ? -1 : code - 1;
+				code <<= 1;
+			}
+			maxCode[17] = Integer.MAX_VALUE;
+			defined = true;
+		}
+	}
+
+	private int[] dcQuantizers = new int[4];
+	private HuffmanTable[] dcTables = new HuffmanTable[4];
+	private HuffmanTable[] acTables = new HuffmanTable[4];
+
+	// state of the entropy decoder
+	private ByteBuffer data;
+	private int bitBuffer;
+	private int bitCount;
+	private boolean markerReached;
+
+	private long fastFrames = 0;
+	private long fallbackFrames = 0;
+
+	public JpegDcDecoder() {
+		for (int i = 0; i < 4; i++) {
+			dcTables[i] = new HuffmanTable();
+			acTables[i] = new HuffmanTable();
+		}
+	}
+
+	/**
+	 * Extracts the luma map of a frame.
+	 * 
+	 * @param frame
+	 *            A frame with a JPEG payload.
+	 * @return The luma map, or <tt>null</tt> if the payload could not be
+	 *         decoded at all.
+	 */
+	public LumaMap decode(Frame frame) {
+		LumaMap map;
+		try {
+			map = decodeDc(frame.asReadOnlyBuffer());
+		} catch (RuntimeException e) {
+			// corrupted data, or a feature not handled here
+			map = null;
+		}
+		if (map != null) {
+			fastFrames++;
+			return map;
+		}
+		fallbackFrames++;
+		return decodeImage(frame);
+	}
+
+	/**
+	 * Returns the number of frames decoded from their DC coefficients only.
+	 */
+	public long getFastFrames() {
+		return fastFrames;
+	}
+
+	/**
+	 * Returns the number of frames that needed a full decode.
+	 */
+	public long getFallbackFrames() {
+		return fallbackFrames;
+	}
+
+	private LumaMap decodeDc(ByteBuffer jpeg) {
+		if (nextMarker(jpeg) != SOI)
+			return null;
+
+		int width = 0, height = 0;
+		int componentCount = 0;
+		int[] componentIds = null, hFactors = null, vFactors = null, quantTables = null;
+		int restartInterval = 0;
+
+		while (true) {
+			int marker = nextMarker(jpeg);
+			if (marker < 0 || marker == EOI)
+				return null;
+			int length = jpeg.getShort() & 0xFFFF;
+			ByteBuffer segment = jpeg.slice();
+			segment.limit(length - 2);
+			jpeg.position(jpeg.position() + length - 2);
+
+			switch (marker) {
+			case DQT:
+				while (segment.hasRemaining()) {
+					int info = segment.get() & 0xFF;
+					int precision = info >> 4;
+					// only the first (DC) quantizer of each table is needed
+					dcQuantizers[info & 3] = precision == 0 ? segment.get() & 0xFF
+							: segment.getShort() & 0xFFFF;
+					segment.position(segment.position() + 63 * (precision + 1));
+				}
+				break;
+			case DHT:
+				while (segment.hasRemaining()) {
+					int info = segment.get() & 0xFF;
+					HuffmanTable[] tables = (info >> 4) == 0 ? dcTables : acTables;
+					tables[info & 3].define(segment);
+				}
+				break;
+			case DRI:
+				restartInterval = segment.getShort() & 0xFFFF;
+				break;
+			case SOF0:
+			case SOF1:
+				if ((segment.get() & 0xFF) != 8)
+					return null;
+				height = segment.getShort() & 0xFFFF;
+				width = segment.getShort() & 0xFFFF;
+				componentCount = segment.get() & 0xFF;
+				componentIds = new int[componentCount];
+				hFactors = new int[componentCount];
+				vFactors = new int[componentCount];
+				quantTables = new int[componentCount];
+				for (int i = 0; i < componentCount; i++) {
+					componentIds[i] = segment.get() & 0xFF;
+					int factors = segment.get() & 0xFF;
+					hFactors[i] = factors >> 4;
+					vFactors[i] = factors & 15;
+					quantTables[i] = (segment.get() & 0xFF) & 3;
+				}
+				break;
+			case SOS:
+				if (componentIds == null || width == 0 || height == 0)
+					return null;
+				return decodeScan(jpeg, segment, width, height, componentIds,
+						hFactors, vFactors, quantTables, restartInterval);
+			default:
+				// progressive, lossless and arithmetic-coded frames are not
+				// handled here; other segments are irrelevant
+				if (marker >= 0xC2 && marker <= 0xCF && marker != DHT
+						&& marker != 0xC8 && marker != 0xCC)
+					return null;
+				break;
+			}
+		}
+	}
+
+	private LumaMap decodeScan(ByteBuffer jpeg, ByteBuffer header, int width,
+			int height, int[] componentIds, int[] hFactors, int[] vFactors,
+			int[] quantTables, int restartInterval) {
+		int hMax = 1, vMax = 1;
+		for (int i = 0; i < componentIds.length; i++) {
+			hMax = Math.max(hMax, hFactors[i]);
+			vMax = Math.max(vMax, vFactors[i]);
+		}
+
+		int scanCount = header.get() & 0xFF;
+		int[] scanComponents = new int[scanCount];
+		int[] dcTable = new int[scanCount];
+		int[] acTable = new int[scanCount];
+		for (int i = 0; i < scanCount; i++) {
+			int id = header.get() & 0xFF;
+			int tables = header.get() & 0xFF;
+			scanComponents[i] = -1;
+			for (int c = 0; c < componentIds.length; c++)
+				if (componentIds[c] == id)
+					scanComponents[i] = c;
+			if (scanComponents[i] < 0)
+				return null;
+			dcTable[i] = (tables >> 4) & 3;
+			acTable[i] = tables & 3;
+			if (!dcTables[dcTable[i]].defined || !acTables[acTable[i]].defined)
+				return null;
+		}
+		// luma is the first component; a scan without it is not handled
+		if (scanComponents[0] != 0)
+			return null;
+
+		int lumaQuantizer = dcQuantizers[quantTables[0]];
+		int blocksWide = (((width * hFactors[0] + hMax - 1) / hMax) + 7) / 8;
+		int blocksHigh = (((height * vFactors[0] + vMax - 1) / vMax) + 7) / 8;
+		byte[] luma = new byte[blocksWide * blocksHigh];
+
+		int mcusWide, mcusHigh;
+		if (scanCount == 1) {
+			// non-interleaved: one block per unit
+			mcusWide = blocksWide;
+			mcusHigh = blocksHigh;
+		} else {
+			mcusWide = (width + 8 * hMax - 1) / (8 * hMax);
+			mcusHigh = (height + 8 * vMax - 1) / (8 * vMax);
+		}
+
+		data = jpeg;
+		bitBuffer = 0;
+		bitCount = 0;
+		markerReached = false;
+		int[] predictions = new int[scanCount];
+		int mcuCount = mcusWide * mcusHigh;
+
+		for (int mcu = 0; mcu < mcuCount; mcu++) {
+			if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+				restart();
+				for (int i = 0; i < scanCount; i++)
+					predictions[i] = 0;
+			}
+			int mcuX = mcu % mcusWide;
+			int mcuY = mcu / mcusWide;
+			for (int i = 0; i < scanCount; i++) {
+				int component = scanComponents[i];
+				int h = scanCount == 1 ? 1 : hFactors[component];
+				int v = scanCount == 1 ? 1 : vFactors[component];
+				for (int by = 0; by < v; by++) {
+					for (int bx = 0; bx < h; bx++) {
+						predictions[i] += decodeDcDifference(dcTables[dcTable[i]]);
+						skipAcCoefficients(acTables[acTable[i]]);
+						if (component != 0)
+							continue;
+						int x = mcuX * h + bx;
+						int y = mcuY * v + by;
+						if (x < blocksWide && y < blocksHigh) {
+							int value = predictions[i] * lumaQuantizer / 8 + 128;
+							luma[y * blocksWide + x] = (byte) Math.max(0,
+									Math.min(255, value));
+						}
+					}
+				}
+			}
+		}
+		return new LumaMap(blocksWide, blocksHigh, luma);
+	}
+
+	private int decodeDcDifference(HuffmanTable table) {
+		int size = decodeSymbol(table);
+		if (size == 0)
+			return 0;
+		return extend(readBits(size), size);
+	}
+
+	private void skipAcCoefficients(HuffmanTable table) {
+		for (int k = 1; k < 64; k++) {
+			int symbol = decodeSymbol(table);
+			int run = symbol >> 4;
+			int size = symbol & 15;
+			if (size == 0) {
+				if (run != 15)
+					return;
+				k += 15;
+			} else {
+				k += run;
+				readBits(size);
+			}
+		}
+	}
+
+	private int decodeSymbol(HuffmanTable table) {
+		int code = readBit();
+		int length = 1;
+		while (code > table.maxCode[length]) {
+			code = (code << 1) | readBit();
+			if (++length > 16)
+				throw new IllegalStateException("Invalid Huffman code.");
+		}
+		return table.values[code + table.valueOffset[length]] & 0xFF;
+	}
+
+	private static int extend(int value, int size) {
+		return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+	}
+
+	private int readBits(int count) {
+		int value = 0;
+		for (int i = 0; i < count; i++)
+			value = (value << 1) | readBit();
+		return value;
+	}
+
+	private int readBit() {
+		if (bitCount == 0) {
+			bitBuffer = nextDataByte();
+			bitCount = 8;
+		}
+		bitCount--;
+		return (bitBuffer >> bitCount) & 1;
+	}
+
+	private int nextDataByte() {
+		if (markerReached || !data.hasRemaining())
+			return 0;
+		int value = data.get() & 0xFF;
+		if (value == 0xFF) {
+			int next = data.get(data.position()) & 0xFF;
+			if (next == 0) {
+				// stuffed zero byte
+				data.get();
+			} else {
+				// a marker: pad with zeros until the decoder restarts
+				data.position(data.position() - 1);
+				markerReached = true;
+				return 0;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Skips to the data after the next restart marker.
+	 */
+	private void restart() {
+		bitCount = 0;
+		while (data.hasRemaining()) {
+			int value = data.get() & 0xFF;
+			if (value == 0xFF && data.hasRemaining()) {
+				int marker = data.get() & 0xFF;
+				if (marker >= 0xD0 && marker <= 0xD7)
+					break;
+			}
+		}
+		markerReached = false;
+	}
+
+	/**
+	 * Returns the next marker code, skipping fill bytes, or -1 if the data
+	 * does not start with a marker.
+	 */
+	private static int nextMarker(ByteBuffer jpeg) {
+		if (jpeg.remaining() < 2 || (jpeg.get() & 0xFF) != 0xFF)
+			return -1;
+		int marker;
+		do {
+			if (!jpeg.hasRemaining())
+				return -1;
+			marker = jpeg.get() & 0xFF;
+		} while (marker == 0xFF);
+		return marker;
+	}
+
+	/**
+	 * Decodes the image with ImageIO, reading one pixel out of each 8x8
+	 * block, and converts it to luma.
+	 */
+	private static LumaMap decodeImage(Frame frame) {
+		Iterator<ImageReader> readers = ImageIO
+				.getImageReadersByFormatName("jpeg");
+		if (!readers.hasNext())
+			return null;
+		ImageReader reader = readers.next();
+		try (InputStream in = frame.getInputStream();
+				ImageInputStream input = ImageIO.createImageInputStream(in)) {
+			reader.setInput(input, true, true);
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceSubsampling(8, 8, 4, 4);
+			BufferedImage image = reader.read(0, param);
+			byte[] luma = new byte[image.getWidth() * image.getHeight()];
+			int index = 0;
+			for (int y = 0; y < image.getHeight(); y++) {
+				for (int x = 0; x < image.getWidth(); x++) {
+					int rgb = image.getRGB(x, y);
+					int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+					luma[index++] = (byte) ((77 * r + 150 * g + 29 * b) >> 8);
+				}
+			}
+			return new LumaMap(image.getWidth(), image.getHeight(), luma);
+		} catch (IOException | RuntimeException e) {
+			return null;
+		} finally {
+			reader.dispose();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.analytics;
+
+/**
+ * A downsampled luma (brightness) image of a frame, with one value per 8x8
+ * block of pixels. This is the resolution at which the DC coefficients of a
+ * JPEG image are stored, so it can be obtained without decoding the image.
+ */
+public class LumaMap {
+
+	private int width;
+	private int height;
+	private byte[] values;
+
+	/**
+	 * Creates a new luma map.
+	 * 
+	 * @param width
+	 *            The number of blocks in each row.
+	 * @param height
+	 *            The number of rows of blocks.
+	 * @param values
+	 *            The luma of each block, between 0 and 255, row by row.
+	 */
+	public LumaMap(int width, int height, byte[] values) {
+		if (values.length != width * height)
+			throw new IllegalArgumentException("Luma map size mismatch.");
+		this.width = width;
+		this.height = height;
+		this.values = values;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the luma of a block.
+	 * 
+	 * @param x
+	 *            The column of the block.
+	 * @param y
+	 *            The row of the block.
+	 * @return The luma, between 0 and 255.
+	 */
+	public int getLuma(int x, int y) {
+		return values[y * width + x] & 0xFF;
+	}
+
+	/**
+	 * Returns the luma of a block given its index in row order.
+	 * 
+	 * @param index
+	 *            The index of the block.
+	 * @return The luma, between 0 and 255.
+	 */
+	public int getLuma(int index) {
+		return values[index] & 0xFF;
+	}
+
+	/**
+	 * Indicates if another map has the same dimensions, so both can be
+	 * compared block by block.
+	 * 
+	 * @param other
+	 *            The other map.
+	 * @return <tt>true</tt> if both maps have the same size.
+	 */
+	public boolean isComparableTo(LumaMap other) {
+		return other != null && other.width == width && other.height == height;
+	}
+}
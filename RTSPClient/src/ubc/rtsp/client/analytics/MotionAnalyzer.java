@@ -0,0 +1,190 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.analytics;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.model.Frame;
+import ubc.rtsp.client.model.listener.SessionListener;
+
+/**
+ * A stage between a session and its sinks that analyzes each frame for motion,
+ * notifies motion listeners of the changes detected, and optionally forwards
+ * frames to a sink only while there is motion. Frames are analyzed from their
+ * JPEG DC coefficients, without being decoded.
+ * 
+ * The analyzer is registered as a listener of the session. Since each session
+ * listener is served by its own queue, the analysis of different streams runs
+ * in parallel, while the frames of each stream are analyzed in order. When
+ * gating, a few frames before the motion started (pre-roll) are forwarded
+ * along with the first frame in motion, and a few frames after it ended
+ * (post-roll), so a recording shows the whole event.
+ */
+public class MotionAnalyzer implements SessionListener {
+
+	public static final int DEFAULT_PRE_ROLL_FRAMES = 12;
+	public static final int DEFAULT_POST_ROLL_FRAMES = 24;
+
+	private MotionDetector detector = new MotionDetector();
+	private CopyOnWriteArrayList<MotionListener> motionListeners = new CopyOnWriteArrayList<MotionListener>();
+	private SessionListener sink;
+	private boolean gated;
+	private int preRollFrames;
+	private int postRollFrames;
+
+	private ArrayDeque<Frame> preRoll = new ArrayDeque<Frame>();
+	private int postRollRemaining = 0;
+	private long analyzedFrames = 0;
+	private long forwardedFrames = 0;
+
+	/**
+	 * Creates an analyzer that only notifies motion listeners.
+	 */
+	public MotionAnalyzer() {
+		this(null, false);
+	}
+
+	/**
+	 * Creates an analyzer that forwards frames to a sink.
+	 * 
+	 * @param sink
+	 *            The listener that receives the frames, such as a recorder.
+	 * @param gated
+	 *            <tt>true</tt> to forward only the frames around motion,
+	 *            <tt>false</tt> to forward all frames.
+	 */
+	public MotionAnalyzer(SessionListener sink, boolean gated) {
+		this(sink, gated, DEFAULT_PRE_ROLL_FRAMES, DEFAULT_POST_ROLL_FRAMES);
+	}
+
+	/**
+	 * Creates an analyzer that forwards frames to a sink.
+	 * 
+	 * @param sink
+	 *            The listener that receives the frames, or <tt>null</tt>.
+	 * @param gated
+	 *            <tt>true</tt> to forward only the frames around motion.
+	 * @param preRollFrames
+	 *            The number of frames before motion that are also forwarded.
+	 * @param postRollFrames
+	 *            The number of frames after motion that are also forwarded.
+	 */
+	public MotionAnalyzer(SessionListener sink, boolean gated,
+			int preRollFrames, int postRollFrames) {
+		this.sink = sink;
+		this.gated = gated;
+		this.preRollFrames = preRollFrames;
+		this.postRollFrames = postRollFrames;
+	}
+
+	public void addMotionListener(MotionListener listener) {
+		motionListeners.add(listener);
+	}
+
+	public void removeMotionListener(MotionListener listener) {
+		motionListeners.remove(listener);
+	}
+
+	/**
+	 * Returns the detector used by this analyzer, so its thresholds can be
+	 * changed. It must not be used while frames are being received.
+	 * 
+	 * @return The motion detector.
+	 */
+	public MotionDetector getDetector() {
+		return detector;
+	}
+
+	public synchronized long getAnalyzedFrames() {
+		return analyzedFrames;
+	}
+
+	/**
+	 * Returns the number of frames forwarded to the sink. When gating, this
+	 * is usually a small fraction of the frames analyzed.
+	 * 
+	 * @return The number of frames forwarded.
+	 */
+	public synchronized long getForwardedFrames() {
+		return forwardedFrames;
+	}
+
+	@Override
+	public synchronized void frameReceived(Frame frame) {
+		if (frame == null) {
+			// the video was closed or restarted
+			detector.reset();
+			releasePreRoll();
+			postRollRemaining = 0;
+			if (sink != null)
+				sink.frameReceived(null);
+			return;
+		}
+
+		analyzedFrames++;
+		MotionEvent event = detector.analyze(frame);
+		if (event != null) {
+			for (MotionListener listener : motionListeners)
+				listener.motionDetected(event);
+		}
+		if (sink == null)
+			return;
+
+		if (!gated) {
+			forward(frame);
+		} else if (detector.isInMotion()) {
+			while (!preRoll.isEmpty()) {
+				Frame buffered = preRoll.poll();
+				forward(buffered);
+				buffered.release();
+			}
+			postRollRemaining = postRollFrames;
+			forward(frame);
+		} else if (postRollRemaining > 0) {
+			postRollRemaining--;
+			forward(frame);
+		} else if (preRollFrames > 0) {
+			frame.retain();
+			preRoll.add(frame);
+			if (preRoll.size() > preRollFrames)
+				preRoll.poll().release();
+		}
+	}
+
+	@Override
+	public void videoNameChanged(String videoName) {
+		if (sink != null)
+			sink.videoNameChanged(videoName);
+	}
+
+	@Override
+	public void exceptionThrown(RTSPException exception) {
+		if (sink != null)
+			sink.exceptionThrown(exception);
+	}
+
+	private void forward(Frame frame) {
+		forwardedFrames++;
+		sink.frameReceived(frame);
+	}
+
+	private void releasePreRoll() {
+		Frame frame;
+		while ((frame = preRoll.poll()) != null)
+			frame.release();
+	}
+}
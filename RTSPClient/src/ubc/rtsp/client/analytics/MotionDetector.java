@@ -0,0 +1,158 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.analytics;
+
+import ubc.rtsp.client.model.Frame;
+
+/**
+ * Detects motion and scene changes by comparing the luma map of each frame
+ * with that of the previous frame. A block is considered changed when its
+ * luma differs by more than a threshold; motion starts when enough blocks
+ * changed, and ends after a number of frames where too few did.
+ * 
+ * This class is not thread-safe: a detector follows a single stream.
+ */
+public class MotionDetector {
+
+	public static final int DEFAULT_BLOCK_THRESHOLD = 12;
+	public static final double DEFAULT_MOTION_FRACTION = 0.02;
+	public static final double DEFAULT_SCENE_FRACTION = 0.6;
+	public static final int DEFAULT_QUIET_FRAMES = 24;
+
+	private JpegDcDecoder decoder = new JpegDcDecoder();
+	private int blockThreshold = DEFAULT_BLOCK_THRESHOLD;
+	private double motionFraction = DEFAULT_MOTION_FRACTION;
+	private double sceneFraction = DEFAULT_SCENE_FRACTION;
+	private int quietFrames = DEFAULT_QUIET_FRAMES;
+
+	private LumaMap previous;
+	private boolean inMotion = false;
+	private int framesWithoutMotion = 0;
+	private double lastChangedFraction = 0;
+
+	/**
+	 * Changes the sensitivity of the detector.
+	 * 
+	 * @param blockThreshold
+	 *            The minimum luma difference (0-255) for a block to be
+	 *            considered changed.
+	 * @param motionFraction
+	 *            The fraction of changed blocks that starts motion.
+	 * @param sceneFraction
+	 *            The fraction of changed blocks that is a scene change.
+	 * @param quietFrames
+	 *            The number of consecutive frames without motion after which
+	 *            motion ends.
+	 */
+	public void setThresholds(int blockThreshold, double motionFraction,
+			double sceneFraction, int quietFrames) {
+		this.blockThreshold = blockThreshold;
+		this.motionFraction = motionFraction;
+		this.sceneFraction = sceneFraction;
+		this.quietFrames = quietFrames;
+	}
+
+	/**
+	 * Analyzes the next frame of the stream.
+	 * 
+	 * @param frame
+	 *            The frame, with a JPEG payload.
+	 * @return The change detected in this frame, or <tt>null</tt> if none.
+	 */
+	public MotionEvent analyze(Frame frame) {
+		LumaMap current = decoder.decode(frame);
+		if (current == null)
+			return null;
+		LumaMap reference = previous;
+		previous = current;
+		if (!current.isComparableTo(reference)) {
+			lastChangedFraction = 0;
+			return null;
+		}
+
+		int blocks = current.getWidth() * current.getHeight();
+		int changed = 0;
+		long totalDifference = 0;
+		for (int i = 0; i < blocks; i++) {
+			int difference = Math.abs(current.getLuma(i) - reference.getLuma(i));
+			totalDifference += difference;
+			if (difference > blockThreshold)
+				changed++;
+		}
+		double fraction = (double) changed / blocks;
+		double mean = (double) totalDifference / blocks;
+		lastChangedFraction = fraction;
+
+		if (fraction >= sceneFraction) {
+			framesWithoutMotion = 0;
+			inMotion = true;
+			return new MotionEvent(MotionEvent.Type.SCENE_CHANGED, frame,
+					frame.getTimestamp(), fraction, mean);
+		}
+		if (fraction >= motionFraction) {
+			framesWithoutMotion = 0;
+			if (!inMotion) {
+				inMotion = true;
+				return new MotionEvent(MotionEvent.Type.MOTION_STARTED, frame,
+						frame.getTimestamp(), fraction, mean);
+			}
+			return null;
+		}
+		if (inMotion && ++framesWithoutMotion >= quietFrames) {
+			inMotion = false;
+			return new MotionEvent(MotionEvent.Type.MOTION_ENDED, null,
+					frame.getTimestamp(), fraction, mean);
+		}
+		return null;
+	}
+
+	/**
+	 * Indicates if the stream is currently in motion.
+	 * 
+	 * @return <tt>true</tt> between MOTION_STARTED (or SCENE_CHANGED) and
+	 *         MOTION_ENDED.
+	 */
+	public boolean isInMotion() {
+		return inMotion;
+	}
+
+	/**
+	 * Returns the fraction of blocks that changed in the last frame analyzed.
+	 * 
+	 * @return A value between 0 and 1.
+	 */
+	public double getLastChangedFraction() {
+		return lastChangedFraction;
+	}
+
+	/**
+	 * Returns the decoder used to extract the luma of each frame.
+	 * 
+	 * @return The decoder, with its statistics.
+	 */
+	public JpegDcDecoder getDecoder() {
+		return decoder;
+	}
+
+	/**
+	 * Forgets the previous frame, such as after a seek.
+	 */
+	public void reset() {
+		previous = null;
+		inMotion = false;
+		framesWithoutMotion = 0;
+		lastChangedFraction = 0;
+	}
+}
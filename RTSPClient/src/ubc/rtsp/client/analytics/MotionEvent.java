@@ -0,0 +1,99 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.analytics;
+
+import ubc.rtsp.client.model.Frame;
+
+/**
+ * A change detected in a stream: motion starting or ending, or a change of
+ * scene (such as a cut or a camera being moved). Events that start something
+ * carry the frame where the change was detected, as a keyframe.
+ */
+public class MotionEvent {
+
+	public enum Type {
+		/** Motion was detected after a quiet period. */
+		MOTION_STARTED,
+		/** No motion was detected for a while. */
+		MOTION_ENDED,
+		/** Most of the picture changed at once. */
+		SCENE_CHANGED
+	}
+
+	private Type type;
+	private Frame keyframe;
+	private int timestamp;
+	private double changedFraction;
+	private double meanDifference;
+
+	MotionEvent(Type type, Frame keyframe, int timestamp,
+			double changedFraction, double meanDifference) {
+		this.type = type;
+		this.keyframe = keyframe;
+		this.timestamp = timestamp;
+		this.changedFraction = changedFraction;
+		this.meanDifference = meanDifference;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the frame where the change was detected. The frame is only
+	 * guaranteed to be accessible while the event is being delivered; a
+	 * listener that keeps it must call <code>retain</code> on it.
+	 * 
+	 * @return The keyframe, or <tt>null</tt> for MOTION_ENDED.
+	 */
+	public Frame getKeyframe() {
+		return keyframe;
+	}
+
+	/**
+	 * Returns the timestamp of the frame where the change was detected.
+	 * 
+	 * @return The timestamp, in milliseconds from the start of the stream.
+	 */
+	public int getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the fraction of the picture whose brightness changed
+	 * significantly from the previous frame.
+	 * 
+	 * @return A value between 0 and 1.
+	 */
+	public double getChangedFraction() {
+		return changedFraction;
+	}
+
+	/**
+	 * Returns the mean absolute difference of brightness from the previous
+	 * frame.
+	 * 
+	 * @return A value between 0 and 255.
+	 */
+	public double getMeanDifference() {
+		return meanDifference;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s at %d ms (%.1f%% changed, mean %.1f)", type,
+				timestamp, changedFraction * 100, meanDifference);
+	}
+}
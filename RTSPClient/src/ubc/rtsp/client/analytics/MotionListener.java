@@ -0,0 +1,31 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.analytics;
+
+/**
+ * Receives the changes detected by a <code>MotionAnalyzer</code>.
+ */
+public interface MotionListener {
+
+	/**
+	 * Method called when a change is detected in the stream. It is called in
+	 * the thread analyzing the stream, before the frame is forwarded to the
+	 * sink, so it should return quickly.
+	 * 
+	 * @param event
+	 *            The change detected.
+	 */
+	public void motionDetected(MotionEvent event);
+}
@@ -0,0 +1,418 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.log.ErrorCounter;
+import ubc.rtsp.client.log.EventLog;
+import ubc.rtsp.client.log.Level;
+import ubc.rtsp.client.model.Frame;
+import ubc.rtsp.client.model.TaskExecutors;
+import ubc.rtsp.client.model.listener.SessionListener;
+
+/**
+ * Re-serves the frames of a single session to any number of local viewers, as
+ * an MJPEG stream over HTTP (<tt>multipart/x-mixed-replace</tt>), so viewers
+ * do not need their own RTSP session. The relay is added as a listener of the
+ * session it re-serves.
+ * 
+ * All viewers are served by a single thread using non-blocking sockets. Frame
+ * payloads are written straight from the frames received, without being
+ * copied, and the header of each part is built once per frame and shared by
+ * all viewers. Each viewer has a bounded queue of frames waiting to be sent;
+ * a viewer that falls behind has its queue discarded and skips to the latest
+ * frame, so a slow viewer never delays other viewers or uses more memory.
+ */
+public class MjpegRelayServer implements SessionListener {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 2;
+
+	private static final EventLog LOG = EventLog.getLog("http");
+	private static final String BOUNDARY = "frame";
+	private static final int MAX_REQUEST_LENGTH = 8192;
+	// Keeps the kernel from buffering seconds of video for a slow viewer,
+	// which would add latency before the viewer starts skipping frames.
+	private static final int SEND_BUFFER_SIZE = 0x10000;
+	private static final byte[] RESPONSE_HEADER = ("HTTP/1.0 200 OK\r\n"
+			+ "Content-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY
+			+ "\r\n" + "Cache-Control: no-cache\r\n"
+			+ "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PART_TRAILER = "\r\n"
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+	private static final byte[] BAD_REQUEST = ("HTTP/1.0 400 Bad Request\r\n"
+			+ "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * A frame ready to be sent, with its part header. Parts are shared by all
+	 * viewers; each viewer writes from its own views of the buffers.
+	 */
+	private static class Part {
+		private Frame frame;
+		private ByteBuffer header;
+
+		private Part(Frame frame) {
+			this.frame = frame;
+			this.header = ByteBuffer.wrap(("--" + BOUNDARY + "\r\n"
+					+ "Content-Type: image/jpeg\r\n" + "Content-Length: "
+					+ frame.getPayloadLength() + "\r\n\r\n")
+					.getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	private class Viewer {
+		private SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+		// set by the relay thread, read by the session when offering frames
+		private volatile boolean streaming = false;
+		private boolean closed = false;
+
+		// guarded by this viewer; filled by the session, drained by the relay
+		private ArrayDeque<Part> queue = new ArrayDeque<Part>();
+
+		// only used by the relay thread
+		private ByteBuffer[] writing = { EMPTY, EMPTY, EMPTY };
+		private Frame writingFrame;
+
+		private Viewer(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		private synchronized void offer(Part part) {
+			if (closed)
+				return;
+			if (queue.size() >= queueCapacity) {
+				// skip to the latest frame instead of buffering
+				Part skipped;
+				while ((skipped = queue.poll()) != null) {
+					skipped.frame.release();
+					skippedFrames.incrementAndGet();
+				}
+			}
+			part.frame.retain();
+			queue.add(part);
+		}
+
+		private synchronized Part poll() {
+			return queue.poll();
+		}
+
+		/**
+		 * Writes as much as the socket accepts without blocking.
+		 * 
+		 * @return <tt>true</tt> if everything queued was written.
+		 */
+		private boolean flush() throws IOException {
+			while (true) {
+				if (hasRemaining()) {
+					channel.write(writing);
+					if (hasRemaining())
+						return false;
+					if (writingFrame != null) {
+						writingFrame.release();
+						writingFrame = null;
+						sentFrames.incrementAndGet();
+					}
+				}
+				Part part = poll();
+				if (part == null)
+					return true;
+				writing[0] = part.header.duplicate();
+				writing[1] = part.frame.asReadOnlyBuffer();
+				writing[2] = ByteBuffer.wrap(PART_TRAILER);
+				writingFrame = part.frame;
+			}
+		}
+
+		private boolean hasRemaining() {
+			for (ByteBuffer buffer : writing) {
+				if (buffer.hasRemaining())
+					return true;
+			}
+			return false;
+		}
+
+		private void close() {
+			if (key != null)
+				key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing else to do
+			}
+			if (writingFrame != null) {
+				writingFrame.release();
+				writingFrame = null;
+			}
+			synchronized (this) {
+				closed = true;
+				Part part;
+				while ((part = queue.poll()) != null)
+					part.frame.release();
+			}
+			if (viewers.remove(this))
+				LOG.log(Level.DEBUG, "relay.viewer.closed", "viewers",
+						viewers.size());
+		}
+	}
+
+	private int queueCapacity;
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+	private CopyOnWriteArrayList<Viewer> viewers = new CopyOnWriteArrayList<Viewer>();
+	private AtomicLong sentFrames = new AtomicLong();
+	private AtomicLong skippedFrames = new AtomicLong();
+	private ErrorCounter errors = new ErrorCounter(LOG, "relay.error", 5000);
+	private volatile boolean running = false;
+
+	/**
+	 * Creates a relay listening on the loopback interface, with the default
+	 * queue capacity. The relay only accepts viewers once <code>start</code>
+	 * is called.
+	 * 
+	 * @param port
+	 *            The port to listen on, or 0 to choose any free port.
+	 * @throws IOException
+	 *             If the port could not be bound.
+	 */
+	public MjpegRelayServer(int port) throws IOException {
+		this(port, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Creates a relay listening on the loopback interface.
+	 * 
+	 * @param port
+	 *            The port to listen on, or 0 to choose any free port.
+	 * @param queueCapacity
+	 *            The maximum number of frames waiting to be sent to a viewer,
+	 *            after which the viewer skips to the latest frame.
+	 * @throws IOException
+	 *             If the port could not be bound.
+	 */
+	public MjpegRelayServer(int port, int queueCapacity) throws IOException {
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		this.queueCapacity = queueCapacity;
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), port), 1024);
+		serverChannel.configureBlocking(false);
+		selector = Selector.open();
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	public void start() {
+		running = true;
+		TaskExecutors.startThread("mjpeg-relay-" + getPort(), new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		});
+		LOG.log(Level.INFO, "relay.started", "port", getPort());
+	}
+
+	/**
+	 * Disconnects all viewers, including those whose request has not been
+	 * read yet, and stops listening.
+	 */
+	public void close() {
+		running = false;
+		selector.wakeup();
+	}
+
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	public int getViewers() {
+		return viewers.size();
+	}
+
+	/**
+	 * Returns the number of frames sent, adding up all viewers.
+	 * 
+	 * @return The number of frames completely written to viewers.
+	 */
+	public long getSentFrames() {
+		return sentFrames.get();
+	}
+
+	/**
+	 * Returns the number of frames that viewers skipped because they were
+	 * not keeping up with the stream, adding up all viewers.
+	 * 
+	 * @return The number of frames discarded from viewer queues.
+	 */
+	public long getSkippedFrames() {
+		return skippedFrames.get();
+	}
+
+	@Override
+	public void frameReceived(Frame frame) {
+		if (frame == null || viewers.isEmpty())
+			return;
+		Part part = new Part(frame);
+		for (Viewer viewer : viewers) {
+			if (viewer.streaming)
+				viewer.offer(part);
+		}
+		selector.wakeup();
+	}
+
+	@Override
+	public void videoNameChanged(String videoName) {
+	}
+
+	@Override
+	public void exceptionThrown(RTSPException exception) {
+	}
+
+	private void serve() {
+		try {
+			while (running) {
+				selector.select();
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					Viewer viewer = (Viewer) key.attachment();
+					if (key.isReadable())
+						read(viewer);
+					if (key.isValid() && key.isWritable())
+						write(viewer);
+				}
+				// send the frames queued since the last pass
+				for (Viewer viewer : viewers) {
+					if (viewer.streaming
+							&& (viewer.key.interestOps() & SelectionKey.OP_WRITE) == 0)
+						write(viewer);
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			LOG.log(Level.ERROR, "relay.failed", e);
+		} finally {
+			// viewers that have not sent their request yet are only known to
+			// the selector
+			if (selector.isOpen()) {
+				for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+					if (key.attachment() instanceof Viewer)
+						((Viewer) key.attachment()).close();
+				}
+			}
+			for (Viewer viewer : viewers)
+				viewer.close();
+			try {
+				selector.close();
+				serverChannel.close();
+			} catch (IOException e) {
+				// nothing else to do
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.socket().setSendBufferSize(SEND_BUFFER_SIZE);
+			Viewer viewer = new Viewer(channel);
+			viewer.key = channel.register(selector, SelectionKey.OP_READ,
+					viewer);
+		}
+	}
+
+	/**
+	 * Reads the request of a viewer. Any GET request is answered with the
+	 * stream; the viewer is then only written to, until it disconnects.
+	 */
+	private void read(Viewer viewer) {
+		try {
+			if (viewer.channel.read(viewer.request) < 0) {
+				viewer.close();
+				return;
+			}
+			if (viewer.streaming) {
+				// anything sent after the request is ignored
+				viewer.request.clear();
+				return;
+			}
+			String request = new String(viewer.request.array(), 0,
+					viewer.request.position(), StandardCharsets.US_ASCII);
+			if (!request.contains("\r\n\r\n")) {
+				if (!viewer.request.hasRemaining())
+					reject(viewer);
+				return;
+			}
+			if (!request.startsWith("GET ")) {
+				reject(viewer);
+				return;
+			}
+			viewer.request.clear();
+			viewer.writing[0] = ByteBuffer.wrap(RESPONSE_HEADER);
+			viewer.streaming = true;
+			viewers.add(viewer);
+			LOG.log(Level.DEBUG, "relay.viewer.added", "viewers",
+					viewers.size());
+			write(viewer);
+		} catch (IOException e) {
+			viewer.close();
+		}
+	}
+
+	private void reject(Viewer viewer) throws IOException {
+		viewer.key.interestOps(0);
+		viewer.channel.write(ByteBuffer.wrap(BAD_REQUEST));
+		viewer.close();
+	}
+
+	private void write(Viewer viewer) {
+		try {
+			int ops = viewer.flush() ? SelectionKey.OP_READ
+					: SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+			if (viewer.key.interestOps() != ops)
+				viewer.key.interestOps(ops);
+		} catch (IOException e) {
+			// the viewer went away
+			errors.record(e);
+			viewer.close();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ubc.rtsp.client.log.ErrorCounter;
+import ubc.rtsp.client.log.EventLog;
+import ubc.rtsp.client.log.Level;
+import ubc.rtsp.client.model.Session;
+import ubc.rtsp.client.model.Snapshot;
+import ubc.rtsp.client.model.TaskExecutors;
+
+/**
+ * A small HTTP server, bound to the loopback interface, that serves the
+ * current image of each registered stream. Requests are answered from the
+ * snapshot cached by the session, so polling clients never cause frames to be
+ * decoded, and re-encoding only happens the first time a thumbnail size is
+ * requested for a frame. Clients that send back the ETag of their last image
+ * receive a 304 response until the stream plays a new frame. The ETag is made
+ * of the snapshot version, the sequence number of its frame and the size
+ * served, so requested widths that round to the same thumbnail share it.
+ * 
+ * The following paths are served:
+ * <ul>
+ * <li><tt>/streams</tt>: the names of the registered streams, one per line;</li>
+ * <li><tt>/snapshot/&lt;name&gt;</tt>: the latest frame of a stream;</li>
+ * <li><tt>/thumbnail/&lt;name&gt;?width=&lt;pixels&gt;</tt>: a scaled-down
+ * version of the latest frame.</li>
+ * </ul>
+ */
+public class SnapshotServer {
+
+	private static final EventLog LOG = EventLog.getLog("http");
+	private static final int BACKLOG = 1024;
+	private static final int DEFAULT_THUMBNAIL_WIDTH = 160;
+	private static final int MAX_ATTEMPTS = 3;
+	private static final int MAX_IDLE_CONNECTIONS = 10000;
+
+	static {
+		// The built-in server delays small responses (Nagle) and closes
+		// keep-alive connections beyond 200 idle ones, which defeats polling
+		// clients. These settings are read when the first server is created.
+		setDefault("sun.net.httpserver.nodelay", "true");
+		setDefault("sun.net.httpserver.maxIdleConnections",
+				Integer.toString(MAX_IDLE_CONNECTIONS));
+	}
+
+	private HttpServer server;
+	private ConcurrentHashMap<String, Session> streams = new ConcurrentHashMap<String, Session>();
+	private ErrorCounter errors = new ErrorCounter(LOG, "http.error", 5000);
+
+	/**
+	 * Creates a snapshot server listening on the loopback interface. The
+	 * server only answers requests once <code>start</code> is called.
+	 * 
+	 * @param port
+	 *            The port to listen on, or 0 to choose any free port.
+	 * @throws IOException
+	 *             If the port could not be bound.
+	 */
+	public SnapshotServer(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), port), BACKLOG);
+		server.setExecutor(TaskExecutors.getTaskExecutor());
+		server.createContext("/streams", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange, false);
+			}
+		});
+		server.createContext("/snapshot/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange, false);
+			}
+		});
+		server.createContext("/thumbnail/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange, true);
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+		LOG.log(Level.INFO, "http.started", "port", getPort());
+	}
+
+	/**
+	 * Stops answering requests. Exchanges in progress are given up to one
+	 * second to complete.
+	 */
+	public void stop() {
+		server.stop(1);
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Makes the snapshots of a session available under the given name.
+	 * 
+	 * @param name
+	 *            The name of the stream in request paths.
+	 * @param session
+	 *            The session whose latest frame is served.
+	 */
+	public void addStream(String name, Session session) {
+		streams.put(name, session);
+	}
+
+	public void removeStream(String name) {
+		streams.remove(name);
+	}
+
+	private void serve(HttpExchange exchange, boolean thumbnail)
+			throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			if (!method.equals("GET") && !method.equals("HEAD")) {
+				sendEmpty(exchange, 405);
+				return;
+			}
+			String path = exchange.getRequestURI().getRawPath();
+			if (path.equals("/streams")) {
+				sendStreams(exchange);
+				return;
+			}
+			String name = decode(path.substring(path.indexOf('/', 1) + 1));
+			Session session = streams.get(name);
+			if (session == null) {
+				sendEmpty(exchange, 404);
+				return;
+			}
+			sendSnapshot(exchange, session, thumbnail ? getWidth(exchange)
+					: 0);
+		} catch (IOException e) {
+			// most likely the client went away
+			errors.record(e);
+		} catch (RuntimeException e) {
+			errors.record(e);
+			sendEmpty(exchange, 500);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void sendSnapshot(HttpExchange exchange, Session session,
+			int thumbnailWidth) throws IOException {
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			Snapshot snapshot = session.getSnapshot();
+			if (snapshot == null)
+				break;
+			// the frame sequence number tells apart snapshots of sessions
+			// that replaced each other under the same name
+			String tag = "\"" + snapshot.getVersion() + "-"
+					+ snapshot.getSequenceNumber() + "-"
+					+ (thumbnailWidth > 0 ? Snapshot
+							.getThumbnailWidth(thumbnailWidth) : 0) + "\"";
+			if (tag.equals(exchange.getRequestHeaders()
+					.getFirst("If-None-Match"))) {
+				exchange.getResponseHeaders().set("ETag", tag);
+				sendEmpty(exchange, 304);
+				return;
+			}
+			byte[] image = thumbnailWidth > 0 ? snapshot
+					.getThumbnail(thumbnailWidth) : snapshot.getJpeg();
+			if (image == null)
+				continue; // replaced before it was requested; try the new one
+			exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+			exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+			exchange.getResponseHeaders().set("ETag", tag);
+			send(exchange, 200, image);
+			return;
+		}
+		sendEmpty(exchange, 503);
+	}
+
+	private void sendStreams(HttpExchange exchange) throws IOException {
+		StringBuilder list = new StringBuilder();
+		for (String name : streams.keySet())
+			list.append(name).append('\n');
+		exchange.getResponseHeaders().set("Content-Type",
+				"text/plain; charset=utf-8");
+		send(exchange, 200, list.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body)
+			throws IOException {
+		boolean head = exchange.getRequestMethod().equals("HEAD");
+		exchange.sendResponseHeaders(status, head ? -1 : body.length);
+		if (!head) {
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+	}
+
+	private static void sendEmpty(HttpExchange exchange, int status)
+			throws IOException {
+		exchange.sendResponseHeaders(status, -1);
+	}
+
+	private static int getWidth(HttpExchange exchange) {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				if (parameter.startsWith("width=")) {
+					try {
+						return Math.max(1,
+								Integer.parseInt(parameter.substring(6)));
+					} catch (NumberFormatException e) {
+						break;
+					}
+				}
+			}
+		}
+		return DEFAULT_THUMBNAIL_WIDTH;
+	}
+
+	private static void setDefault(String property, String value) {
+		if (System.getProperty(property) == null)
+			System.setProperty(property, value);
+	}
+
+	private static String decode(String name) {
+		try {
+			return URLDecoder.decode(name, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return name;
+		}
+	}
+}
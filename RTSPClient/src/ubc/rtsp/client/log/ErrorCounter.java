@@ -0,0 +1,81 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts recurring errors, such as failed reads on a socket, and logs them at
+ * most once per interval. Each report includes the total count, the number of
+ * errors since the previous report, and the latest error; the stack trace is
+ * only included when DEBUG is enabled. Recording an error that is not
+ * reported costs two atomic operations.
+ */
+public class ErrorCounter {
+
+	private EventLog log;
+	private String event;
+	private long intervalNs;
+	private AtomicLong count = new AtomicLong();
+	private AtomicLong reported = new AtomicLong();
+	private AtomicLong nextReport = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Creates a new counter.
+	 * 
+	 * @param log
+	 *            The log where the errors are reported.
+	 * @param event
+	 *            The name of the event reported.
+	 * @param intervalMs
+	 *            The minimum time between two reports, in milliseconds.
+	 */
+	public ErrorCounter(EventLog log, String event, long intervalMs) {
+		this.log = log;
+		this.event = event;
+		this.intervalNs = intervalMs * 1000000;
+	}
+
+	/**
+	 * Records an error, reporting it if the interval since the last report
+	 * has elapsed.
+	 * 
+	 * @param error
+	 *            The error that happened.
+	 */
+	public void record(Throwable error) {
+		long total = count.incrementAndGet();
+		long now = System.nanoTime();
+		long next = nextReport.get();
+		if (next != Long.MIN_VALUE && now - next < 0)
+			return;
+		if (!nextReport.compareAndSet(next, now + intervalNs))
+			return;
+		long suppressed = total - reported.getAndSet(total) - 1;
+		log.log(Level.WARN, event, "count", total, "suppressed", suppressed,
+				"error", error);
+		if (log.isEnabled(Level.DEBUG))
+			log.log(Level.DEBUG, event, error);
+	}
+
+	/**
+	 * Returns the number of errors recorded.
+	 * 
+	 * @return The number of errors.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+}
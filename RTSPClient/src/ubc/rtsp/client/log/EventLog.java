@@ -0,0 +1,347 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.log;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A low-overhead log of structured events. Each event has a level, the
+ * component and thread that logged it, a short name, and up to four key/value
+ * fields, such as the session, CSeq or sequence number involved.
+ * 
+ * Logging an event never blocks and never writes to the console from the
+ * calling thread: the event is copied into a preallocated slot of a lock-free
+ * ring buffer shared by all components, and a background thread formats and
+ * flushes the events in batches. The background thread sleeps while there is
+ * nothing to write, and is woken up by the next event. If the ring buffer is
+ * full, the event is
+ * dropped and counted instead. Events below the current level are discarded
+ * with a single comparison; callers on hot paths that would need to compute
+ * or box field values should check <code>isEnabled</code> first.
+ * 
+ * The initial level is taken from the system property
+ * <code>rtsp.log.level</code> (INFO by default).
+ */
+public final class EventLog {
+
+	private static final int CAPACITY = 4096;
+	private static final int MASK = CAPACITY - 1;
+	private static final int MAX_FIELDS = 4;
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter
+			.ofPattern("HH:mm:ss.SSS");
+
+	/**
+	 * A slot of the ring buffer. Slots are reused, so logging an event does
+	 * not allocate.
+	 */
+	private static class Entry {
+		private long time;
+		private Level level;
+		private String component;
+		private String thread;
+		private String event;
+		private int fieldCount;
+		private String[] keys = new String[MAX_FIELDS];
+		private Object[] values = new Object[MAX_FIELDS];
+		private Throwable error;
+	}
+
+	private static volatile Level threshold = parseLevel(System
+			.getProperty("rtsp.log.level"));
+	private static final Entry[] ring = new Entry[CAPACITY];
+	// sequence number of the event published in each slot
+	private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+	// next sequence number to be claimed by a producer
+	private static final AtomicLong tail = new AtomicLong();
+	// next sequence number to be consumed; slots before it are free
+	private static volatile long head = 0;
+	private static final AtomicLong dropped = new AtomicLong();
+	// set while the flusher is parked, or about to park, with nothing to
+	// write
+	private static volatile boolean idle = false;
+	private static PrintStream out = System.out;
+	private static Thread flusher;
+
+	static {
+		for (int i = 0; i < CAPACITY; i++) {
+			ring[i] = new Entry();
+			published.set(i, -1);
+		}
+		flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					if (drain() > 0)
+						continue;
+					idle = true;
+					// an event published before idle was set is drained
+					// here, and one published after it unparks the flusher
+					if (drain() == 0)
+						LockSupport.park();
+					idle = false;
+				}
+			}
+		}, "event-log");
+		flusher.setDaemon(true);
+		flusher.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, "event-log-shutdown"));
+	}
+
+	private String component;
+
+	private EventLog(String component) {
+		this.component = component;
+	}
+
+	/**
+	 * Returns a log for the given component.
+	 * 
+	 * @param component
+	 *            A short name identifying the part of the client logging the
+	 *            events, such as "rtsp" or "rtp".
+	 * @return The log of the component.
+	 */
+	public static EventLog getLog(String component) {
+		return new EventLog(component);
+	}
+
+	/**
+	 * Changes the minimum level of the events logged by all components.
+	 * 
+	 * @param level
+	 *            The new threshold, or OFF to disable logging.
+	 */
+	public static void setLevel(Level level) {
+		threshold = level;
+	}
+
+	public static Level getLevel() {
+		return threshold;
+	}
+
+	/**
+	 * Returns the number of events discarded because the background thread
+	 * could not keep up with them.
+	 * 
+	 * @return The number of events dropped.
+	 */
+	public static long getDroppedEvents() {
+		return dropped.get();
+	}
+
+	/**
+	 * Waits until all events logged so far have been written, or up to one
+	 * second if some event is never completed.
+	 */
+	public static void flush() {
+		long target = tail.get();
+		long deadline = System.nanoTime() + 1000000000L;
+		while (head < target && System.nanoTime() - deadline < 0) {
+			if (drain() == 0)
+				Thread.yield();
+		}
+	}
+
+	/**
+	 * Indicates if events of the given level are currently logged.
+	 * 
+	 * @param level
+	 *            The level of the event.
+	 * @return <tt>true</tt> if events of this level are logged.
+	 */
+	public boolean isEnabled(Level level) {
+		return level.compareTo(threshold) >= 0;
+	}
+
+	public void log(Level level, String event) {
+		if (isEnabled(level))
+			append(level, event, 0, null, null, null, null, null, null, null,
+					null, null);
+	}
+
+	public void log(Level level, String event, String key1, Object value1) {
+		if (isEnabled(level))
+			append(level, event, 1, key1, value1, null, null, null, null, null,
+					null, null);
+	}
+
+	public void log(Level level, String event, String key1, Object value1,
+			String key2, Object value2) {
+		if (isEnabled(level))
+			append(level, event, 2, key1, value1, key2, value2, null, null,
+					null, null, null);
+	}
+
+	public void log(Level level, String event, String key1, Object value1,
+			String key2, Object value2, String key3, Object value3) {
+		if (isEnabled(level))
+			append(level, event, 3, key1, value1, key2, value2, key3, value3,
+					null, null, null);
+	}
+
+	public void log(Level level, String event, String key1, Object value1,
+			String key2, Object value2, String key3, Object value3,
+			String key4, Object value4) {
+		if (isEnabled(level))
+			append(level, event, 4, key1, value1, key2, value2, key3, value3,
+					key4, value4, null);
+	}
+
+	/**
+	 * Logs an event caused by an exception. The stack trace of the exception
+	 * is written along with the event.
+	 * 
+	 * @param level
+	 *            The level of the event.
+	 * @param event
+	 *            The name of the event.
+	 * @param error
+	 *            The exception.
+	 */
+	public void log(Level level, String event, Throwable error) {
+		if (isEnabled(level))
+			append(level, event, 0, null, null, null, null, null, null, null,
+					null, error);
+	}
+
+	private void append(Level level, String event, int fieldCount,
+			String key1, Object value1, String key2, Object value2,
+			String key3, Object value3, String key4, Object value4,
+			Throwable error) {
+		long sequence;
+		do {
+			sequence = tail.get();
+			if (sequence - head >= CAPACITY) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!tail.compareAndSet(sequence, sequence + 1));
+
+		Entry entry = ring[(int) (sequence & MASK)];
+		entry.time = System.currentTimeMillis();
+		entry.level = level;
+		entry.component = component;
+		entry.thread = Thread.currentThread().getName();
+		entry.event = event;
+		entry.fieldCount = fieldCount;
+		entry.keys[0] = key1;
+		entry.values[0] = value1;
+		entry.keys[1] = key2;
+		entry.values[1] = value2;
+		entry.keys[2] = key3;
+		entry.values[2] = value3;
+		entry.keys[3] = key4;
+		entry.values[3] = value4;
+		entry.error = error;
+		// a volatile write, so either the flusher sees the event or this
+		// thread sees that the flusher is idle
+		published.set((int) (sequence & MASK), sequence);
+		if (idle)
+			LockSupport.unpark(flusher);
+	}
+
+	/**
+	 * Writes all events published in order since the last call. Only one
+	 * thread drains at a time.
+	 * 
+	 * @return The number of events written.
+	 */
+	private static synchronized int drain() {
+		StringBuilder batch = null;
+		int count = 0;
+		long sequence = head;
+		while (published.get((int) (sequence & MASK)) == sequence) {
+			Entry entry = ring[(int) (sequence & MASK)];
+			if (batch == null)
+				batch = new StringBuilder();
+			format(entry, batch);
+			Throwable error = entry.error;
+			for (int i = 0; i < MAX_FIELDS; i++)
+				entry.values[i] = null;
+			entry.error = null;
+			// the slot may be reused by producers from now on
+			head = ++sequence;
+			count++;
+			if (error != null) {
+				out.print(batch);
+				batch.setLength(0);
+				error.printStackTrace(out);
+			}
+		}
+		if (batch != null && batch.length() > 0) {
+			out.print(batch);
+			out.flush();
+		}
+		return count;
+	}
+
+	private static void format(Entry entry, StringBuilder line) {
+		LocalTime time = LocalTime.ofInstant(Instant.ofEpochMilli(entry.time),
+				ZoneId.systemDefault());
+		TIME_FORMAT.formatTo(time, line);
+		line.append(' ').append(entry.level);
+		for (int i = entry.level.name().length(); i < 5; i++)
+			line.append(' ');
+		line.append(" [").append(entry.thread).append("] ")
+				.append(entry.component).append(' ').append(entry.event);
+		for (int i = 0; i < entry.fieldCount; i++) {
+			line.append(' ').append(entry.keys[i]).append('=');
+			appendValue(entry.values[i], line);
+		}
+		if (entry.error != null)
+			line.append(" error=").append(entry.error);
+		line.append(System.lineSeparator());
+	}
+
+	private static void appendValue(Object value, StringBuilder line) {
+		String text = String.valueOf(value);
+		if (text.isEmpty() || text.indexOf(' ') >= 0 || text.indexOf('"') >= 0) {
+			line.append('"');
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '"' || c == '\\')
+					line.append('\\');
+				line.append(c);
+			}
+			line.append('"');
+		} else {
+			line.append(text);
+		}
+	}
+
+	private static Level parseLevel(String name) {
+		if (name != null) {
+			try {
+				return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				// fall back to the default below
+			}
+		}
+		return Level.INFO;
+	}
+}
@@ -0,0 +1,23 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.log;
+
+/**
+ * Severity of a logged event, from the most verbose to the most severe. OFF
+ * is only used as a threshold, to disable logging altogether.
+ */
+public enum Level {
+	TRACE, DEBUG, INFO, WARN, ERROR, OFF
+}
@@ -0,0 +1,301 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Keeps decoded frames, so showing a frame again (such as when stepping back
+ * and forth around the playhead) does not decode it again. Frames are
+ * identified by the name of their video and their timestamp, which is the
+ * same for a frame wherever it comes from: a live session, after a seek, or
+ * a recording. Images are evicted in least-recently-used order once their
+ * pixels take more than the configured budget.
+ * 
+ * The pixels of cached images may be kept off-heap, in direct buffers, so a
+ * large cache does not add to the work of the garbage collector. An image
+ * is then copied back into the heap each time it is taken from the cache.
+ */
+public class DecodedFrameCache {
+
+	public static final long DEFAULT_MAX_BYTES = 64 << 20;
+
+	private static class Key {
+		private String video;
+		private int timestamp;
+
+		private Key(String video, int timestamp) {
+			this.video = video;
+			this.timestamp = timestamp;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+			Key key = (Key) other;
+			return timestamp == key.timestamp
+					&& Objects.equals(video, key.video);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(video) * 31 + timestamp;
+		}
+	}
+
+	/**
+	 * A cached image, kept either as is or as a copy of its pixels in a
+	 * direct buffer.
+	 */
+	private static class Entry {
+		private BufferedImage image;
+		private ByteBuffer pixels;
+		private int width;
+		private int height;
+		private int type;
+		private long bytes;
+	}
+
+	private long maxBytes;
+	private boolean offHeap;
+	// iterated in access order, so the first entry is the least recently used
+	private LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+			64, 0.75f, true);
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Creates a cache that keeps images on the heap, with the default budget.
+	 */
+	public DecodedFrameCache() {
+		this(DEFAULT_MAX_BYTES, false);
+	}
+
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param maxBytes
+	 *            The maximum number of bytes used by the pixels of all cached
+	 *            images.
+	 * @param offHeap
+	 *            <tt>true</tt> to keep the pixels in direct buffers, outside
+	 *            the Java heap.
+	 */
+	public DecodedFrameCache(long maxBytes, boolean offHeap) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Budget must be positive.");
+		this.maxBytes = maxBytes;
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * Returns a cached image.
+	 * 
+	 * @param video
+	 *            The name of the video the frame belongs to.
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @return The decoded frame, or <tt>null</tt> if it is not cached. When
+	 *         the cache is off-heap, each call returns a new copy.
+	 */
+	public BufferedImage get(String video, int timestamp) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(new Key(video, timestamp));
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			if (entry.image != null)
+				return entry.image;
+		}
+		return restore(entry);
+	}
+
+	/**
+	 * Returns the decoded image of a frame, decoding it and adding it to the
+	 * cache if it is not cached yet.
+	 * 
+	 * @param video
+	 *            The name of the video the frame belongs to.
+	 * @param frame
+	 *            The frame, with a payload in a format supported by ImageIO.
+	 * @return The decoded frame.
+	 * @throws IOException
+	 *             If the frame could not be decoded.
+	 */
+	public BufferedImage decode(String video, Frame frame) throws IOException {
+		BufferedImage image = get(video, frame.getTimestamp());
+		if (image == null) {
+			image = ImageIO.read(frame.getInputStream());
+			if (image == null)
+				throw new IOException("Frame is not a supported image.");
+			put(video, frame.getTimestamp(), image);
+		}
+		return image;
+	}
+
+	/**
+	 * Adds an image to the cache, evicting the least recently used images if
+	 * needed. Images larger than the whole budget are not cached.
+	 * 
+	 * @param video
+	 *            The name of the video the frame belongs to.
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param image
+	 *            The decoded frame. It must not be modified afterwards.
+	 */
+	public void put(String video, int timestamp, BufferedImage image) {
+		Entry entry = offHeap ? store(image) : null;
+		if (entry == null) {
+			entry = new Entry();
+			entry.image = image;
+			DataBuffer buffer = image.getRaster().getDataBuffer();
+			entry.bytes = (long) buffer.getSize() * buffer.getNumBanks()
+					* DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+		}
+		if (entry.bytes > maxBytes)
+			return;
+		synchronized (this) {
+			Entry previous = entries.put(new Key(video, timestamp), entry);
+			if (previous != null)
+				bytes -= previous.bytes;
+			bytes += entry.bytes;
+			Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+			while (bytes > maxBytes && it.hasNext()) {
+				bytes -= it.next().getValue().bytes;
+				it.remove();
+				evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Removes all images of a video, such as when it is closed.
+	 * 
+	 * @param video
+	 *            The name of the video.
+	 */
+	public synchronized void invalidate(String video) {
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, Entry> entry = it.next();
+			if (Objects.equals(entry.getKey().video, video)) {
+				bytes -= entry.getValue().bytes;
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of bytes used by the pixels of the cached images.
+	 * 
+	 * @return The number of bytes, on or off the heap.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Copies the pixels of an image to a direct buffer. Only images with a
+	 * single bank of bytes or ints, as produced by the JPEG decoder, can be
+	 * stored this way.
+	 * 
+	 * @return The entry, or <tt>null</tt> if the image is of another kind.
+	 */
+	private static Entry store(BufferedImage image) {
+		if (image.getType() == BufferedImage.TYPE_CUSTOM)
+			return null;
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		if (buffer.getNumBanks() != 1)
+			return null;
+		Entry entry = new Entry();
+		entry.width = image.getWidth();
+		entry.height = image.getHeight();
+		entry.type = image.getType();
+		if (buffer instanceof DataBufferByte) {
+			byte[] data = ((DataBufferByte) buffer).getData();
+			entry.pixels = ByteBuffer.allocateDirect(data.length);
+			entry.pixels.put(data).flip();
+		} else if (buffer instanceof DataBufferInt) {
+			int[] data = ((DataBufferInt) buffer).getData();
+			entry.pixels = ByteBuffer.allocateDirect(data.length * 4).order(
+					ByteOrder.nativeOrder());
+			entry.pixels.asIntBuffer().put(data);
+		} else {
+			return null;
+		}
+		entry.bytes = entry.pixels.capacity();
+		return entry;
+	}
+
+	private static BufferedImage restore(Entry entry) {
+		BufferedImage image = new BufferedImage(entry.width, entry.height,
+				entry.type);
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		if (buffer instanceof DataBufferByte)
+			entry.pixels.duplicate().get(((DataBufferByte) buffer).getData());
+		else
+			entry.pixels.duplicate().order(ByteOrder.nativeOrder())
+					.asIntBuffer().get(((DataBufferInt) buffer).getData());
+		return image;
+	}
+}
@@ -16,9 +16,27 @@ package ubc.rtsp.client.model;
 
 import java.awt.Image;
 import java.awt.Toolkit;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ubc.rtsp.client.profiling.FrameTrace;
 
 /**
- * This class represents an individual frame in a video stream.
+ * This class represents an individual frame in a video stream. The payload of
+ * a frame is immutable, so a frame can be shared by any number of consumers.
+ * Consumers that only need to read or forward the payload should use
+ * <code>asReadOnlyBuffer</code> or <code>writeTo</code>, which do not copy it.
+ * 
+ * A frame is created with a reference count of one. Consumers that hold on to
+ * a frame after handing it over may use <code>retain</code> and
+ * <code>release</code>; once the count drops to zero the payload storage is
+ * given back to its owner and must no longer be accessed.
  */
 public class Frame {
 
@@ -26,7 +44,10 @@ public class Frame {
 	private boolean marker;
 	private short sequenceNumber;
 	private int timestamp;
-	private byte[] payload;
+	private ByteBuffer payload;
+	private Runnable releaseAction;
+	private AtomicInteger referenceCount = new AtomicInteger(1);
+	private FrameTrace trace;
 
 	/**
 	 * Creates a new frame.
@@ -60,8 +81,52 @@ public class Frame {
 		this.sequenceNumber = sequenceNumber;
 		this.timestamp = timestamp;
 
-		this.payload = new byte[length];
-		System.arraycopy(payload, offset, this.payload, 0, length);
+		byte[] copy = new byte[length];
+		System.arraycopy(payload, offset, copy, 0, length);
+		this.payload = ByteBuffer.wrap(copy);
+	}
+
+	private Frame(byte payloadType, boolean marker, short sequenceNumber,
+			int timestamp, ByteBuffer payload, Runnable releaseAction) {
+
+		this.payloadType = payloadType;
+		this.marker = marker;
+		this.sequenceNumber = sequenceNumber;
+		this.timestamp = timestamp;
+		this.payload = payload.slice();
+		this.releaseAction = releaseAction;
+	}
+
+	/**
+	 * Creates a new frame that takes ownership of the given payload, without
+	 * copying it. The caller must not modify the contents of the buffer after
+	 * this call.
+	 * 
+	 * @param payloadType
+	 *            The numeric type of payload found in the frame.
+	 * @param marker
+	 *            An indication if the frame is an important frame when compared
+	 *            to other frames in the stream.
+	 * @param sequenceNumber
+	 *            A sequential number corresponding to the ordering of the
+	 *            frame.
+	 * @param timestamp
+	 *            The number of milliseconds after the logical start of the
+	 *            stream when this frame is expected to be played.
+	 * @param payload
+	 *            A buffer whose remaining bytes are the payload of the frame.
+	 *            It may be a heap or a direct buffer.
+	 * @param releaseAction
+	 *            An action to be run once the last reference to the frame is
+	 *            released, such as returning the buffer to a pool, or
+	 *            <tt>null</tt> if nothing needs to be done.
+	 * @return A frame backed by <tt>payload</tt>.
+	 */
+	public static Frame wrap(byte payloadType, boolean marker,
+			short sequenceNumber, int timestamp, ByteBuffer payload,
+			Runnable releaseAction) {
+		return new Frame(payloadType, marker, sequenceNumber, timestamp,
+				payload, releaseAction);
 	}
 
 	/**
@@ -131,12 +196,15 @@ public class Frame {
 	}
 
 	/**
-	 * Returns the raw data included in the frame.
+	 * Returns the raw data included in the frame. The returned array is a copy
+	 * of the payload, and may be freely modified by the caller.
 	 * 
 	 * @return A byte array corresponding to the raw data of the frame.
 	 */
 	public byte[] getPayload() {
-		return payload.clone();
+		byte[] copy = new byte[getPayloadLength()];
+		asReadOnlyBuffer().get(copy);
+		return copy;
 	}
 
 	/**
@@ -146,7 +214,67 @@ public class Frame {
 	 * @return The length of the payload.
 	 */
 	public int getPayloadLength() {
-		return payload.length;
+		return payload.remaining();
+	}
+
+	/**
+	 * Returns a read-only view of the payload of the frame. The payload is not
+	 * copied, and each call returns an independent view, positioned at the
+	 * start of the payload.
+	 * 
+	 * @return A read-only buffer with the raw data of the frame.
+	 */
+	public ByteBuffer asReadOnlyBuffer() {
+		ensureAccessible();
+		return payload.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns a stream that reads the payload of the frame without copying
+	 * it.
+	 * 
+	 * @return An input stream over the raw data of the frame.
+	 */
+	public InputStream getInputStream() {
+		ensureAccessible();
+		if (payload.hasArray())
+			return new ByteArrayInputStream(payload.array(),
+					payload.arrayOffset(), payload.remaining());
+		return new ByteArrayInputStream(getPayload());
+	}
+
+	/**
+	 * Writes the payload of the frame to a stream.
+	 * 
+	 * @param out
+	 *            The stream where the payload is to be written.
+	 * @throws IOException
+	 *             If the stream could not be written.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		ensureAccessible();
+		if (payload.hasArray())
+			out.write(payload.array(), payload.arrayOffset(),
+					payload.remaining());
+		else
+			writeTo(Channels.newChannel(out));
+	}
+
+	/**
+	 * Writes the payload of the frame to a channel. This method only returns
+	 * once all the payload has been written, so it should not be used with
+	 * channels in non-blocking mode; those should write from
+	 * <code>asReadOnlyBuffer</code> instead.
+	 * 
+	 * @param channel
+	 *            The channel where the payload is to be written.
+	 * @throws IOException
+	 *             If the channel could not be written.
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer buffer = asReadOnlyBuffer();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
 	}
 
 	/**
@@ -155,6 +283,77 @@ public class Frame {
 	 * @return An <code>Image</code> object corresponding to the frame contents.
 	 */
 	public Image getImage() {
+		ensureAccessible();
+		if (payload.hasArray())
+			return Toolkit.getDefaultToolkit().createImage(payload.array(),
+					payload.arrayOffset(), payload.remaining());
 		return Toolkit.getDefaultToolkit().createImage(getPayload());
 	}
+
+	/**
+	 * Adds a reference to this frame, so that its payload remains valid until
+	 * a matching call to <code>release</code>.
+	 * 
+	 * @return This frame.
+	 * @throws IllegalStateException
+	 *             If the frame has already been fully released.
+	 */
+	public Frame retain() {
+		int count;
+		do {
+			count = referenceCount.get();
+			if (count <= 0)
+				throw new IllegalStateException("Frame already released.");
+		} while (!referenceCount.compareAndSet(count, count + 1));
+		return this;
+	}
+
+	/**
+	 * Removes a reference to this frame. Once the last reference is removed
+	 * the payload is handed back to its owner.
+	 * 
+	 * @return <tt>true</tt> if this call released the last reference.
+	 */
+	public boolean release() {
+		int count = referenceCount.decrementAndGet();
+		if (count < 0)
+			throw new IllegalStateException("Frame already released.");
+		if (count == 0 && releaseAction != null)
+			releaseAction.run();
+		return count == 0;
+	}
+
+	/**
+	 * Returns the number of references currently held to this frame.
+	 * 
+	 * @return The reference count of the frame.
+	 */
+	public int getReferenceCount() {
+		return referenceCount.get();
+	}
+
+	/**
+	 * Returns the profiling trace of this frame.
+	 * 
+	 * @return The trace, or <tt>null</tt> if the frame is not being profiled.
+	 */
+	public FrameTrace getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Attaches a profiling trace to this frame. The trace is handed over with
+	 * the frame, so every stage can record its latency.
+	 * 
+	 * @param trace
+	 *            The trace of the frame.
+	 */
+	public void setTrace(FrameTrace trace) {
+		this.trace = trace;
+	}
+
+	private void ensureAccessible() {
+		if (releaseAction != null && referenceCount.get() <= 0)
+			throw new IllegalStateException("Frame already released.");
+	}
 }
@@ -0,0 +1,254 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ubc.rtsp.client.model.listener.BackpressurePolicy;
+
+/**
+ * Publishes the frames of a session to any number of reactive subscribers.
+ * Each subscriber receives frames only as it requests them, in its own
+ * executor. Frames arriving while a subscriber has no outstanding demand are
+ * queued for that subscriber, and once its queue is full they are discarded
+ * according to the subscriber's backpressure policy. Publishing a frame never
+ * blocks the caller. Queued frames are retained until they are delivered or
+ * discarded, so subscribers only need to retain a frame they keep after
+ * <code>onNext</code> returns.
+ */
+public class FramePublisher implements Flow.Publisher<Frame> {
+
+	private CopyOnWriteArrayList<FrameSubscription> subscriptions = new CopyOnWriteArrayList<FrameSubscription>();
+	private volatile boolean closed = false;
+
+	/**
+	 * Subscribes to the frames of the session. The subscriber is served in
+	 * the common fork/join pool, and up to
+	 * <code>Flow.defaultBufferSize()</code> frames are buffered for it, after
+	 * which the oldest frames are dropped.
+	 * 
+	 * @param subscriber
+	 *            The subscriber to receive the frames.
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super Frame> subscriber) {
+		subscribe(subscriber, BackpressurePolicy.DROP_OLDEST,
+				Flow.defaultBufferSize(), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Subscribes to the frames of the session.
+	 * 
+	 * @param subscriber
+	 *            The subscriber to receive the frames.
+	 * @param policy
+	 *            What to do with new frames when the subscriber's queue is
+	 *            full. DROP_NEWEST buffers up to <tt>capacity</tt> frames.
+	 * @param capacity
+	 *            The maximum number of frames queued for the subscriber.
+	 * @param executor
+	 *            The executor where all signals to the subscriber are issued.
+	 */
+	public void subscribe(Flow.Subscriber<? super Frame> subscriber,
+			BackpressurePolicy policy, int capacity, Executor executor) {
+		if (subscriber == null)
+			throw new NullPointerException();
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		FrameSubscription subscription = new FrameSubscription(subscriber,
+				policy, capacity, executor);
+		if (closed)
+			subscription.complete();
+		else
+			subscriptions.add(subscription);
+		subscription.schedule();
+	}
+
+	/**
+	 * Returns the number of subscribers currently receiving frames.
+	 * 
+	 * @return The number of active subscriptions.
+	 */
+	public int getNumberOfSubscribers() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Offers a frame to all current subscribers.
+	 * 
+	 * @param frame
+	 *            The frame to be published.
+	 */
+	void submit(Frame frame) {
+		for (FrameSubscription subscription : subscriptions)
+			subscription.offer(frame);
+	}
+
+	/**
+	 * Completes all subscriptions, once any frames still queued have been
+	 * delivered. Subscribers added after this point are completed right away.
+	 */
+	void close() {
+		closed = true;
+		for (FrameSubscription subscription : subscriptions) {
+			subscription.complete();
+			subscriptions.remove(subscription);
+		}
+	}
+
+	private class FrameSubscription implements Flow.Subscription, Runnable {
+
+		private Flow.Subscriber<? super Frame> subscriber;
+		private BackpressurePolicy policy;
+		private int capacity;
+		private Executor executor;
+
+		private ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+		private AtomicLong demand = new AtomicLong();
+		private AtomicInteger pendingRuns = new AtomicInteger();
+		private boolean subscribed = false;
+		private volatile boolean completed = false;
+		private volatile boolean terminated = false;
+		private volatile Throwable error = null;
+
+		private FrameSubscription(Flow.Subscriber<? super Frame> subscriber,
+				BackpressurePolicy policy, int capacity, Executor executor) {
+			this.subscriber = subscriber;
+			this.policy = policy;
+			this.capacity = capacity;
+			this.executor = executor;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException(
+						"Requested number of frames must be positive.");
+			} else {
+				long current, updated;
+				do {
+					current = demand.get();
+					updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while (!demand.compareAndSet(current, updated));
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			terminated = true;
+			subscriptions.remove(this);
+			synchronized (this) {
+				for (Frame frame : frames)
+					frame.release();
+				frames.clear();
+			}
+		}
+
+		private void offer(Frame frame) {
+			synchronized (this) {
+				if (terminated)
+					return;
+				if (policy == BackpressurePolicy.LATEST) {
+					for (Frame queued : frames)
+						queued.release();
+					frames.clear();
+				} else if (frames.size() >= capacity) {
+					if (policy == BackpressurePolicy.DROP_NEWEST)
+						return;
+					frames.poll().release();
+				}
+				frames.add(frame.retain());
+			}
+			schedule();
+		}
+
+		private void complete() {
+			completed = true;
+			schedule();
+		}
+
+		private void schedule() {
+			if (pendingRuns.getAndIncrement() == 0)
+				executor.execute(this);
+		}
+
+		private synchronized Frame poll() {
+			return frames.poll();
+		}
+
+		private synchronized boolean isEmpty() {
+			return frames.isEmpty();
+		}
+
+		@Override
+		public void run() {
+			int runs = pendingRuns.get();
+			do {
+				try {
+					drain();
+				} catch (Throwable t) {
+					// a subscriber that throws from any other signal is
+					// considered cancelled
+					cancel();
+				}
+				runs = pendingRuns.addAndGet(-runs);
+			} while (runs != 0);
+		}
+
+		private void drain() {
+			if (!subscribed) {
+				subscribed = true;
+				subscriber.onSubscribe(this);
+			}
+			while (!terminated && demand.get() > 0) {
+				Frame frame = poll();
+				if (frame == null)
+					break;
+				long current;
+				do {
+					current = demand.get();
+				} while (current != Long.MAX_VALUE
+						&& !demand.compareAndSet(current, current - 1));
+				try {
+					subscriber.onNext(frame);
+				} catch (Throwable t) {
+					// the subscription is cancelled, and the subscriber told
+					// why
+					cancel();
+					subscriber.onError(t);
+					return;
+				} finally {
+					frame.release();
+				}
+			}
+			if (terminated)
+				return;
+			if (error != null) {
+				cancel();
+				subscriber.onError(error);
+			} else if (completed && isEmpty()) {
+				terminated = true;
+				subscriber.onComplete();
+			}
+		}
+	}
+}
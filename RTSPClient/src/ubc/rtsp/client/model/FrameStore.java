@@ -0,0 +1,281 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Stores frame payloads outside the Java heap, so that buffering minutes of
+ * video for many streams does not add to the work of the garbage collector.
+ * Memory is reserved from the operating system in slabs of SLAB_SIZE bytes,
+ * each of which is divided into chunks of a single size class when it is
+ * first needed. Free chunks are kept in an explicit free list per size class,
+ * so storing and releasing a payload never allocates or frees native memory
+ * once the store has grown to its working size.
+ * 
+ * Frames created by the store hold a reference to their chunk, which is given
+ * back to the store when the frame is fully released; consumers that keep a
+ * frame after handing it over must therefore use <code>retain</code> and
+ * <code>release</code>. Payloads larger than the largest size class, or that
+ * do not fit once the store is full, are kept on the heap instead.
+ * 
+ * A store may be shared by any number of sessions. Note that the JVM limits
+ * the total size of direct buffers, by default to the maximum heap size; a
+ * large store needs <code>-XX:MaxDirectMemorySize</code>.
+ */
+public class FrameStore {
+
+	public static final int SLAB_SIZE = 1 << 20;
+	public static final int MIN_CHUNK_SIZE = 1 << 10;
+	public static final int MAX_CHUNK_SIZE = 1 << 16;
+
+	// chunk sizes grow by 25%, which bounds the space wasted in each chunk
+	private static final double SIZE_CLASS_GROWTH = 1.25;
+	private static final int CHUNK_BITS = 10;
+	private static final int[] CHUNK_SIZES = sizeClasses();
+
+	/**
+	 * Gives a chunk back to the store once its frame is released.
+	 */
+	private class Chunk implements Runnable {
+		private int handle;
+		private int sizeClass;
+		private int length;
+
+		private Chunk(int handle, int sizeClass, int length) {
+			this.handle = handle;
+			this.sizeClass = sizeClass;
+			this.length = length;
+		}
+
+		@Override
+		public void run() {
+			free(this);
+		}
+	}
+
+	private long maxBytes;
+	private ByteBuffer[] slabs = new ByteBuffer[16];
+	private int slabCount = 0;
+	private int[][] freeLists = new int[CHUNK_SIZES.length][];
+	private int[] freeCounts = new int[CHUNK_SIZES.length];
+	private int[] chunkCounts = new int[CHUNK_SIZES.length];
+	private long allocatedBytes = 0;
+	private long usedBytes = 0;
+	private int frames = 0;
+	private long overflowFrames = 0;
+	private boolean exhausted = false;
+
+	/**
+	 * Creates an empty store. Slabs are only reserved as they are needed.
+	 * 
+	 * @param maxBytes
+	 *            The maximum number of bytes reserved by the store.
+	 */
+	public FrameStore(long maxBytes) {
+		if (maxBytes < SLAB_SIZE)
+			throw new IllegalArgumentException("Store must hold at least a slab.");
+		this.maxBytes = maxBytes;
+		for (int i = 0; i < CHUNK_SIZES.length; i++)
+			freeLists[i] = new int[SLAB_SIZE / CHUNK_SIZES[i]];
+	}
+
+	/**
+	 * Creates a frame whose payload is copied into the store.
+	 * 
+	 * @param payloadType
+	 *            The numeric type of payload found in the frame.
+	 * @param marker
+	 *            An indication if the frame is an important frame.
+	 * @param sequenceNumber
+	 *            The sequence number of the frame.
+	 * @param timestamp
+	 *            The timestamp of the frame, in milliseconds.
+	 * @param payload
+	 *            An array containing the payload of the frame.
+	 * @param offset
+	 *            The position in <tt>payload</tt> where the contents start.
+	 * @param length
+	 *            The number of bytes of contents.
+	 * @return A frame backed by the store, or by the heap if the store is
+	 *         full.
+	 */
+	public Frame store(byte payloadType, boolean marker, short sequenceNumber,
+			int timestamp, byte[] payload, int offset, int length) {
+		ByteBuffer slab;
+		Chunk chunk;
+		synchronized (this) {
+			int sizeClass = sizeClassOf(length);
+			int handle = sizeClass < 0 ? -1 : allocate(sizeClass);
+			if (handle < 0) {
+				overflowFrames++;
+				return new Frame(payloadType, marker, sequenceNumber,
+						timestamp, payload, offset, length);
+			}
+			chunk = new Chunk(handle, sizeClass, length);
+			slab = slabs[handle >>> CHUNK_BITS];
+			allocatedBytes += CHUNK_SIZES[sizeClass];
+			usedBytes += length;
+			frames++;
+		}
+		int start = (chunk.handle & ((1 << CHUNK_BITS) - 1))
+				* CHUNK_SIZES[chunk.sizeClass];
+		ByteBuffer view = slab.duplicate();
+		view.limit(start + length).position(start);
+		ByteBuffer contents = view.slice();
+		contents.put(payload, offset, length).flip();
+		return Frame.wrap(payloadType, marker, sequenceNumber, timestamp,
+				contents, chunk);
+	}
+
+	/**
+	 * Returns the number of bytes reserved from the operating system.
+	 * 
+	 * @return The size of all slabs.
+	 */
+	public synchronized long getReservedBytes() {
+		return (long) slabCount * SLAB_SIZE;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the number of payload bytes of the frames in the store.
+	 * 
+	 * @return The bytes in use.
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized int getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Returns the number of frames kept on the heap because the store was
+	 * full or the payload was too large.
+	 * 
+	 * @return The number of frames not stored.
+	 */
+	public synchronized long getOverflowFrames() {
+		return overflowFrames;
+	}
+
+	/**
+	 * Returns the fraction of the reserved memory holding payloads.
+	 * 
+	 * @return A value between 0 and 1.
+	 */
+	public synchronized double getOccupancy() {
+		return slabCount == 0 ? 0 : (double) usedBytes
+				/ ((long) slabCount * SLAB_SIZE);
+	}
+
+	/**
+	 * Returns the fraction of the chunks in use that is wasted because
+	 * payloads are smaller than their chunk.
+	 * 
+	 * @return A value between 0 and 1.
+	 */
+	public synchronized double getInternalFragmentation() {
+		return allocatedBytes == 0 ? 0 : 1 - (double) usedBytes
+				/ allocatedBytes;
+	}
+
+	/**
+	 * Returns the fraction of the reserved memory that is free, but divided
+	 * into chunks of a size class, so it is only usable by payloads of that
+	 * size.
+	 * 
+	 * @return A value between 0 and 1.
+	 */
+	public synchronized double getExternalFragmentation() {
+		return slabCount == 0 ? 0 : (double) ((long) slabCount * SLAB_SIZE
+				- allocatedBytes)
+				/ ((long) slabCount * SLAB_SIZE);
+	}
+
+	/**
+	 * Takes a chunk from the free list of a size class, dividing a new slab
+	 * if the list is empty.
+	 * 
+	 * @return The handle of the chunk, or -1 if the store is full.
+	 */
+	private int allocate(int sizeClass) {
+		if (freeCounts[sizeClass] == 0 && !addSlab(sizeClass))
+			return -1;
+		return freeLists[sizeClass][--freeCounts[sizeClass]];
+	}
+
+	private boolean addSlab(int sizeClass) {
+		if (exhausted || (long) (slabCount + 1) * SLAB_SIZE > maxBytes)
+			return false;
+		ByteBuffer slab;
+		try {
+			slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+		} catch (OutOfMemoryError e) {
+			// the JVM limit on direct memory was reached
+			exhausted = true;
+			return false;
+		}
+		if (slabCount == slabs.length)
+			slabs = Arrays.copyOf(slabs, slabCount * 2);
+		int index = slabCount++;
+		slabs[index] = slab;
+		int chunks = SLAB_SIZE / CHUNK_SIZES[sizeClass];
+		int[] freeList = freeLists[sizeClass];
+		// every chunk of the size class may be free at once, not only the
+		// ones free now
+		chunkCounts[sizeClass] += chunks;
+		if (chunkCounts[sizeClass] > freeList.length)
+			freeList = freeLists[sizeClass] = Arrays.copyOf(freeList,
+					Math.max(freeList.length * 2, chunkCounts[sizeClass]));
+		// pushed in reverse, so chunks are handed out in address order
+		for (int chunk = chunks - 1; chunk >= 0; chunk--)
+			freeList[freeCounts[sizeClass]++] = index << CHUNK_BITS | chunk;
+		return true;
+	}
+
+	private synchronized void free(Chunk chunk) {
+		freeLists[chunk.sizeClass][freeCounts[chunk.sizeClass]++] = chunk.handle;
+		allocatedBytes -= CHUNK_SIZES[chunk.sizeClass];
+		usedBytes -= chunk.length;
+		frames--;
+	}
+
+	private static int sizeClassOf(int length) {
+		int index = Arrays.binarySearch(CHUNK_SIZES, length);
+		if (index < 0)
+			index = -index - 1;
+		return index < CHUNK_SIZES.length ? index : -1;
+	}
+
+	private static int[] sizeClasses() {
+		int[] sizes = new int[32];
+		int count = 0;
+		double size = MIN_CHUNK_SIZE;
+		while (size < MAX_CHUNK_SIZE) {
+			// multiples of 64 bytes keep payloads aligned
+			sizes[count++] = ((int) size + 63) & ~63;
+			size *= SIZE_CLASS_GROWTH;
+		}
+		sizes[count++] = MAX_CHUNK_SIZE;
+		return Arrays.copyOf(sizes, count);
+	}
+}
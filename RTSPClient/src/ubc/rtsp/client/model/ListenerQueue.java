@@ -0,0 +1,209 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.log.ErrorCounter;
+import ubc.rtsp.client.log.EventLog;
+import ubc.rtsp.client.model.listener.BackpressurePolicy;
+import ubc.rtsp.client.model.listener.SessionListener;
+
+/**
+ * A bounded queue of session events waiting to be delivered to a single
+ * listener. Events are delivered in order by a task running in a shared
+ * executor, so a slow listener only delays its own events. Only frames are
+ * subject to the backpressure policy; video name changes, exceptions and the
+ * "clear" (null) frame are always delivered. Queued frames are retained
+ * until they are delivered or dropped, so listeners only need to retain a
+ * frame they keep after <code>frameReceived</code> returns.
+ */
+class ListenerQueue implements Runnable {
+
+	/**
+	 * Maximum number of events delivered in a row before the task yields its
+	 * thread to other listeners.
+	 */
+	private static final int MAX_EVENTS_PER_RUN = 64;
+
+	private static final Object CLEAR_FRAME = new Object();
+
+	private static final ErrorCounter LISTENER_ERRORS = new ErrorCounter(
+			EventLog.getLog("session"), "listener.error", 5000);
+
+	private static class VideoNameEvent {
+		private String videoName;
+
+		private VideoNameEvent(String videoName) {
+			this.videoName = videoName;
+		}
+	}
+
+	private SessionListener listener;
+	private BackpressurePolicy policy;
+	private int capacity;
+	private Executor executor;
+
+	private ArrayDeque<Object> events = new ArrayDeque<Object>();
+	private int queuedFrames = 0;
+	private long droppedFrames = 0;
+	private AtomicBoolean scheduled = new AtomicBoolean(false);
+	private volatile boolean closed = false;
+
+	ListenerQueue(SessionListener listener, BackpressurePolicy policy,
+			int capacity, Executor executor) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		this.listener = listener;
+		this.policy = policy;
+		this.capacity = capacity;
+		this.executor = executor;
+	}
+
+	SessionListener getListener() {
+		return listener;
+	}
+
+	synchronized long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	void offerFrame(Frame frame) {
+		if (frame == null) {
+			offerEvent(CLEAR_FRAME);
+			return;
+		}
+		synchronized (this) {
+			if (closed)
+				return;
+			if (policy == BackpressurePolicy.LATEST) {
+				while (queuedFrames > 0)
+					removeOldestFrame();
+			} else if (queuedFrames >= capacity) {
+				if (policy == BackpressurePolicy.DROP_NEWEST) {
+					droppedFrames++;
+					return;
+				}
+				removeOldestFrame();
+			}
+			events.add(frame.retain());
+			queuedFrames++;
+		}
+		schedule();
+	}
+
+	void offerVideoName(String videoName) {
+		offerEvent(new VideoNameEvent(videoName));
+	}
+
+	void offerException(RTSPException exception) {
+		offerEvent(exception);
+	}
+
+	/**
+	 * Stops delivering events to the listener. Events already queued are
+	 * discarded.
+	 */
+	synchronized void close() {
+		closed = true;
+		for (Object event : events) {
+			if (event instanceof Frame)
+				((Frame) event).release();
+		}
+		events.clear();
+		queuedFrames = 0;
+	}
+
+	private void offerEvent(Object event) {
+		synchronized (this) {
+			if (closed)
+				return;
+			events.add(event);
+		}
+		schedule();
+	}
+
+	private void removeOldestFrame() {
+		Iterator<Object> it = events.iterator();
+		while (it.hasNext()) {
+			Object event = it.next();
+			if (event instanceof Frame) {
+				((Frame) event).release();
+				it.remove();
+				queuedFrames--;
+				droppedFrames++;
+				return;
+			}
+		}
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true))
+			executor.execute(this);
+	}
+
+	private synchronized Object poll() {
+		Object event = events.poll();
+		if (event instanceof Frame)
+			queuedFrames--;
+		return event;
+	}
+
+	@Override
+	public void run() {
+		for (int i = 0; i < MAX_EVENTS_PER_RUN; i++) {
+			Object event = poll();
+			if (event == null) {
+				scheduled.set(false);
+				// an event may have been queued after the poll above
+				synchronized (this) {
+					if (events.isEmpty())
+						return;
+				}
+				if (!scheduled.compareAndSet(false, true))
+					return;
+				continue;
+			}
+			deliver(event);
+		}
+		// more events are pending, let other listeners use this thread
+		executor.execute(this);
+	}
+
+	private void deliver(Object event) {
+		try {
+			if (closed)
+				return;
+			if (event == CLEAR_FRAME)
+				listener.frameReceived(null);
+			else if (event instanceof Frame)
+				listener.frameReceived((Frame) event);
+			else if (event instanceof VideoNameEvent)
+				listener.videoNameChanged(((VideoNameEvent) event).videoName);
+			else if (event instanceof RTSPException)
+				listener.exceptionThrown((RTSPException) event);
+		} catch (RuntimeException e) {
+			// a faulty listener must not stop the delivery of further events
+			LISTENER_ERRORS.record(e);
+		} finally {
+			if (event instanceof Frame)
+				((Frame) event).release();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import ubc.rtsp.client.log.EventLog;
+import ubc.rtsp.client.log.Level;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on top of
+ * another executor. This is used to send the control requests of a session
+ * in the background while keeping them in the order the user issued them.
+ */
+public class SerialExecutor implements Executor {
+
+	private static final EventLog LOG = EventLog.getLog("session");
+
+	private Executor executor;
+	private ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+	private boolean running = false;
+
+	/**
+	 * Creates a new serial executor.
+	 * 
+	 * @param executor
+	 *            The executor where the tasks are actually run.
+	 */
+	public SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public synchronized void execute(final Runnable task) {
+		tasks.add(task);
+		if (!running) {
+			running = true;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					runTasks();
+				}
+			});
+		}
+	}
+
+	private void runTasks() {
+		while (true) {
+			Runnable task;
+			synchronized (this) {
+				task = tasks.poll();
+				if (task == null) {
+					running = false;
+					return;
+				}
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// a failed task must not prevent the next ones from running
+				LOG.log(Level.WARN, "task.failed", e);
+			}
+		}
+	}
+}
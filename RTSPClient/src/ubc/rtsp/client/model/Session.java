@@ -15,12 +15,15 @@
 package ubc.rtsp.client.model;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.InterruptedIOException;
 
 import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.model.listener.BackpressurePolicy;
 import ubc.rtsp.client.model.listener.SessionListener;
 import ubc.rtsp.client.net.RTSPConnection;
+import ubc.rtsp.client.net.SocketStatistics;
+import ubc.rtsp.client.net.TransportProfile;
+import ubc.rtsp.client.profiling.StreamProfile;
 
 /**
  * This class manages an open session with an RTSP server. It provides the main
@@ -29,9 +32,24 @@ import ubc.rtsp.client.net.RTSPConnection;
  */
 public class Session {
 
-	private Set<SessionListener> sessionListeners = new HashSet<SessionListener>();
+	/**
+	 * Default number of frames that may be waiting to be delivered to a
+	 * listener before the backpressure policy is applied.
+	 */
+	public static final int DEFAULT_LISTENER_CAPACITY = 32;
+
+	// Copy-on-write: the array is replaced (never modified) when listeners
+	// are added or removed, so frames can be dispatched without locking.
+	private volatile ListenerQueue[] listenerQueues = new ListenerQueue[0];
+	private Object listenersLock = new Object();
+	private FramePublisher framePublisher = new FramePublisher();
 	private RTSPConnection rtspConnection;
-	private String videoName = null;
+	private volatile String videoName = null;
+	private volatile Snapshot snapshot = null;
+	private long snapshotVersion = 0;
+	private Object snapshotLock = new Object();
+	private String server;
+	private int port;
 
 	/**
 	 * Creates a new RTSP session. This constructor will also create a new
@@ -47,33 +65,125 @@ public class Session {
 	 *             server.
 	 */
 	public Session(String server, int port) throws RTSPException {
+		this(server, port, new TransportProfile());
+	}
 
-		rtspConnection = new RTSPConnection(this, server, port);
+	/**
+	 * Creates a new RTSP session whose RTP socket is configured with the given
+	 * options. This constructor will also create a new network connection
+	 * with the server. No stream setup is established at this point.
+	 * 
+	 * @param server
+	 *            The IP address or host name of the RTSP server.
+	 * @param port
+	 *            The port where the RTSP server is listening to.
+	 * @param transport
+	 *            The options of the RTP socket.
+	 * @throws RTSPException
+	 *             If it was not possible to establish a connection with the
+	 *             server.
+	 */
+	public Session(String server, int port, TransportProfile transport)
+			throws RTSPException {
+
+		this.server = server;
+		this.port = port;
+		rtspConnection = new RTSPConnection(this, server, port, transport);
 	}
 
 	/**
 	 * Adds a new listener interface to be called every time a session event
 	 * (such as a change in video name or a new frame) happens. Any interaction
-	 * with user interfaces is done through these listeners.
+	 * with user interfaces is done through these listeners. Up to
+	 * DEFAULT_LISTENER_CAPACITY frames are queued for the listener, after which
+	 * the oldest frames are dropped.
+	 * 
+	 * @param listener
+	 *            A SessionListener to be called when a session event happens.
+	 */
+	public void addSessionListener(SessionListener listener) {
+		addSessionListener(listener, BackpressurePolicy.DROP_OLDEST,
+				DEFAULT_LISTENER_CAPACITY);
+	}
+
+	/**
+	 * Adds a new listener interface to be called every time a session event
+	 * happens. Events are delivered asynchronously and in order, in a thread
+	 * different from the one receiving the frames, so a slow listener does not
+	 * delay the playback or other listeners. If the listener falls behind,
+	 * frames are discarded according to the given policy.
 	 * 
 	 * @param listener
 	 *            A SessionListener to be called when a session event happens.
+	 * @param policy
+	 *            What to do with new frames when the listener is not keeping
+	 *            up with the stream.
+	 * @param capacity
+	 *            The maximum number of frames waiting to be delivered to the
+	 *            listener.
 	 */
-	public synchronized void addSessionListener(SessionListener listener) {
-		sessionListeners.add(listener);
-		listener.videoNameChanged(this.videoName);
+	public void addSessionListener(SessionListener listener,
+			BackpressurePolicy policy, int capacity) {
+		ListenerQueue queue = new ListenerQueue(listener, policy, capacity,
+				TaskExecutors.getTaskExecutor());
+		synchronized (listenersLock) {
+			ListenerQueue[] current = listenerQueues;
+			ListenerQueue[] updated = new ListenerQueue[current.length + 1];
+			System.arraycopy(current, 0, updated, 0, current.length);
+			updated[current.length] = queue;
+			listenerQueues = updated;
+		}
+		queue.offerVideoName(this.videoName);
 	}
 
 	/**
 	 * Removes an existing listener from the list of listeners to be called for
-	 * session events.
+	 * session events. Events not yet delivered to the listener are discarded.
 	 * 
 	 * @param listener
 	 *            A SessionListener that should no longer be called when a
 	 *            session event happens.
 	 */
 	public void removeSessionListener(SessionListener listener) {
-		sessionListeners.remove(listener);
+		synchronized (listenersLock) {
+			ListenerQueue[] current = listenerQueues;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i].getListener() == listener) {
+					ListenerQueue[] updated = new ListenerQueue[current.length - 1];
+					System.arraycopy(current, 0, updated, 0, i);
+					System.arraycopy(current, i + 1, updated, i,
+							current.length - i - 1);
+					listenerQueues = updated;
+					current[i].close();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a publisher of the frames received in this session. Unlike
+	 * session listeners, subscribers to this publisher receive frames only on
+	 * demand, each in its own executor, and are completed when the connection
+	 * is closed.
+	 * 
+	 * @return The frame publisher of this session.
+	 */
+	public FramePublisher getFramePublisher() {
+		return framePublisher;
+	}
+
+	/**
+	 * Returns the total number of frames that were discarded because a
+	 * listener was not keeping up with the stream.
+	 * 
+	 * @return The number of frames dropped across all current listeners.
+	 */
+	public long getDroppedListenerFrames() {
+		long dropped = 0;
+		for (ListenerQueue queue : listenerQueues)
+			dropped += queue.getDroppedFrames();
+		return dropped;
 	}
 
 	/**
@@ -89,8 +199,8 @@ public class Session {
 	public void open(String videoName) throws RTSPException, IOException {
 		rtspConnection.setup(videoName);
 		this.videoName = videoName;
-		for (SessionListener listener : sessionListeners)
-			listener.videoNameChanged(this.videoName);
+		for (ListenerQueue queue : listenerQueues)
+			queue.offerVideoName(videoName);
 	}
 
 	/**
@@ -108,6 +218,73 @@ public class Session {
 		rtspConnection.play();
 	}
 
+	/**
+	 * Starts playing the existing file from a given position and/or at a
+	 * given speed. Frames buffered before the request are discarded if a
+	 * position is given, and the frame at the new position is shown as soon as
+	 * it is received.
+	 * 
+	 * @param start
+	 *            The position to play from, in seconds, or a negative number
+	 *            to continue from the current position.
+	 * @param scale
+	 *            The playback speed relative to normal speed (trick play).
+	 * @throws RTSPException
+	 *             If the server does not accept the request, or in case of a
+	 *             connectivity problem.
+	 */
+	public void play(double start, double scale) throws RTSPException {
+		rtspConnection.play(start, scale);
+	}
+
+	/**
+	 * Moves playback to a given position, keeping the current speed.
+	 * 
+	 * @param position
+	 *            The position to play from, in seconds.
+	 * @throws RTSPException
+	 *             If the server does not accept the request, or in case of a
+	 *             connectivity problem.
+	 */
+	public void seek(double position) throws RTSPException {
+		rtspConnection.play(position, rtspConnection.getScale());
+	}
+
+	/**
+	 * Fills the playout buffer of the video without playing it. The video is
+	 * played with playback held until the buffer holds the given number of
+	 * frames or the timeout expires, and is then paused. A later call to
+	 * <code>play()</code> starts playing the buffered frames right away.
+	 * 
+	 * @param frames
+	 *            The number of frames to be buffered.
+	 * @param timeoutMs
+	 *            The maximum time to wait for the frames, in milliseconds.
+	 * @throws RTSPException
+	 *             If there was an error playing or pausing the video.
+	 * @throws IOException
+	 *             If the thread was interrupted while waiting for the frames.
+	 */
+	public void prebuffer(int frames, long timeoutMs) throws RTSPException,
+			IOException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		rtspConnection.setPlaybackHeld(true);
+		try {
+			rtspConnection.play();
+			while (rtspConnection.getBufferedFrames() < frames
+					&& System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while buffering.");
+		} finally {
+			try {
+				rtspConnection.pause();
+			} finally {
+				rtspConnection.setPlaybackHeld(false);
+			}
+		}
+	}
+
 	/**
 	 * Pauses the playback the existing file. It should only be called once a
 	 * file has started playing. This function will return immediately after the
@@ -134,8 +311,8 @@ public class Session {
 		rtspConnection.teardown();
 		processReceivedFrame(null);
 		videoName = null;
-		for (SessionListener listener : sessionListeners)
-			listener.videoNameChanged(this.videoName);
+		for (ListenerQueue queue : listenerQueues)
+			queue.offerVideoName(null);
 	}
 
 	/**
@@ -144,21 +321,218 @@ public class Session {
 	 */
 	public void closeConnection() {
 		rtspConnection.closeConnection();
+		framePublisher.close();
 	}
 
 	/**
 	 * Processes a frame received from the RTSP server. This method will direct
 	 * the frame to the user interface to be processed and presented to the
-	 * user.
+	 * user. The frame is only queued for each listener, so this method never
+	 * blocks waiting for a listener.
 	 * 
 	 * @param frame
 	 *            The recently received frame.
 	 */
-	public synchronized void processReceivedFrame(Frame frame) {
+	public void processReceivedFrame(Frame frame) {
 		if (videoName == null)
 			return;
-		for (SessionListener listener : sessionListeners)
-			listener.frameReceived(frame);
+		for (ListenerQueue queue : listenerQueues)
+			queue.offerFrame(frame);
+		if (frame != null)
+			framePublisher.submit(frame);
+		updateSnapshot(frame);
+	}
+
+	/**
+	 * Returns the latest frame played in this session. The snapshot is not
+	 * decoded; its image and thumbnails are only prepared when requested, and
+	 * are then cached until the next frame is played.
+	 * 
+	 * @return The latest snapshot, or <tt>null</tt> if no frame was played
+	 *         since the video was opened.
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	private void updateSnapshot(Frame frame) {
+		Snapshot previous;
+		synchronized (snapshotLock) {
+			previous = snapshot;
+			snapshot = frame == null ? null : new Snapshot(frame,
+					++snapshotVersion, videoName);
+		}
+		if (previous != null)
+			previous.invalidate();
+	}
+
+	/**
+	 * Limits the amount of video buffered for playback in this session.
+	 * 
+	 * @param maxFrames
+	 *            The maximum number of frames in the playout buffer.
+	 * @param maxBytes
+	 *            The maximum number of payload bytes in the playout buffer.
+	 */
+	public void setPlayoutBufferLimits(int maxFrames, long maxBytes) {
+		rtspConnection.setBufferLimits(maxFrames, maxBytes);
+	}
+
+	/**
+	 * Keeps the payloads of the frames received in this session outside the
+	 * Java heap, in the given store. Listeners that keep a frame after
+	 * <code>frameReceived</code> returns must retain it, so its payload is not
+	 * reused.
+	 * 
+	 * @param store
+	 *            The store, which may be shared by many sessions, or
+	 *            <tt>null</tt> to keep payloads on the heap.
+	 */
+	public void setFrameStore(FrameStore store) {
+		rtspConnection.setFrameStore(store);
+	}
+
+	/**
+	 * Returns the number of frames waiting to be played.
+	 * 
+	 * @return The number of frames in the playout buffer.
+	 */
+	public int getBufferedFrames() {
+		return rtspConnection.getBufferedFrames();
+	}
+
+	/**
+	 * Returns the amount of payload waiting to be played.
+	 * 
+	 * @return The number of bytes in the playout buffer.
+	 */
+	public long getBufferedBytes() {
+		return rtspConnection.getBufferedBytes();
+	}
+
+	/**
+	 * Returns the number of frames discarded because the playout buffer was
+	 * full.
+	 * 
+	 * @return The number of frames evicted from the playout buffer.
+	 */
+	public long getEvictedFrames() {
+		return rtspConnection.getEvictedFrames();
+	}
+
+	/**
+	 * Returns the number of packets discarded because they were duplicates of
+	 * packets already received.
+	 * 
+	 * @return The number of duplicate packets.
+	 */
+	public long getDuplicatePackets() {
+		return rtspConnection.getDuplicatePackets();
+	}
+
+	/**
+	 * Returns the number of packets discarded because they arrived too late
+	 * to be played.
+	 * 
+	 * @return The number of stale packets.
+	 */
+	public long getStalePackets() {
+		return rtspConnection.getStalePackets();
+	}
+
+	/**
+	 * Returns the number of errors while receiving the stream.
+	 * 
+	 * @return The number of receive errors.
+	 */
+	public long getReceiveErrors() {
+		return rtspConnection.getReceiveErrors();
+	}
+
+	/**
+	 * Enables or disables fast start, in which playback starts with the first
+	 * frame received instead of after the initial buffering. Fast start is
+	 * enabled by default.
+	 * 
+	 * @param fastStart
+	 *            <tt>true</tt> to enable fast start.
+	 */
+	public void setFastStart(boolean fastStart) {
+		rtspConnection.setFastStart(fastStart);
+	}
+
+	/**
+	 * Returns the kernel counters of the RTP socket of this session, which
+	 * tell packets dropped because the client did not read them in time from
+	 * packets lost in the network.
+	 * 
+	 * @return The counters, or <tt>null</tt> if not available on this system.
+	 */
+	public SocketStatistics getSocketStatistics() {
+		return rtspConnection.getSocketStatistics();
+	}
+
+	/**
+	 * Enables or disables rate feedback, in which the server is asked to send
+	 * fewer frames, or smaller ones, while the client is falling behind.
+	 * 
+	 * @param enabled
+	 *            <tt>true</tt> to enable rate feedback.
+	 */
+	public void setRateFeedback(boolean enabled) {
+		rtspConnection.setRateFeedback(enabled);
+	}
+
+	/**
+	 * Returns the frame rate this session currently asks the server to send.
+	 * 
+	 * @return The requested frame rate, or 0 if not known yet.
+	 */
+	public double getRequestedFrameRate() {
+		return rtspConnection.getRequestedFrameRate();
+	}
+
+	/**
+	 * Returns the time it took for the first frame to be played after the
+	 * video was started or after the last seek.
+	 * 
+	 * @return The time to first frame in milliseconds, or -1 if not known.
+	 */
+	public long getTimeToFirstFrame() {
+		return rtspConnection.getTimeToFirstFrame();
+	}
+
+	/**
+	 * Returns the latency and allocation profile of the current video. A
+	 * profile is only kept when the client is started with
+	 * <code>-Drtsp.profiling=true</code>.
+	 * 
+	 * @return The profile, or <tt>null</tt> if profiling is disabled.
+	 */
+	public StreamProfile getProfile() {
+		return rtspConnection.getProfile();
+	}
+
+	/**
+	 * Returns the number of times the connection with the server was lost and
+	 * re-established automatically.
+	 * 
+	 * @return The number of reconnections.
+	 */
+	public int getReconnects() {
+		return rtspConnection.getReconnects();
+	}
+
+	/**
+	 * Reports an error that happened in the background, such as a failed
+	 * keep-alive request, to all listeners.
+	 * 
+	 * @param exception
+	 *            The error to be reported.
+	 */
+	public void processException(RTSPException exception) {
+		for (ListenerQueue queue : listenerQueues)
+			queue.offerException(exception);
 	}
 
 	/**
@@ -170,4 +544,23 @@ public class Session {
 	public String getVideoName() {
 		return videoName;
 	}
+
+	/**
+	 * Returns the host name or IP address of the server this session is
+	 * connected to.
+	 * 
+	 * @return The server this session was created with.
+	 */
+	public String getServer() {
+		return server;
+	}
+
+	/**
+	 * Returns the port of the RTSP server this session is connected to.
+	 * 
+	 * @return The port this session was created with.
+	 */
+	public int getPort() {
+		return port;
+	}
 }
@@ -0,0 +1,327 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import ubc.rtsp.client.exception.RTSPException;
+
+/**
+ * Keeps sessions that were set up ahead of time for videos that are likely to
+ * be played next, so switching to one of them does not need any round trip to
+ * the server. Sessions are prepared in the background, and may also have their
+ * playout buffer filled while paused, in which case the first frames are
+ * available as soon as the video is played.
+ *
+ * The pool holds at most a configured number of idle sessions, whose buffered
+ * frames use at most a configured number of bytes. When either limit is
+ * exceeded, the least recently used sessions are torn down.
+ *
+ * The client window plays one video chosen by the user at a time, so it does
+ * not use a pool itself. A pool is meant for applications that know which
+ * videos are likely to be played next, such as the following items of a
+ * playlist.
+ */
+public class SessionPool {
+
+	public static final int DEFAULT_PREBUFFER_FRAMES = 24;
+	public static final long DEFAULT_PREBUFFER_TIMEOUT_MS = 2000;
+
+	private String server;
+	private int port;
+	private int maxSessions;
+	private long maxBufferedBytes;
+	private int prebufferFrames = DEFAULT_PREBUFFER_FRAMES;
+	private long prebufferTimeoutMs = DEFAULT_PREBUFFER_TIMEOUT_MS;
+
+	// Iterated in access order, so the first entry is the least recently used.
+	private LinkedHashMap<String, Future<Session>> sessions = new LinkedHashMap<String, Future<Session>>(
+			16, 0.75f, true);
+	private boolean closed = false;
+
+	/**
+	 * Creates a new, empty session pool.
+	 * 
+	 * @param server
+	 *            The IP address or host name of the RTSP server.
+	 * @param port
+	 *            The port where the RTSP server is listening to.
+	 * @param maxSessions
+	 *            The maximum number of idle sessions kept by the pool.
+	 * @param maxBufferedBytes
+	 *            The maximum number of payload bytes buffered by all idle
+	 *            sessions together.
+	 */
+	public SessionPool(String server, int port, int maxSessions,
+			long maxBufferedBytes) {
+		if (maxSessions < 1 || maxBufferedBytes < 1)
+			throw new IllegalArgumentException("Pool limits must be positive.");
+		this.server = server;
+		this.port = port;
+		this.maxSessions = maxSessions;
+		this.maxBufferedBytes = maxBufferedBytes;
+	}
+
+	/**
+	 * Changes how much of each video is buffered by <code>prefetch</code> when
+	 * buffering is requested.
+	 * 
+	 * @param frames
+	 *            The number of frames to be buffered.
+	 * @param timeoutMs
+	 *            The maximum time to wait for the frames, in milliseconds.
+	 */
+	public synchronized void setPrebuffer(int frames, long timeoutMs) {
+		this.prebufferFrames = frames;
+		this.prebufferTimeoutMs = timeoutMs;
+	}
+
+	/**
+	 * Prepares sessions for the given videos in the background. Videos that
+	 * already have a session in the pool are only marked as recently used.
+	 * 
+	 * @param videoNames
+	 *            The videos likely to be played next, most likely last.
+	 * @param prebuffer
+	 *            <tt>true</tt> to also fill the playout buffer of each video.
+	 */
+	public void prefetch(List<String> videoNames, boolean prebuffer) {
+		for (String videoName : videoNames)
+			prefetch(videoName, prebuffer);
+	}
+
+	/**
+	 * Prepares a session for the given video in the background, unless the
+	 * pool already has one.
+	 * 
+	 * @param videoName
+	 *            The video likely to be played next.
+	 * @param prebuffer
+	 *            <tt>true</tt> to also fill the playout buffer of the video.
+	 */
+	public synchronized void prefetch(final String videoName,
+			final boolean prebuffer) {
+		if (closed || sessions.get(videoName) != null)
+			return;
+		final int frames = prebufferFrames;
+		final long timeoutMs = prebufferTimeoutMs;
+		FutureTask<Session> task = new FutureTask<Session>(new Callable<Session>() {
+			@Override
+			public Session call() throws Exception {
+				Session session = openSession(videoName);
+				if (prebuffer) {
+					try {
+						session.prebuffer(frames, timeoutMs);
+					} catch (RTSPException | IOException e) {
+						// the session is still set up, only not buffered
+					}
+				}
+				return session;
+			}
+		}) {
+			@Override
+			protected void done() {
+				// the buffered bytes of the session now count towards the budget
+				enforceLimits();
+			}
+		};
+		sessions.put(videoName, task);
+		TaskExecutors.getTaskExecutor().execute(task);
+		enforceLimits();
+	}
+
+	/**
+	 * Takes a session for the given video out of the pool. If the video was
+	 * prefetched, its session is returned as soon as it is ready; otherwise a
+	 * new session is opened. Either way, the caller owns the session and is
+	 * responsible for playing and closing it, or for returning it with
+	 * <code>release</code>.
+	 * 
+	 * @param videoName
+	 *            The video to be played.
+	 * @return A session with the video set up.
+	 * @throws RTSPException
+	 *             If the video could not be set up.
+	 * @throws IOException
+	 *             If there was an error opening the video.
+	 */
+	public Session acquire(String videoName) throws RTSPException, IOException {
+		Future<Session> future;
+		synchronized (this) {
+			future = sessions.remove(videoName);
+		}
+		if (future != null) {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				future.cancel(true);
+				throw new RTSPException("Interrupted while opening video.");
+			} catch (ExecutionException e) {
+				// fall back to opening the video now
+			}
+		}
+		return openSession(videoName);
+	}
+
+	/**
+	 * Returns a session to the pool, pausing it if needed, so switching back
+	 * to its video later is immediate. If the pool already has a session for
+	 * the same video, or has been closed, the session is closed instead.
+	 * 
+	 * @param session
+	 *            A session obtained from <code>acquire</code>.
+	 */
+	public void release(Session session) {
+		String videoName = session.getVideoName();
+		boolean kept = false;
+		try {
+			session.pause();
+		} catch (RTSPException e) {
+			// a session that is not playing is kept as is
+		}
+		synchronized (this) {
+			if (!closed && videoName != null && sessions.get(videoName) == null) {
+				sessions.put(videoName, CompletableFuture.completedFuture(session));
+				kept = true;
+			}
+		}
+		if (kept)
+			enforceLimits();
+		else
+			closeSession(session);
+	}
+
+	/**
+	 * Returns the number of sessions in the pool, including those still being
+	 * prepared.
+	 * 
+	 * @return The number of pooled sessions.
+	 */
+	public synchronized int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Returns the number of payload bytes buffered by the sessions in the
+	 * pool that are ready.
+	 * 
+	 * @return The number of bytes buffered.
+	 */
+	public synchronized long getBufferedBytes() {
+		long bytes = 0;
+		for (Future<Session> future : sessions.values()) {
+			Session session = readySession(future);
+			if (session != null)
+				bytes += session.getBufferedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Closes all sessions in the pool. Sessions still being prepared are
+	 * closed as soon as they are ready.
+	 */
+	public void close() {
+		List<Future<Session>> removed;
+		synchronized (this) {
+			closed = true;
+			removed = new ArrayList<Future<Session>>(sessions.values());
+			sessions.clear();
+		}
+		for (Future<Session> future : removed)
+			closeWhenReady(future);
+	}
+
+	private Session openSession(String videoName) throws RTSPException,
+			IOException {
+		Session session = new Session(server, port);
+		try {
+			session.open(videoName);
+		} catch (RTSPException | IOException e) {
+			session.closeConnection();
+			throw e;
+		}
+		return session;
+	}
+
+	/**
+	 * Tears down the least recently used sessions until the pool is within
+	 * its limits. Sessions still being prepared count towards the number of
+	 * sessions, but not towards the bytes buffered.
+	 */
+	private void enforceLimits() {
+		List<Future<Session>> evicted = new ArrayList<Future<Session>>();
+		synchronized (this) {
+			long bytes = getBufferedBytes();
+			Iterator<Map.Entry<String, Future<Session>>> it = sessions
+					.entrySet().iterator();
+			while (it.hasNext()
+					&& (sessions.size() > maxSessions || bytes > maxBufferedBytes)) {
+				Future<Session> future = it.next().getValue();
+				Session session = readySession(future);
+				if (session == null && sessions.size() <= maxSessions)
+					continue;
+				if (session != null)
+					bytes -= session.getBufferedBytes();
+				it.remove();
+				evicted.add(future);
+			}
+		}
+		for (Future<Session> future : evicted)
+			closeWhenReady(future);
+	}
+
+	private static Session readySession(Future<Session> future) {
+		if (!future.isDone() || future.isCancelled())
+			return null;
+		try {
+			return future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			return null;
+		}
+	}
+
+	private static void closeWhenReady(final Future<Session> future) {
+		TaskExecutors.getTaskExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					closeSession(future.get());
+				} catch (InterruptedException | ExecutionException e) {
+					// nothing was opened
+				}
+			}
+		});
+	}
+
+	private static void closeSession(Session session) {
+		try {
+			session.close();
+		} catch (RTSPException e) {
+			// the connection is closed below anyway
+		}
+		session.closeConnection();
+	}
+}
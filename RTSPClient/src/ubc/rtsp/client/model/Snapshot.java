@@ -0,0 +1,200 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * The latest frame of a session, as made available to callers that only need
+ * the current image of a stream, such as dashboards. A new snapshot replaces
+ * the previous one for each frame received, which only costs an allocation;
+ * its JPEG bytes are copied from the frame, without being re-encoded, and its
+ * thumbnails are generated, the first time they are requested. Further
+ * requests for the same snapshot share the cached results.
+ */
+public class Snapshot {
+
+	/**
+	 * Widths of the thumbnails that may be generated. Requests for other
+	 * widths are served with the nearest larger size.
+	 */
+	public static final int[] THUMBNAIL_WIDTHS = { 80, 160, 320, 640 };
+
+	private static final float THUMBNAIL_QUALITY = 0.6f;
+
+	private Frame frame;
+	private long version;
+	private int sequenceNumber;
+	private String videoName;
+	private long captureTime;
+	private byte[] jpeg;
+	private byte[][] thumbnails = new byte[THUMBNAIL_WIDTHS.length][];
+
+	Snapshot(Frame frame, long version, String videoName) {
+		this.frame = frame.retain();
+		this.version = version;
+		this.sequenceNumber = frame.getSequenceNumber() & 0xFFFF;
+		this.videoName = videoName;
+		this.captureTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns a number that identifies this snapshot within its session, and
+	 * increases with every new snapshot. Clients may use it to check if the
+	 * image changed since their last request.
+	 * 
+	 * @return The version of the snapshot.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the RTP sequence number of the frame of this snapshot.
+	 * 
+	 * @return The sequence number, from 0 to 65535.
+	 */
+	public int getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * Returns the name of the video the frame of this snapshot belongs to, as
+	 * requested from the server when the session was set up.
+	 * 
+	 * @return The video name, or <tt>null</tt> if no video was set up.
+	 */
+	public String getVideoName() {
+		return videoName;
+	}
+
+	/**
+	 * Returns the time the frame of this snapshot was played.
+	 * 
+	 * @return The time, in milliseconds since the epoch.
+	 */
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	/**
+	 * Returns the encoded image of this snapshot. The returned array is shared
+	 * by all callers and must not be modified.
+	 * 
+	 * @return The JPEG bytes of the frame, or <tt>null</tt> if the snapshot
+	 *         was replaced by a newer one before its image was requested.
+	 */
+	public synchronized byte[] getJpeg() {
+		if (jpeg == null && frame != null)
+			jpeg = frame.getPayload();
+		return jpeg;
+	}
+
+	/**
+	 * Returns a scaled-down version of the image of this snapshot. The
+	 * returned array is shared by all callers and must not be modified.
+	 * 
+	 * @param width
+	 *            The requested width, which is rounded up to one of
+	 *            THUMBNAIL_WIDTHS. The height keeps the aspect ratio.
+	 * @return The JPEG bytes of the thumbnail, or <tt>null</tt> if the
+	 *         snapshot was replaced before its image was requested.
+	 * @throws IOException
+	 *             If the frame could not be decoded or the thumbnail could
+	 *             not be encoded.
+	 */
+	public synchronized byte[] getThumbnail(int width) throws IOException {
+		int index = thumbnailIndex(width);
+		if (thumbnails[index] == null) {
+			byte[] image = getJpeg();
+			if (image == null)
+				return null;
+			thumbnails[index] = scale(image, THUMBNAIL_WIDTHS[index]);
+		}
+		return thumbnails[index];
+	}
+
+	/**
+	 * Returns the width of the thumbnail served for a requested width, so
+	 * requests for different widths that share a thumbnail can be told apart
+	 * from those that do not.
+	 * 
+	 * @param width
+	 *            The requested width.
+	 * @return One of THUMBNAIL_WIDTHS.
+	 */
+	public static int getThumbnailWidth(int width) {
+		return THUMBNAIL_WIDTHS[thumbnailIndex(width)];
+	}
+
+	private static int thumbnailIndex(int width) {
+		int index = 0;
+		while (index < THUMBNAIL_WIDTHS.length - 1
+				&& THUMBNAIL_WIDTHS[index] < width)
+			index++;
+		return index;
+	}
+
+	/**
+	 * Drops the reference to the frame, once a newer snapshot is available.
+	 * Images already requested remain available.
+	 */
+	synchronized void invalidate() {
+		if (frame != null) {
+			frame.release();
+			frame = null;
+		}
+	}
+
+	private static byte[] scale(byte[] jpeg, int width) throws IOException {
+		BufferedImage source = ImageIO.read(new ByteArrayInputStream(jpeg));
+		if (source == null)
+			throw new IOException("Frame is not a supported image.");
+		if (width >= source.getWidth())
+			return jpeg;
+		int height = Math.max(1,
+				Math.round((float) source.getHeight() * width / source.getWidth()));
+		BufferedImage scaled = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(source, 0, 0, width, height, null);
+		g.dispose();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(THUMBNAIL_QUALITY);
+			writer.setOutput(stream);
+			writer.write(null, new IIOImage(scaled, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return out.toByteArray();
+	}
+}
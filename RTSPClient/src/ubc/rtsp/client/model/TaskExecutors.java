@@ -0,0 +1,132 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Provides the threads used by the client for blocking work: receiving and
+ * playing streams, delivering events to listeners, and sending control
+ * requests on behalf of the user interface.
+ * 
+ * On a JVM that supports virtual threads, every task runs in its own virtual
+ * thread, so thousands of sessions only need a small pool of carrier threads.
+ * Otherwise tasks run in daemon platform threads, from a shared cached pool
+ * for short tasks. Either way callers simply block; they never need to know
+ * which kind of thread they run in.
+ */
+public final class TaskExecutors {
+
+	private static final ThreadFactory THREAD_FACTORY;
+	private static final ExecutorService TASK_EXECUTOR;
+	private static final boolean VIRTUAL;
+
+	static {
+		ThreadFactory factory = virtualThreadFactory();
+		ExecutorService executor = virtualThreadExecutor();
+		VIRTUAL = factory != null && executor != null;
+		if (VIRTUAL) {
+			THREAD_FACTORY = factory;
+			TASK_EXECUTOR = executor;
+		} else {
+			THREAD_FACTORY = new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r);
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+			TASK_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "rtsp-task");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	private TaskExecutors() {
+	}
+
+	/**
+	 * Indicates if tasks run in virtual threads.
+	 * 
+	 * @return <tt>true</tt> if virtual threads are used.
+	 */
+	public static boolean isVirtual() {
+		return VIRTUAL;
+	}
+
+	/**
+	 * Returns the executor for short blocking tasks, such as control requests
+	 * or the delivery of events to a listener.
+	 * 
+	 * @return The shared task executor.
+	 */
+	public static ExecutorService getTaskExecutor() {
+		return TASK_EXECUTOR;
+	}
+
+	/**
+	 * Starts a thread for a long-running task, such as the receiving or
+	 * playback loop of a stream. The thread does not prevent the JVM from
+	 * exiting.
+	 * 
+	 * @param name
+	 *            The name of the thread.
+	 * @param task
+	 *            The task to be run.
+	 * @return The thread running the task.
+	 */
+	public static Thread startThread(String name, Runnable task) {
+		Thread thread = THREAD_FACTORY.newThread(task);
+		thread.setName(name);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Returns <code>Thread.ofVirtual().factory()</code>, looked up by
+	 * reflection so the client still runs on JVMs without virtual threads.
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder")
+					.getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// no virtual threads, or preview features not enabled
+			return null;
+		}
+	}
+
+	private static ExecutorService virtualThreadExecutor() {
+		try {
+			Method executor = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) executor.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model.listener;
+
+/**
+ * Indicates what should happen to frames delivered to a consumer that is not
+ * keeping up with the stream, once the frames queued for that consumer reach
+ * the queue capacity.
+ */
+public enum BackpressurePolicy {
+
+	/**
+	 * Only the most recent frame is kept. Any frame that is still queued when a
+	 * new one arrives is discarded, regardless of the capacity.
+	 */
+	LATEST,
+
+	/**
+	 * The oldest queued frame is discarded to make room for the new one.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Up to <i>capacity</i> frames are buffered, and new frames are discarded
+	 * while the queue is full.
+	 */
+	DROP_NEWEST
+}
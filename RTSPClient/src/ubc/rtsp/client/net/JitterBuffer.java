@@ -0,0 +1,287 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+import ubc.rtsp.client.model.Frame;
+
+/**
+ * Holds frames received from the server until their playout time, ordered by
+ * extended sequence number. The buffer never holds more than a configured number of
+ * frames or payload bytes: when either limit is exceeded, frames are evicted,
+ * preferring the oldest frame that does not have the marker bit set, and
+ * falling back to the oldest frame otherwise.
+ *
+ * Frames are kept in a ring indexed directly by their sequence number, so
+ * adding, removing and looking up a frame never compares frames with each
+ * other. Two bitmaps record which slots hold a frame, and which of those do
+ * not have the marker bit set; the next frame to be played, or to be evicted,
+ * is found by scanning them a word at a time. The ring holds at least twice as
+ * many slots as the maximum number of frames (up to MAX_CAPACITY), so
+ * reordered frames always fit; frames too far ahead of the oldest frame in the
+ * buffer push the oldest ones out, and frames too far behind the newest are
+ * discarded.
+ *
+ * All methods are synchronized, as frames are added by the receiving thread
+ * and removed by the playback thread.
+ */
+class JitterBuffer {
+
+	public static final int DEFAULT_MAX_FRAMES = 300;
+	public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+	private static final int MIN_CAPACITY = 1024;
+	private static final int MAX_CAPACITY = 1 << 20;
+
+	private Frame[] slots = new Frame[0];
+	private long[] occupied = new long[0];
+	private long[] unmarked = new long[0];
+	private int mask = -1;
+	// lowest and highest sequence numbers in the buffer, if not empty
+	private long head = -1;
+	private long tail = -1;
+	private int size = 0;
+	private int maxFrames;
+	private long maxBytes;
+	private long bytes = 0;
+	private long evictedFrames = 0;
+
+	JitterBuffer() {
+		this(DEFAULT_MAX_FRAMES, DEFAULT_MAX_BYTES);
+	}
+
+	JitterBuffer(int maxFrames, long maxBytes) {
+		setLimits(maxFrames, maxBytes);
+	}
+
+	/**
+	 * Changes the maximum number of frames and payload bytes held by the
+	 * buffer, evicting frames right away if needed.
+	 */
+	synchronized void setLimits(int maxFrames, long maxBytes) {
+		if (maxFrames < 1 || maxBytes < 1)
+			throw new IllegalArgumentException("Buffer limits must be positive.");
+		this.maxFrames = maxFrames;
+		this.maxBytes = maxBytes;
+		int capacity = MIN_CAPACITY;
+		while (capacity < 2L * maxFrames && capacity < MAX_CAPACITY)
+			capacity <<= 1;
+		if (capacity > slots.length)
+			resize(capacity);
+		enforceLimits();
+	}
+
+	synchronized int getMaxFrames() {
+		return maxFrames;
+	}
+
+	synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Adds a frame to the buffer.
+	 * 
+	 * @param sequenceNumber
+	 *            The extended sequence number of the frame.
+	 * @param frame
+	 *            The frame to be added.
+	 */
+	synchronized void add(long sequenceNumber, Frame frame) {
+		insert(sequenceNumber, frame);
+		enforceLimits();
+	}
+
+	/**
+	 * Adds a batch of frames to the buffer, taking the lock and enforcing the
+	 * limits only once.
+	 * 
+	 * @param sequenceNumbers
+	 *            The extended sequence numbers of the frames.
+	 * @param frames
+	 *            The frames to be added.
+	 * @param count
+	 *            The number of frames to be added from the start of the arrays.
+	 */
+	synchronized void addAll(long[] sequenceNumbers, Frame[] frames, int count) {
+		for (int i = 0; i < count; i++)
+			insert(sequenceNumbers[i], frames[i]);
+		enforceLimits();
+	}
+
+	/**
+	 * Returns the extended sequence number of the first frame in the buffer.
+	 * 
+	 * @return The lowest sequence number in the buffer, or -1 if the buffer
+	 *         is empty.
+	 */
+	synchronized long peekSequenceNumber() {
+		return size == 0 ? -1 : head;
+	}
+
+	synchronized Frame poll() {
+		return size == 0 ? null : remove(head);
+	}
+
+	/**
+	 * Discards all frames with a sequence number lower than the given one.
+	 * These frames arrived too late to be played.
+	 * 
+	 * @return The number of frames discarded.
+	 */
+	synchronized int dropOlderThan(long sequenceNumber) {
+		int dropped = 0;
+		while (size > 0 && head < sequenceNumber) {
+			remove(head).release();
+			dropped++;
+		}
+		return dropped;
+	}
+
+	synchronized boolean isEmpty() {
+		return size == 0;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	synchronized long getBytes() {
+		return bytes;
+	}
+
+	synchronized long getEvictedFrames() {
+		return evictedFrames;
+	}
+
+	synchronized void clear() {
+		while (size > 0)
+			remove(head).release();
+	}
+
+	private void insert(long sequenceNumber, Frame frame) {
+		if (size > 0 && sequenceNumber <= tail - slots.length) {
+			// too far behind the newest frame to share the ring with it
+			evictedFrames++;
+			frame.release();
+			return;
+		}
+		while (size > 0 && head <= sequenceNumber - slots.length) {
+			evictedFrames++;
+			remove(head).release();
+		}
+		int index = (int) (sequenceNumber & mask);
+		if (slots[index] != null) {
+			// the same sequence number is already buffered
+			frame.release();
+			return;
+		}
+		slots[index] = frame;
+		occupied[index >>> 6] |= 1L << index;
+		if (!frame.isMarkerOn())
+			unmarked[index >>> 6] |= 1L << index;
+		if (size == 0) {
+			head = tail = sequenceNumber;
+		} else if (sequenceNumber < head) {
+			head = sequenceNumber;
+		} else if (sequenceNumber > tail) {
+			tail = sequenceNumber;
+		}
+		size++;
+		bytes += frame.getPayloadLength();
+	}
+
+	private Frame remove(long sequenceNumber) {
+		int index = (int) (sequenceNumber & mask);
+		Frame frame = slots[index];
+		slots[index] = null;
+		occupied[index >>> 6] &= ~(1L << index);
+		unmarked[index >>> 6] &= ~(1L << index);
+		size--;
+		bytes -= frame.getPayloadLength();
+		if (size == 0) {
+			head = tail = -1;
+		} else if (sequenceNumber == head) {
+			head = nextSet(occupied, sequenceNumber + 1, tail);
+		} else if (sequenceNumber == tail) {
+			tail = previousSet(occupied, head, sequenceNumber - 1);
+		}
+		return frame;
+	}
+
+	private void enforceLimits() {
+		while (size > maxFrames || bytes > maxBytes) {
+			long victim = nextSet(unmarked, head, tail);
+			remove(victim < 0 ? head : victim).release();
+			evictedFrames++;
+		}
+	}
+
+	/**
+	 * Returns the lowest sequence number in [from, to] whose bit is set, or -1
+	 * if there is none. The range must lie within [head, tail].
+	 */
+	private long nextSet(long[] bitmap, long from, long to) {
+		long sequenceNumber = from;
+		while (sequenceNumber <= to) {
+			int index = (int) (sequenceNumber & mask);
+			long word = bitmap[index >>> 6] >>> index;
+			if (word != 0) {
+				long found = sequenceNumber + Long.numberOfTrailingZeros(word);
+				return found <= to ? found : -1;
+			}
+			sequenceNumber += 64 - (index & 63);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the highest sequence number in [from, to] whose bit is set, or
+	 * -1 if there is none. The range must lie within [head, tail].
+	 */
+	private long previousSet(long[] bitmap, long from, long to) {
+		long sequenceNumber = to;
+		while (sequenceNumber >= from) {
+			int index = (int) (sequenceNumber & mask);
+			long word = bitmap[index >>> 6] << (63 - (index & 63));
+			if (word != 0) {
+				long found = sequenceNumber - Long.numberOfLeadingZeros(word);
+				return found >= from ? found : -1;
+			}
+			sequenceNumber -= (index & 63) + 1;
+		}
+		return -1;
+	}
+
+	private void resize(int capacity) {
+		Frame[] oldSlots = slots;
+		int oldMask = mask;
+		long first = head;
+		long last = tail;
+		slots = new Frame[capacity];
+		occupied = new long[capacity / 64];
+		unmarked = new long[capacity / 64];
+		mask = capacity - 1;
+		size = 0;
+		bytes = 0;
+		head = tail = -1;
+		if (first < 0)
+			return;
+		for (long s = first; s <= last; s++) {
+			Frame frame = oldSlots[(int) (s & oldMask)];
+			if (frame != null)
+				insert(s, frame);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+import ubc.rtsp.client.model.TaskExecutors;
+
+/**
+ * Schedules keep-alive requests for all RTSP connections in the process. A
+ * single thread drives a hashed timer wheel: each tick it only looks at the
+ * tasks in one bucket, so scheduling and cancelling are constant-time
+ * operations regardless of the number of sessions. Expired tasks are handed to
+ * the shared task executor, as they block on a round trip to the server, so a
+ * slow server does not delay the keep-alives of other sessions.
+ */
+class KeepAliveScheduler {
+
+	private static final long TICK_MS = 250;
+	private static final int WHEEL_SIZE = 512;
+
+	private static KeepAliveScheduler instance;
+
+	/**
+	 * A task scheduled in the wheel. Cancelled tasks are only removed from
+	 * their bucket when the wheel reaches it.
+	 */
+	static class Timeout {
+		private Runnable task;
+		private long delayTicks;
+		private long rounds;
+		private volatile boolean cancelled = false;
+		private Timeout next;
+
+		private Timeout(Runnable task, long delayTicks) {
+			this.task = task;
+			this.delayTicks = delayTicks;
+		}
+
+		void cancel() {
+			cancelled = true;
+		}
+	}
+
+	private Timeout[] wheel = new Timeout[WHEEL_SIZE];
+	private ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+	private long tick = 0;
+	private ExecutorService executor;
+
+	/**
+	 * Returns the scheduler shared by all connections, starting its thread on
+	 * first use.
+	 * 
+	 * @return The keep-alive scheduler.
+	 */
+	static synchronized KeepAliveScheduler getInstance() {
+		if (instance == null)
+			instance = new KeepAliveScheduler();
+		return instance;
+	}
+
+	private KeepAliveScheduler() {
+		executor = TaskExecutors.getTaskExecutor();
+		TaskExecutors.startThread("rtsp-keepalive", new Runnable() {
+			@Override
+			public void run() {
+				runWheel();
+			}
+		});
+	}
+
+	/**
+	 * Schedules a task to run once after the given delay. The delay is rounded
+	 * up to the resolution of the wheel (TICK_MS).
+	 * 
+	 * @param task
+	 *            The task to be run.
+	 * @param delayMs
+	 *            The delay in milliseconds.
+	 * @return A handle that can be used to cancel the task.
+	 */
+	Timeout schedule(Runnable task, long delayMs) {
+		long ticks = Math.max(1, (delayMs + TICK_MS - 1) / TICK_MS);
+		Timeout timeout = new Timeout(task, ticks);
+		pending.add(timeout);
+		return timeout;
+	}
+
+	private void runWheel() {
+		long nextTick = System.nanoTime();
+		while (true) {
+			nextTick += TICK_MS * 1000000;
+			long sleep = nextTick - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			transferPending();
+			expireBucket((int) (tick % WHEEL_SIZE));
+			tick++;
+		}
+	}
+
+	private void transferPending() {
+		Timeout timeout;
+		while ((timeout = pending.poll()) != null) {
+			if (timeout.cancelled)
+				continue;
+			timeout.rounds = (timeout.delayTicks - 1) / WHEEL_SIZE;
+			int bucket = (int) ((tick + timeout.delayTicks - 1) % WHEEL_SIZE);
+			timeout.next = wheel[bucket];
+			wheel[bucket] = timeout;
+		}
+	}
+
+	private void expireBucket(int bucket) {
+		Timeout remaining = null;
+		Timeout timeout = wheel[bucket];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.cancelled) {
+				// dropped
+			} else if (timeout.rounds > 0) {
+				timeout.rounds--;
+				timeout.next = remaining;
+				remaining = timeout;
+			} else {
+				executor.execute(timeout.task);
+			}
+			timeout = next;
+		}
+		wheel[bucket] = remaining;
+	}
+}
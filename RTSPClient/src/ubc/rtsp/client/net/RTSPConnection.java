@@ -15,17 +15,35 @@
 package ubc.rtsp.client.net;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
 import java.util.*;
 
 import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.log.ErrorCounter;
+import ubc.rtsp.client.log.EventLog;
+import ubc.rtsp.client.log.Level;
 import ubc.rtsp.client.model.Frame;
+import ubc.rtsp.client.model.FrameStore;
 import ubc.rtsp.client.model.Session;
+import ubc.rtsp.client.model.TaskExecutors;
+import ubc.rtsp.client.profiling.FrameProfiler;
+import ubc.rtsp.client.profiling.FrameTrace;
+import ubc.rtsp.client.profiling.LatencyHistogram;
+import ubc.rtsp.client.profiling.Stage;
+import ubc.rtsp.client.profiling.StreamProfile;
 
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 
 /**
  * This class represents a connection with an RTSP server.
@@ -33,34 +51,93 @@ import java.net.Socket;
 public class RTSPConnection {
 
 	private static final int BUFFER_LENGTH = 0x10000;
-	private static final long MINIMUM_DELAY_READ_PACKETS_MS = 20;
+	private static final int RECEIVE_BATCH_SIZE = 16;
 	final static String CRLF = "\r\n";
 	private static final long PLAYBACK_SPEED = 1000/24;
 	private static DecimalFormat Formatter = new DecimalFormat("0.00");
 	private static final int BUFFER_FRAMES = 75;
+	private static final long FAST_START_SLOWDOWN_PERCENT = 25;
+	private static final long ERROR_REPORT_INTERVAL_MS = 5000;
 
-	byte[] buf;
+	private static final EventLog LOG = EventLog.getLog("rtsp");
+	private static final long RECONNECT_INITIAL_DELAY_MS = 50;
+	private static final long RECONNECT_MAX_DELAY_MS = 2000;
+	private static final int RECONNECT_MAX_ATTEMPTS = 8;
+	private static final int DEFAULT_SESSION_TIMEOUT_S = 60;
+	private static final long ANCHOR_TOLERANCE_MS = 1000;
+	private static final long ANCHOR_WAIT_MS = 1000;
 
 	private Session session;
-	private Timer rtpTimer;
-	private Timer playbackTimer;
+	private Object receiveLock = new Object();
+	// the thread receiving RTP packets, or null; guarded by receiverLock
+	private Object receiverLock = new Object();
+	private Thread receiverThread;
+	private volatile boolean receiving;
+	private volatile Thread playbackThread;
+	private volatile int playbackGeneration;
 	private InetAddress address;
+	private int port;
 
 	private boolean isPlaying;
+	private boolean isSetUp;
+	private boolean isStreaming;
+	private volatile boolean rebasePending;
+	private boolean restoredWhilePaused;
+	private volatile boolean anchorPending;
+	private volatile int anchorSequence = -1;
+	private volatile long anchorTimestamp = -1;
+	private volatile long anchorTolerance;
+	private volatile long anchorDeadline;
+	private volatile boolean anchorOnBuffer;
+	private volatile boolean seeking;
+	private volatile boolean fastStart = true;
+	private volatile boolean filling;
+	private volatile boolean playbackHeld;
+	private volatile long playRequestTime;
+	private volatile long timeToFirstFrame = -1;
+	private double scale = 1.0;
+	private volatile int lastReceivedTimestamp;
+	private int reconnects;
 
-	private static int RTP_RCV_PORT = 25000;
-	private DatagramSocket rtpSocket;
-	private DatagramPacket rcvdPacket;
-	private PriorityQueue<Frame> videoBuffer;
-	private int playbackSeqNum;
+	private TransportProfile transport;
+	private DatagramChannel rtpChannel;
+	private volatile int requestedReceiveBuffer;
+	private volatile int receiveBufferSize;
+	private long lastBufferCheck;
+	private Selector rtpSelector;
+	private ByteBuffer[] receiveBuffers = new ByteBuffer[RECEIVE_BATCH_SIZE];
+	private long[] batchSequenceNumbers = new long[RECEIVE_BATCH_SIZE];
+	private Frame[] batchFrames = new Frame[RECEIVE_BATCH_SIZE];
+	private JitterBuffer videoBuffer = new JitterBuffer();
+	private volatile FrameStore frameStore;
+	private SequenceWindow sequenceWindow = new SequenceWindow();
+	private RateController rateController = new RateController();
+	private volatile boolean rateFeedback = Boolean.getBoolean("rtsp.rate.feedback");
+	private volatile boolean rateFeedbackPending;
+	// set when the rate last requested may not have reached the server
+	private volatile boolean rateFeedbackStale;
+	// set while a request from the user holds the connection, possibly
+	// waiting out the reconnection backoff
+	private volatile boolean requestInProgress;
+	// only written by the playout thread
+	private volatile long playbackSeqNum;
+	// a new playout point set by the receiver, applied by the playout thread
+	// on its next tick, or -1; guarded by receiveLock
+	private long playoutAnchor = -1;
 
 	private Socket streamSocket;
 	private int cseq;
 	private String rtspSessionId;
+	private int sessionTimeout = DEFAULT_SESSION_TIMEOUT_S;
+	private String keepAliveMethod = "GET_PARAMETER";
+	private KeepAliveScheduler.Timeout keepAliveTimeout;
 
 	private BufferedReader rtspReader;
 	private BufferedWriter rtspWriter;
 	private String videoName;
+	private StreamProfile profile;
+	private ErrorCounter receiveErrors = new ErrorCounter(LOG, "rtp.receive.error", ERROR_REPORT_INTERVAL_MS);
+	private ErrorCounter playbackErrors = new ErrorCounter(LOG, "playback.error", ERROR_REPORT_INTERVAL_MS);
 
 	// Playback stats
 	double lastPktReceivedTime;
@@ -69,10 +146,9 @@ public class RTSPConnection {
 	double frameRate;
 	float outOfOrderProportion;
 	float pktLossProportion;
-	int totalOutOfOrder;
-	int expectedSeq;
-	int highestSeqReceived;
-	int pktsReceived;
+	long totalOutOfOrder;
+	long highestSeqReceived;
+	long pktsReceived;
 	boolean firstPacketReceived;
 	
 	/**
@@ -91,22 +167,56 @@ public class RTSPConnection {
 	 */
 	public RTSPConnection(Session session, String server, int port)
 			throws RTSPException {
+		this(session, server, port, new TransportProfile());
+	}
+
+	/**
+	 * Establishes a new connection with an RTSP server, configuring the RTP
+	 * socket with the given options. No message is sent at this point, and no
+	 * stream is set up.
+	 * 
+	 * @param session
+	 *            The Session object to be used for connectivity with the UI.
+	 * @param server
+	 *            The hostname or IP address of the server.
+	 * @param port
+	 *            The TCP port number where the server is listening to.
+	 * @param transport
+	 *            The options of the RTP socket.
+	 * @throws RTSPException
+	 *             If the connection couldn't be accepted, such as if the host
+	 *             name or port number are invalid or there is no connectivity.
+	 */
+	public RTSPConnection(Session session, String server, int port,
+			TransportProfile transport) throws RTSPException {
 
 		this.session = session;
+		this.port = port;
+		this.transport = transport;
 		this.isPlaying = false;
 		try {
 			address = InetAddress.getByName(server);
 			cseq = 1;
 
-			streamSocket = new Socket(address, port);
-			rtpSocket = new DatagramSocket(RTP_RCV_PORT);
-
-			rtpSocket.setReceiveBufferSize(1000000);
-
-			rtspReader = new BufferedReader(new InputStreamReader(streamSocket.getInputStream()));
-			rtspWriter = new BufferedWriter(new OutputStreamWriter(streamSocket.getOutputStream()));
-
-			videoBuffer = new PriorityQueue<>(100, Comparator.comparingInt(Frame::getSequenceNumber));
+			openControlConnection();
+			// bind to an ephemeral port so several connections can coexist
+			rtpChannel = DatagramChannel.open();
+			rtpChannel.setOption(StandardSocketOptions.SO_REUSEADDR,
+					transport.isReuseAddress());
+			if (transport.getTrafficClass() >= 0)
+				rtpChannel.setOption(StandardSocketOptions.IP_TOS,
+						transport.getTrafficClass());
+			rtpChannel.bind(new InetSocketAddress(0));
+			setReceiveBufferSize(transport.getReceiveBufferSize());
+			if (transport.isBlockingReceive()) {
+				rtpChannel.socket().setSoTimeout((int) transport.getReceiveTimeoutMs());
+			} else {
+				rtpChannel.configureBlocking(false);
+				rtpSelector = Selector.open();
+				rtpChannel.register(rtpSelector, SelectionKey.OP_READ);
+			}
+			for (int i = 0; i < RECEIVE_BATCH_SIZE; i++)
+				receiveBuffers[i] = ByteBuffer.allocate(BUFFER_LENGTH);
 
 		} catch(Exception e) {
 			String exception = "An RTSP connection could not be made to port: " + port;
@@ -133,48 +243,293 @@ public class RTSPConnection {
 	 */
 	public synchronized void setup(String videoName) throws RTSPException {
 		this.videoName = videoName;
+		profile = FrameProfiler.createProfile(videoName);
+
+		if (sendRequest("SETUP", transportHeader()).getResponseCode() == 200) {
+			isSetUp = true;
+			updateKeepAlive();
+		}
+	}
+
+	private String transportHeader() {
+		return "Transport: RTP/UDP; client_port= " + rtpChannel.socket().getLocalPort() + CRLF;
+	}
 
-		sendRequestHeader("SETUP");
-		String request = "Transport: RTP/UDP; client_port= " + RTP_RCV_PORT + CRLF + CRLF;
-		sendRequest(request);
+	/**
+	 * Requests a new receive buffer size for the RTP socket and checks what
+	 * the kernel granted. Linux reports twice the size granted, as it reserves
+	 * the same amount again for its own bookkeeping, so a size between the
+	 * requested one and twice that means the request was capped.
+	 */
+	private void setReceiveBufferSize(int size) throws IOException {
+		rtpChannel.setOption(StandardSocketOptions.SO_RCVBUF, size);
+		int effective = rtpChannel.getOption(StandardSocketOptions.SO_RCVBUF);
+		requestedReceiveBuffer = size;
+		receiveBufferSize = effective;
+		if (effective != size && effective < 2L * size)
+			LOG.log(Level.WARN, "rtp.buffer.limited", "requested", size,
+					"effective", effective);
 	}
 
-	private int sendRequest(String request) throws RTSPException {
-		System.out.print("[CLIENT] " + request);
+	/**
+	 * Grows the receive buffer of the RTP socket if the bit rate measured by
+	 * the rate controller needs a larger buffer than the one requested so far.
+	 * The buffer is never shrunk.
+	 */
+	private void growReceiveBuffer() {
+		long bitrate = rateController.getReceivedBitrate();
+		int needed = transport.getReceiveBufferSize(bitrate);
+		if (needed <= requestedReceiveBuffer)
+			return;
 		try {
-			rtspWriter.write(request);
-			rtspWriter.flush();
+			setReceiveBufferSize(needed);
+			LOG.log(Level.INFO, "rtp.buffer.resized", "session", rtspSessionId,
+					"bitrate", bitrate, "requested", needed, "effective",
+					receiveBufferSize);
 		} catch (IOException e) {
-			throw new RTSPException("Could not send to buffered writer.");
+			receiveErrors.record(e);
 		}
+	}
+
+	private void openControlConnection() throws IOException {
+		streamSocket = new Socket(address, port);
+		rtspReader = new BufferedReader(new InputStreamReader(streamSocket.getInputStream()));
+		rtspWriter = new BufferedWriter(new OutputStreamWriter(streamSocket.getOutputStream()));
+	}
 
+	private void closeControlConnection() {
 		try {
-			return readFromServer();
+			streamSocket.close();
 		} catch (IOException e) {
-			throw new RTSPException("Could not read from buffered reader.");
+			// the connection is being discarded anyway
 		}
 	}
 
-	private int readFromServer() throws IOException {
-		String value;
-		int responseCode = -1;
-		while((value = rtspReader.readLine()) != null) {
-			if (value.isEmpty()) {
-				break;
+	/**
+	 * Sends a request to the server and returns the response code. If the
+	 * control connection turns out to be broken, the connection is
+	 * re-established (and the session restored) before the request is sent
+	 * once more.
+	 */
+	private RTSPResponse sendRequest(String requestType, String headers) throws RTSPException {
+		return sendRequest(requestType, headers, "");
+	}
+
+	private RTSPResponse sendRequest(String requestType, String headers,
+			String body) throws RTSPException {
+		requestInProgress = true;
+		try {
+			return sendOrReconnect(requestType, headers, body);
+		} finally {
+			requestInProgress = false;
+		}
+	}
+
+	private RTSPResponse sendOrReconnect(String requestType, String headers,
+			String body) throws RTSPException {
+		try {
+			return transmit(requestType, headers, body);
+		} catch (IOException e) {
+			LOG.log(Level.WARN, "connection.lost", "session", rtspSessionId,
+					"request", requestType, "error", e.getMessage());
+		}
+
+		boolean wasStreaming = isStreaming;
+		reconnect();
+		if (requestType.equals("PLAY") && wasStreaming && headers.isEmpty()) {
+			// the stream was already resumed while restoring the session
+			return new RTSPResponse("RTSP/1.0", 200, "OK");
+		}
+		if (requestType.equals("PLAY") && restoredWhilePaused
+				&& !headers.contains("Range:")) {
+			// resuming a paused stream, whose position the server forgot
+			headers = resumeRange() + headers;
+		}
+		try {
+			return transmit(requestType, headers, body);
+		} catch (IOException e) {
+			throw new RTSPException("Could not send RTSP message with type: " + requestType, e);
+		}
+	}
+
+	private RTSPResponse transmit(String requestType, String headers)
+			throws IOException, RTSPException {
+		return transmit(requestType, headers, "");
+	}
+
+	private RTSPResponse transmit(String requestType, String headers,
+			String body) throws IOException, RTSPException {
+		StringBuilder request = new StringBuilder();
+		request.append(requestType).append(' ').append(videoName).append(" RTSP/1.0").append(CRLF);
+		int requestSeq = cseq++;
+		request.append("CSeq: ").append(requestSeq).append(CRLF);
+		if (rtspSessionId != null && !requestType.equals("SETUP"))
+			request.append("Session: ").append(rtspSessionId).append(CRLF);
+		request.append(headers);
+		LOG.log(Level.INFO, "request", "method", requestType, "cseq",
+				requestSeq, "session", rtspSessionId, "video", videoName);
+		if (LOG.isEnabled(Level.DEBUG)) {
+			for (String line : request.toString().split(CRLF))
+				LOG.log(Level.DEBUG, "send", "cseq", requestSeq, "line", line);
+		}
+		request.append(CRLF);
+		request.append(body);
+
+		rtspWriter.write(request.toString());
+		rtspWriter.flush();
+
+		RTSPResponse response = RTSPResponse.readRTSPResponse(rtspReader);
+		if (response == null)
+			throw new EOFException("Connection closed by server.");
+		String sessionHeader = response.getHeaderValue("Session");
+		if (sessionHeader != null)
+			parseSessionHeader(sessionHeader);
+		LOG.log(Level.INFO, "response", "method", requestType, "cseq",
+				requestSeq, "status", response.getResponseCode(), "session",
+				rtspSessionId);
+		updateKeepAlive();
+		return response;
+	}
+
+	/**
+	 * Re-establishes the control connection, retrying with an exponential
+	 * backoff. Once connected, the stream is set up again (reusing the same
+	 * RTP port) and, if it was playing, resumed from the last frame received.
+	 * The playout buffer is kept, so frames received before the failure are
+	 * still played during the recovery. A stream that was paused is resumed
+	 * from the same point on the next PLAY.
+	 */
+	private void reconnect() throws RTSPException {
+		long delay = RECONNECT_INITIAL_DELAY_MS;
+		for (int attempt = 1; ; attempt++) {
+			closeControlConnection();
+			try {
+				openControlConnection();
+				restoreSession();
+				reconnects++;
+				LOG.log(Level.INFO, "reconnected", "session", rtspSessionId,
+						"attempts", attempt);
+				return;
+			} catch (IOException e) {
+				if (attempt == RECONNECT_MAX_ATTEMPTS)
+					throw new RTSPException("Could not reconnect to the server.", e);
 			}
-			if (value.startsWith("Session: ")) {
-				rtspSessionId = value.substring(9);
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RTSPException("Interrupted while reconnecting to the server.", e);
 			}
-			if (value.startsWith("RTSP")) {
-				String[] split = value.split(" ");
-				if (split.length > 1) {
-					responseCode = Integer.parseInt(split[1]);
+			delay = Math.min(delay * 2, RECONNECT_MAX_DELAY_MS);
+		}
+	}
+
+	private void restoreSession() throws IOException, RTSPException {
+		if (!isSetUp)
+			return;
+		if (transmit("SETUP", transportHeader()).getResponseCode() != 200)
+			throw new RTSPException("Server did not accept the session to be set up again.");
+		if (!isStreaming) {
+			// the server forgot the position, so the next PLAY must send it
+			restoredWhilePaused = true;
+		} else {
+			// frames of the resumed stream continue after those already received
+			rebasePending = true;
+			synchronized (receiveLock) {
+				rateController.restart();
+			}
+			if (transmit("PLAY", resumeRange()).getResponseCode() != 200)
+				throw new RTSPException("Server did not accept the stream to be resumed.");
+		}
+	}
+
+	/**
+	 * Returns a Range header that resumes the stream right after the last
+	 * frame received.
+	 */
+	private String resumeRange() {
+		return String.format(Locale.ROOT, "Range: npt=%.3f-", lastReceivedTimestamp / 1000.0) + CRLF;
+	}
+
+	/**
+	 * Parses the value of a Session header, in the form
+	 * <code>id[;timeout=seconds]</code>.
+	 */
+	private void parseSessionHeader(String value) {
+		String[] parts = value.split(";");
+		rtspSessionId = parts[0].trim();
+		for (int i = 1; i < parts.length; i++) {
+			String[] parameter = parts[i].split("=", 2);
+			if (parameter.length == 2 && parameter[0].trim().equalsIgnoreCase("timeout")) {
+				try {
+					int timeout = Integer.parseInt(parameter[1].trim());
+					if (timeout > 0)
+						sessionTimeout = timeout;
+				} catch (NumberFormatException e) {
+					// keep the previous timeout
 				}
 			}
-			System.out.println("[SERVER] " + value);
 		}
-		System.out.println();
-		return responseCode;
+	}
+
+	/**
+	 * Schedules the next keep-alive request while the stream is set up but
+	 * paused, or cancels it while the stream is playing. The server restarts
+	 * its session timer on every request, so this is called after each
+	 * response; the keep-alive is sent once half of the session timeout has
+	 * elapsed without any other request. While the stream is playing, the
+	 * RTP packets already show the server that the client is alive, and some
+	 * servers close the connection on requests they do not support.
+	 */
+	private void updateKeepAlive() {
+		if (keepAliveTimeout != null)
+			keepAliveTimeout.cancel();
+		keepAliveTimeout = null;
+		if (!isSetUp || isStreaming || keepAliveMethod == null)
+			return;
+		keepAliveTimeout = KeepAliveScheduler.getInstance().schedule(new Runnable() {
+			@Override
+			public void run() {
+				keepAlive();
+			}
+		}, sessionTimeout * 1000L / 2);
+	}
+
+	private void cancelKeepAlive() {
+		if (keepAliveTimeout != null) {
+			keepAliveTimeout.cancel();
+			keepAliveTimeout = null;
+		}
+	}
+
+	/**
+	 * Sends a request whose only purpose is to keep the session alive in the
+	 * server. GET_PARAMETER with no body is used, falling back to OPTIONS on
+	 * the next keep-alive if the server does not support it. If neither is
+	 * supported, no more keep-alives are sent in this session.
+	 * 
+	 * The connection is not re-established if the request fails, so play and
+	 * pause are never held up behind the reconnection backoff; the next
+	 * request from the user reconnects instead, which also arms the
+	 * keep-alive again.
+	 */
+	private synchronized void keepAlive() {
+		if (!isSetUp || isStreaming || keepAliveMethod == null)
+			return;
+		int responseCode;
+		try {
+			responseCode = transmit(keepAliveMethod, "").getResponseCode();
+		} catch (IOException | RTSPException e) {
+			cancelKeepAlive();
+			LOG.log(Level.WARN, "keepalive.failed", "session", rtspSessionId,
+					"method", keepAliveMethod, "error", e.getMessage());
+			return;
+		}
+		if (responseCode == 405 || responseCode == 501) {
+			keepAliveMethod = keepAliveMethod.equals("GET_PARAMETER") ? "OPTIONS" : null;
+			if (keepAliveMethod == null)
+				cancelKeepAlive();
+		}
 	}
 
 	/**
@@ -188,118 +543,572 @@ public class RTSPConnection {
 	 *             if the server did not return a successful response.
 	 */
 	public synchronized void play() throws RTSPException {
-		if (!this.isPlaying) {
+		play(-1, scale);
+	}
+
+	/**
+	 * Sends a PLAY request to the server, optionally starting from a given
+	 * position and/or at a given speed. When a position is given, frames
+	 * buffered from the previous position are discarded, and playback is
+	 * re-anchored on the sequence number announced by the server in the
+	 * RTP-Info header (or, if absent, on the first packet received whose
+	 * timestamp is close to the requested position, as packets sent from the
+	 * previous position may still be in flight), without waiting for the
+	 * buffer to be filled again.
+	 *
+	 * @param start
+	 *            The position to start playing from, in seconds from the
+	 *            beginning of the video, or a negative number to resume from
+	 *            the current position.
+	 * @param scale
+	 *            The playback speed relative to normal speed (e.g., 2 for fast
+	 *            forward, -1 for reverse), as requested in the Scale header.
+	 * @throws RTSPException
+	 *             If there was an error sending or receiving the RTSP data, or
+	 *             if the server did not return a successful response.
+	 */
+	public synchronized void play(double start, double scale) throws RTSPException {
+		boolean fresh = !this.isPlaying;
+		if (fresh) {
 			startTime = System.currentTimeMillis();
 			this.isPlaying = true;
 		}
-		sendRequestHeader("PLAY");
-		String request = "Session: " + rtspSessionId + CRLF + CRLF;
-		if (sendRequest(request) == 200) {
-			playbackSeqNum = 0;
-			startRTPTimer();
-			firstPacketReceived = false;
-			startPlaybackTimer();
+		long requestTime = System.nanoTime();
+
+		String headers = "";
+		if (start >= 0)
+			headers += String.format(Locale.ROOT, "Range: npt=%.3f-", start) + CRLF;
+		else if (restoredWhilePaused)
+			headers += resumeRange();
+		if (scale != 1.0)
+			headers += String.format(Locale.ROOT, "Scale: %.3f", scale) + CRLF;
+
+		RTSPResponse response = sendRequest("PLAY", headers);
+		if (response.getResponseCode() == 455 && isStreaming) {
+			// some servers only accept a new position when paused
+			if (sendRequest("PAUSE", "").getResponseCode() == 200)
+				response = sendRequest("PLAY", headers);
+		}
+		if (response.getResponseCode() != 200)
+			return;
+		this.scale = scale;
+		if (restoredWhilePaused && start < 0) {
+			// the server numbers the resumed stream from scratch
+			rebasePending = true;
+		}
+		restoredWhilePaused = false;
+		synchronized (receiveLock) {
+			// arrival times before the PLAY say nothing about the new stream
+			rateController.restart();
+		}
+
+		if (fresh || start >= 0) {
+			// re-anchor the playout point on the new position of the stream
+			videoBuffer.clear();
+			anchorSequence = parseRtpInfoSequence(response.getHeaderValue("RTP-Info"));
+			// without a sequence number, the packets of the new position are
+			// told apart from those still in flight by their timestamps
+			anchorTimestamp = start >= 0 ? Math.round(start * 1000) : -1;
+			anchorTolerance = Math.round(ANCHOR_TOLERANCE_MS
+					* Math.max(1, Math.abs(scale)));
+			anchorDeadline = System.currentTimeMillis() + ANCHOR_WAIT_MS;
+			if (fresh && anchorSequence < 0)
+				anchorOnBuffer = true;
+			else
+				anchorPending = true;
+			seeking = !fresh;
+			playRequestTime = requestTime;
+			timeToFirstFrame = -1;
+		} else if (timeToFirstFrame < 0) {
+			// resuming a stream that was buffered but never played
+			playRequestTime = requestTime;
+		}
+		if (!isStreaming) {
+			startReceiver();
+			// only a fresh stream waits for the buffer to fill up
+			firstPacketReceived = !fresh;
+			startPlayback();
 		}
+		isStreaming = true;
+		updateKeepAlive();
 	}
 
 	/**
-	 * Starts a timer that reads RTP packets repeatedly. The timer will wait at
-	 * least MINIMUM_DELAY_READ_PACKETS_MS after receiving a packet to read the
-	 * next one.
+	 * Returns the sequence number of the first packet in the RTP-Info header
+	 * (<code>url=...;seq=N;rtptime=T</code>), or -1 if there is none.
 	 */
-	private void startRTPTimer() {
-		rtpTimer = new Timer();
-		rtpTimer.schedule(new TimerTask() {
-			@Override
-			public void run() {
+	private static int parseRtpInfoSequence(String rtpInfo) {
+		if (rtpInfo == null)
+			return -1;
+		String firstStream = rtpInfo.split(",")[0];
+		for (String parameter : firstStream.split(";")) {
+			String[] pair = parameter.split("=", 2);
+			if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("seq")) {
 				try {
-					receiveRTPPacket();
-				} catch (Exception e) {
-					e.printStackTrace();
+					return Integer.parseInt(pair[1].trim()) & 0xFFFF;
+				} catch (NumberFormatException e) {
+					return -1;
 				}
 			}
-		}, 0, MINIMUM_DELAY_READ_PACKETS_MS);
+		}
+		return -1;
 	}
 
-	private void startPlaybackTimer() {
-		playbackTimer = new Timer();
-		playbackTimer.schedule(new TimerTask() {
+	/**
+	 * Starts a thread that receives RTP packets until the stream is paused or
+	 * torn down. The thread waits for the socket to become readable, and then
+	 * drains every datagram already queued in the socket as a single batch.
+	 * With a blocking receive, the thread instead waits in a blocking receive
+	 * of the first datagram of the batch, with the receive timeout of the
+	 * transport profile.
+	 * 
+	 * There is never more than one receiver for the channel: a receiver that
+	 * was stopped, but is still waiting for a datagram, is simply kept going.
+	 * Only the receiver reads from the channel, or changes its blocking mode.
+	 */
+	private void startReceiver() {
+		synchronized (receiverLock) {
+			receiving = true;
+			if (receiverThread != null)
+				return;
+			receiverThread = TaskExecutors.startThread("rtp-receiver-"
+					+ rtpChannel.socket().getLocalPort(), new Runnable() {
+				@Override
+				public void run() {
+					DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+					// not interrupted to stop, as that would close the channel
+					while (keepReceiving()) {
+						try {
+							int received;
+							if (rtpSelector != null) {
+								rtpSelector.select(transport.getReceiveTimeoutMs());
+								rtpSelector.selectedKeys().clear();
+								received = readRTPPackets(0);
+							} else if (awaitRTPPacket(packet)) {
+								rtpChannel.configureBlocking(false);
+								try {
+									received = readRTPPackets(1);
+								} finally {
+									rtpChannel.configureBlocking(true);
+								}
+							} else {
+								continue;
+							}
+							receiveRTPPackets(received);
+						} catch (ClosedSelectorException | ClosedChannelException e) {
+							// the connection was closed while receiving
+							return;
+						} catch (Exception e) {
+							if (!rtpChannel.isOpen())
+								return;
+							receiveErrors.record(e);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Checks, from the receiving thread, whether it should keep receiving. A
+	 * receiver that stops forgets itself in the same step, so a receiver
+	 * started at the same time is either this one kept going, or a new one.
+	 */
+	private boolean keepReceiving() {
+		if (receiving)
+			return true;
+		synchronized (receiverLock) {
+			if (receiving)
+				return true;
+			receiverThread = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Waits for a datagram in blocking mode and stores it in the first batch
+	 * buffer, ready to be read.
+	 * 
+	 * @return <tt>true</tt> if a datagram was received, or <tt>false</tt> if
+	 *         the receive timeout expired first.
+	 */
+	private boolean awaitRTPPacket(DatagramPacket packet) throws IOException {
+		ByteBuffer buffer = receiveBuffers[0];
+		packet.setData(buffer.array());
+		try {
+			rtpChannel.socket().receive(packet);
+		} catch (SocketTimeoutException e) {
+			return false;
+		}
+		buffer.clear();
+		buffer.limit(packet.getLength());
+		return true;
+	}
+
+	/**
+	 * Reads the datagrams queued in the socket, in non-blocking mode, into the
+	 * batch buffers, up to RECEIVE_BATCH_SIZE. Only the receiving thread uses
+	 * the batch buffers, so no lock is held while reading.
+	 * 
+	 * @param received
+	 *            The number of datagrams already in the batch buffers.
+	 * @return The number of datagrams in the batch buffers.
+	 */
+	private int readRTPPackets(int received) throws IOException {
+		while (received < RECEIVE_BATCH_SIZE) {
+			ByteBuffer buffer = receiveBuffers[received];
+			buffer.clear();
+			if (rtpChannel.receive(buffer) == null)
+				break;
+			buffer.flip();
+			received++;
+		}
+		return received;
+	}
+
+	private void stopReceiver() {
+		receiving = false;
+		if (rtpSelector != null)
+			rtpSelector.wakeup();
+	}
+
+	/**
+	 * Starts a thread that plays the buffered frames, one tick every
+	 * PLAYBACK_SPEED milliseconds, until the stream is paused or torn down.
+	 */
+	private void startPlayback() {
+		final int generation = ++playbackGeneration;
+		playbackThread = TaskExecutors.startThread("rtp-playout-"
+				+ rtpChannel.socket().getLocalPort(), new Runnable() {
 			@Override
 			public void run() {
-				try {
-					// always sleep for 3s to buffer at first
-					if (!firstPacketReceived) {
-						firstPacketReceived = true;
-						Thread.sleep(3000);
+				while (generation == playbackGeneration
+						&& !Thread.currentThread().isInterrupted()) {
+					playbackTick();
+					try {
+						Thread.sleep(PLAYBACK_SPEED);
+					} catch (InterruptedException e) {
+						return;
 					}
+				}
+			}
+		});
+	}
 
-					if (!videoBuffer.isEmpty()) {
+	private void stopPlayback() {
+		playbackGeneration++;
+		Thread thread = playbackThread;
+		if (thread != null) {
+			playbackThread = null;
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Plays the next frame of the stream, if it was received.
+	 */
+	private void playbackTick() {
+		try {
+			if (playbackHeld)
+				return;
+			if (!firstPacketReceived) {
+				if (fastStart) {
+					// show the first frame as soon as it arrives, and
+					// fill the buffer while playing
+					if (videoBuffer.isEmpty())
+						return;
+					filling = true;
+				} else {
+					// sleep for 3s to buffer at first
+					Thread.sleep(3000);
+				}
+				firstPacketReceived = true;
+				LOG.log(Level.INFO, "playback.start", "session",
+						rtspSessionId, "fastStart", fastStart);
+			}
+
+			synchronized (receiveLock) {
+				if (playoutAnchor >= 0) {
+					playbackSeqNum = playoutAnchor;
+					playoutAnchor = -1;
+				}
+				// frames that arrived after their playout time would block
+				// the buffer
+				videoBuffer.dropOlderThan(playbackSeqNum);
+			}
+
+			// a new stream starts with the lowest frame buffered, not with 0
+			if (anchorOnBuffer) {
+				long head = videoBuffer.peekSequenceNumber();
+				if (head >= 0) {
+					playbackSeqNum = head;
+					anchorOnBuffer = false;
+				}
+			}
+
+			if (!videoBuffer.isEmpty()) {
+				seeking = false;
 //						System.out.println("BUFFER SEQ: " + videoBuffer.peek().getSequenceNumber());
 //						System.out.println("GLOBAL SEQ: " + playbackSeqNum);
-						while (!videoBuffer.isEmpty() && videoBuffer.peek().getSequenceNumber() == playbackSeqNum) {
-							session.processReceivedFrame(videoBuffer.poll());
-						}
-						playbackSeqNum++;
-					} else {
-						updateStatistics();
-						long sleepTime = BUFFER_FRAMES/((long) frameRate) * 1000;
-						Thread.sleep(sleepTime);
-					}
+				while (videoBuffer.peekSequenceNumber() == playbackSeqNum) {
+					if (timeToFirstFrame < 0)
+						timeToFirstFrame = (System.nanoTime() - playRequestTime) / 1000000;
+					Frame frame = videoBuffer.poll();
+					FrameProfiler.mark(frame, Stage.DEQUEUE);
+					session.processReceivedFrame(frame);
+					// consumers that keep the frame have retained it
+					frame.release();
+				}
+				playbackSeqNum++;
 
-				} catch (Exception e) {
-					e.printStackTrace();
+				if (filling) {
+					// play slightly slower than real time until the
+					// buffer reaches its target depth
+					if (videoBuffer.size() < BUFFER_FRAMES)
+						Thread.sleep(PLAYBACK_SPEED * FAST_START_SLOWDOWN_PERCENT / 100);
+					else
+						filling = false;
 				}
+			} else if (!seeking && !filling) {
+				// after a seek, or while filling the buffer, the next
+				// frame is shown as soon as it arrives
+				updateStatistics();
+				// wait about as long as the server takes to send a full
+				// buffer, but no longer than a buffer lasts when played
+				long sleepTime = Math.min(PLAYBACK_SPEED * BUFFER_FRAMES,
+						Math.round(BUFFER_FRAMES * 1000.0 / Math.max(frameRate, 1)));
+				Thread.sleep(sleepTime);
 			}
-		}, 0, PLAYBACK_SPEED);
+
+		} catch (InterruptedException e) {
+			// stopped while waiting, the loop ends right away
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			playbackErrors.record(e);
+		}
 	}
 
 	/**
-	 * Receives a single RTP packet and processes the corresponding frame. The
-	 * data received from the datagram socket is assumed to be no larger than
-	 * BUFFER_LENGTH bytes. This data is then parsed into a Frame object (using
-	 * the parseRTPPacket method) and the method session.processReceivedFrame is
-	 * called with the resulting packet. In case of timeout no exception should
-	 * be thrown and no frame should be processed.
+	 * Processes the datagrams read by readRTPPackets. The datagrams are
+	 * parsed into Frame objects (using the parseRTPPacket method) and added to
+	 * the playout buffer all at once, so the buffer lock and the statistics
+	 * are updated once per batch rather than once per packet. If no packet was
+	 * read, nothing is processed.
+	 * 
+	 * @param received
+	 *            The number of datagrams in the batch buffers, each assumed
+	 *            to be no larger than BUFFER_LENGTH bytes.
 	 */
-	private void receiveRTPPacket() {
-		updateStatistics();
+	private void receiveRTPPackets(int received) {
+		if (received == 0)
+			return;
+		synchronized (receiveLock) {
+			StreamProfile profile = this.profile;
+			long allocatedBefore = FrameProfiler.threadAllocatedBytes();
 
-		try {
-			buf = new byte[BUFFER_LENGTH];
-			rcvdPacket = new DatagramPacket(buf, BUFFER_LENGTH);
-			rtpSocket.receive(rcvdPacket);
-			Frame rtpPacket = parseRTPPacket(rcvdPacket.getData(), rcvdPacket.getLength());
+			long now = System.currentTimeMillis();
+			rateController.batchReceived(received == RECEIVE_BATCH_SIZE);
 
-			videoBuffer.add(rtpPacket);
+			int accepted = 0;
+			for (int i = 0; i < received; i++) {
+				ByteBuffer buffer = receiveBuffers[i];
+				FrameTrace trace = profile != null ? profile.startFrame() : null;
+				long extendedSeq = acceptRTPPacket(buffer);
+				if (extendedSeq < 0)
+					continue;
 
-			if (!firstPacketReceived) {
-				Thread.sleep(500);
-				firstPacketReceived = true;
-				System.out.println("[INFO] Initial buffering done. Playing back video.");
+				Frame rtpPacket;
+				try {
+					rtpPacket = parseRTPPacket(buffer.array(), buffer.limit(), frameStore);
+				} catch (RTSPException e) {
+					receiveErrors.record(e);
+					continue;
+				}
+				if (trace != null) {
+					trace.setSequenceNumber(extendedSeq);
+					rtpPacket.setTrace(trace);
+					trace.mark(Stage.PARSE);
+				}
+				if (extendedSeq == sequenceWindow.getHighest())
+					lastReceivedTimestamp = rtpPacket.getTimestamp();
+
+				// a packet is out of order if a later one arrived before it
+				long highest = sequenceWindow.getHighest();
+				if (extendedSeq != highest)
+					totalOutOfOrder++;
+				highestSeqReceived = highest;
+				pktsReceived++;
+				rateController.packetReceived(extendedSeq,
+						rtpPacket.getTimestamp(), rtpPacket.getPayloadLength(), now);
+
+				batchSequenceNumbers[accepted] = extendedSeq;
+				batchFrames[accepted++] = rtpPacket;
 			}
 
-			lastPktReceivedTime = System.currentTimeMillis();
-			int seq = rtpPacket.getSequenceNumber();
-			if (seq > highestSeqReceived) {
-				highestSeqReceived = seq;
+			videoBuffer.addAll(batchSequenceNumbers, batchFrames, accepted);
+			if (profile != null) {
+				long allocated = FrameProfiler.threadAllocatedBytes() - allocatedBefore;
+				for (int i = 0; i < accepted; i++) {
+					FrameTrace trace = batchFrames[i].getTrace();
+					trace.mark(Stage.ENQUEUE);
+					trace.addAllocatedBytes(Stage.RECEIVE, allocated / accepted);
+				}
 			}
-			if (expectedSeq != seq) {
-				totalOutOfOrder++;
+			for (int i = 0; i < accepted; i++)
+				batchFrames[i] = null;
+
+			lastPktReceivedTime = now;
+			updateStatistics();
+			boolean intervalEnded = now - lastBufferCheck >= RateController.INTERVAL_MS;
+			if ((rateController.update(now) || intervalEnded
+					&& rateFeedbackStale) && rateFeedback)
+				requestRateFeedback();
+			if (intervalEnded) {
+				lastBufferCheck = now;
+				growReceiveBuffer();
 			}
-//			System.out.printf("[INFO] Got packet with sequence number %d, expected %d, total frames received: %d\n", seq, expectedSeq, pktsReceived);
-			pktsReceived++;
-			expectedSeq++;
-		} catch (Exception e) {
-			// just try again.
-			e.printStackTrace();
 		}
+	}
 
+	/**
+	 * Sends the rate requested by the rate controller to the server in the
+	 * background, so the receiving thread never waits for the server. If
+	 * several changes happen before the request is sent, only the latest one
+	 * is sent. A change that happens while a request is already being sent
+	 * is sent at the end of the next interval.
+	 */
+	private void requestRateFeedback() {
+		if (rateFeedbackPending) {
+			rateFeedbackStale = true;
+			return;
+		}
+		rateFeedbackPending = true;
+		TaskExecutors.getTaskExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sendRateFeedback();
+				} catch (RTSPException e) {
+					session.processException(e);
+				} finally {
+					rateFeedbackPending = false;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Asks the server to send the stream at the rate requested by the rate
+	 * controller, using a SET_PARAMETER request with the parameters
+	 * <code>frame-rate</code> (frames per second) and <code>bandwidth</code>
+	 * (bits per second). Once the full stream is requested again, the nominal
+	 * values are sent. If the server does not accept the request, no more
+	 * feedback is sent on this connection.
+	 * 
+	 * The feedback never holds up a request from the user: it is dropped,
+	 * and sent again at the end of the next interval, if a request is in
+	 * progress or if the request fails. A failed request does not re-establish
+	 * the connection; the next request from the user does.
+	 */
+	private void sendRateFeedback() throws RTSPException {
+		if (requestInProgress) {
+			rateFeedbackStale = true;
+			return;
+		}
+		synchronized (this) {
+			rateFeedbackStale = false;
+			double frameRate = rateController.getTargetFrameRate();
+			if (!isStreaming || !rateFeedback || frameRate <= 0)
+				return;
+			long bitrate = rateController.getTargetBitrate();
+			String body = String.format(Locale.ROOT, "frame-rate: %.2f", frameRate)
+					+ CRLF + "bandwidth: " + bitrate + CRLF;
+			String headers = "Content-Type: text/parameters" + CRLF
+					+ "Content-Length: " + body.length() + CRLF;
+			int responseCode;
+			try {
+				responseCode = transmit("SET_PARAMETER", headers, body).getResponseCode();
+			} catch (IOException e) {
+				rateFeedbackStale = true;
+				LOG.log(Level.WARN, "rate.feedback.failed", "session",
+						rtspSessionId, "error", e.getMessage());
+				return;
+			}
+			LOG.log(Level.INFO, "rate.feedback", "session", rtspSessionId,
+					"frameRate", Formatter.format(frameRate), "bitrate", bitrate,
+					"status", responseCode);
+			LOG.log(Level.INFO, "rate.signals", "fraction",
+					Formatter.format(rateController.getFraction()), "loss",
+					Formatter.format(rateController.getLoss()), "queueDelayMs",
+					rateController.getQueueDelay(), "backlog",
+					Formatter.format(rateController.getBacklog()));
+			if (responseCode != 200) {
+				rateFeedback = false;
+				LOG.log(Level.WARN, "rate.feedback.disabled", "session",
+						rtspSessionId, "status", responseCode);
+			}
+		}
+	}
+
+	/**
+	 * Checks the sequence number of a received packet, so duplicates and late
+	 * packets are dropped before the payload is copied.
+	 * 
+	 * @return The extended sequence number of the packet, or -1 if the packet
+	 *         should be dropped.
+	 */
+	private long acceptRTPPacket(ByteBuffer packet) {
+		if (packet.limit() < 12) {
+			receiveErrors.record(new RTSPException("Could not parse RTP packet."));
+			return -1;
+		}
+		short rawSeq = packet.getShort(2);
+		if (anchorPending) {
+			// first packet after a PLAY that started a new position
+			if (anchorSequence < 0 && !isAtAnchorTimestamp(packet.getInt(4)))
+				return -1;
+			anchorPending = false;
+			rebasePending = false;
+			videoBuffer.clear();
+			sequenceWindow.reset();
+			playoutAnchor = anchorSequence >= 0 ? anchorSequence : (rawSeq & 0xFFFF);
+		}
+		if (rebasePending) {
+			rebasePending = false;
+			sequenceWindow.rebase();
+		}
+		long extendedSeq = sequenceWindow.extend(rawSeq);
+		long playout = playoutAnchor >= 0 ? playoutAnchor : playbackSeqNum;
+		if (sequenceWindow.check(extendedSeq, playout) != SequenceWindow.ACCEPTED)
+			return -1;
+		return extendedSeq;
+	}
+
+	/**
+	 * Checks whether a packet received while waiting for the first packet of
+	 * a new position was sent from that position, and not from the previous
+	 * one: its timestamp (in milliseconds, as in resumeRange) must be within
+	 * ANCHOR_TOLERANCE_MS of the requested start, scaled by the speed. A
+	 * server that ignores the requested position never sends such a packet,
+	 * so after ANCHOR_WAIT_MS any packet is taken.
+	 */
+	private boolean isAtAnchorTimestamp(int timestamp) {
+		long expected = anchorTimestamp;
+		if (expected < 0)
+			return true;
+		if (Math.abs((timestamp & 0xFFFFFFFFL) - expected) <= anchorTolerance)
+			return true;
+		if (System.currentTimeMillis() < anchorDeadline)
+			return false;
+		LOG.log(Level.WARN, "seek.range.ignored", "session", rtspSessionId,
+				"requested", expected, "timestamp", timestamp & 0xFFFFFFFFL);
+		return true;
 	}
 
 	/**
 	 * Sends a PAUSE request to the server. This method is responsible for
 	 * sending the request, receiving the response and, in case of a successful
-	 * response, cancelling the RTP timer responsible for receiving RTP packets
+	 * response, stopping the thread responsible for receiving RTP packets
 	 * with frames.
 	 * 
 	 * @throws RTSPException
@@ -307,11 +1116,11 @@ public class RTSPConnection {
 	 *             if the server did not return a successful response.
 	 */
 	public synchronized void pause() throws RTSPException {
-		sendRequestHeader("PAUSE");
-		String request = "Session: " + rtspSessionId + CRLF + CRLF;
-		if (sendRequest(request) == 200) {
-			rtpTimer.cancel();
-			playbackTimer.cancel();
+		if (sendRequest("PAUSE", "").getResponseCode() == 200) {
+			isStreaming = false;
+			stopReceiver();
+			stopPlayback();
+			updateKeepAlive();
 		}
 	}
 
@@ -321,8 +1130,8 @@ public class RTSPConnection {
 	 * response, closing the RTP socket. This method does not close the RTSP
 	 * connection, and a further SETUP in the same connection should be
 	 * accepted. Also this method can be called both for a paused and for a
-	 * playing stream, so the timer responsible for receiving RTP packets will
-	 * also be cancelled.
+	 * playing stream, so the thread responsible for receiving RTP packets will
+	 * also be stopped.
 	 * 
 	 * @throws RTSPException
 	 *             If there was an error sending or receiving the RTSP data, or
@@ -330,22 +1139,36 @@ public class RTSPConnection {
 	 */
 	public synchronized void teardown() throws RTSPException {
 		printStatistics();
-		sendRequestHeader("TEARDOWN");
-		String request = "Session: " + rtspSessionId + CRLF + CRLF;
-		if (sendRequest(request) == 200) {
+		if (sendRequest("TEARDOWN", "").getResponseCode() == 200) {
 			this.isPlaying = false;
+			isSetUp = false;
+			isStreaming = false;
+			cancelKeepAlive();
+			sessionTimeout = DEFAULT_SESSION_TIMEOUT_S;
+			keepAliveMethod = "GET_PARAMETER";
+			restoredWhilePaused = false;
 			highestSeqReceived = 0;
 			totalOutOfOrder = 0;
 			startTime = 0;
-			expectedSeq = 0;
 			totalPlayTime = 0;
 			pktsReceived = 0;
 			outOfOrderProportion = 0;
-			rtpTimer.cancel();
-			playbackTimer.cancel();
+			stopReceiver();
+			stopPlayback();
 			firstPacketReceived = false;
-			videoBuffer.clear();
-			playbackSeqNum = 0;
+			synchronized (receiveLock) {
+				// the receiver may still be finishing its last batch
+				videoBuffer.clear();
+				sequenceWindow.reset();
+				rateController.reset();
+				// the next stream is played from the start
+				playoutAnchor = 0;
+			}
+			anchorPending = false;
+			anchorOnBuffer = false;
+			seeking = false;
+			filling = false;
+			scale = 1.0;
 		}
 	}
 
@@ -359,11 +1182,17 @@ public class RTSPConnection {
 			if (this.isPlaying) {
 				this.teardown();
 			}
+			cancelKeepAlive();
 			rtspReader.close();
 			rtspWriter.close();
 			streamSocket.close();
+			stopReceiver();
+			if (rtpSelector != null)
+				rtpSelector.close();
+			rtpChannel.close();
 		} catch (Exception e) {
-			System.out.println("Couldn't close RTSP connection.");
+			LOG.log(Level.WARN, "close.failed", "session", rtspSessionId,
+					"error", e);
 		}
 	}
 
@@ -373,56 +1202,237 @@ public class RTSPConnection {
 	 * @param packet
 	 *            the byte representation of a frame, corresponding to the RTP
 	 *            packet.
+	 * @param store
+	 *            the store where the payload is copied, or null to copy it to
+	 *            the heap.
 	 * @return A Frame object.
 	 */
 
-	private static Frame parseRTPPacket(byte[] packet, int length) throws RTSPException {
+	private static Frame parseRTPPacket(byte[] packet, int length, FrameStore store) throws RTSPException {
 		byte payloadType;
 		boolean marker;
 		short sequenceNumber;
 		int timestamp;
-		byte[] payload, header;
 		int len;
 
 		int mark;
 
 		if (length >= 12) {
-			header = new byte[12];
-			System.arraycopy(packet,0, header, 0, 12);
-
+			// the header is read in place, only the payload is copied
 			len = length - 12;
-			payload = new byte[len];
-			System.arraycopy(packet, 12, payload, 0, length - 12);
 
-			payloadType = (byte) (header[1] & 0x7F);
-			sequenceNumber = (short) ((header[3] & 0xFF) + ((header[2] & 0xFF) << 8));
-			timestamp = (header[7] & 0xFF) + ((header[6] & 0xFF) << 8) + ((header[5] & 0xFF) << 16) + ((header[4] & 0xFF) << 24);
-			mark = ((header[1] >> 7) & 0x01);
+			payloadType = (byte) (packet[1] & 0x7F);
+			sequenceNumber = (short) ((packet[3] & 0xFF) + ((packet[2] & 0xFF) << 8));
+			timestamp = (packet[7] & 0xFF) + ((packet[6] & 0xFF) << 8) + ((packet[5] & 0xFF) << 16) + ((packet[4] & 0xFF) << 24);
+			mark = ((packet[1] >> 7) & 0x01);
 
 			marker = mark == 1;
 
-			return new Frame(payloadType, marker, sequenceNumber, timestamp, payload, 0, len);
+			if (store != null)
+				return store.store(payloadType, marker, sequenceNumber, timestamp, packet, 12, len);
+			return new Frame(payloadType, marker, sequenceNumber, timestamp, packet, 12, len);
 		} else {
 			throw new RTSPException("Could not parse RTP packet.");
 		}
 	}
 
-	private void sendRequestHeader(String request_type) throws RTSPException {
-		try {
-			//write the request line:
-			String request = request_type + " " + videoName + " RTSP/1.0" + CRLF;
-			rtspWriter.write(request);
-			System.out.print("[CLIENT] " + request);
-
-			//write the CSeq line:
-			request = "CSeq: " + cseq + CRLF;
-			rtspWriter.write(request);
-			System.out.print("[CLIENT] " + request);
-			cseq++;
-		} catch(Exception ex) {
-			String exception = "Could not send RTSP message with type: " + request_type;
-			throw new RTSPException(exception);
-		}
+	/**
+	 * Keeps the payloads of frames received from now on in an off-heap store.
+	 * 
+	 * @param store
+	 *            The store, which may be shared with other connections, or
+	 *            null to keep payloads on the heap.
+	 */
+	public void setFrameStore(FrameStore store) {
+		this.frameStore = store;
+	}
+
+	/**
+	 * Changes the maximum amount of video held in the playout buffer. Once
+	 * either limit is reached, the oldest frames (preferably those without the
+	 * marker bit) are evicted.
+	 * 
+	 * @param maxFrames
+	 *            The maximum number of frames in the buffer.
+	 * @param maxBytes
+	 *            The maximum number of payload bytes in the buffer.
+	 */
+	public void setBufferLimits(int maxFrames, long maxBytes) {
+		videoBuffer.setLimits(maxFrames, maxBytes);
+	}
+
+	/**
+	 * Returns the number of frames currently waiting in the playout buffer.
+	 * 
+	 * @return The number of buffered frames.
+	 */
+	public int getBufferedFrames() {
+		return videoBuffer.size();
+	}
+
+	/**
+	 * Returns the number of payload bytes currently held in the playout
+	 * buffer.
+	 * 
+	 * @return The number of buffered bytes.
+	 */
+	public long getBufferedBytes() {
+		return videoBuffer.getBytes();
+	}
+
+	/**
+	 * Returns the number of frames evicted from the playout buffer because it
+	 * was full.
+	 * 
+	 * @return The number of evicted frames.
+	 */
+	public long getEvictedFrames() {
+		return videoBuffer.getEvictedFrames();
+	}
+
+	/**
+	 * Returns the number of packets discarded because the same sequence
+	 * number had already been received. These packets are not counted as
+	 * received, lost or out of order.
+	 * 
+	 * @return The number of duplicate packets.
+	 */
+	public long getDuplicatePackets() {
+		return sequenceWindow.getDuplicates();
+	}
+
+	/**
+	 * Returns the number of packets discarded because they arrived after
+	 * their playout time.
+	 * 
+	 * @return The number of stale packets.
+	 */
+	public long getStalePackets() {
+		return sequenceWindow.getStale();
+	}
+
+	/**
+	 * Returns the number of errors while receiving RTP packets, such as
+	 * packets that could not be parsed.
+	 * 
+	 * @return The number of receive errors.
+	 */
+	public long getReceiveErrors() {
+		return receiveErrors.getCount();
+	}
+
+	/**
+	 * Returns the size of the receive buffer of the RTP socket, as reported
+	 * by the kernel.
+	 * 
+	 * @return The effective receive buffer size, in bytes.
+	 */
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * Returns the kernel counters of the RTP socket. Datagrams dropped by the
+	 * kernel were lost because the receive buffer was full, rather than in
+	 * the network.
+	 * 
+	 * @return The counters, or <tt>null</tt> if not available on this system.
+	 */
+	public SocketStatistics getSocketStatistics() {
+		return SocketStatistics.read(rtpChannel.socket().getLocalPort());
+	}
+
+	/**
+	 * Enables or disables fast start. With fast start, a new stream shows its
+	 * first frame as soon as it is received, and the buffer is filled in the
+	 * background by playing slightly slower than real time. Without it,
+	 * playback only starts after 3 seconds of buffering.
+	 * 
+	 * @param fastStart
+	 *            <tt>true</tt> to enable fast start.
+	 */
+	public void setFastStart(boolean fastStart) {
+		this.fastStart = fastStart;
+	}
+
+	/**
+	 * Holds or releases playback. While playback is held, packets are still
+	 * received and buffered, but no frames are played, so the buffer can be
+	 * filled ahead of time.
+	 * 
+	 * @param held
+	 *            <tt>true</tt> to hold playback.
+	 */
+	public void setPlaybackHeld(boolean held) {
+		this.playbackHeld = held;
+	}
+
+	/**
+	 * Enables or disables rate feedback. With rate feedback, the client asks
+	 * the server to lower the frame rate and bit rate of the stream while
+	 * packets are being lost, delayed or queued in the socket, and to raise
+	 * them again once the stream is received cleanly (see RateController).
+	 * Feedback is disabled by default, unless the client is started with
+	 * <code>-Drtsp.rate.feedback=true</code>, as servers that do not support
+	 * SET_PARAMETER may not handle the request gracefully.
+	 * 
+	 * @param enabled
+	 *            <tt>true</tt> to enable rate feedback.
+	 */
+	public void setRateFeedback(boolean enabled) {
+		this.rateFeedback = enabled;
+	}
+
+	/**
+	 * Returns the frame rate the client currently asks the server to send.
+	 * This is the nominal frame rate of the stream unless the client is
+	 * falling behind.
+	 * 
+	 * @return The requested frame rate, or 0 if not known yet.
+	 */
+	public double getRequestedFrameRate() {
+		return rateController.getTargetFrameRate();
+	}
+
+	/**
+	 * Returns the latency and allocation profile of the current stream.
+	 * 
+	 * @return The profile, or <tt>null</tt> if profiling is disabled or no
+	 *         video was set up.
+	 */
+	public StreamProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Returns the time between the last PLAY request that started a new
+	 * position (a new stream or a seek) and the moment its first frame was
+	 * handed to the session.
+	 * 
+	 * @return The time to first frame in milliseconds, or -1 if no frame has
+	 *         been played since that request.
+	 */
+	public long getTimeToFirstFrame() {
+		return timeToFirstFrame;
+	}
+
+	/**
+	 * Returns the playback speed requested in the last PLAY request.
+	 * 
+	 * @return The current scale, 1 being normal speed.
+	 */
+	public synchronized double getScale() {
+		return scale;
+	}
+
+	/**
+	 * Returns the number of times the control connection was lost and
+	 * re-established automatically.
+	 * 
+	 * @return The number of reconnections.
+	 */
+	public synchronized int getReconnects() {
+		return reconnects;
 	}
 
 	private void updateStatistics() {
@@ -435,8 +1445,61 @@ public class RTSPConnection {
 	private void printStatistics() {
 		updateStatistics();
 
-		System.out.printf("[INFO] Packet Loss: %s\n", Formatter.format(pktLossProportion));
-		System.out.printf("[INFO] Packet Out of Order Rate: %s = %d/%d\n", Formatter.format(outOfOrderProportion), totalOutOfOrder, highestSeqReceived);
-		System.out.printf("[INFO] Frame Rate: %s\n\n", Formatter.format(frameRate));
+		if (!LOG.isEnabled(Level.INFO))
+			return;
+		if (profile != null)
+			logProfile(profile);
+		LOG.log(Level.INFO, "stats.packets", "session", rtspSessionId,
+				"loss", Formatter.format(pktLossProportion),
+				"outOfOrder", Formatter.format(outOfOrderProportion) + "=" + totalOutOfOrder + "/" + highestSeqReceived,
+				"frameRate", Formatter.format(frameRate));
+		LOG.log(Level.INFO, "stats.rate", "session", rtspSessionId,
+				"nominalFrameRate", Formatter.format(rateController.getNominalFrameRate()),
+				"requestedFrameRate", Formatter.format(rateController.getTargetFrameRate()),
+				"congested", rateController.isCongested());
+		SocketStatistics socket = getSocketStatistics();
+		LOG.log(Level.INFO, "stats.socket", "session", rtspSessionId,
+				"receiveBuffer", receiveBufferSize, "requested",
+				requestedReceiveBuffer, "kernelDrops",
+				socket == null ? "unknown" : socket.getDrops());
+		LOG.log(Level.INFO, "stats.sequence", "session", rtspSessionId,
+				"duplicates", sequenceWindow.getDuplicates(),
+				"stale", sequenceWindow.getStale());
+		LOG.log(Level.INFO, "stats.session", "session", rtspSessionId,
+				"ttffMs", timeToFirstFrame, "reconnects", reconnects,
+				"errors", receiveErrors.getCount() + playbackErrors.getCount());
+		LOG.log(Level.INFO, "stats.buffer", "session", rtspSessionId,
+				"frames", videoBuffer.size(), "bytes", videoBuffer.getBytes(),
+				"evicted", videoBuffer.getEvictedFrames());
+	}
+
+	/**
+	 * Logs the latencies of each stage of the frame path, as
+	 * mean/p50/p99/max in microseconds, and the memory allocated by the
+	 * stage.
+	 */
+	private void logProfile(StreamProfile profile) {
+		LOG.log(Level.INFO, "stats.profile", "session", rtspSessionId,
+				"stream", profile.getName());
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram histogram = profile.getHistogram(stage);
+			long allocated = profile.getAllocatedBytes(stage);
+			if (histogram.getCount() == 0 && allocated == 0)
+				continue;
+			LOG.log(Level.INFO, "stats.profile.stage", "stage", stage, "n",
+					histogram.getCount(), "latencyUs", latencies(histogram),
+					"allocKB", allocated / 1024);
+		}
+		LatencyHistogram total = profile.getTotalHistogram();
+		if (total.getCount() > 0)
+			LOG.log(Level.INFO, "stats.profile.stage", "stage", "TOTAL", "n",
+					total.getCount(), "latencyUs", latencies(total));
+	}
+
+	private static String latencies(LatencyHistogram histogram) {
+		return histogram.getMean() / 1000 + "/"
+				+ histogram.getPercentile(50) / 1000 + "/"
+				+ histogram.getPercentile(99) / 1000 + "/"
+				+ histogram.getMax() / 1000;
 	}
 }
@@ -123,8 +123,13 @@ public class RTSPResponse {
 				|| !"RTSP/1.0".equalsIgnoreCase(firstLineSplit[0]))
 			throw new RTSPException("Invalid response from RTSP server.");
 
-		RTSPResponse response = new RTSPResponse(firstLineSplit[0],
-				Integer.parseInt(firstLineSplit[1]), firstLineSplit[2]);
+		RTSPResponse response;
+		try {
+			response = new RTSPResponse(firstLineSplit[0],
+					Integer.parseInt(firstLineSplit[1]), firstLineSplit[2]);
+		} catch (NumberFormatException e) {
+			throw new RTSPException("Invalid response code from RTSP server.", e);
+		}
 
 		String headerLine;
 		while ((headerLine = reader.readLine()) != null
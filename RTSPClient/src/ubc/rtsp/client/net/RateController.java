@@ -0,0 +1,297 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+/**
+ * Decides how much of the stream the client should ask the server to send,
+ * based only on what the receiver observes. Every INTERVAL_MS of arrivals, the
+ * controller looks for three signs that the client or the path is falling
+ * behind:
+ * <ul>
+ * <li>loss: sequence numbers that were skipped in the interval;</li>
+ * <li>queueing delay: how much later than usual packets arrive, relative to
+ * their RTP timestamps (the arrival time minus the timestamp, compared with
+ * its minimum over the last BASELINE_INTERVALS intervals);</li>
+ * <li>backlog: how often the receiver found a full batch of datagrams waiting
+ * in the socket, meaning the socket buffer is filling up.</li>
+ * </ul>
+ * While any of these is above its threshold, the requested fraction of the
+ * nominal stream is cut multiplicatively, starting from the fraction that was
+ * actually delivered, at most once every DECREASE_HOLD_MS so the server has
+ * time to react. Once RECOVERY_INTERVALS intervals in a row are clear, the
+ * fraction grows again by INCREASE_STEP per interval, until the full stream is
+ * requested again.
+ *
+ * The controller does no I/O and takes the current time as a parameter, so it
+ * can be driven by a recorded or simulated packet trace. It is not
+ * thread-safe: packets are reported by the receiving thread, while the
+ * getters may be called from any thread for statistics.
+ */
+class RateController {
+
+	static final long INTERVAL_MS = 1000;
+	static final double LOSS_THRESHOLD = 0.05;
+	static final long QUEUE_DELAY_THRESHOLD_MS = 100;
+	static final double BACKLOG_THRESHOLD = 0.5;
+	static final double DECREASE_FACTOR = 0.85;
+	static final double INCREASE_STEP = 0.1;
+	static final double MIN_FRACTION = 0.1;
+	static final long DECREASE_HOLD_MS = 2 * INTERVAL_MS;
+	static final int RECOVERY_INTERVALS = 3;
+	static final int BASELINE_INTERVALS = 30;
+
+	// the fraction of the nominal stream currently requested
+	private volatile double fraction = 1.0;
+	private volatile double nominalFrameRate = 0;
+	private volatile double averageFrameBytes = 0;
+
+	// signals measured in the last complete interval
+	private volatile double loss = 0;
+	private volatile long queueDelay = 0;
+	private volatile double backlog = 0;
+	private volatile double receivedFrameRate = 0;
+	private volatile long receivedBitrate = 0;
+	private volatile boolean congested = false;
+
+	private long intervalStart = -1;
+	private int packets;
+	private long bytes;
+	private int batches;
+	private int fullBatches;
+	private long delaySum;
+	private long intervalMinDelay = Long.MAX_VALUE;
+	private long highest = -1;
+	private int highestTimestamp;
+	// the highest packet when the interval started, if known
+	private long baseHighest = -1;
+	private int baseTimestamp;
+	private boolean baseReceived;
+
+	private long[] minDelays = new long[BASELINE_INTERVALS];
+	private int minDelayCount = 0;
+	private int minDelayNext = 0;
+
+	private long lastDecrease = Long.MIN_VALUE / 2;
+	private int clearIntervals = 0;
+
+	/**
+	 * Records a packet accepted by the receiver.
+	 * 
+	 * @param sequenceNumber
+	 *            The extended sequence number of the packet.
+	 * @param timestamp
+	 *            The RTP timestamp of the packet, in milliseconds.
+	 * @param length
+	 *            The payload length of the packet.
+	 * @param arrivalMs
+	 *            The time the packet was received, in milliseconds.
+	 */
+	void packetReceived(long sequenceNumber, int timestamp, int length,
+			long arrivalMs) {
+		if (intervalStart < 0)
+			intervalStart = arrivalMs;
+		packets++;
+		bytes += length;
+		long delay = arrivalMs - timestamp;
+		delaySum += delay;
+		intervalMinDelay = Math.min(intervalMinDelay, delay);
+		if (baseHighest < 0) {
+			// the first packet of the stream counts as expected
+			baseHighest = sequenceNumber - 1;
+			baseReceived = false;
+		}
+		if (sequenceNumber > highest) {
+			highest = sequenceNumber;
+			highestTimestamp = timestamp;
+		}
+	}
+
+	/**
+	 * Records one wake-up of the receiver.
+	 * 
+	 * @param full
+	 *            <tt>true</tt> if the receiver stopped reading because its
+	 *            batch was full, so more datagrams were still queued.
+	 */
+	void batchReceived(boolean full) {
+		batches++;
+		if (full)
+			fullBatches++;
+	}
+
+	/**
+	 * Closes the current interval if it has lasted INTERVAL_MS, and updates
+	 * the requested fraction.
+	 * 
+	 * @param nowMs
+	 *            The current time, in milliseconds.
+	 * @return <tt>true</tt> if the requested fraction changed, so the server
+	 *         should be told.
+	 */
+	boolean update(long nowMs) {
+		if (intervalStart < 0 || nowMs - intervalStart < INTERVAL_MS)
+			return false;
+		long elapsed = nowMs - intervalStart;
+		boolean changed = packets > 0 && evaluate(nowMs, elapsed);
+		startInterval(nowMs);
+		return changed;
+	}
+
+	private boolean evaluate(long nowMs, long elapsed) {
+		// sequence numbers the server sent in this interval
+		long expected = highest - baseHighest;
+		long mediaMs = highestTimestamp - baseTimestamp;
+		if (baseReceived && mediaMs > 0 && fraction >= 1.0)
+			nominalFrameRate = Math.max(nominalFrameRate, expected * 1000.0
+					/ mediaMs);
+		averageFrameBytes = averageFrameBytes == 0 ? (double) bytes / packets
+				: averageFrameBytes * 0.75 + 0.25 * bytes / packets;
+
+		minDelays[minDelayNext] = intervalMinDelay;
+		minDelayNext = (minDelayNext + 1) % BASELINE_INTERVALS;
+		minDelayCount = Math.min(minDelayCount + 1, BASELINE_INTERVALS);
+		long baseline = Long.MAX_VALUE;
+		for (int i = 0; i < minDelayCount; i++)
+			baseline = Math.min(baseline, minDelays[i]);
+
+		loss = expected > 0 ? Math.max(0, 1 - (double) packets / expected) : 0;
+		queueDelay = delaySum / packets - baseline;
+		backlog = batches == 0 ? 0 : (double) fullBatches / batches;
+		receivedFrameRate = packets * 1000.0 / elapsed;
+		receivedBitrate = bytes * 8000 / elapsed;
+		congested = loss > LOSS_THRESHOLD
+				|| queueDelay > QUEUE_DELAY_THRESHOLD_MS
+				|| backlog > BACKLOG_THRESHOLD;
+
+		double previous = fraction;
+		if (congested) {
+			clearIntervals = 0;
+			// nothing can be requested before the nominal rate is known
+			if (nominalFrameRate > 0 && nowMs - lastDecrease >= DECREASE_HOLD_MS) {
+				double delivered = receivedFrameRate / nominalFrameRate;
+				fraction = Math.max(MIN_FRACTION,
+						Math.min(fraction, delivered) * DECREASE_FACTOR);
+				lastDecrease = nowMs;
+			}
+		} else if (fraction < 1.0 && ++clearIntervals >= RECOVERY_INTERVALS) {
+			fraction = Math.min(1.0, fraction + INCREASE_STEP);
+		}
+		return fraction != previous;
+	}
+
+	private void startInterval(long nowMs) {
+		intervalStart = nowMs;
+		packets = 0;
+		bytes = 0;
+		batches = 0;
+		fullBatches = 0;
+		delaySum = 0;
+		intervalMinDelay = Long.MAX_VALUE;
+		baseHighest = highest;
+		baseTimestamp = highestTimestamp;
+		baseReceived = highest >= 0;
+	}
+
+	/**
+	 * Forgets the arrival history, such as when the stream is paused,
+	 * resumed or moved to another position, which changes the relation
+	 * between arrival times and timestamps. The requested fraction and the
+	 * nominal rate of the stream are kept.
+	 */
+	void restart() {
+		highest = -1;
+		startInterval(-1);
+		intervalStart = -1;
+		minDelayCount = 0;
+		minDelayNext = 0;
+		clearIntervals = 0;
+	}
+
+	/**
+	 * Forgets everything about the stream, such as when a new stream is set
+	 * up.
+	 */
+	void reset() {
+		restart();
+		fraction = 1.0;
+		nominalFrameRate = 0;
+		averageFrameBytes = 0;
+		loss = 0;
+		queueDelay = 0;
+		backlog = 0;
+		receivedFrameRate = 0;
+		receivedBitrate = 0;
+		congested = false;
+		lastDecrease = Long.MIN_VALUE / 2;
+	}
+
+	double getFraction() {
+		return fraction;
+	}
+
+	/**
+	 * Returns the frame rate the server is asked to send.
+	 * 
+	 * @return The requested frame rate, or 0 if the nominal frame rate of the
+	 *         stream is not known yet.
+	 */
+	double getTargetFrameRate() {
+		return fraction * nominalFrameRate;
+	}
+
+	/**
+	 * Returns the bit rate the server is asked not to exceed, based on the
+	 * average size of the frames received.
+	 * 
+	 * @return The requested bit rate, in bits per second, or 0 if not known
+	 *         yet.
+	 */
+	long getTargetBitrate() {
+		return Math.round(getTargetFrameRate() * averageFrameBytes * 8);
+	}
+
+	double getNominalFrameRate() {
+		return nominalFrameRate;
+	}
+
+	double getLoss() {
+		return loss;
+	}
+
+	long getQueueDelay() {
+		return queueDelay;
+	}
+
+	double getBacklog() {
+		return backlog;
+	}
+
+	double getReceivedFrameRate() {
+		return receivedFrameRate;
+	}
+
+	/**
+	 * Returns the payload bit rate received in the last complete interval.
+	 *
+	 * @return The received bit rate, in bits per second.
+	 */
+	long getReceivedBitrate() {
+		return receivedBitrate;
+	}
+
+	boolean isCongested() {
+		return congested;
+	}
+}
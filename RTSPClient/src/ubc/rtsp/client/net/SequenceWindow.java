@@ -0,0 +1,182 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+/**
+ * Tracks the RTP sequence numbers received in a stream, in order to detect
+ * duplicated and stale packets. The 16-bit sequence numbers found in RTP
+ * headers are first extended to 64 bits, accounting for wrap-arounds. A bitmap
+ * then records which of the most recent WINDOW_SIZE sequence numbers have been
+ * seen. Checking a packet takes constant time and allocates nothing.
+ *
+ * This class is not thread-safe; it is meant to be used only by the thread
+ * receiving packets.
+ */
+class SequenceWindow {
+
+	/**
+	 * Result of <code>check</code> for a packet that should be processed.
+	 */
+	static final int ACCEPTED = 0;
+
+	/**
+	 * Result of <code>check</code> for a packet that was already received.
+	 */
+	static final int DUPLICATE = 1;
+
+	/**
+	 * Result of <code>check</code> for a packet that arrived too late to be
+	 * played, or that is older than the window.
+	 */
+	static final int STALE = 2;
+
+	static final int WINDOW_SIZE = 1024;
+
+	private static final int WORDS = WINDOW_SIZE / 64;
+	private static final int SEQUENCE_MODULO = 0x10000;
+
+	private long[] seen = new long[WORDS];
+	private long highest = -1;
+	private long offset = 0;
+	private boolean rebasePending = false;
+	// read by other threads for statistics
+	private volatile long duplicates = 0;
+	private volatile long stale = 0;
+
+	/**
+	 * Converts a 16-bit sequence number into an extended sequence number,
+	 * choosing the value closest to the highest sequence number seen so far.
+	 * The first sequence number of the stream is extended to itself.
+	 * 
+	 * @param sequenceNumber
+	 *            The sequence number found in the RTP header.
+	 * @return The extended sequence number.
+	 */
+	long extend(short sequenceNumber) {
+		int unsigned = sequenceNumber & 0xFFFF;
+		if (highest < 0)
+			return unsigned;
+		if (rebasePending) {
+			rebasePending = false;
+			offset = highest + 1 - unsigned;
+			return highest + 1;
+		}
+		long rawHighest = highest - offset;
+		long candidate = (rawHighest & ~0xFFFFL) | unsigned;
+		if (candidate - rawHighest > SEQUENCE_MODULO / 2)
+			candidate -= SEQUENCE_MODULO;
+		else if (rawHighest - candidate > SEQUENCE_MODULO / 2)
+			candidate += SEQUENCE_MODULO;
+		return candidate + offset;
+	}
+
+	/**
+	 * Indicates that the sender restarted its numbering, such as when a stream
+	 * is set up again after a failure. The next sequence number received is
+	 * mapped right after the highest one seen so far, and later ones are
+	 * extended relative to it, so the two parts of the stream are played as a
+	 * single sequence.
+	 */
+	void rebase() {
+		rebasePending = true;
+	}
+
+	/**
+	 * Checks if a packet should be processed, and records it as received if
+	 * so.
+	 * 
+	 * @param extendedSequenceNumber
+	 *            The extended sequence number of the packet.
+	 * @param playoutPoint
+	 *            The sequence number of the next frame to be played. Packets
+	 *            before this point are considered stale.
+	 * @return ACCEPTED, DUPLICATE or STALE.
+	 */
+	int check(long extendedSequenceNumber, long playoutPoint) {
+		if (extendedSequenceNumber < 0 || extendedSequenceNumber < playoutPoint
+				|| (highest >= 0 && extendedSequenceNumber <= highest
+						- WINDOW_SIZE)) {
+			stale++;
+			return STALE;
+		}
+		if (extendedSequenceNumber > highest) {
+			advanceTo(extendedSequenceNumber);
+		} else if (isSeen(extendedSequenceNumber)) {
+			duplicates++;
+			return DUPLICATE;
+		}
+		markSeen(extendedSequenceNumber);
+		return ACCEPTED;
+	}
+
+	long getHighest() {
+		return highest;
+	}
+
+	long getDuplicates() {
+		return duplicates;
+	}
+
+	long getStale() {
+		return stale;
+	}
+
+	/**
+	 * Forgets all sequence numbers and counters, such as when a new stream is
+	 * set up.
+	 */
+	void reset() {
+		for (int i = 0; i < WORDS; i++)
+			seen[i] = 0;
+		highest = -1;
+		offset = 0;
+		rebasePending = false;
+		duplicates = 0;
+		stale = 0;
+	}
+
+	/**
+	 * Moves the top of the window, clearing the bits of sequence numbers that
+	 * were skipped so they are not mistaken for duplicates later.
+	 */
+	private void advanceTo(long sequenceNumber) {
+		if (highest < 0 || sequenceNumber - highest >= WINDOW_SIZE) {
+			for (int i = 0; i < WORDS; i++)
+				seen[i] = 0;
+		} else {
+			for (long s = highest + 1; s <= sequenceNumber; s++) {
+				int bit = (int) (s & (WINDOW_SIZE - 1));
+				if ((bit & 63) == 0 && s + 63 <= sequenceNumber) {
+					// clear a whole word at once
+					seen[bit >>> 6] = 0;
+					s += 63;
+				} else {
+					seen[bit >>> 6] &= ~(1L << (bit & 63));
+				}
+			}
+		}
+		highest = sequenceNumber;
+	}
+
+	private boolean isSeen(long sequenceNumber) {
+		int bit = (int) (sequenceNumber & (WINDOW_SIZE - 1));
+		return (seen[bit >>> 6] & (1L << (bit & 63))) != 0;
+	}
+
+	private void markSeen(long sequenceNumber) {
+		int bit = (int) (sequenceNumber & (WINDOW_SIZE - 1));
+		seen[bit >>> 6] |= 1L << (bit & 63);
+	}
+}
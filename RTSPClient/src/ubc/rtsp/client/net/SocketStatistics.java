@@ -0,0 +1,87 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Kernel counters of a UDP socket, as reported in <code>/proc/net/udp</code>
+ * and <code>/proc/net/udp6</code> on Linux. The drop counter tells packets
+ * discarded because the receive buffer of the socket was full apart from
+ * packets lost in the network, which never reach the host.
+ */
+public class SocketStatistics {
+
+	private static final String[] TABLES = { "/proc/net/udp", "/proc/net/udp6" };
+
+	private long queuedBytes;
+	private long drops;
+
+	private SocketStatistics(long queuedBytes, long drops) {
+		this.queuedBytes = queuedBytes;
+		this.drops = drops;
+	}
+
+	/**
+	 * Reads the counters of the UDP socket bound to the given local port.
+	 * 
+	 * @param localPort
+	 *            The local port of the socket.
+	 * @return The counters, or <tt>null</tt> if they are not available, such
+	 *         as on systems other than Linux.
+	 */
+	public static SocketStatistics read(int localPort) {
+		String port = String.format(":%04X", localPort);
+		for (String table : TABLES) {
+			try (BufferedReader reader = new BufferedReader(new FileReader(table))) {
+				String line = reader.readLine(); // header
+				while ((line = reader.readLine()) != null) {
+					// sl local rem st tx:rx tr:when retrnsmt uid timeout inode ref pointer drops
+					String[] fields = line.trim().split("\\s+");
+					if (fields.length < 13 || !fields[1].endsWith(port))
+						continue;
+					String[] queues = fields[4].split(":");
+					return new SocketStatistics(Long.parseLong(queues[1], 16),
+							Long.parseLong(fields[12]));
+				}
+			} catch (IOException | RuntimeException e) {
+				// try the next table
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of bytes waiting in the receive buffer of the
+	 * socket, including the bookkeeping of the kernel.
+	 * 
+	 * @return The receive queue, in bytes.
+	 */
+	public long getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	/**
+	 * Returns the number of datagrams dropped by the kernel for this socket
+	 * since it was opened, mostly because its receive buffer was full.
+	 * 
+	 * @return The number of dropped datagrams.
+	 */
+	public long getDrops() {
+		return drops;
+	}
+}
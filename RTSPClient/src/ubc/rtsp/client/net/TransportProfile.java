@@ -0,0 +1,180 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+import ubc.rtsp.client.model.TaskExecutors;
+
+/**
+ * Socket options used for the RTP socket of a connection. The receive buffer
+ * is sized to hold the data that arrives while the receiving thread is not
+ * reading, such as during a garbage collection pause or while the process is
+ * not scheduled: the expected bit rate of the stream times the jitter depth,
+ * doubled because the kernel also charges its own bookkeeping of each
+ * datagram against the buffer. Once the stream is playing, the buffer is grown
+ * if the measured bit rate turns out to be higher than expected.
+ *
+ * The kernel may grant less than requested (on Linux, at most
+ * <code>net.core.rmem_max</code>); the connection checks the effective size
+ * and reports it.
+ */
+public class TransportProfile {
+
+	public static final long DEFAULT_BITRATE = 2000000;
+	public static final long DEFAULT_JITTER_DEPTH_MS = 1000;
+	public static final long DEFAULT_RECEIVE_TIMEOUT_MS = 1000;
+	public static final int MIN_RECEIVE_BUFFER = 256 * 1024;
+	public static final int MAX_RECEIVE_BUFFER = 16 * 1024 * 1024;
+
+	/**
+	 * Traffic class for interactive video (DSCP AF41), as suggested by RFC
+	 * 4594.
+	 */
+	public static final int TRAFFIC_CLASS_VIDEO = 0x88;
+
+	private static final int KERNEL_OVERHEAD = 2;
+
+	private long bitrate = DEFAULT_BITRATE;
+	private long jitterDepthMs = DEFAULT_JITTER_DEPTH_MS;
+	private long receiveTimeoutMs = DEFAULT_RECEIVE_TIMEOUT_MS;
+	private int trafficClass = -1;
+	private boolean reuseAddress = false;
+	private boolean blockingReceive = TaskExecutors.isVirtual();
+
+	/**
+	 * Returns the receive buffer size needed for a stream with the given bit
+	 * rate, within MIN_RECEIVE_BUFFER and MAX_RECEIVE_BUFFER.
+	 * 
+	 * @param bitrate
+	 *            The bit rate of the stream, in bits per second.
+	 * @return The receive buffer size, in bytes.
+	 */
+	public int getReceiveBufferSize(long bitrate) {
+		long bytes = bitrate / 8 * jitterDepthMs / 1000 * KERNEL_OVERHEAD;
+		return (int) Math.max(MIN_RECEIVE_BUFFER,
+				Math.min(MAX_RECEIVE_BUFFER, bytes));
+	}
+
+	/**
+	 * Returns the receive buffer size requested when the socket is opened,
+	 * based on the expected bit rate.
+	 * 
+	 * @return The receive buffer size, in bytes.
+	 */
+	public int getReceiveBufferSize() {
+		return getReceiveBufferSize(bitrate);
+	}
+
+	public long getBitrate() {
+		return bitrate;
+	}
+
+	/**
+	 * Changes the bit rate the stream is expected to have, used to size the
+	 * receive buffer before any packet is received.
+	 * 
+	 * @param bitrate
+	 *            The expected bit rate, in bits per second.
+	 */
+	public void setBitrate(long bitrate) {
+		if (bitrate <= 0)
+			throw new IllegalArgumentException("Bit rate must be positive.");
+		this.bitrate = bitrate;
+	}
+
+	public long getJitterDepthMs() {
+		return jitterDepthMs;
+	}
+
+	/**
+	 * Changes how long the receiving thread may fall behind without packets
+	 * being dropped by the kernel.
+	 * 
+	 * @param jitterDepthMs
+	 *            The jitter depth, in milliseconds.
+	 */
+	public void setJitterDepthMs(long jitterDepthMs) {
+		if (jitterDepthMs <= 0)
+			throw new IllegalArgumentException("Jitter depth must be positive.");
+		this.jitterDepthMs = jitterDepthMs;
+	}
+
+	public long getReceiveTimeoutMs() {
+		return receiveTimeoutMs;
+	}
+
+	/**
+	 * Changes how long the receiving thread waits for a packet before
+	 * checking whether it should stop.
+	 * 
+	 * @param receiveTimeoutMs
+	 *            The receive timeout, in milliseconds.
+	 */
+	public void setReceiveTimeoutMs(long receiveTimeoutMs) {
+		if (receiveTimeoutMs <= 0)
+			throw new IllegalArgumentException("Receive timeout must be positive.");
+		this.receiveTimeoutMs = receiveTimeoutMs;
+	}
+
+	public int getTrafficClass() {
+		return trafficClass;
+	}
+
+	/**
+	 * Changes the traffic class (IP_TOS) of the packets sent from the RTP
+	 * socket, such as TRAFFIC_CLASS_VIDEO.
+	 * 
+	 * @param trafficClass
+	 *            The traffic class, from 0 to 255, or -1 to keep the system
+	 *            default.
+	 */
+	public void setTrafficClass(int trafficClass) {
+		if (trafficClass < -1 || trafficClass > 255)
+			throw new IllegalArgumentException("Invalid traffic class.");
+		this.trafficClass = trafficClass;
+	}
+
+	public boolean isReuseAddress() {
+		return reuseAddress;
+	}
+
+	/**
+	 * Enables SO_REUSEADDR on the RTP socket, so its port can be bound again
+	 * by another socket right after the connection is closed.
+	 * 
+	 * @param reuseAddress
+	 *            <tt>true</tt> to enable SO_REUSEADDR.
+	 */
+	public void setReuseAddress(boolean reuseAddress) {
+		this.reuseAddress = reuseAddress;
+	}
+
+	public boolean isBlockingReceive() {
+		return blockingReceive;
+	}
+
+	/**
+	 * Changes how the receiving thread waits for packets: in a blocking
+	 * receive, or in a selector. The default is a blocking receive with
+	 * virtual threads, as a virtual thread parks in a blocking receive but
+	 * would hold on to its carrier thread while waiting in a selector, and a
+	 * selector otherwise.
+	 * 
+	 * @param blockingReceive
+	 *            <tt>true</tt> to wait in a blocking receive.
+	 */
+	public void setBlockingReceive(boolean blockingReceive) {
+		this.blockingReceive = blockingReceive;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event spanning the life of a frame from the moment its packet is
+ * received until it is painted, with the latency of each stage in between.
+ */
+@Name("ubc.rtsp.FrameLatency")
+@Label("Frame Latency")
+@Category("RTSP Client")
+@Description("Packet-to-pixel latency of a video frame, by stage")
+@StackTrace(false)
+class FrameLatencyEvent extends jdk.jfr.Event {
+
+	@Label("Stream")
+	String stream;
+
+	@Label("Sequence Number")
+	long sequenceNumber;
+
+	@Label("Parse")
+	@Timespan(Timespan.NANOSECONDS)
+	long parse;
+
+	@Label("Enqueue")
+	@Timespan(Timespan.NANOSECONDS)
+	long enqueue;
+
+	@Label("Jitter Buffer")
+	@Description("Time spent in the jitter buffer until the playout time")
+	@Timespan(Timespan.NANOSECONDS)
+	long jitterBuffer;
+
+	@Label("Decode")
+	@Description("Time from playout until the image was decoded, including listener queueing")
+	@Timespan(Timespan.NANOSECONDS)
+	long decode;
+
+	@Label("Paint")
+	@Timespan(Timespan.NANOSECONDS)
+	long paint;
+
+	@Label("Receive Allocation")
+	@DataAmount
+	long receiveAllocated;
+
+	@Label("Decode Allocation")
+	@DataAmount
+	long decodeAllocated;
+}
@@ -0,0 +1,114 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.profiling;
+
+import java.lang.management.ManagementFactory;
+
+import ubc.rtsp.client.model.Frame;
+
+/**
+ * Entry point of the frame profiling hooks. Profiling is enabled by starting
+ * the client with <code>-Drtsp.profiling=true</code>. When it is disabled, no
+ * profiles or traces are created, and the hooks on the frame path reduce to a
+ * check of a constant that the JIT compiler removes.
+ * 
+ * When enabled, the latency of each stage is recorded in the histograms of the
+ * stream's <code>StreamProfile</code>, and every frame that reaches the screen
+ * is also reported as a <code>ubc.rtsp.FrameLatency</code> JFR event, so an
+ * ordinary flight recording shows the packet-to-pixel breakdown.
+ */
+public final class FrameProfiler {
+
+	/**
+	 * Indicates if profiling was enabled when the client was started.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("rtsp.profiling");
+
+	private static final com.sun.management.ThreadMXBean THREAD_BEAN = allocationBean();
+
+	private FrameProfiler() {
+	}
+
+	/**
+	 * Creates a profile for a new stream.
+	 * 
+	 * @param name
+	 *            A name identifying the stream in reports and events.
+	 * @return A new profile, or <tt>null</tt> if profiling is disabled.
+	 */
+	public static StreamProfile createProfile(String name) {
+		return ENABLED ? new StreamProfile(name) : null;
+	}
+
+	/**
+	 * Records that a frame reached the given stage, if the frame is being
+	 * traced.
+	 * 
+	 * @param frame
+	 *            The frame, which may be <tt>null</tt>.
+	 * @param stage
+	 *            The stage reached.
+	 */
+	public static void mark(Frame frame, Stage stage) {
+		if (ENABLED && frame != null)
+			mark(frame.getTrace(), stage);
+	}
+
+	/**
+	 * Records that a traced frame reached the given stage.
+	 * 
+	 * @param trace
+	 *            The trace of the frame, which may be <tt>null</tt>.
+	 * @param stage
+	 *            The stage reached.
+	 */
+	public static void mark(FrameTrace trace, Stage stage) {
+		if (ENABLED && trace != null)
+			trace.mark(stage);
+	}
+
+	/**
+	 * Returns the total number of bytes allocated so far by the calling
+	 * thread. The difference between two calls gives the bytes allocated by
+	 * the code in between.
+	 * 
+	 * @return The number of bytes, or -1 if profiling is disabled or the JVM
+	 *         does not support measuring it.
+	 */
+	public static long threadAllocatedBytes() {
+		if (!ENABLED || THREAD_BEAN == null)
+			return -1;
+		return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread()
+				.getId());
+	}
+
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		if (!ENABLED)
+			return null;
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory
+					.getThreadMXBean();
+			if (!(bean instanceof com.sun.management.ThreadMXBean))
+				return null;
+			com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+			if (!allocationBean.isThreadAllocatedMemorySupported())
+				return null;
+			allocationBean.setThreadAllocatedMemoryEnabled(true);
+			return allocationBean;
+		} catch (LinkageError | UnsupportedOperationException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.profiling;
+
+/**
+ * The timestamps of a single frame as it goes through the stages between the
+ * network and the screen. A trace is created when the packet is received, and
+ * each later stage records its latency in the stream's profile as it is
+ * reached. Stages are reached by different threads, but always one after the
+ * other, handed over through the buffers and queues of the client.
+ */
+public class FrameTrace {
+
+	private static final int STAGES = Stage.values().length;
+
+	private StreamProfile profile;
+	private long sequenceNumber;
+	private long[] times = new long[STAGES];
+	private long[] allocatedBytes = new long[STAGES];
+	private FrameLatencyEvent event = new FrameLatencyEvent();
+
+	FrameTrace(StreamProfile profile) {
+		this.profile = profile;
+		event.begin();
+		times[Stage.RECEIVE.ordinal()] = System.nanoTime();
+	}
+
+	/**
+	 * Sets the sequence number reported for this frame.
+	 * 
+	 * @param sequenceNumber
+	 *            The extended sequence number of the frame.
+	 */
+	public void setSequenceNumber(long sequenceNumber) {
+		this.sequenceNumber = sequenceNumber;
+	}
+
+	/**
+	 * Records that the frame reached a stage. The time since the latest
+	 * earlier stage is recorded as the latency of this stage. Reaching the
+	 * last stage reports the whole trace as a JFR event.
+	 * 
+	 * @param stage
+	 *            The stage reached.
+	 */
+	public void mark(Stage stage) {
+		long now = System.nanoTime();
+		int index = stage.ordinal();
+		for (int previous = index - 1; previous >= 0; previous--) {
+			if (times[previous] != 0) {
+				profile.getHistogram(stage).record(now - times[previous]);
+				break;
+			}
+		}
+		times[index] = now;
+		if (stage == Stage.PAINT) {
+			profile.getTotalHistogram().record(
+					now - times[Stage.RECEIVE.ordinal()]);
+			commitEvent();
+		}
+	}
+
+	/**
+	 * Records the bytes allocated by the thread processing a stage of this
+	 * frame.
+	 * 
+	 * @param stage
+	 *            The stage that allocated the memory.
+	 * @param bytes
+	 *            The number of bytes, as the difference between two calls to
+	 *            <code>FrameProfiler.threadAllocatedBytes</code>.
+	 */
+	public void addAllocatedBytes(Stage stage, long bytes) {
+		if (bytes < 0)
+			return;
+		allocatedBytes[stage.ordinal()] += bytes;
+		profile.recordAllocation(stage, bytes);
+	}
+
+	private void commitEvent() {
+		event.end();
+		if (!event.shouldCommit())
+			return;
+		event.stream = profile.getName();
+		event.sequenceNumber = sequenceNumber;
+		event.parse = latency(Stage.PARSE);
+		event.enqueue = latency(Stage.ENQUEUE);
+		event.jitterBuffer = latency(Stage.DEQUEUE);
+		event.decode = latency(Stage.DECODE);
+		event.paint = latency(Stage.PAINT);
+		event.receiveAllocated = allocatedBytes[Stage.RECEIVE.ordinal()];
+		event.decodeAllocated = allocatedBytes[Stage.DECODE.ordinal()];
+		event.commit();
+	}
+
+	private long latency(Stage stage) {
+		int index = stage.ordinal();
+		if (times[index] == 0)
+			return 0;
+		for (int previous = index - 1; previous >= 0; previous--)
+			if (times[previous] != 0)
+				return times[index] - times[previous];
+		return 0;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.profiling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with one bucket per power of two nanoseconds.
+ * Recording a value is lock-free and allocates nothing, so it can be done from
+ * any number of threads on the frame path. Percentiles are reported as the
+ * upper bound of the bucket they fall in, so they are accurate within a factor
+ * of two.
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 64;
+
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private AtomicLong count = new AtomicLong();
+	private AtomicLong total = new AtomicLong();
+	private AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one latency.
+	 * 
+	 * @param nanos
+	 *            The latency in nanoseconds. Negative values are recorded as
+	 *            zero.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos))
+			;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean of all latencies recorded.
+	 * 
+	 * @return The mean latency in nanoseconds, or 0 if nothing was recorded.
+	 */
+	public long getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : total.get() / n;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns an upper bound for the given percentile of the latencies
+	 * recorded.
+	 * 
+	 * @param percentile
+	 *            The percentile, between 0 and 100.
+	 * @return The latency in nanoseconds, or 0 if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0)
+			return 0;
+		long rank = (long) Math.ceil(n * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= Math.max(1, rank))
+				return Math.min(max.get(), i == 0 ? 0 : (1L << i) - 1);
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets all latencies recorded.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.profiling;
+
+/**
+ * The stages a frame goes through between the network and the screen, in the
+ * order they happen. The latency of a stage is the time elapsed since the
+ * previous stage recorded for the same frame.
+ */
+public enum Stage {
+	/** The packet was read from the RTP socket. */
+	RECEIVE,
+	/** The RTP header was parsed and the frame was created. */
+	PARSE,
+	/** The frame was added to the jitter buffer. */
+	ENQUEUE,
+	/** The frame was taken from the jitter buffer to be played. */
+	DEQUEUE,
+	/** The frame was decoded into an image by a listener. */
+	DECODE,
+	/** The image of the frame was painted on the screen. */
+	PAINT
+}
@@ -0,0 +1,92 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.profiling;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and allocation counters of a single stream, per stage of
+ * the frame path.
+ */
+public class StreamProfile {
+
+	private static final int STAGES = Stage.values().length;
+
+	private volatile String name;
+	private LatencyHistogram[] histograms = new LatencyHistogram[STAGES];
+	private LatencyHistogram total = new LatencyHistogram();
+	private AtomicLongArray allocatedBytes = new AtomicLongArray(STAGES);
+
+	StreamProfile(String name) {
+		this.name = name;
+		for (int i = 0; i < STAGES; i++)
+			histograms[i] = new LatencyHistogram();
+	}
+
+	/**
+	 * Starts tracing a frame whose packet was just received.
+	 * 
+	 * @return The trace of the new frame.
+	 */
+	public FrameTrace startFrame() {
+		return new FrameTrace(this);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the latencies recorded for a stage, measured from the previous
+	 * stage of each frame.
+	 * 
+	 * @param stage
+	 *            The stage.
+	 * @return The histogram of the stage.
+	 */
+	public LatencyHistogram getHistogram(Stage stage) {
+		return histograms[stage.ordinal()];
+	}
+
+	/**
+	 * Returns the latencies from receive to paint of the frames that were
+	 * painted.
+	 * 
+	 * @return The histogram of packet-to-pixel latencies.
+	 */
+	public LatencyHistogram getTotalHistogram() {
+		return total;
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the threads processing a stage,
+	 * over all frames.
+	 * 
+	 * @param stage
+	 *            The stage.
+	 * @return The number of bytes allocated.
+	 */
+	public long getAllocatedBytes(Stage stage) {
+		return allocatedBytes.get(stage.ordinal());
+	}
+
+	void recordAllocation(Stage stage, long bytes) {
+		allocatedBytes.addAndGet(stage.ordinal(), bytes);
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.recording;
+
+import java.io.File;
+import java.io.IOException;
+
+import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.log.ErrorCounter;
+import ubc.rtsp.client.log.EventLog;
+import ubc.rtsp.client.log.Level;
+import ubc.rtsp.client.model.Frame;
+import ubc.rtsp.client.model.listener.SessionListener;
+
+/**
+ * Records the frames of a session to disk, in segments of a fixed duration
+ * that can be read back with <code>Recording</code>. A recorder is added as a
+ * listener of the session, so frames are written in the listener's own
+ * thread, away from the playback; to record only while there is motion, it
+ * can be used as the sink of a <code>MotionAnalyzer</code> instead.
+ * 
+ * Frames received from a session are stamped with the wall clock read when
+ * their segment started, plus the time elapsed since then as measured by
+ * <code>System.nanoTime</code>. The times in a recording therefore never go
+ * backwards, even if the system clock is adjusted, and stay sorted for
+ * <code>Recording.search</code>.
+ * 
+ * A new segment is started when the current one reaches the segment
+ * duration, and when a different video is opened. Each time a segment is
+ * finished, the oldest segments are deleted according to the retention
+ * policy.
+ */
+public class Recorder implements SessionListener {
+
+	public static final long DEFAULT_SEGMENT_DURATION_MS = 60000;
+
+	private static final EventLog LOG = EventLog.getLog("recording");
+
+	private File directory;
+	private long segmentDurationMs;
+	private RetentionPolicy retentionPolicy;
+	private SegmentWriter writer;
+	private long recordedFrames = 0;
+	private long deletedSegments = 0;
+	// the time given to a frame when the clock was last read, and the
+	// nanoTime it was read at
+	private long clockBase;
+	private long nanoBase;
+	private long lastStamp = Long.MIN_VALUE;
+	private ErrorCounter errors = new ErrorCounter(LOG, "recording.error",
+			5000);
+
+	/**
+	 * Creates a recorder that keeps every segment, of the default duration.
+	 * 
+	 * @param directory
+	 *            The directory where the segments are written. It is created
+	 *            if needed.
+	 * @throws IOException
+	 *             If the directory could not be created.
+	 */
+	public Recorder(File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_DURATION_MS, RetentionPolicy.KEEP_ALL);
+	}
+
+	/**
+	 * Creates a recorder.
+	 * 
+	 * @param directory
+	 *            The directory where the segments are written. It is created
+	 *            if needed.
+	 * @param segmentDurationMs
+	 *            The duration of each segment, in milliseconds.
+	 * @param retentionPolicy
+	 *            Which segments are kept on disk.
+	 * @throws IOException
+	 *             If the directory could not be created.
+	 */
+	public Recorder(File directory, long segmentDurationMs,
+			RetentionPolicy retentionPolicy) throws IOException {
+		if (segmentDurationMs <= 0)
+			throw new IllegalArgumentException(
+					"Segment duration must be positive.");
+		directory.mkdirs();
+		if (!directory.isDirectory())
+			throw new IOException("Could not create " + directory);
+		this.directory = directory;
+		this.segmentDurationMs = segmentDurationMs;
+		this.retentionPolicy = retentionPolicy;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public synchronized long getRecordedFrames() {
+		return recordedFrames;
+	}
+
+	/**
+	 * Returns the number of segments deleted by the retention policy since
+	 * the recorder was created.
+	 * 
+	 * @return The number of segments deleted.
+	 */
+	public synchronized long getDeletedSegments() {
+		return deletedSegments;
+	}
+
+	@Override
+	public synchronized void frameReceived(Frame frame) {
+		if (frame != null)
+			record(frame, stamp());
+	}
+
+	/**
+	 * Returns the time of a frame received now. The wall clock is only read
+	 * when the frame starts a new segment; even then, the time returned is
+	 * never before that of the previous frame, so a segment never starts
+	 * before the previous one.
+	 */
+	private long stamp() {
+		long nanos = System.nanoTime();
+		if (lastStamp != Long.MIN_VALUE) {
+			long stamp = clockBase + (nanos - nanoBase) / 1000000;
+			if (writer != null
+					&& stamp - writer.getStartTime() < segmentDurationMs) {
+				lastStamp = stamp;
+				return stamp;
+			}
+			// a new segment starts with this frame, strictly after the start
+			// of the previous one
+			clockBase = Math.max(System.currentTimeMillis(), Math.max(stamp,
+					lastStamp + 1));
+		} else
+			clockBase = System.currentTimeMillis();
+		nanoBase = nanos;
+		lastStamp = clockBase;
+		return clockBase;
+	}
+
+	/**
+	 * Records a frame.
+	 * 
+	 * @param frame
+	 *            The frame to be recorded.
+	 * @param wallClock
+	 *            The time the frame was received, in milliseconds.
+	 */
+	public synchronized void record(Frame frame, long wallClock) {
+		try {
+			if (writer != null
+					&& wallClock - writer.getStartTime() >= segmentDurationMs)
+				finishSegment();
+			if (writer == null) {
+				writer = new SegmentWriter(directory, wallClock);
+				LOG.log(Level.DEBUG, "segment.started", "start", wallClock);
+			}
+			writer.write(frame, wallClock);
+			recordedFrames++;
+		} catch (IOException e) {
+			errors.record(e);
+			if (writer != null) {
+				// keep the frames already written, and start over in a new
+				// segment, so the index stays consistent
+				SegmentWriter failed = writer;
+				writer = null;
+				abandonSegment(failed);
+			}
+		}
+	}
+
+	/**
+	 * Closes a segment that could not be written to. The frames written
+	 * before the failure are kept, unless the segment could not be completed
+	 * either, or has no frames.
+	 */
+	private void abandonSegment(SegmentWriter failed) {
+		try {
+			failed.close();
+			if (failed.getFrameCount() > 0)
+				return;
+		} catch (IOException e) {
+			errors.record(e);
+		}
+		failed.delete();
+	}
+
+	@Override
+	public synchronized void videoNameChanged(String videoName) {
+		try {
+			finishSegment();
+		} catch (IOException e) {
+			errors.record(e);
+		}
+	}
+
+	@Override
+	public void exceptionThrown(RTSPException exception) {
+	}
+
+	/**
+	 * Makes the frames recorded so far visible to readers of the recording.
+	 * 
+	 * @throws IOException
+	 *             If the index could not be written.
+	 */
+	public synchronized void flush() throws IOException {
+		if (writer != null)
+			writer.flush();
+	}
+
+	/**
+	 * Finishes the segment being recorded. Frames received later start a new
+	 * segment.
+	 * 
+	 * @throws IOException
+	 *             If the segment could not be completed.
+	 */
+	public synchronized void close() throws IOException {
+		finishSegment();
+	}
+
+	private void finishSegment() throws IOException {
+		if (writer == null)
+			return;
+		SegmentWriter finished = writer;
+		writer = null;
+		finished.close();
+		LOG.log(Level.DEBUG, "segment.finished", "start",
+				finished.getStartTime(), "frames", finished.getFrameCount(),
+				"bytes", finished.getSize());
+		prune();
+	}
+
+	/**
+	 * Deletes the oldest segments until the recording is within the limits
+	 * of the retention policy.
+	 */
+	private void prune() throws IOException {
+		File[] indexFiles = Recording.listIndexFiles(directory);
+		long total = 0;
+		for (File indexFile : indexFiles)
+			total += indexFile.length() + Segment.dataFile(indexFile).length();
+		long now = System.currentTimeMillis();
+		for (File indexFile : indexFiles) {
+			File dataFile = Segment.dataFile(indexFile);
+			long startTime = Segment.startTime(indexFile);
+			if (writer != null && startTime == writer.getStartTime())
+				break;
+			if (!retentionPolicy.shouldDelete(startTime, total, now))
+				break;
+			total -= indexFile.length() + dataFile.length();
+			indexFile.delete();
+			dataFile.delete();
+			deletedSegments++;
+			LOG.log(Level.DEBUG, "segment.deleted", "start", startTime);
+		}
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.recording;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A recording made by a <code>Recorder</code>, read back from its directory.
+ * Frames are located by wall-clock time with two binary searches: one over
+ * the segments, by start time, and one over the memory-mapped index of the
+ * segment found.
+ */
+public class Recording {
+
+	/**
+	 * The location of a frame in a recording.
+	 */
+	public static class Position {
+		private Segment segment;
+		private int frame;
+
+		public Position(Segment segment, int frame) {
+			this.segment = segment;
+			this.frame = frame;
+		}
+
+		public Segment getSegment() {
+			return segment;
+		}
+
+		public int getFrame() {
+			return frame;
+		}
+
+		public long getWallClock() {
+			return segment.getWallClock(frame);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Position))
+				return false;
+			Position position = (Position) other;
+			return segment == position.segment && frame == position.frame;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(segment.getStartTime()) * 31 + frame;
+		}
+	}
+
+	private File directory;
+	private List<Segment> segments = new ArrayList<Segment>();
+
+	/**
+	 * Opens the recording in the given directory.
+	 * 
+	 * @param directory
+	 *            The directory of the recording.
+	 * @throws IOException
+	 *             If the directory could not be read.
+	 */
+	public Recording(File directory) throws IOException {
+		if (!directory.isDirectory())
+			throw new IOException("Not a recording directory: " + directory);
+		this.directory = directory;
+		refresh();
+	}
+
+	/**
+	 * Reads the directory again, picking up segments created and deleted
+	 * since the recording was opened, and frames added to the last segment.
+	 * 
+	 * @throws IOException
+	 *             If the directory could not be read.
+	 */
+	public synchronized void refresh() throws IOException {
+		Map<String, Segment> existing = new HashMap<String, Segment>();
+		for (Segment segment : segments)
+			existing.put(segment.toString(), segment);
+		List<Segment> updated = new ArrayList<Segment>();
+		for (File file : listIndexFiles(directory)) {
+			Segment segment = existing.remove(file.getName());
+			try {
+				if (segment == null)
+					segment = new Segment(file);
+				else
+					segment.refresh();
+				updated.add(segment);
+			} catch (IOException e) {
+				// a segment just created or being deleted; seen next time
+			}
+		}
+		for (Segment removed : existing.values())
+			removed.close();
+		Collections.sort(updated);
+		segments = updated;
+	}
+
+	public synchronized List<Segment> getSegments() {
+		return Collections.unmodifiableList(segments);
+	}
+
+	/**
+	 * Returns the time of the first frame in the recording.
+	 * 
+	 * @return The time in milliseconds, or -1 if the recording is empty.
+	 */
+	public synchronized long getStartTime() {
+		Position first = getFirst();
+		return first == null ? -1 : first.getWallClock();
+	}
+
+	/**
+	 * Returns the time of the last frame in the recording.
+	 * 
+	 * @return The time in milliseconds, or -1 if the recording is empty.
+	 */
+	public synchronized long getEndTime() {
+		for (int i = segments.size() - 1; i >= 0; i--) {
+			Segment segment = segments.get(i);
+			if (segment.getFrameCount() > 0)
+				return segment.getEndTime();
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the frame being shown at the given time, that is, the last frame
+	 * received at or before it. Times before the start of the recording are
+	 * mapped to its first frame.
+	 * 
+	 * @param wallClock
+	 *            The time to look for, in milliseconds.
+	 * @return The position of the frame, or <tt>null</tt> if the recording
+	 *         is empty.
+	 */
+	public synchronized Position seek(long wallClock) {
+		int low = 0;
+		int high = segments.size() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (segments.get(middle).getStartTime() <= wallClock)
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		// the frame is in the last segment starting before the time, or the
+		// last frame of an earlier segment if that one has none before it
+		for (int i = high; i >= 0; i--) {
+			Segment segment = segments.get(i);
+			int frame = segment.search(wallClock);
+			if (frame >= 0)
+				return new Position(segment, frame);
+		}
+		return getFirst();
+	}
+
+	/**
+	 * Returns the position after the given one, moving to the next segment
+	 * at the end of a segment.
+	 * 
+	 * @param position
+	 *            A position in this recording.
+	 * @return The next position, or <tt>null</tt> at the end of the
+	 *         recording.
+	 */
+	public synchronized Position next(Position position) {
+		if (position.frame + 1 < position.segment.getFrameCount())
+			return new Position(position.segment, position.frame + 1);
+		for (int i = segments.indexOf(position.segment) + 1; i > 0
+				&& i < segments.size(); i++) {
+			if (segments.get(i).getFrameCount() > 0)
+				return new Position(segments.get(i), 0);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the position before the given one, moving to the previous
+	 * segment at the start of a segment.
+	 * 
+	 * @param position
+	 *            A position in this recording.
+	 * @return The previous position, or <tt>null</tt> at the start of the
+	 *         recording.
+	 */
+	public synchronized Position previous(Position position) {
+		if (position.frame > 0)
+			return new Position(position.segment, position.frame - 1);
+		for (int i = segments.indexOf(position.segment) - 1; i >= 0; i--) {
+			Segment segment = segments.get(i);
+			if (segment.getFrameCount() > 0)
+				return new Position(segment, segment.getFrameCount() - 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Closes all segments of the recording.
+	 * 
+	 * @throws IOException
+	 *             If a segment could not be closed.
+	 */
+	public synchronized void close() throws IOException {
+		for (Segment segment : segments)
+			segment.close();
+		segments = new ArrayList<Segment>();
+	}
+
+	private Position getFirst() {
+		for (Segment segment : segments) {
+			if (segment.getFrameCount() > 0)
+				return new Position(segment, 0);
+		}
+		return null;
+	}
+
+	/**
+	 * Lists the index files of the segments in a directory, oldest first.
+	 * 
+	 * @param directory
+	 *            The directory of a recording.
+	 * @return The index files, sorted by start time.
+	 * @throws IOException
+	 *             If the directory could not be read.
+	 */
+	static File[] listIndexFiles(File directory) throws IOException {
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				String name = file.getName();
+				return name.startsWith(Segment.SEGMENT_PREFIX)
+						&& name.endsWith(Segment.INDEX_SUFFIX);
+			}
+		});
+		if (files == null)
+			throw new IOException("Could not list " + directory);
+		// names hold zero-padded start times, so they sort chronologically
+		Arrays.sort(files);
+		return files;
+	}
+}
@@ -0,0 +1,485 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.recording;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.log.ErrorCounter;
+import ubc.rtsp.client.log.EventLog;
+import ubc.rtsp.client.model.DecodedFrameCache;
+import ubc.rtsp.client.model.Frame;
+import ubc.rtsp.client.model.TaskExecutors;
+import ubc.rtsp.client.model.listener.SessionListener;
+
+/**
+ * Plays a recording from disk to session listeners, such as
+ * <code>MainWindow</code>, as if it was being received from a server. The
+ * recording may be played forwards or in reverse, at speeds from MIN_SPEED
+ * to MAX_SPEED, stepped frame by frame while paused, and scrubbed by seeking
+ * to any time.
+ * 
+ * Up to normal speed, every frame is played, spaced as it was recorded. Above
+ * normal speed, frames are played at DISPLAY_RATE, each being the frame
+ * recorded at the time the playhead reached; intermediate frames are skipped
+ * by searching the index, without reading them. A read-ahead thread loads the
+ * frames that will be played next, in the direction of play, so the playout
+ * thread rarely waits for the disk. Seeks are handled by the playout thread,
+ * and only the latest seek is played when they arrive faster than frames can
+ * be loaded, so scrubbing stays responsive on long recordings.
+ * 
+ * Listeners are called in the playout thread. Frames are delivered with
+ * their time in the recording, in milliseconds since the first frame when the
+ * player was created, as timestamp. The timestamps recorded restart with each
+ * session, so they would not tell apart frames of different segments, such as
+ * in a decoded frame cache.
+ */
+public class RecordingPlayer {
+
+	public static final double MIN_SPEED = 1.0 / 32;
+	public static final double MAX_SPEED = 32;
+	public static final int DISPLAY_RATE = 24;
+	public static final int READ_AHEAD_FRAMES = 48;
+
+	// longest pause played between two frames, such as across a gap in a
+	// recording made only during motion
+	private static final long MAX_GAP_MS = 1000;
+	private static final long DISPLAY_INTERVAL_MS = 1000 / DISPLAY_RATE;
+
+	private static final EventLog LOG = EventLog.getLog("recording");
+
+	private Recording recording;
+	private String name;
+	private long timeOrigin;
+	private CopyOnWriteArrayList<SessionListener> listeners = new CopyOnWriteArrayList<SessionListener>();
+	private ErrorCounter errors = new ErrorCounter(LOG, "playback.error", 5000);
+	private volatile DecodedFrameCache decodedFrames;
+
+	// guarded by this player
+	private Recording.Position position;
+	private long playheadTime;
+	private double speed = 1;
+	private boolean playing = false;
+	private long pendingSeek = -1;
+	private int pendingSteps = 0;
+	private int generation = 0;
+	private boolean started = false;
+	private boolean closed = false;
+
+	// guarded by itself; frames loaded ahead of the playhead
+	private LinkedHashMap<Recording.Position, Frame> readAhead = new LinkedHashMap<Recording.Position, Frame>();
+	private long readAheadHits = 0;
+	private long readAheadMisses = 0;
+
+	/**
+	 * Creates a player positioned at the start of a recording.
+	 * 
+	 * @param recording
+	 *            The recording to be played.
+	 * @param name
+	 *            The name reported to listeners as the video name.
+	 */
+	public RecordingPlayer(Recording recording, String name) {
+		this.recording = recording;
+		this.name = name;
+		this.position = recording.seek(Long.MIN_VALUE);
+		if (position != null)
+			playheadTime = position.getWallClock();
+		// frames recorded later come after the origin too
+		timeOrigin = position != null ? position.getWallClock() : System
+				.currentTimeMillis();
+	}
+
+	public void addSessionListener(SessionListener listener) {
+		listeners.add(listener);
+		listener.videoNameChanged(name);
+	}
+
+	public void removeSessionListener(SessionListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Decodes the frames loaded ahead of the playhead into a cache, such as
+	 * the one of the window showing the recording, so they are shown without
+	 * being decoded again.
+	 * 
+	 * @param cache
+	 *            The cache shared with the listeners, or <tt>null</tt> to
+	 *            only load the frames.
+	 */
+	public void setDecodedFrameCache(DecodedFrameCache cache) {
+		this.decodedFrames = cache;
+	}
+
+	/**
+	 * Starts playing from the current position.
+	 * 
+	 * @param speed
+	 *            The playback speed relative to normal speed, negative to
+	 *            play in reverse. Its absolute value must be between
+	 *            MIN_SPEED and MAX_SPEED.
+	 */
+	public synchronized void play(double speed) {
+		if (Math.abs(speed) < MIN_SPEED || Math.abs(speed) > MAX_SPEED)
+			throw new IllegalArgumentException("Unsupported speed: " + speed);
+		this.speed = speed;
+		this.playing = true;
+		changed();
+	}
+
+	public synchronized void pause() {
+		playing = false;
+		changed();
+	}
+
+	/**
+	 * Moves the playhead to the frame recorded at the given time, and plays
+	 * that frame even if paused.
+	 * 
+	 * @param wallClock
+	 *            The time to move to, in milliseconds.
+	 */
+	public synchronized void seek(long wallClock) {
+		pendingSeek = Math.max(0, wallClock);
+		pendingSteps = 0;
+		changed();
+	}
+
+	/**
+	 * Moves the playhead by a number of frames and plays the frame reached.
+	 * Usually called while paused.
+	 * 
+	 * @param frames
+	 *            The number of frames to move, negative to move backwards.
+	 */
+	public synchronized void step(int frames) {
+		pendingSteps += frames;
+		changed();
+	}
+
+	/**
+	 * Returns the time of the frame at the playhead.
+	 * 
+	 * @return The time in milliseconds.
+	 */
+	public synchronized long getPlayheadTime() {
+		return playheadTime;
+	}
+
+	public synchronized double getSpeed() {
+		return speed;
+	}
+
+	public synchronized boolean isPlaying() {
+		return playing;
+	}
+
+	/**
+	 * Returns the number of frames played that had already been loaded by
+	 * the read-ahead thread.
+	 * 
+	 * @return The number of read-ahead hits.
+	 */
+	public long getReadAheadHits() {
+		synchronized (readAhead) {
+			return readAheadHits;
+		}
+	}
+
+	/**
+	 * Returns the number of frames the playout thread had to load itself.
+	 * 
+	 * @return The number of read-ahead misses.
+	 */
+	public long getReadAheadMisses() {
+		synchronized (readAhead) {
+			return readAheadMisses;
+		}
+	}
+
+	/**
+	 * Stops the player and clears the image of its listeners. The recording
+	 * itself is not closed.
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			changed();
+		}
+		for (SessionListener listener : listeners)
+			listener.frameReceived(null);
+	}
+
+	/**
+	 * Signals a change of state to both threads, starting them on first use.
+	 * Must be called holding the lock of this player.
+	 */
+	private void changed() {
+		generation++;
+		notifyAll();
+		if (!started && !closed) {
+			started = true;
+			TaskExecutors.startThread("recording-playout", new Runnable() {
+				@Override
+				public void run() {
+					playout();
+				}
+			});
+			TaskExecutors.startThread("recording-readahead", new Runnable() {
+				@Override
+				public void run() {
+					readAhead();
+				}
+			});
+		}
+	}
+
+	private void playout() {
+		try {
+			while (true) {
+				Recording.Position next;
+				synchronized (this) {
+					while (!closed && !playing && pendingSeek < 0
+							&& pendingSteps == 0)
+						wait();
+					if (closed)
+						return;
+					if (pendingSeek >= 0) {
+						next = recording.seek(pendingSeek);
+						pendingSeek = -1;
+						if (next != null)
+							playheadTime = next.getWallClock();
+					} else if (pendingSteps != 0) {
+						next = position;
+						for (; pendingSteps > 0 && next != null; pendingSteps--)
+							next = advance(next, 1);
+						for (; pendingSteps < 0 && next != null; pendingSteps++)
+							next = advance(next, -1);
+						pendingSteps = 0;
+						if (next != null)
+							playheadTime = next.getWallClock();
+					} else {
+						next = waitForNextFrame();
+						if (next == null)
+							continue;
+					}
+					if (next == null) {
+						// reached either end of the recording
+						playing = false;
+						continue;
+					}
+					position = next;
+					notifyAll();
+				}
+				deliver(next);
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	/**
+	 * Waits until the next frame is due, and returns it. Returns
+	 * <tt>null</tt> if the state changed while waiting, or at either end of
+	 * the recording, in which case playing stops. Must be called holding the
+	 * lock of this player.
+	 */
+	private Recording.Position waitForNextFrame() throws InterruptedException {
+		int waitingGeneration = generation;
+		Recording.Position next;
+		long delay;
+		long time;
+		if (Math.abs(speed) <= 1) {
+			next = advance(position, speed > 0 ? 1 : -1);
+			if (next == null) {
+				playing = false;
+				return null;
+			}
+			long gap = Math.min(MAX_GAP_MS,
+					Math.abs(next.getWallClock() - position.getWallClock()));
+			delay = Math.round(gap / Math.abs(speed));
+			time = next.getWallClock();
+		} else {
+			// the playhead follows the ideal time, not the frames found, so
+			// it does not drift at high speed
+			time = playheadTime + Math.round(speed * DISPLAY_INTERVAL_MS);
+			next = recording.seek(time);
+			if (next == null || next.equals(position)) {
+				next = advance(position, speed > 0 ? 1 : -1);
+				if (next == null) {
+					playing = false;
+					return null;
+				}
+				time = next.getWallClock();
+			}
+			delay = DISPLAY_INTERVAL_MS;
+		}
+		long deadline = System.currentTimeMillis() + delay;
+		long remaining = delay;
+		while (remaining > 0 && generation == waitingGeneration) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		if (generation != waitingGeneration)
+			return null;
+		playheadTime = time;
+		return next;
+	}
+
+	private Recording.Position advance(Recording.Position from, int direction) {
+		return direction > 0 ? recording.next(from) : recording
+				.previous(from);
+	}
+
+	private void deliver(Recording.Position next) {
+		Frame frame;
+		synchronized (readAhead) {
+			frame = readAhead.get(next);
+			if (frame != null)
+				readAheadHits++;
+			else
+				readAheadMisses++;
+		}
+		if (frame == null) {
+			try {
+				frame = readFrame(next);
+			} catch (IOException e) {
+				errors.record(e);
+				return;
+			}
+		}
+		for (SessionListener listener : listeners)
+			listener.frameReceived(frame);
+	}
+
+	/**
+	 * Reads the frame at a position, with its time in the recording as
+	 * timestamp.
+	 */
+	private Frame readFrame(Recording.Position position) throws IOException {
+		return position.getSegment().readFrame(position.getFrame(),
+				(int) (position.getWallClock() - timeOrigin));
+	}
+
+	/**
+	 * Keeps the frames that will be played next loaded, following the
+	 * position, speed and direction of the playhead.
+	 */
+	private void readAhead() {
+		try {
+			while (true) {
+				List<Recording.Position> wanted;
+				int loadedGeneration;
+				synchronized (this) {
+					if (closed)
+						break;
+					loadedGeneration = generation;
+					wanted = predict();
+				}
+				synchronized (readAhead) {
+					Iterator<Map.Entry<Recording.Position, Frame>> it = readAhead
+							.entrySet().iterator();
+					HashSet<Recording.Position> keep = new HashSet<Recording.Position>(
+							wanted);
+					while (it.hasNext()) {
+						if (!keep.contains(it.next().getKey()))
+							it.remove();
+					}
+				}
+				for (Recording.Position next : wanted) {
+					synchronized (readAhead) {
+						if (readAhead.containsKey(next))
+							continue;
+					}
+					Frame frame;
+					try {
+						frame = readFrame(next);
+					} catch (IOException e) {
+						errors.record(e);
+						break;
+					}
+					synchronized (readAhead) {
+						readAhead.put(next, frame);
+					}
+					DecodedFrameCache cache = decodedFrames;
+					if (cache != null) {
+						try {
+							cache.decode(name, frame);
+						} catch (IOException e) {
+							errors.record(e);
+						}
+					}
+					synchronized (this) {
+						if (generation != loadedGeneration)
+							break;
+					}
+				}
+				synchronized (this) {
+					// wait for the playhead to move, or for a new position
+					if (generation == loadedGeneration && !closed)
+						wait(DISPLAY_INTERVAL_MS);
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} finally {
+			synchronized (readAhead) {
+				readAhead.clear();
+			}
+		}
+	}
+
+	/**
+	 * Lists the positions the playout thread will play next, if nothing
+	 * changes, starting with the playhead itself: the playout thread moves
+	 * the playhead before delivering its frame, so that frame must not be
+	 * dropped yet. Must be called holding the lock of this player.
+	 */
+	private List<Recording.Position> predict() {
+		List<Recording.Position> wanted = new ArrayList<Recording.Position>(
+				READ_AHEAD_FRAMES + 1);
+		Recording.Position next = position;
+		long time = playheadTime;
+		int direction = speed > 0 ? 1 : -1;
+		if (next != null)
+			wanted.add(next);
+		while (next != null && wanted.size() <= READ_AHEAD_FRAMES) {
+			if (Math.abs(speed) <= 1) {
+				next = advance(next, direction);
+			} else {
+				time += Math.round(speed * DISPLAY_INTERVAL_MS);
+				Recording.Position skipped = recording.seek(time);
+				if (skipped == null || skipped.equals(next)) {
+					next = advance(next, direction);
+					if (next != null)
+						time = next.getWallClock();
+				} else {
+					next = skipped;
+				}
+			}
+			if (next != null)
+				wanted.add(next);
+		}
+		return wanted;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.recording;
+
+/**
+ * Limits how much of a recording is kept on disk. Once a segment is finished,
+ * the oldest segments are deleted until the recording is within both limits.
+ * The segment being recorded is never deleted.
+ */
+public class RetentionPolicy {
+
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	/**
+	 * A policy that keeps every segment.
+	 */
+	public static final RetentionPolicy KEEP_ALL = new RetentionPolicy(
+			UNLIMITED, UNLIMITED);
+
+	private long maxAgeMs;
+	private long maxBytes;
+
+	/**
+	 * Creates a retention policy.
+	 * 
+	 * @param maxAgeMs
+	 *            How long segments are kept after they start, in
+	 *            milliseconds, or UNLIMITED.
+	 * @param maxBytes
+	 *            The maximum size of all segments together, or UNLIMITED.
+	 */
+	public RetentionPolicy(long maxAgeMs, long maxBytes) {
+		if (maxAgeMs <= 0 || maxBytes <= 0)
+			throw new IllegalArgumentException("Limits must be positive.");
+		this.maxAgeMs = maxAgeMs;
+		this.maxBytes = maxBytes;
+	}
+
+	public long getMaxAge() {
+		return maxAgeMs;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Indicates if the oldest remaining segment should be deleted.
+	 * 
+	 * @param startTime
+	 *            The start time of the oldest segment, in milliseconds.
+	 * @param totalBytes
+	 *            The size of all segments together, including the oldest.
+	 * @param now
+	 *            The current time, in milliseconds.
+	 * @return <tt>true</tt> if either limit is exceeded.
+	 */
+	boolean shouldDelete(long startTime, long totalBytes, long now) {
+		return totalBytes > maxBytes || now - startTime > maxAgeMs;
+	}
+}
@@ -0,0 +1,355 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import ubc.rtsp.client.model.Frame;
+
+/**
+ * A segment of a recording, read back from disk. A segment consists of two
+ * files: a data file, with the payloads of the frames one after the other, and
+ * an index file, with a fixed-size record per frame. The index is memory
+ * mapped, so looking up a frame by time is a binary search that does not read
+ * the data file, and frames are read from the data file with positional
+ * reads.
+ * 
+ * The index file starts with a header of INDEX_HEADER_SIZE bytes (magic
+ * number, version, wall-clock start of the segment), followed by one record
+ * of INDEX_RECORD_SIZE bytes per frame:
+ * <ul>
+ * <li>wall-clock time the frame was received, in milliseconds (8 bytes);</li>
+ * <li>offset of the payload in the data file (8 bytes);</li>
+ * <li>RTP timestamp of the frame, in milliseconds (4 bytes);</li>
+ * <li>size of the payload (4 bytes);</li>
+ * <li>RTP sequence number of the frame, from 0 to 65535 (4 bytes).</li>
+ * </ul>
+ * All values are big-endian. Segments of version 1, whose records do not
+ * have a sequence number, can still be read. A segment that is still being recorded may be
+ * opened; frames recorded after it was opened are seen after
+ * <code>refresh</code>.
+ */
+public class Segment implements Comparable<Segment> {
+
+	static final int INDEX_MAGIC = 0x52494458; // "RIDX"
+	static final int INDEX_VERSION = 2;
+	static final int INDEX_HEADER_SIZE = 16;
+	static final int INDEX_RECORD_SIZE = 28;
+	static final int INDEX_V1_RECORD_SIZE = 24;
+	static final String SEGMENT_PREFIX = "segment-";
+	static final String DATA_SUFFIX = ".data";
+	static final String INDEX_SUFFIX = ".index";
+
+	private static final byte JPEG_PAYLOAD_TYPE = 26;
+
+	private File dataFile;
+	private File indexFile;
+	private long startTime;
+	private FileChannel dataChannel;
+	private MappedByteBuffer index;
+	private int recordSize = INDEX_RECORD_SIZE;
+	private int frameCount;
+
+	/**
+	 * Opens a segment for reading.
+	 * 
+	 * @param indexFile
+	 *            The index file of the segment. The data file is expected in
+	 *            the same directory, with the same name and DATA_SUFFIX.
+	 * @throws IOException
+	 *             If either file could not be opened, or the index is not
+	 *             valid.
+	 */
+	public Segment(File indexFile) throws IOException {
+		this.indexFile = indexFile;
+		String name = indexFile.getName();
+		if (!name.endsWith(INDEX_SUFFIX))
+			throw new IOException("Not a segment index: " + name);
+		this.dataFile = dataFile(indexFile);
+		dataChannel = FileChannel.open(dataFile.toPath(),
+				StandardOpenOption.READ);
+		try {
+			refresh();
+			int version = index.getInt(4);
+			if (index.getInt(0) != INDEX_MAGIC || version < 1
+					|| version > INDEX_VERSION)
+				throw new IOException("Invalid segment index: " + name);
+			if (version == 1) {
+				recordSize = INDEX_V1_RECORD_SIZE;
+				refresh();
+			}
+			startTime = index.getLong(8);
+		} catch (IOException e) {
+			dataChannel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps the index again, so frames added to a segment that is still being
+	 * recorded become visible. Only complete records are considered.
+	 * 
+	 * @throws IOException
+	 *             If the index could not be read.
+	 */
+	public synchronized void refresh() throws IOException {
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(),
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < INDEX_HEADER_SIZE)
+				throw new IOException("Truncated segment index: "
+						+ indexFile.getName());
+			int records = (int) ((size - INDEX_HEADER_SIZE) / recordSize);
+			index = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					INDEX_HEADER_SIZE + (long) records * recordSize);
+			frameCount = records;
+		}
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Returns the wall-clock time of the last frame in the segment.
+	 * 
+	 * @return The time in milliseconds, or the start time if the segment has
+	 *         no frames.
+	 */
+	public synchronized long getEndTime() {
+		return frameCount == 0 ? startTime : getWallClock(frameCount - 1);
+	}
+
+	public synchronized int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Returns the number of bytes used on disk by the segment.
+	 * 
+	 * @return The size of the data and index files together.
+	 */
+	public long getSize() {
+		return dataFile.length() + indexFile.length();
+	}
+
+	/**
+	 * Returns the wall-clock time a frame was received.
+	 * 
+	 * @param frame
+	 *            The position of the frame in the segment.
+	 * @return The time in milliseconds.
+	 */
+	public synchronized long getWallClock(int frame) {
+		return index.getLong(recordOffset(frame));
+	}
+
+	/**
+	 * Returns the RTP timestamp of a frame.
+	 * 
+	 * @param frame
+	 *            The position of the frame in the segment.
+	 * @return The timestamp, in milliseconds from the start of the stream.
+	 */
+	public synchronized int getTimestamp(int frame) {
+		return index.getInt(recordOffset(frame) + 16);
+	}
+
+	/**
+	 * Returns the size of the payload of a frame.
+	 * 
+	 * @param frame
+	 *            The position of the frame in the segment.
+	 * @return The size in bytes.
+	 */
+	public synchronized int getPayloadSize(int frame) {
+		return index.getInt(recordOffset(frame) + 20);
+	}
+
+	/**
+	 * Returns the RTP sequence number a frame was received with. Segments of
+	 * version 1 did not record it, so the position of the frame is returned
+	 * instead.
+	 * 
+	 * @param frame
+	 *            The position of the frame in the segment.
+	 * @return The sequence number.
+	 */
+	public synchronized short getSequenceNumber(int frame) {
+		if (recordSize == INDEX_V1_RECORD_SIZE)
+			return (short) frame;
+		return (short) index.getInt(recordOffset(frame) + 24);
+	}
+
+	/**
+	 * Finds the frame being shown at the given time, that is, the last frame
+	 * received at or before it.
+	 * 
+	 * @param wallClock
+	 *            The time to look for, in milliseconds.
+	 * @return The position of the frame, or -1 if the time is before the
+	 *         first frame of the segment.
+	 */
+	public synchronized int search(long wallClock) {
+		int low = 0;
+		int high = frameCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (index.getLong(recordOffset(middle)) <= wallClock)
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		return high;
+	}
+
+	/**
+	 * Reads a frame from the segment.
+	 * 
+	 * @param frame
+	 *            The position of the frame in the segment.
+	 * @return The frame, with the sequence number it was received with.
+	 * @throws IOException
+	 *             If the data file could not be read.
+	 */
+	public Frame readFrame(int frame) throws IOException {
+		return readFrame(frame, getTimestamp(frame));
+	}
+
+	/**
+	 * Reads a frame from the segment, giving it a timestamp other than the
+	 * one it was recorded with.
+	 * 
+	 * @param frame
+	 *            The position of the frame in the segment.
+	 * @param timestamp
+	 *            The timestamp of the frame returned.
+	 * @return The frame, with the sequence number it was received with.
+	 * @throws IOException
+	 *             If the data file could not be read.
+	 */
+	public Frame readFrame(int frame, int timestamp) throws IOException {
+		ByteBuffer payload = ByteBuffer.allocate(getPayloadSize(frame));
+		readPayload(frame, payload);
+		payload.flip();
+		return Frame.wrap(JPEG_PAYLOAD_TYPE, true, getSequenceNumber(frame),
+				timestamp, payload, null);
+	}
+
+	/**
+	 * Reads the payload of a frame into a buffer, such as one taken from a
+	 * pool.
+	 * 
+	 * @param frame
+	 *            The position of the frame in the segment.
+	 * @param payload
+	 *            The buffer to read into, with at least
+	 *            <code>getPayloadSize(frame)</code> bytes remaining.
+	 * @throws IOException
+	 *             If the data file could not be read.
+	 */
+	public void readPayload(int frame, ByteBuffer payload) throws IOException {
+		long offset;
+		int size;
+		synchronized (this) {
+			offset = index.getLong(recordOffset(frame) + 8);
+			size = getPayloadSize(frame);
+		}
+		if (payload.remaining() < size)
+			throw new IllegalArgumentException("Buffer too small for frame.");
+		int limit = payload.limit();
+		payload.limit(payload.position() + size);
+		try {
+			while (payload.hasRemaining()) {
+				int read = dataChannel.read(payload, offset);
+				if (read < 0)
+					throw new IOException("Truncated segment data: "
+							+ dataFile.getName());
+				offset += read;
+			}
+		} finally {
+			payload.limit(limit);
+		}
+	}
+
+	/**
+	 * Closes the data file of the segment.
+	 * 
+	 * @throws IOException
+	 *             If the file could not be closed.
+	 */
+	public void close() throws IOException {
+		dataChannel.close();
+	}
+
+	/**
+	 * Deletes the files of the segment, closing it first.
+	 * 
+	 * @return <tt>true</tt> if both files were deleted.
+	 */
+	boolean delete() {
+		try {
+			close();
+		} catch (IOException e) {
+			// deleted anyway
+		}
+		boolean deleted = indexFile.delete();
+		return dataFile.delete() && deleted;
+	}
+
+	@Override
+	public int compareTo(Segment other) {
+		return Long.compare(startTime, other.startTime);
+	}
+
+	@Override
+	public String toString() {
+		return indexFile.getName();
+	}
+
+	static String baseName(long startTime) {
+		return String.format(SEGMENT_PREFIX + "%013d", startTime);
+	}
+
+	/**
+	 * Returns the data file that goes with an index file.
+	 */
+	static File dataFile(File indexFile) {
+		String name = indexFile.getName();
+		return new File(indexFile.getParentFile(), name.substring(0,
+				name.length() - INDEX_SUFFIX.length()) + DATA_SUFFIX);
+	}
+
+	/**
+	 * Returns the start time of a segment, from the name of one of its files.
+	 */
+	static long startTime(File indexFile) {
+		String name = indexFile.getName();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+				name.length() - INDEX_SUFFIX.length()));
+	}
+
+	private int recordOffset(int frame) {
+		if (frame < 0 || frame >= frameCount)
+			throw new IndexOutOfBoundsException("No frame " + frame
+					+ " in segment.");
+		return INDEX_HEADER_SIZE + frame * recordSize;
+	}
+}
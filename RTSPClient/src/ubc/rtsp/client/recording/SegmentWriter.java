@@ -0,0 +1,196 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ubc.rtsp.client.model.Frame;
+
+/**
+ * Writes a single segment of a recording (see <code>Segment</code> for the
+ * format). Space in the data file is reserved ahead of the writes in large
+ * chunks, so appending a frame does not extend the file each time, and the
+ * unused space is trimmed when the segment is closed. Index records are
+ * buffered and only written after the payloads they refer to, so the index
+ * never points past the data, even if the recorder stops abruptly.
+ * 
+ * This class is not thread-safe.
+ */
+class SegmentWriter {
+
+	static final long PREALLOCATION_CHUNK = 8 << 20;
+	static final int INDEX_FLUSH_RECORDS = 32;
+
+	private File dataFile;
+	private File indexFile;
+	private long startTime;
+	private RandomAccessFile dataRandomAccess;
+	private FileChannel dataChannel;
+	private FileChannel indexChannel;
+	private ByteBuffer indexBuffer = ByteBuffer
+			.allocate(INDEX_FLUSH_RECORDS * Segment.INDEX_RECORD_SIZE);
+	private long dataSize = 0;
+	private long allocated = 0;
+	private int frameCount = 0;
+
+	/**
+	 * Creates the files of a new segment.
+	 * 
+	 * @param directory
+	 *            The directory of the recording.
+	 * @param startTime
+	 *            The wall-clock time the segment starts, in milliseconds,
+	 *            which is also used to name its files.
+	 * @throws IOException
+	 *             If the files could not be created.
+	 */
+	SegmentWriter(File directory, long startTime) throws IOException {
+		this.startTime = startTime;
+		String name = Segment.baseName(startTime);
+		dataFile = new File(directory, name + Segment.DATA_SUFFIX);
+		indexFile = new File(directory, name + Segment.INDEX_SUFFIX);
+		dataRandomAccess = new RandomAccessFile(dataFile, "rw");
+		dataChannel = dataRandomAccess.getChannel();
+		try {
+			indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+			ByteBuffer header = ByteBuffer.allocate(Segment.INDEX_HEADER_SIZE);
+			header.putInt(Segment.INDEX_MAGIC).putInt(Segment.INDEX_VERSION)
+					.putLong(startTime).flip();
+			write(indexChannel, header);
+			reserve(PREALLOCATION_CHUNK);
+		} catch (IOException e) {
+			closeQuietly();
+			throw e;
+		}
+	}
+
+	long getStartTime() {
+		return startTime;
+	}
+
+	int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Returns the number of bytes written to the segment so far, not
+	 * counting the space reserved and not used yet.
+	 * 
+	 * @return The size of the payloads and index records.
+	 */
+	long getSize() {
+		return dataSize + Segment.INDEX_HEADER_SIZE + (long) frameCount
+				* Segment.INDEX_RECORD_SIZE;
+	}
+
+	/**
+	 * Appends a frame to the segment.
+	 * 
+	 * @param frame
+	 *            The frame to be written.
+	 * @param wallClock
+	 *            The time the frame was received, in milliseconds.
+	 * @throws IOException
+	 *             If the frame could not be written.
+	 */
+	void write(Frame frame, long wallClock) throws IOException {
+		int size = frame.getPayloadLength();
+		if (dataSize + size > allocated)
+			reserve(dataSize + size - allocated + PREALLOCATION_CHUNK);
+		ByteBuffer payload = frame.asReadOnlyBuffer();
+		long position = dataSize;
+		while (payload.hasRemaining())
+			position += dataChannel.write(payload, position);
+
+		if (!indexBuffer.hasRemaining())
+			flush();
+		indexBuffer.putLong(wallClock).putLong(dataSize)
+				.putInt(frame.getTimestamp()).putInt(size)
+				.putInt(frame.getSequenceNumber() & 0xFFFF);
+		dataSize += size;
+		frameCount++;
+	}
+
+	/**
+	 * Writes the buffered index records, making the frames written so far
+	 * visible to readers.
+	 * 
+	 * @throws IOException
+	 *             If the index could not be written.
+	 */
+	void flush() throws IOException {
+		indexBuffer.flip();
+		try {
+			write(indexChannel, indexBuffer);
+		} finally {
+			// records not written yet are kept for the next attempt
+			indexBuffer.compact();
+		}
+	}
+
+	/**
+	 * Finishes the segment, trimming the space reserved and not used.
+	 * 
+	 * @throws IOException
+	 *             If the segment could not be completed.
+	 */
+	void close() throws IOException {
+		try {
+			flush();
+			dataChannel.truncate(dataSize);
+		} finally {
+			closeQuietly();
+		}
+	}
+
+	/**
+	 * Deletes the files of the segment, such as when it could not be
+	 * written.
+	 */
+	void delete() {
+		closeQuietly();
+		dataFile.delete();
+		indexFile.delete();
+	}
+
+	private void reserve(long bytes) throws IOException {
+		dataRandomAccess.setLength(allocated + bytes);
+		allocated += bytes;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private void closeQuietly() {
+		try {
+			dataChannel.close();
+		} catch (IOException e) {
+			// nothing else to do
+		}
+		try {
+			if (indexChannel != null)
+				indexChannel.close();
+		} catch (IOException e) {
+			// nothing else to do
+		}
+	}
+}
@@ -15,9 +15,12 @@
 package ubc.rtsp.client.ui;
 
 import java.awt.BorderLayout;
+import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
 
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
@@ -25,25 +28,56 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.SwingConstants;
 
+import ubc.rtsp.client.analytics.MotionAnalyzer;
 import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.http.SnapshotServer;
+import ubc.rtsp.client.model.DecodedFrameCache;
 import ubc.rtsp.client.model.Frame;
 import ubc.rtsp.client.model.Session;
+import ubc.rtsp.client.model.TaskExecutors;
+import ubc.rtsp.client.model.listener.BackpressurePolicy;
 import ubc.rtsp.client.model.listener.SessionListener;
+import ubc.rtsp.client.profiling.FrameProfiler;
+import ubc.rtsp.client.profiling.FrameTrace;
+import ubc.rtsp.client.profiling.Stage;
+import ubc.rtsp.client.recording.Recorder;
 
 public class MainWindow extends JFrame implements SessionListener {
 
+	// the name of the current session on the snapshot server
+	private static final String SNAPSHOT_STREAM = "main";
+
 	private Session session;
+	private SnapshotServer snapshotServer;
+	private Recorder recorder;
+	// the recorder, or the motion analyzer that forwards frames to it
+	private SessionListener recordingListener;
 
 	private VideoControlToolbar videoControlToolbar;
 	private JLabel imagePanel;
 	private JLabel videoNamePanel;
+	private volatile FrameTrace paintTrace;
+	private volatile String videoName;
+	private DecodedFrameCache decodedFrames = new DecodedFrameCache(
+			DecodedFrameCache.DEFAULT_MAX_BYTES,
+			Boolean.getBoolean("rtsp.cache.offheap"));
 
 	public MainWindow() {
 
 		super("Video Client");
 
 		videoControlToolbar = new VideoControlToolbar(this);
-		imagePanel = new JLabel();
+		imagePanel = new JLabel() {
+			@Override
+			protected void paintComponent(Graphics g) {
+				super.paintComponent(g);
+				FrameTrace trace = paintTrace;
+				if (trace != null) {
+					paintTrace = null;
+					FrameProfiler.mark(trace, Stage.PAINT);
+				}
+			}
+		};
 		imagePanel.setHorizontalAlignment(SwingConstants.CENTER);
 		imagePanel.setVerticalAlignment(SwingConstants.CENTER);
 		videoNamePanel = new JLabel();
@@ -64,35 +98,123 @@ public class MainWindow extends JFrame implements SessionListener {
 
 		this.setSize(1024, 600);
 
+		startSnapshotServer();
+		startRecorder();
 		showOpenDialog();
 	}
 
+	/**
+	 * Serves the images of the current session over HTTP, if a port is given
+	 * with the property <code>rtsp.snapshot.port</code> (0 for any free
+	 * port).
+	 */
+	private void startSnapshotServer() {
+		int port = Integer.getInteger("rtsp.snapshot.port", -1);
+		if (port < 0)
+			return;
+		try {
+			snapshotServer = new SnapshotServer(port);
+			snapshotServer.start();
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(this,
+					"Could not start the snapshot server: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Records the current session to the directory given with the property
+	 * <code>rtsp.record.dir</code>, if any. With the property
+	 * <code>rtsp.record.motion</code> set to <tt>true</tt>, only the frames
+	 * around motion are recorded.
+	 */
+	private void startRecorder() {
+		String directory = System.getProperty("rtsp.record.dir");
+		if (directory == null)
+			return;
+		try {
+			recorder = new Recorder(new File(directory));
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(this, "Could not start recording: "
+					+ e.getMessage());
+			return;
+		}
+		if (Boolean.getBoolean("rtsp.record.motion"))
+			recordingListener = new MotionAnalyzer(recorder, true);
+		else
+			recordingListener = recorder;
+	}
+
 	public Session getSession() {
 		return session;
 	}
 
+	/**
+	 * Returns the cache of frames decoded by this window, which may be shared
+	 * with a source that decodes frames ahead of time, such as a
+	 * <code>RecordingPlayer</code>.
+	 * 
+	 * @return The decoded frame cache.
+	 */
+	public DecodedFrameCache getDecodedFrameCache() {
+		return decodedFrames;
+	}
+
 	public void setSession(Session session) {
 		if (this.session == session)
 			return;
 
 		if (this.session != null) {
-			this.session.removeSessionListener(this);
-			this.session.closeConnection();
+			final Session previous = this.session;
+			previous.removeSessionListener(this);
+			if (recordingListener != null)
+				previous.removeSessionListener(recordingListener);
+			// tearing down waits for the server, keep it off the event thread
+			TaskExecutors.getTaskExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					previous.closeConnection();
+				}
+			});
 		}
 
 		this.session = session;
 
 		if (session != null) {
-			session.addSessionListener(this);
+			// only the most recent frame is worth displaying
+			session.addSessionListener(this, BackpressurePolicy.LATEST, 1);
+			// every frame is recorded, or analyzed for motion
+			if (recordingListener != null)
+				session.addSessionListener(recordingListener);
+		}
+		if (snapshotServer != null) {
+			if (session != null)
+				snapshotServer.addStream(SNAPSHOT_STREAM, session);
+			else
+				snapshotServer.removeStream(SNAPSHOT_STREAM);
 		}
 	}
 
 	public synchronized void disconnect(boolean showOpenDialog) {
-		setSession(null);
-		if (showOpenDialog)
-			showOpenDialog();
-		else
+		if (!showOpenDialog) {
+			// the client is exiting, so the session is closed before the JVM
+			// stops rather than in the background
+			if (session != null) {
+				session.removeSessionListener(this);
+				if (recordingListener != null)
+					session.removeSessionListener(recordingListener);
+				session.closeConnection();
+			}
+			if (recorder != null) {
+				try {
+					recorder.close();
+				} catch (IOException e) {
+					// the segment is kept up to its last flush
+				}
+			}
 			System.exit(0);
+		}
+		setSession(null);
+		showOpenDialog();
 	}
 
 	/**
@@ -118,15 +240,35 @@ public class MainWindow extends JFrame implements SessionListener {
 			imagePanel.setIcon(null);
 		else {
 
-			Image scaledImage = frame.getImage().getScaledInstance(
+			long allocatedBefore = FrameProfiler.threadAllocatedBytes();
+			Image image;
+			try {
+				image = decodedFrames.decode(videoName, frame);
+			} catch (IOException e) {
+				image = frame.getImage();
+			}
+			Image scaledImage = image.getScaledInstance(
 					-imagePanel.getWidth(), imagePanel.getHeight(),
 					Image.SCALE_FAST);
-			imagePanel.setIcon(new ImageIcon(scaledImage));
+			// ImageIcon waits for the image to be decoded and scaled
+			ImageIcon icon = new ImageIcon(scaledImage);
+			FrameTrace trace = frame.getTrace();
+			if (trace != null) {
+				FrameProfiler.mark(trace, Stage.DECODE);
+				trace.addAllocatedBytes(Stage.DECODE,
+						FrameProfiler.threadAllocatedBytes() - allocatedBefore);
+				paintTrace = trace;
+			}
+			imagePanel.setIcon(icon);
 		}
 	}
 
 	@Override
 	public void videoNameChanged(String videoName) {
+		String previous = this.videoName;
+		this.videoName = videoName;
+		if (previous != null && !previous.equals(videoName))
+			decodedFrames.invalidate(previous);
 		if (videoName==null)
 			videoNamePanel.setText("(click open to select a video)");
 		else
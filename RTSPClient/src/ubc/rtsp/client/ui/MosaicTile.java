@@ -0,0 +1,258 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.ui;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.JComponent;
+
+import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.model.Frame;
+import ubc.rtsp.client.model.listener.SessionListener;
+import ubc.rtsp.client.profiling.FrameProfiler;
+import ubc.rtsp.client.profiling.FrameTrace;
+import ubc.rtsp.client.profiling.Stage;
+
+/**
+ * A single cell of the mosaic view. Frames received from the session are not
+ * decoded in the calling thread: only the most recent frame is kept, and it is
+ * decoded in the shared decode pool if (and only if) the tile is visible on the
+ * screen. Repainting is not requested by the tile itself, the mosaic window
+ * polls dirty tiles once per refresh.
+ * 
+ * Whether the tile is on the screen, and its size, are only read from Swing
+ * on the event dispatch thread, when the visible area may have changed; the
+ * session and decode threads use the values saved then.
+ */
+public class MosaicTile extends JComponent implements SessionListener {
+
+	private static final Color BACKGROUND = Color.BLACK;
+	private static final Color FOREGROUND = Color.LIGHT_GRAY;
+
+	private Executor decodePool;
+
+	private AtomicReference<Frame> pendingFrame = new AtomicReference<Frame>();
+	private AtomicBoolean decodeScheduled = new AtomicBoolean(false);
+	private AtomicBoolean dirty = new AtomicBoolean(false);
+
+	private volatile BufferedImage image;
+	private volatile FrameTrace imageTrace;
+	private volatile String videoName;
+	private volatile String message;
+	// saved on the event dispatch thread
+	private volatile boolean visible = false;
+	private volatile int visibleWidth;
+	private volatile int visibleHeight;
+
+	private Runnable decodeTask = new Runnable() {
+		@Override
+		public void run() {
+			decodePending();
+		}
+	};
+
+	/**
+	 * Creates a new tile.
+	 * 
+	 * @param decodePool
+	 *            The executor where frames for this tile will be decoded.
+	 */
+	public MosaicTile(Executor decodePool) {
+		this.decodePool = decodePool;
+		setOpaque(true);
+		addHierarchyListener(new HierarchyListener() {
+			@Override
+			public void hierarchyChanged(HierarchyEvent e) {
+				if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0)
+					visibilityChanged();
+			}
+		});
+	}
+
+	@Override
+	public void exceptionThrown(RTSPException exception) {
+		message = exception.getMessage();
+		dirty.set(true);
+	}
+
+	@Override
+	public void frameReceived(Frame frame) {
+		if (frame == null) {
+			releasePending(null);
+			image = null;
+			dirty.set(true);
+			return;
+		}
+		// older undecoded frames are simply replaced
+		releasePending(frame.retain());
+		scheduleDecode();
+	}
+
+	private void releasePending(Frame frame) {
+		Frame replaced = pendingFrame.getAndSet(frame);
+		if (replaced != null)
+			replaced.release();
+	}
+
+	@Override
+	public void videoNameChanged(String videoName) {
+		this.videoName = videoName;
+		dirty.set(true);
+	}
+
+	/**
+	 * Reports an error that is not related to any session event, such as a
+	 * failure to connect to the server.
+	 * 
+	 * @param message
+	 *            The message to be shown in the tile.
+	 */
+	public void setMessage(String message) {
+		this.message = message;
+		dirty.set(true);
+	}
+
+	/**
+	 * Indicates if the tile has been changed since the last call to this
+	 * method, clearing the indication.
+	 * 
+	 * @return <tt>true</tt> if the tile needs to be repainted.
+	 */
+	public boolean checkAndClearDirty() {
+		return dirty.getAndSet(false);
+	}
+
+	/**
+	 * Notifies the tile that its visible area may have changed (e.g., the grid
+	 * was scrolled or resized). A tile that becomes visible decodes its latest
+	 * frame right away instead of waiting for the next one. Must be called on
+	 * the event dispatch thread; the tile calls it itself when it is shown or
+	 * hidden.
+	 */
+	public void visibilityChanged() {
+		Rectangle area = isShowing() ? getVisibleRect() : null;
+		visible = area != null && area.width > 0 && area.height > 0;
+		visibleWidth = getWidth();
+		visibleHeight = getHeight();
+		scheduleDecode();
+	}
+
+	private void scheduleDecode() {
+		if (pendingFrame.get() == null || !visible)
+			return;
+		if (decodeScheduled.compareAndSet(false, true))
+			decodePool.execute(decodeTask);
+	}
+
+	private void decodePending() {
+		Frame frame;
+		while ((frame = pendingFrame.getAndSet(null)) != null) {
+			long allocatedBefore = FrameProfiler.threadAllocatedBytes();
+			BufferedImage decoded;
+			try {
+				decoded = decode(frame, visibleWidth, visibleHeight);
+			} finally {
+				frame.release();
+			}
+			if (decoded != null) {
+				FrameTrace trace = frame.getTrace();
+				if (trace != null) {
+					FrameProfiler.mark(trace, Stage.DECODE);
+					trace.addAllocatedBytes(Stage.DECODE,
+							FrameProfiler.threadAllocatedBytes() - allocatedBefore);
+				}
+				imageTrace = trace;
+				image = decoded;
+				dirty.set(true);
+			}
+			if (!visible)
+				break;
+		}
+		decodeScheduled.set(false);
+		// a frame may have arrived after the last check above
+		scheduleDecode();
+	}
+
+	/**
+	 * Decodes a JPEG frame, skipping source pixels so that the result is not
+	 * much larger than the area where it will be painted.
+	 */
+	private static BufferedImage decode(Frame frame, int width, int height) {
+		Iterator<ImageReader> readers = ImageIO
+				.getImageReadersByFormatName("jpeg");
+		if (!readers.hasNext())
+			return null;
+		ImageReader reader = readers.next();
+		try (ImageInputStream input = ImageIO.createImageInputStream(frame
+				.getInputStream())) {
+			reader.setInput(input, true, true);
+			ImageReadParam param = reader.getDefaultReadParam();
+			if (width > 0 && height > 0) {
+				int step = Math.max(1, Math.min(reader.getWidth(0) / width,
+						reader.getHeight(0) / height));
+				param.setSourceSubsampling(step, step, 0, 0);
+			}
+			return reader.read(0, param);
+		} catch (Exception e) {
+			// corrupted or incomplete frame, keep showing the previous one
+			return null;
+		} finally {
+			reader.dispose();
+		}
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		g.setColor(BACKGROUND);
+		g.fillRect(0, 0, getWidth(), getHeight());
+
+		BufferedImage current = image;
+		FrameTrace trace = imageTrace;
+		if (current != null) {
+			double scale = Math.min((double) getWidth() / current.getWidth(),
+					(double) getHeight() / current.getHeight());
+			int w = (int) (current.getWidth() * scale);
+			int h = (int) (current.getHeight() * scale);
+			g.drawImage(current, (getWidth() - w) / 2, (getHeight() - h) / 2,
+					w, h, null);
+		}
+		if (trace != null) {
+			imageTrace = null;
+			FrameProfiler.mark(trace, Stage.PAINT);
+		}
+
+		g.setColor(FOREGROUND);
+		int baseline = getHeight() - 4;
+		if (message != null) {
+			g.drawString(message, 4, baseline);
+			baseline -= g.getFontMetrics().getHeight();
+		}
+		if (videoName != null)
+			g.drawString(videoName, 4, baseline);
+	}
+}
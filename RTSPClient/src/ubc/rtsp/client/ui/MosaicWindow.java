@@ -0,0 +1,197 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.GridLayout;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import ubc.rtsp.client.model.Session;
+import ubc.rtsp.client.model.TaskExecutors;
+import ubc.rtsp.client.model.listener.BackpressurePolicy;
+
+/**
+ * A window that shows several videos at the same time, arranged in a grid.
+ * Each video is played in its own session. Frames from all sessions are
+ * decoded in a single work-stealing pool shared by all mosaic windows, and the
+ * grid is repainted at most once per screen refresh.
+ */
+public class MosaicWindow extends JFrame {
+
+	private static final int REFRESH_INTERVAL_MS = 1000 / 60;
+	private static final int MINIMUM_TILE_WIDTH = 160;
+	private static final int MINIMUM_TILE_HEIGHT = 120;
+
+	private static final ForkJoinPool DECODE_POOL = new ForkJoinPool(Runtime
+			.getRuntime().availableProcessors(),
+			ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+
+	private List<Session> sessions = new ArrayList<Session>();
+	private List<MosaicTile> tiles = new ArrayList<MosaicTile>();
+	private Timer refreshTimer;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new mosaic window and starts playing the requested videos. A
+	 * new connection is established with the server for each video.
+	 * 
+	 * @param server
+	 *            The IP address or host name of the RTSP server.
+	 * @param port
+	 *            The port where the RTSP server is listening to.
+	 * @param videoNames
+	 *            The names of the videos to be played, one per tile.
+	 */
+	public MosaicWindow(final String server, final int port,
+			final List<String> videoNames) {
+
+		super("Video Mosaic");
+
+		int columns = (int) Math.ceil(Math.sqrt(videoNames.size()));
+		int rows = (int) Math.ceil((double) videoNames.size() / columns);
+		JPanel grid = new JPanel(new GridLayout(rows, columns, 1, 1));
+		grid.setPreferredSize(new Dimension(columns * MINIMUM_TILE_WIDTH, rows
+				* MINIMUM_TILE_HEIGHT));
+		for (int i = 0; i < videoNames.size(); i++) {
+			MosaicTile tile = new MosaicTile(DECODE_POOL);
+			tile.videoNameChanged(videoNames.get(i));
+			tiles.add(tile);
+			grid.add(tile);
+		}
+
+		JScrollPane scrollPane = new JScrollPane(grid);
+		scrollPane.getViewport().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				for (MosaicTile tile : tiles)
+					tile.visibilityChanged();
+			}
+		});
+		grid.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				for (MosaicTile tile : tiles)
+					tile.visibilityChanged();
+			}
+		});
+
+		this.setLayout(new BorderLayout());
+		this.add(scrollPane, BorderLayout.CENTER);
+
+		this.setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+		this.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				close();
+			}
+		});
+
+		refreshTimer = new Timer(REFRESH_INTERVAL_MS, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				refresh();
+			}
+		});
+		refreshTimer.setCoalesce(true);
+		refreshTimer.start();
+
+		this.setSize(1024, 768);
+		this.setVisible(true);
+
+		// connecting to the server may take a while, don't block the UI
+		TaskExecutors.startThread("mosaic-starter", new Runnable() {
+			@Override
+			public void run() {
+				startSessions(server, port, videoNames);
+			}
+		});
+	}
+
+	private void startSessions(String server, int port, List<String> videoNames) {
+		for (int i = 0; i < videoNames.size() && !closed; i++) {
+			MosaicTile tile = tiles.get(i);
+			try {
+				Session session = new Session(server, port);
+				synchronized (this) {
+					if (closed) {
+						session.closeConnection();
+						return;
+					}
+					sessions.add(session);
+				}
+				session.addSessionListener(tile, BackpressurePolicy.LATEST, 1);
+				session.open(videoNames.get(i));
+				session.play();
+			} catch (Exception e) {
+				tile.setMessage(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Repaints all tiles that received a new image since the last refresh.
+	 * Repaint requests issued here are merged by Swing into a single paint of
+	 * the grid.
+	 */
+	private void refresh() {
+		boolean repainted = false;
+		for (MosaicTile tile : tiles) {
+			if (tile.checkAndClearDirty()) {
+				tile.repaint();
+				repainted = true;
+			}
+		}
+		if (repainted)
+			Toolkit.getDefaultToolkit().sync();
+	}
+
+	private void close() {
+		refreshTimer.stop();
+		List<Session> toClose;
+		synchronized (this) {
+			closed = true;
+			toClose = new ArrayList<Session>(sessions);
+			sessions.clear();
+		}
+		for (final Session session : toClose) {
+			for (MosaicTile tile : tiles)
+				session.removeSessionListener(tile);
+			// tearing down waits for the server, keep it off the event thread
+			TaskExecutors.getTaskExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					session.closeConnection();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Image;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+
+import javax.swing.ImageIcon;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.JToolBar;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.model.DecodedFrameCache;
+import ubc.rtsp.client.model.Frame;
+import ubc.rtsp.client.model.TaskExecutors;
+import ubc.rtsp.client.model.listener.SessionListener;
+import ubc.rtsp.client.recording.Recording;
+import ubc.rtsp.client.recording.RecordingPlayer;
+
+/**
+ * A window that plays a recording from disk, with controls to play it
+ * forwards or in reverse at a chosen speed, step through it frame by frame,
+ * and scrub through it with a slider. The frames loaded ahead by the player
+ * are decoded into the cache of this window, so they are shown without being
+ * decoded again.
+ */
+public class RecordingWindow extends JFrame implements SessionListener {
+
+	private static final int REFRESH_INTERVAL_MS = 100;
+	private static final String[] SPEED_NAMES = { "1/8x", "1/4x", "1/2x",
+			"1x", "2x", "4x", "8x", "16x", "32x" };
+	private static final double[] SPEEDS = { 0.125, 0.25, 0.5, 1, 2, 4, 8,
+			16, 32 };
+	private static final int NORMAL_SPEED = 3;
+
+	private Recording recording;
+	private RecordingPlayer player;
+	private DecodedFrameCache decodedFrames = new DecodedFrameCache(
+			DecodedFrameCache.DEFAULT_MAX_BYTES, false);
+	private volatile String videoName;
+	private long startTime;
+
+	private JLabel imagePanel;
+	private JLabel timeLabel;
+	private JSlider slider;
+	private JComboBox<String> speedBox;
+	private Timer refreshTimer;
+	// set while the slider follows the player, so it is not taken as a seek
+	private boolean following = false;
+	private int direction = 1;
+
+	/**
+	 * Creates a new window showing the first frame of a recording, paused.
+	 * 
+	 * @param recording
+	 *            The recording to be played. It is closed with the window.
+	 * @param name
+	 *            The name of the recording, shown in the title.
+	 */
+	public RecordingWindow(Recording recording, String name) {
+
+		super("Recording: " + name);
+
+		this.recording = recording;
+		player = new RecordingPlayer(recording, name);
+		player.setDecodedFrameCache(decodedFrames);
+
+		imagePanel = new JLabel();
+		imagePanel.setHorizontalAlignment(SwingConstants.CENTER);
+		imagePanel.setVerticalAlignment(SwingConstants.CENTER);
+
+		JToolBar toolbar = new JToolBar();
+		toolbar.setFloatable(false);
+		toolbar.add(button("Reverse", new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				direction = -1;
+				player.play(direction * selectedSpeed());
+			}
+		}));
+		toolbar.add(button("Play", new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				direction = 1;
+				player.play(direction * selectedSpeed());
+			}
+		}));
+		toolbar.add(button("Pause", new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				player.pause();
+			}
+		}));
+		toolbar.addSeparator();
+		toolbar.add(button("Step Back", new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				player.pause();
+				player.step(-1);
+			}
+		}));
+		toolbar.add(button("Step", new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				player.pause();
+				player.step(1);
+			}
+		}));
+		toolbar.addSeparator();
+		speedBox = new JComboBox<String>(SPEED_NAMES);
+		speedBox.setSelectedIndex(NORMAL_SPEED);
+		speedBox.setMaximumSize(speedBox.getPreferredSize());
+		speedBox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (player.isPlaying())
+					player.play(direction * selectedSpeed());
+			}
+		});
+		toolbar.add(speedBox);
+
+		startTime = Math.max(0, recording.getStartTime());
+		slider = new JSlider(0, duration(), 0);
+		slider.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				if (!following)
+					player.seek(startTime + slider.getValue());
+			}
+		});
+		timeLabel = new JLabel();
+		JPanel scrubPanel = new JPanel(new BorderLayout(4, 0));
+		scrubPanel.add(slider, BorderLayout.CENTER);
+		scrubPanel.add(timeLabel, BorderLayout.LINE_END);
+
+		this.setLayout(new BorderLayout(1, 1));
+		this.add(toolbar, BorderLayout.PAGE_START);
+		this.add(imagePanel, BorderLayout.CENTER);
+		this.add(scrubPanel, BorderLayout.PAGE_END);
+
+		this.setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+		this.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				close();
+			}
+		});
+
+		refreshTimer = new Timer(REFRESH_INTERVAL_MS, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				refresh();
+			}
+		});
+		refreshTimer.start();
+
+		player.addSessionListener(this);
+		this.setSize(800, 600);
+		this.setVisible(true);
+		player.seek(startTime);
+	}
+
+	private static JButton button(String text, ActionListener listener) {
+		JButton button = new JButton(text);
+		button.addActionListener(listener);
+		return button;
+	}
+
+	private double selectedSpeed() {
+		return SPEEDS[speedBox.getSelectedIndex()];
+	}
+
+	private int duration() {
+		long endTime = recording.getEndTime();
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(0, endTime - startTime));
+	}
+
+	/**
+	 * Moves the slider to the playhead, unless the user is dragging it.
+	 */
+	private void refresh() {
+		long position = player.getPlayheadTime() - startTime;
+		following = true;
+		try {
+			if (!slider.getValueIsAdjusting())
+				slider.setValue((int) Math.max(0, position));
+		} finally {
+			following = false;
+		}
+		timeLabel.setText(formatTime(position) + " / "
+				+ formatTime(slider.getMaximum()));
+	}
+
+	private static String formatTime(long ms) {
+		long seconds = Math.max(0, ms) / 1000;
+		return String.format("%d:%02d", seconds / 60, seconds % 60);
+	}
+
+	private void close() {
+		refreshTimer.stop();
+		player.removeSessionListener(this);
+		player.close();
+		// closing the segments may wait for the disk, keep it off the event
+		// thread
+		TaskExecutors.getTaskExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					recording.close();
+				} catch (IOException e) {
+					// the recording is being discarded anyway
+				}
+			}
+		});
+	}
+
+	@Override
+	public void exceptionThrown(RTSPException exception) {
+		// the player reports read errors to its own log
+	}
+
+	@Override
+	public void frameReceived(Frame frame) {
+		if (frame == null) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					imagePanel.setIcon(null);
+				}
+			});
+			return;
+		}
+		Image image;
+		try {
+			image = decodedFrames.decode(videoName, frame);
+		} catch (IOException e) {
+			image = frame.getImage();
+		}
+		int height = imagePanel.getHeight();
+		if (height > 0)
+			image = image.getScaledInstance(-1, height, Image.SCALE_FAST);
+		// ImageIcon waits for the image to be decoded and scaled, in the
+		// playout thread of the player
+		final ImageIcon icon = new ImageIcon(image);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				imagePanel.setIcon(icon);
+			}
+		});
+	}
+
+	@Override
+	public void videoNameChanged(String videoName) {
+		this.videoName = videoName;
+	}
+}
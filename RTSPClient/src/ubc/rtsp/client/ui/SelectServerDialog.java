@@ -32,12 +32,18 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 
 import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.log.EventLog;
+import ubc.rtsp.client.log.Level;
 import ubc.rtsp.client.model.Session;
+import ubc.rtsp.client.model.TaskExecutors;
 
 public class SelectServerDialog extends JFrame implements ActionListener {
 
+	private static final EventLog LOG = EventLog.getLog("ui");
+
 	private MainWindow mainWindow;
 
 	private JLabel jidServerLabel, portLabel;
@@ -109,19 +115,39 @@ public class SelectServerDialog extends JFrame implements ActionListener {
 	@Override
 	public void actionPerformed(ActionEvent event) {
 
-		try {
-
-			saveInfo();
+		saveInfo();
 
-			Session session = new Session(jidServerField.getText(),
-					Integer.parseInt(portField.getText()));
-			mainWindow.setSession(session);
-			this.setVisible(false);
-			mainWindow.setVisible(true);
+		final String server = jidServerField.getText();
+		final int port = Integer.parseInt(portField.getText());
+		connectButton.setEnabled(false);
 
-		} catch (RTSPException e) {
-			JOptionPane.showMessageDialog(mainWindow, e);
-		}
+		// connecting may take a while, so it is done away from the event
+		// dispatch thread
+		TaskExecutors.getTaskExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final Session session = new Session(server, port);
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							connectButton.setEnabled(true);
+							mainWindow.setSession(session);
+							setVisible(false);
+							mainWindow.setVisible(true);
+						}
+					});
+				} catch (final RTSPException e) {
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							connectButton.setEnabled(true);
+							JOptionPane.showMessageDialog(mainWindow, e);
+						}
+					});
+				}
+			}
+		});
 	}
 
 	private File savedInfoFile = new File(System.getProperty("user.home"),
@@ -138,7 +164,7 @@ public class SelectServerDialog extends JFrame implements ActionListener {
 
 		} catch (Exception e) {
 			// Ignore
-			e.printStackTrace();
+			LOG.log(Level.WARN, "save.failed", "file", savedInfoFile, "error", e);
 		}
 	}
 
@@ -157,7 +183,7 @@ public class SelectServerDialog extends JFrame implements ActionListener {
 
 		} catch (Exception e) {
 			// Ignore
-			e.printStackTrace();
+			LOG.log(Level.WARN, "load.failed", "file", savedInfoFile, "error", e);
 		}
 	}
 }
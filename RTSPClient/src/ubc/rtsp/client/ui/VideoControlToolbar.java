@@ -16,19 +16,41 @@ package ubc.rtsp.client.ui;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.JToolBar;
+import javax.swing.SwingUtilities;
 
 import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.model.SerialExecutor;
+import ubc.rtsp.client.model.Session;
+import ubc.rtsp.client.model.TaskExecutors;
+import ubc.rtsp.client.recording.Recording;
 
 public class VideoControlToolbar extends JToolBar {
 
+	/**
+	 * A request sent to the session in the background.
+	 */
+	private interface Command {
+		void run() throws RTSPException, IOException;
+	}
+
 	private MainWindow main;
-	private JButton openButton, playButton, pauseButton;
+	// requests block on the server, so they are sent away from the event
+	// dispatch thread, in the order the buttons were pressed
+	private SerialExecutor controlExecutor = new SerialExecutor(
+			TaskExecutors.getTaskExecutor());
+	private JButton openButton, playButton, pauseButton, seekButton;
 	private JButton closeButton;
+	private JButton mosaicButton;
+	private JButton recordingButton;
 	private JButton disconnectButton;
 
 	public VideoControlToolbar(MainWindow mainWindow) {
@@ -42,14 +64,17 @@ public class VideoControlToolbar extends JToolBar {
 
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				try {
-					String videoName = JOptionPane
-							.showInputDialog("Video file:");
-					if (videoName != null)
-						main.getSession().open(videoName);
-				} catch (RTSPException | IOException ex) {
-					JOptionPane.showMessageDialog(main, ex.getMessage());
-				}
+				final String videoName = JOptionPane
+						.showInputDialog("Video file:");
+				if (videoName == null)
+					return;
+				final Session session = main.getSession();
+				dispatch(new Command() {
+					@Override
+					public void run() throws RTSPException, IOException {
+						session.open(videoName);
+					}
+				});
 			}
 		});
 		this.add(openButton);
@@ -61,11 +86,13 @@ public class VideoControlToolbar extends JToolBar {
 
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				try {
-					main.getSession().play();
-				} catch (RTSPException | IOException ex) {
-					JOptionPane.showMessageDialog(main, ex.getMessage());
-				}
+				final Session session = main.getSession();
+				dispatch(new Command() {
+					@Override
+					public void run() throws RTSPException, IOException {
+						session.play();
+					}
+				});
 			}
 		});
 		this.add(playButton);
@@ -75,14 +102,48 @@ public class VideoControlToolbar extends JToolBar {
 
 			@Override
 			public void actionPerformed(ActionEvent e) {
+				final Session session = main.getSession();
+				dispatch(new Command() {
+					@Override
+					public void run() throws RTSPException {
+						session.pause();
+					}
+				});
+			}
+		});
+		this.add(pauseButton);
+
+		seekButton = new JButton("Seek");
+		seekButton.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				String value = JOptionPane
+						.showInputDialog("Position (seconds):");
+				if (value == null)
+					return;
+				double parsed;
 				try {
-					main.getSession().pause();
-				} catch (RTSPException ex) {
-					JOptionPane.showMessageDialog(main, ex.getMessage());
+					parsed = Double.parseDouble(value.trim());
+				} catch (NumberFormatException ex) {
+					parsed = -1;
 				}
+				if (!(parsed >= 0)) {
+					JOptionPane.showMessageDialog(main, "Invalid position: "
+							+ value);
+					return;
+				}
+				final double position = parsed;
+				final Session session = main.getSession();
+				dispatch(new Command() {
+					@Override
+					public void run() throws RTSPException {
+						session.seek(position);
+					}
+				});
 			}
 		});
-		this.add(pauseButton);
+		this.add(seekButton);
 
 		this.addSeparator();
 
@@ -91,17 +152,71 @@ public class VideoControlToolbar extends JToolBar {
 
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				try {
-					main.getSession().close();
-				} catch (RTSPException ex) {
-					JOptionPane.showMessageDialog(main, ex.getMessage());
-				}
+				final Session session = main.getSession();
+				dispatch(new Command() {
+					@Override
+					public void run() throws RTSPException {
+						session.close();
+					}
+				});
 			}
 		});
 		this.add(closeButton);
 
 		this.addSeparator();
 
+		mosaicButton = new JButton("Mosaic");
+		mosaicButton.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				String videoNames = JOptionPane
+						.showInputDialog("Video files (separated by commas):");
+				if (videoNames == null)
+					return;
+				List<String> names = new ArrayList<String>();
+				for (String name : videoNames.split(","))
+					if (!name.trim().isEmpty())
+						names.add(name.trim());
+				if (names.isEmpty())
+					return;
+				Session session = main.getSession();
+				new MosaicWindow(session.getServer(), session.getPort(), names);
+			}
+		});
+		this.add(mosaicButton);
+
+		recordingButton = new JButton("Recording");
+		recordingButton.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				JFileChooser chooser = new JFileChooser();
+				chooser.setDialogTitle("Recording directory");
+				chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+				if (chooser.showOpenDialog(main) != JFileChooser.APPROVE_OPTION)
+					return;
+				final File directory = chooser.getSelectedFile();
+				dispatch(new Command() {
+					@Override
+					public void run() throws IOException {
+						// reading the index of every segment may take a while
+						final Recording recording = new Recording(directory);
+						SwingUtilities.invokeLater(new Runnable() {
+							@Override
+							public void run() {
+								new RecordingWindow(recording, directory
+										.getName());
+							}
+						});
+					}
+				});
+			}
+		});
+		this.add(recordingButton);
+
+		this.addSeparator();
+
 		disconnectButton = new JButton("Disconnect");
 		disconnectButton.addActionListener(new ActionListener() {
 
@@ -112,4 +227,22 @@ public class VideoControlToolbar extends JToolBar {
 		});
 		this.add(disconnectButton);
 	}
+
+	private void dispatch(final Command command) {
+		controlExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					command.run();
+				} catch (final RTSPException | IOException ex) {
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							JOptionPane.showMessageDialog(main, ex.getMessage());
+						}
+					});
+				}
+			}
+		});
+	}
 }
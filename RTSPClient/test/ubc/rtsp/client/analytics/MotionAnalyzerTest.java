@@ -0,0 +1,296 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.analytics;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.model.Frame;
+import ubc.rtsp.client.model.listener.SessionListener;
+
+/**
+ * Checks motion analysis on JPEG frames encoded here with ImageIO:
+ * <code>JpegDcDecoder</code> extracts the luma of each block of baseline
+ * images from their DC coefficients, with and without chroma subsampling,
+ * and falls back to ImageIO for progressive ones; and a gated
+ * <code>MotionAnalyzer</code> forwards exactly the frames in motion, plus the
+ * pre-roll frames before it and the post-roll frames after it, and releases
+ * every frame it buffered.
+ *
+ * Usage: <code>MotionAnalyzerTest</code>. The program exits with status 1 if
+ * any check fails.
+ */
+public class MotionAnalyzerTest {
+
+	private static final int WIDTH = 128;
+	private static final int HEIGHT = 96;
+	private static final int BLOCK = 8;
+	private static final int BACKGROUND = 50;
+	private static final int SQUARE = 200;
+	private static final int SQUARE_SIZE = 16;
+	// JPEG quantization moves the average of a block a little
+	private static final int LUMA_TOLERANCE = 6;
+
+	private static final int PRE_ROLL = 3;
+	private static final int POST_ROLL = 5;
+	private static final int QUIET_FRAMES = 2;
+	private static final int STILL_FRAMES = 30;
+	private static final int MOVING_FRAMES = 6;
+	private static final int FRAMES = 80;
+
+	private static int failures = 0;
+
+	/**
+	 * Keeps the timestamps of the frames forwarded to it.
+	 */
+	private static class Sink implements SessionListener {
+		private List<Integer> timestamps = new ArrayList<Integer>();
+		private int nullFrames = 0;
+
+		@Override
+		public void frameReceived(Frame frame) {
+			if (frame == null)
+				nullFrames++;
+			else
+				timestamps.add(frame.getTimestamp());
+		}
+
+		@Override
+		public void videoNameChanged(String videoName) {
+		}
+
+		@Override
+		public void exceptionThrown(RTSPException exception) {
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		baselineLuma(BufferedImage.TYPE_BYTE_GRAY);
+		baselineLuma(BufferedImage.TYPE_INT_RGB);
+		progressiveFallback();
+		gating();
+		if (failures > 0) {
+			System.out.println(failures + " check(s) FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	/**
+	 * Draws a gray image with a distinct, known luma in each 8x8 block.
+	 */
+	private static BufferedImage blocks(int type) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+		WritableRaster raster = image.getRaster();
+		// samples are set directly, as setRGB converts to the linear gray
+		// color space of gray images
+		for (int y = 0; y < HEIGHT; y++)
+			for (int x = 0; x < WIDTH; x++)
+				for (int band = 0; band < raster.getNumBands(); band++)
+					raster.setSample(x, y, band, blockLuma(x / BLOCK, y
+							/ BLOCK));
+		return image;
+	}
+
+	private static int blockLuma(int blockX, int blockY) {
+		return 16 + (blockX * 13 + blockY * 7) % 224;
+	}
+
+	/**
+	 * Draws the background with a bright square at a given position, or none
+	 * if <tt>x</tt> is negative.
+	 */
+	private static BufferedImage scene(int x, int y) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		for (int py = 0; py < HEIGHT; py++)
+			for (int px = 0; px < WIDTH; px++) {
+				boolean inSquare = x >= 0 && px >= x && px < x + SQUARE_SIZE
+						&& py >= y && py < y + SQUARE_SIZE;
+				image.setRGB(px, py, gray(inSquare ? SQUARE : BACKGROUND));
+			}
+		return image;
+	}
+
+	private static int gray(int luma) {
+		return luma << 16 | luma << 8 | luma;
+	}
+
+	private static byte[] encode(BufferedImage image, boolean progressive)
+			throws IOException {
+		Iterator<ImageWriter> writers = ImageIO
+				.getImageWritersByFormatName("jpeg");
+		ImageWriter writer = writers.next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (progressive)
+			param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageOutputStream out = ImageIO.createImageOutputStream(bytes);
+		writer.setOutput(out);
+		writer.write(null, new IIOImage(image, null, null), param);
+		out.close();
+		writer.dispose();
+		return bytes.toByteArray();
+	}
+
+	private static Frame frame(byte[] payload, int timestamp) {
+		return new Frame((byte) 26, true, (short) timestamp, timestamp,
+				payload, 0, payload.length);
+	}
+
+	/**
+	 * Counts the blocks whose luma is off by more than LUMA_TOLERANCE.
+	 */
+	private static int wrongBlocks(LumaMap map) {
+		int wrong = 0;
+		for (int y = 0; y < HEIGHT / BLOCK; y++)
+			for (int x = 0; x < WIDTH / BLOCK; x++) {
+				if (Math.abs(map.getLuma(x, y) - blockLuma(x, y)) > LUMA_TOLERANCE)
+					wrong++;
+			}
+		return wrong;
+	}
+
+	private static void baselineLuma(int type) throws IOException {
+		String name = type == BufferedImage.TYPE_BYTE_GRAY ? "gray" : "color";
+		JpegDcDecoder decoder = new JpegDcDecoder();
+		Frame frame = frame(encode(blocks(type), false), 0);
+		LumaMap map = decoder.decode(frame);
+		check(name + " map decoded", map != null);
+		if (map == null)
+			return;
+		checkEquals(name + " decoded from DC only", 1, decoder.getFastFrames());
+		checkEquals(name + " no fallback", 0, decoder.getFallbackFrames());
+		checkEquals(name + " map width", WIDTH / BLOCK, map.getWidth());
+		checkEquals(name + " map height", HEIGHT / BLOCK, map.getHeight());
+		checkEquals(name + " blocks with the wrong luma", 0, wrongBlocks(map));
+	}
+
+	private static void progressiveFallback() throws IOException {
+		JpegDcDecoder decoder = new JpegDcDecoder();
+		Frame frame = frame(encode(blocks(BufferedImage.TYPE_INT_RGB), true),
+				0);
+		LumaMap map = decoder.decode(frame);
+		checkEquals("progressive image decoded with ImageIO", 1,
+				decoder.getFallbackFrames());
+		checkEquals("progressive image not decoded from DC", 0,
+				decoder.getFastFrames());
+		check("progressive map decoded", map != null);
+		if (map != null) {
+			checkEquals("progressive map width", WIDTH / BLOCK, map.getWidth());
+			checkEquals("progressive blocks with the wrong luma", 0,
+					wrongBlocks(map));
+		}
+	}
+
+	private static void gating() throws IOException {
+		// a still background, a square moving across it, then the
+		// background again
+		byte[] still = encode(scene(-1, 0), false);
+		List<Frame> frames = new ArrayList<Frame>();
+		for (int i = 0; i < FRAMES; i++) {
+			int moving = i - STILL_FRAMES;
+			byte[] payload = moving >= 0 && moving < MOVING_FRAMES ? encode(
+					scene(moving * SQUARE_SIZE, 2 * SQUARE_SIZE), false)
+					: still;
+			frames.add(frame(payload, i));
+		}
+
+		Sink sink = new Sink();
+		MotionAnalyzer analyzer = new MotionAnalyzer(sink, true, PRE_ROLL,
+				POST_ROLL);
+		analyzer.getDetector().setThresholds(
+				MotionDetector.DEFAULT_BLOCK_THRESHOLD,
+				MotionDetector.DEFAULT_MOTION_FRACTION,
+				MotionDetector.DEFAULT_SCENE_FRACTION, QUIET_FRAMES);
+		final List<MotionEvent> events = new ArrayList<MotionEvent>();
+		analyzer.addMotionListener(new MotionListener() {
+			@Override
+			public void motionDetected(MotionEvent event) {
+				events.add(event);
+			}
+		});
+		for (Frame frame : frames)
+			analyzer.frameReceived(frame);
+
+		// motion starts with the first moving frame, and lasts until the
+		// still background came back QUIET_FRAMES frames in a row
+		int started = STILL_FRAMES;
+		int lastChanged = STILL_FRAMES + MOVING_FRAMES;
+		int ended = lastChanged + QUIET_FRAMES;
+		checkEquals("motion events", 2, events.size());
+		if (events.size() == 2) {
+			check("motion started first",
+					events.get(0).getType() == MotionEvent.Type.MOTION_STARTED);
+			checkEquals("motion started at", started, events.get(0)
+					.getTimestamp());
+			check("motion ended last",
+					events.get(1).getType() == MotionEvent.Type.MOTION_ENDED);
+			checkEquals("motion ended at", ended, events.get(1).getTimestamp());
+		}
+
+		// the pre-roll, the frames in motion, and the post-roll after the
+		// frame where motion ended
+		int first = started - PRE_ROLL;
+		int last = ended + POST_ROLL - 1;
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = first; i <= last; i++)
+			expected.add(i);
+		check("forwarded " + sink.timestamps + ", expected " + expected,
+				sink.timestamps.equals(expected));
+		checkEquals("frames analyzed", FRAMES, analyzer.getAnalyzedFrames());
+		checkEquals("frames forwarded", expected.size(),
+				analyzer.getForwardedFrames());
+		checkEquals("frames decoded from DC only", FRAMES, analyzer
+				.getDetector().getDecoder().getFastFrames());
+
+		// closing the video forwards the end and drops the pre-roll
+		analyzer.frameReceived(null);
+		checkEquals("end of video forwarded", 1, sink.nullFrames);
+		int retained = 0;
+		for (Frame frame : frames) {
+			if (frame.getReferenceCount() != 1)
+				retained++;
+		}
+		checkEquals("frames still retained by the analyzer", 0, retained);
+	}
+
+	private static void check(String name, boolean condition) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+
+	private static void checkEquals(String name, long expected, long actual) {
+		if (expected != actual) {
+			failures++;
+			System.out.println("FAILED: " + name + ": expected " + expected
+					+ ", got " + actual);
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.http;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import ubc.rtsp.client.model.Session;
+import ubc.rtsp.client.model.listener.BackpressurePolicy;
+
+/**
+ * Load test of <code>MjpegRelayServer</code>: one session is relayed to many
+ * loopback viewers that read as fast as they can, plus a few stalled viewers
+ * that read almost nothing. Every fast viewer should receive about the same
+ * number of frames, whatever the stalled viewers do, and the relay thread
+ * should only use a small part of a CPU. Once the relay is closed, every
+ * connection is closed, including one that never sent its request.
+ *
+ * Usage:
+ * <code>MjpegRelayLoadTest server port [video [viewers [stalled [seconds]]]]</code>
+ * , against a running RTSP server. The defaults are movie1.Mjpeg, 500 fast
+ * viewers, 20 stalled viewers and 8 seconds. The program exits with status 1
+ * if a fast viewer received less than MIN_SHARE of the frames received by the
+ * best one, or if a connection is left open after the relay is closed.
+ */
+public class MjpegRelayLoadTest {
+
+	private static final double MIN_SHARE = 0.9;
+	private static final int STALLED_RECEIVE_BUFFER = 4096;
+	private static final long STALLED_READ_INTERVAL_MS = 1000;
+	private static final int CLOSE_TIMEOUT_MS = 2000;
+	private static final byte[] REQUEST = "GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * A viewer connected to the relay, counting the parts of the multipart
+	 * stream it reads.
+	 */
+	private static class Viewer {
+		private SocketChannel channel;
+		private boolean stalled;
+		private ByteBuffer buffer;
+		private StringBuilder header = new StringBuilder();
+		private long remaining = -1;
+		private long bytes = 0;
+		private int frames = 0;
+
+		private Viewer(int port, boolean stalled) throws IOException {
+			this.stalled = stalled;
+			channel = SocketChannel.open();
+			if (stalled)
+				channel.socket().setReceiveBufferSize(STALLED_RECEIVE_BUFFER);
+			channel.connect(new InetSocketAddress("127.0.0.1", port));
+			channel.write(ByteBuffer.wrap(REQUEST));
+			channel.configureBlocking(false);
+			buffer = ByteBuffer.allocate(stalled ? 256 : 0x10000);
+		}
+
+		/**
+		 * Reads what is available from the relay.
+		 * 
+		 * @return <tt>false</tt> if the relay closed the connection.
+		 */
+		private boolean read() throws IOException {
+			buffer.clear();
+			int read = channel.read(buffer);
+			if (read < 0)
+				return false;
+			bytes += read;
+			buffer.flip();
+			parse();
+			return true;
+		}
+
+		/**
+		 * Skips the payload of each part, using its Content-Length, and
+		 * counts the parts completely read.
+		 */
+		private void parse() {
+			while (buffer.hasRemaining()) {
+				if (remaining > 0) {
+					int skipped = (int) Math.min(remaining, buffer.remaining());
+					buffer.position(buffer.position() + skipped);
+					remaining -= skipped;
+					if (remaining == 0) {
+						frames++;
+						remaining = -1;
+					}
+					continue;
+				}
+				header.append((char) buffer.get());
+				int length = header.length();
+				if (length >= 4 && header.lastIndexOf("\r\n\r\n") == length - 4) {
+					String value = header.toString();
+					header.setLength(0);
+					int start = value.indexOf("Content-Length: ");
+					if (start >= 0)
+						remaining = Long.parseLong(value.substring(start + 16,
+								value.indexOf('\r', start)));
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: MjpegRelayLoadTest server port [video [viewers [stalled [seconds]]]]");
+			System.exit(2);
+		}
+		String server = args[0];
+		int port = Integer.parseInt(args[1]);
+		String video = args.length > 2 ? args[2] : "movie1.Mjpeg";
+		int fastViewers = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+		int stalledViewers = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+		long durationMs = (args.length > 5 ? Long.parseLong(args[5]) : 8) * 1000;
+
+		Session session = new Session(server, port);
+		session.open(video);
+		MjpegRelayServer relay = new MjpegRelayServer(0);
+		relay.start();
+		session.addSessionListener(relay, BackpressurePolicy.LATEST, 1);
+
+		Selector selector = Selector.open();
+		List<Viewer> viewers = new ArrayList<Viewer>();
+		for (int i = 0; i < fastViewers + stalledViewers; i++) {
+			Viewer viewer = new Viewer(relay.getPort(), i >= fastViewers);
+			if (!viewer.stalled)
+				viewer.channel.register(selector, SelectionKey.OP_READ, viewer);
+			viewers.add(viewer);
+		}
+		// connected, but the relay has not read a request from it
+		SocketChannel idle = SocketChannel.open(new InetSocketAddress(
+				"127.0.0.1", relay.getPort()));
+		Thread.sleep(300);
+		System.out.printf("viewers connected: %d%n", relay.getViewers());
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long relayThread = findThread(threads, "mjpeg-relay-");
+		long cpuBefore = threads.getThreadCpuTime(relayThread);
+		long collectionsBefore = collections();
+
+		session.play();
+		long start = System.currentTimeMillis();
+		long end = start + durationMs;
+		long lastStalledRead = start;
+		while (System.currentTimeMillis() < end) {
+			selector.select(100);
+			for (SelectionKey key : selector.selectedKeys()) {
+				if (!((Viewer) key.attachment()).read())
+					key.cancel();
+			}
+			selector.selectedKeys().clear();
+			// stalled viewers read a few bytes once in a while, so the relay
+			// sees them as slow rather than gone
+			long now = System.currentTimeMillis();
+			if (now - lastStalledRead >= STALLED_READ_INTERVAL_MS) {
+				lastStalledRead = now;
+				for (Viewer viewer : viewers) {
+					if (viewer.stalled)
+						viewer.read();
+				}
+			}
+		}
+		double seconds = (System.currentTimeMillis() - start) / 1000.0;
+		long cpu = threads.getThreadCpuTime(relayThread) - cpuBefore;
+
+		int min = Integer.MAX_VALUE;
+		int max = 0;
+		long frames = 0;
+		long bytes = 0;
+		for (Viewer viewer : viewers) {
+			if (viewer.stalled)
+				continue;
+			min = Math.min(min, viewer.frames);
+			max = Math.max(max, viewer.frames);
+			frames += viewer.frames;
+			bytes += viewer.bytes;
+		}
+		System.out.printf(
+				"%d fast viewers: frames per viewer min %d avg %.1f max %d in %.1fs, %.1f MB/s in total%n",
+				fastViewers, min, (double) frames / fastViewers, max, seconds,
+				bytes / seconds / 1e6);
+		System.out.printf(
+				"relay thread cpu %.2fs (%.0f%%), sent %d, skipped %d, gc %d%n",
+				cpu / 1e9, cpu / 1e7 / seconds, relay.getSentFrames(),
+				relay.getSkippedFrames(), collections() - collectionsBefore);
+
+		relay.close();
+		session.close();
+		session.closeConnection();
+		selector.close();
+		boolean idleClosed = isClosed(idle);
+		boolean viewersClosed = true;
+		for (Viewer viewer : viewers)
+			viewersClosed &= isClosed(viewer.channel);
+		System.out.printf("after close: idle connection %s, viewers %s%n",
+				idleClosed ? "closed" : "OPEN", viewersClosed ? "closed"
+						: "OPEN");
+		boolean passed = max > 0 && min >= max * MIN_SHARE && idleClosed
+				&& viewersClosed;
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * Reads from a connection until the relay closes it, or CLOSE_TIMEOUT_MS
+	 * pass.
+	 * 
+	 * @return <tt>true</tt> if the relay closed the connection.
+	 */
+	private static boolean isClosed(SocketChannel channel) throws IOException {
+		byte[] buffer = new byte[0x10000];
+		channel.configureBlocking(true);
+		channel.socket().setSoTimeout(CLOSE_TIMEOUT_MS);
+		try {
+			// SocketChannel ignores the timeout, the socket stream does not
+			while (channel.socket().getInputStream().read(buffer) >= 0)
+				;
+			return true;
+		} catch (SocketTimeoutException e) {
+			return false;
+		} catch (IOException e) {
+			// reset by the relay
+			return true;
+		}
+	}
+
+	private static long findThread(ThreadMXBean threads, String prefix) {
+		for (ThreadInfo info : threads.dumpAllThreads(false, false)) {
+			if (info.getThreadName().startsWith(prefix))
+				return info.getThreadId();
+		}
+		throw new IllegalStateException("No thread named " + prefix + "*");
+	}
+
+	private static long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory
+				.getGarbageCollectorMXBeans())
+			count += collector.getCollectionCount();
+		return count;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.log;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the background thread of <code>EventLog</code>: with nothing to
+ * write it waits without a timeout instead of polling, an event logged while
+ * it waits is written without a call to <code>flush</code>, and no event is
+ * lost when many threads log at once, as they wake it up or find it awake.
+ *
+ * Usage: <code>EventLogTest</code>. The program exits with status 1 if any
+ * check fails.
+ */
+public class EventLogTest {
+
+	private static final int THREADS = 8;
+	private static final int EVENTS_PER_THREAD = 20000;
+	private static final long WRITE_TIMEOUT_MS = 2000;
+	private static final long IDLE_MS = 100;
+
+	private static int failures = 0;
+	private static AtomicLong lines = new AtomicLong();
+
+	/**
+	 * Counts the lines written by the log, instead of keeping them.
+	 */
+	private static class LineCounter extends OutputStream {
+		@Override
+		public void write(int b) {
+			if (b == '\n')
+				lines.incrementAndGet();
+		}
+
+		@Override
+		public void write(byte[] b, int offset, int length) {
+			for (int i = offset; i < offset + length; i++)
+				write(b[i]);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		// the log writes to the System.out set when it is first used
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(new LineCounter(), true));
+		EventLog log = EventLog.getLog("test");
+		EventLog.setLevel(Level.INFO);
+
+		log.log(Level.INFO, "first");
+		check("first event written", waitForLines(1));
+		Thread.sleep(IDLE_MS);
+		Thread flusher = findThread("event-log");
+		Thread.State state = flusher == null ? null : flusher.getState();
+		check("idle flusher waits without a timeout: " + state,
+				state == Thread.State.WAITING);
+
+		log.log(Level.INFO, "second", "key", 2);
+		check("event written while the flusher was waiting", waitForLines(2));
+
+		Thread.sleep(IDLE_MS);
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			final EventLog threadLog = EventLog.getLog("test" + t);
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+						threadLog.log(Level.INFO, "event", "i", i);
+						// pauses, so the flusher goes idle now and then
+						if (i % 1000 == 0)
+							sleep(2);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		long expected = 2 + THREADS * EVENTS_PER_THREAD
+				- EventLog.getDroppedEvents();
+		check("every event written or counted as dropped",
+				waitForLines(expected));
+
+		System.setOut(console);
+		if (failures > 0) {
+			System.out.println(failures + " check(s) FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	/**
+	 * Waits until the given number of lines were written, without flushing
+	 * the log.
+	 * 
+	 * @return <tt>true</tt> if they were written before WRITE_TIMEOUT_MS.
+	 */
+	private static boolean waitForLines(long expected) {
+		long deadline = System.currentTimeMillis() + WRITE_TIMEOUT_MS;
+		while (lines.get() < expected) {
+			if (System.currentTimeMillis() > deadline)
+				return false;
+			sleep(1);
+		}
+		return true;
+	}
+
+	private static Thread findThread(String name) {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals(name))
+				return thread;
+		}
+		return null;
+	}
+
+	private static void sleep(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void check(String name, boolean condition) {
+		if (!condition) {
+			failures++;
+			System.err.println("FAILED: " + name);
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ubc.rtsp.client.model.listener.BackpressurePolicy;
+
+/**
+ * Checks the demand and error handling of <code>FramePublisher</code>: a
+ * subscriber receives exactly the frames it requested, also when several
+ * threads request frames while others are being delivered; unbounded demand
+ * stays unbounded; and a subscriber whose <code>onNext</code> throws is
+ * cancelled and receives the exception in <code>onError</code>.
+ *
+ * Usage: <code>FramePublisherTest</code>. The program exits with status 1 if
+ * any check fails.
+ */
+public class FramePublisherTest {
+
+	private static final int FRAMES = 20000;
+	private static final int REQUESTING_THREADS = 4;
+	private static final int REQUESTS_PER_THREAD = 2000;
+	private static final long SETTLE_MS = 200;
+
+	private static int failures = 0;
+
+	/**
+	 * Counts the signals received, requesting frames only when told to.
+	 */
+	private static class Subscriber implements Flow.Subscriber<Frame> {
+		private volatile Flow.Subscription subscription;
+		private CountDownLatch subscribed = new CountDownLatch(1);
+		private AtomicInteger received = new AtomicInteger();
+		private AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		private RuntimeException failure;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscribed.countDown();
+		}
+
+		@Override
+		public void onNext(Frame frame) {
+			received.incrementAndGet();
+			if (failure != null)
+				throw failure;
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error.set(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+		}
+
+		private Flow.Subscription awaitSubscription()
+				throws InterruptedException {
+			subscribed.await(1, TimeUnit.SECONDS);
+			return subscription;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			requestedFramesOnly(executor);
+			concurrentRequests(executor);
+			unboundedDemand(executor);
+			onNextThrows(executor);
+		} finally {
+			executor.shutdown();
+		}
+		if (failures > 0) {
+			System.out.println(failures + " check(s) FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	private static Frame frame() {
+		byte[] payload = new byte[1];
+		return new Frame((byte) 26, true, (short) 0, 0, payload, 0, 1);
+	}
+
+	private static Subscriber subscribe(FramePublisher publisher,
+			ExecutorService executor) {
+		Subscriber subscriber = new Subscriber();
+		publisher.subscribe(subscriber, BackpressurePolicy.DROP_NEWEST,
+				FRAMES, executor);
+		return subscriber;
+	}
+
+	private static void submit(FramePublisher publisher, int count) {
+		for (int i = 0; i < count; i++) {
+			Frame frame = frame();
+			publisher.submit(frame);
+			frame.release();
+		}
+	}
+
+	private static void requestedFramesOnly(ExecutorService executor)
+			throws InterruptedException {
+		FramePublisher publisher = new FramePublisher();
+		Subscriber subscriber = subscribe(publisher, executor);
+		Flow.Subscription subscription = subscriber.awaitSubscription();
+		submit(publisher, 100);
+		subscription.request(7);
+		Thread.sleep(SETTLE_MS);
+		checkEquals("frames delivered as requested", 7,
+				subscriber.received.get());
+		subscription.request(3);
+		Thread.sleep(SETTLE_MS);
+		checkEquals("frames delivered after a second request", 10,
+				subscriber.received.get());
+	}
+
+	private static void concurrentRequests(ExecutorService executor)
+			throws InterruptedException {
+		FramePublisher publisher = new FramePublisher();
+		Subscriber subscriber = subscribe(publisher, executor);
+		final Flow.Subscription subscription = subscriber.awaitSubscription();
+		submit(publisher, FRAMES);
+		// frames are delivered while other threads keep requesting more
+		Thread[] threads = new Thread[REQUESTING_THREADS];
+		for (int t = 0; t < REQUESTING_THREADS; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < REQUESTS_PER_THREAD; i++)
+						subscription.request(1);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		Thread.sleep(SETTLE_MS);
+		checkEquals("frames delivered for concurrent requests",
+				REQUESTING_THREADS * REQUESTS_PER_THREAD,
+				subscriber.received.get());
+	}
+
+	private static void unboundedDemand(ExecutorService executor)
+			throws InterruptedException {
+		FramePublisher publisher = new FramePublisher();
+		Subscriber subscriber = subscribe(publisher, executor);
+		Flow.Subscription subscription = subscriber.awaitSubscription();
+		subscription.request(Long.MAX_VALUE);
+		subscription.request(1);
+		submit(publisher, FRAMES);
+		Thread.sleep(SETTLE_MS);
+		checkEquals("every frame delivered with unbounded demand", FRAMES,
+				subscriber.received.get());
+	}
+
+	private static void onNextThrows(ExecutorService executor)
+			throws InterruptedException {
+		FramePublisher publisher = new FramePublisher();
+		Subscriber subscriber = subscribe(publisher, executor);
+		subscriber.failure = new IllegalStateException("subscriber failed");
+		Flow.Subscription subscription = subscriber.awaitSubscription();
+		subscription.request(10);
+		submit(publisher, 10);
+		Thread.sleep(SETTLE_MS);
+		checkEquals("no frames after onNext threw", 1,
+				subscriber.received.get());
+		check("onError received the exception",
+				subscriber.error.get() == subscriber.failure);
+		checkEquals("subscriber cancelled", 0,
+				publisher.getNumberOfSubscribers());
+	}
+
+	private static void check(String name, boolean condition) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+
+	private static void checkEquals(String name, long expected, long actual) {
+		if (expected != actual) {
+			failures++;
+			System.out.println("FAILED: " + name + ": expected " + expected
+					+ ", got " + actual);
+		}
+	}
+}
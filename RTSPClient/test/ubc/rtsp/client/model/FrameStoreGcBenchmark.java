@@ -0,0 +1,166 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the garbage collection cost of buffering frames on the heap with
+ * that of buffering them in a <code>FrameStore</code>. The frames of an MJPEG
+ * file are buffered until the given number of megabytes is held, and then
+ * churned for the given number of seconds: new frames are added and the
+ * oldest are released, along with some short-lived garbage such as decoding
+ * and parsing produce. The collections, the total
+ * time spent in them, the longest time taken to buffer a single frame, and
+ * the heap in use at the end are printed.
+ *
+ * Run once per mode, in separate JVMs, with a heap large enough for the heap
+ * mode, and with <code>-XX:MaxDirectMemorySize</code> large enough for the
+ * store mode. For example:
+ * <code>java -Xmx3g FrameStoreGcBenchmark heap movie1.Mjpeg 2048 30</code>
+ * and
+ * <code>java -Xmx512m -XX:MaxDirectMemorySize=3g FrameStoreGcBenchmark store movie1.Mjpeg 2048 30</code>
+ * .
+ *
+ * Usage: <code>FrameStoreGcBenchmark heap|store file megabytes seconds</code>.
+ */
+public class FrameStoreGcBenchmark {
+
+	private static final int CHURN_BATCH = 1000;
+	private static final int FRAMES_PER_GARBAGE = 5;
+	private static final int GARBAGE_SIZE = 4096;
+	private static final long STORE_HEADROOM = 256 << 20;
+
+	// keeps the short-lived garbage from being optimized away
+	private static byte[] garbage;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: FrameStoreGcBenchmark heap|store file megabytes seconds");
+			System.exit(2);
+		}
+		boolean offHeap = args[0].equals("store");
+		List<byte[]> payloads = readFrames(args[1]);
+		long target = Long.parseLong(args[2]) << 20;
+		long durationMs = Long.parseLong(args[3]) * 1000;
+
+		FrameStore store = offHeap ? new FrameStore(target + STORE_HEADROOM)
+				: null;
+		ArrayDeque<Frame> buffered = new ArrayDeque<Frame>();
+		long bytes = 0;
+		int next = 0;
+		while (bytes < target) {
+			Frame frame = frame(store, payloads, next++);
+			buffered.add(frame);
+			bytes += frame.getPayloadLength();
+		}
+
+		System.gc();
+		long countBefore = collections();
+		long timeBefore = collectionTime();
+		long longestStall = 0;
+		long churned = 0;
+		long end = System.currentTimeMillis() + durationMs;
+		while (System.currentTimeMillis() < end) {
+			for (int i = 0; i < CHURN_BATCH; i++) {
+				// a collection pauses the frame being buffered, so the
+				// longest time to buffer one is the longest pause seen by
+				// the application
+				long start = System.nanoTime();
+				Frame frame = frame(store, payloads, next++);
+				buffered.add(frame);
+				bytes += frame.getPayloadLength();
+				while (bytes > target) {
+					Frame oldest = buffered.poll();
+					bytes -= oldest.getPayloadLength();
+					oldest.release();
+				}
+				if (i % FRAMES_PER_GARBAGE == 0)
+					garbage = new byte[GARBAGE_SIZE];
+				longestStall = Math.max(longestStall, System.nanoTime() - start);
+			}
+			churned += CHURN_BATCH;
+		}
+
+		Runtime runtime = Runtime.getRuntime();
+		System.out.printf(
+				"%s: %d frames buffered (%.2f GB), %d churned, %d collections, %d ms in total, longest stall %d ms, heap used %.0f MB%s%n",
+				args[0], buffered.size(), bytes / 1e9, churned, collections()
+						- countBefore, collectionTime() - timeBefore, longestStall / 1000000,
+				(runtime.totalMemory() - runtime.freeMemory()) / 1e6,
+				store == null ? "" : String.format(
+						", store occupancy %.1f%%, internal fragmentation %.1f%%",
+						store.getOccupancy() * 100,
+						store.getInternalFragmentation() * 100));
+	}
+
+	private static Frame frame(FrameStore store, List<byte[]> payloads,
+			int index) {
+		byte[] payload = payloads.get(index % payloads.size());
+		if (store == null)
+			return new Frame((byte) 26, true, (short) index, index, payload, 0,
+					payload.length);
+		return store.store((byte) 26, true, (short) index, index, payload, 0,
+				payload.length);
+	}
+
+	/**
+	 * Reads the frames of an MJPEG file in the format of the bundled server:
+	 * each frame is preceded by its length, as five ASCII digits.
+	 */
+	private static List<byte[]> readFrames(String file) throws IOException {
+		List<byte[]> frames = new ArrayList<byte[]>();
+		byte[] length = new byte[5];
+		try (DataInputStream in = new DataInputStream(new FileInputStream(
+				file))) {
+			while (true) {
+				try {
+					in.readFully(length);
+				} catch (EOFException e) {
+					break;
+				}
+				byte[] frame = new byte[Integer.parseInt(new String(length,
+						"US-ASCII").trim())];
+				in.readFully(frame);
+				frames.add(frame);
+			}
+		}
+		return frames;
+	}
+
+	private static long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory
+				.getGarbageCollectorMXBeans())
+			count += collector.getCollectionCount();
+		return count;
+	}
+
+	private static long collectionTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory
+				.getGarbageCollectorMXBeans())
+			time += collector.getCollectionTime();
+		return time;
+	}
+}
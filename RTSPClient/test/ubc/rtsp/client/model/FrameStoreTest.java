@@ -0,0 +1,258 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.model;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the allocation and accounting of <code>FrameStore</code>: payloads
+ * are copied into the store and read back intact; releasing a frame returns
+ * its chunk, which the next payload of the same size class reuses instead of
+ * reserving another slab, also once a size class spans several slabs whose
+ * chunks are all released; payloads too large for a chunk, or that arrive when
+ * the store is full, are kept on the heap and counted; and occupancy,
+ * internal and external fragmentation match the sizes stored.
+ *
+ * Usage: <code>FrameStoreTest</code>. The program exits with status 1 if any
+ * check fails.
+ */
+public class FrameStoreTest {
+
+	// smaller than the smallest chunk, so each takes a chunk of that size
+	private static final int SMALL_PAYLOAD = 1000;
+	private static final int CHUNKS_PER_SLAB = FrameStore.SLAB_SIZE
+			/ FrameStore.MIN_CHUNK_SIZE;
+	private static final double EPSILON = 1e-9;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		contents();
+		reuseAfterRelease();
+		releaseAcrossSlabs();
+		overflow();
+		metrics();
+		if (failures > 0) {
+			System.out.println(failures + " check(s) FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	private static byte[] payload(int length, int seed) {
+		byte[] payload = new byte[length];
+		for (int i = 0; i < length; i++)
+			payload[i] = (byte) (seed + i);
+		return payload;
+	}
+
+	private static Frame store(FrameStore store, byte[] payload) {
+		return store.store((byte) 26, true, (short) 0, 0, payload, 0,
+				payload.length);
+	}
+
+	private static boolean sameContents(Frame frame, byte[] payload) {
+		ByteBuffer contents = frame.asReadOnlyBuffer();
+		if (contents.remaining() != payload.length)
+			return false;
+		for (int i = 0; i < payload.length; i++) {
+			if (contents.get() != payload[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static void contents() {
+		FrameStore store = new FrameStore(FrameStore.SLAB_SIZE * 4);
+		int[] lengths = { 1, SMALL_PAYLOAD, FrameStore.MIN_CHUNK_SIZE,
+				FrameStore.MIN_CHUNK_SIZE + 1, 30000, FrameStore.MAX_CHUNK_SIZE };
+		List<Frame> frames = new ArrayList<Frame>();
+		for (int i = 0; i < lengths.length; i++)
+			frames.add(store(store, payload(lengths[i], i)));
+		for (int i = 0; i < lengths.length; i++)
+			check("contents of a " + lengths[i] + "-byte payload",
+					sameContents(frames.get(i), payload(lengths[i], i)));
+		checkEquals("frames kept on the heap", 0, store.getOverflowFrames());
+		checkEquals("frames in the store", lengths.length, store.getFrames());
+	}
+
+	private static void reuseAfterRelease() {
+		// room for a single slab, so every chunk after the first slab's is a
+		// reused one
+		FrameStore store = new FrameStore(FrameStore.SLAB_SIZE);
+		List<Frame> frames = new ArrayList<Frame>();
+		for (int i = 0; i < CHUNKS_PER_SLAB; i++)
+			frames.add(store(store, payload(SMALL_PAYLOAD, i)));
+		checkEquals("one slab reserved", FrameStore.SLAB_SIZE,
+				store.getReservedBytes());
+		checkEquals("slab full, nothing on the heap", 0,
+				store.getOverflowFrames());
+
+		Frame released = frames.remove(CHUNKS_PER_SLAB / 2);
+		Frame retained = released.retain();
+		released.release();
+		checkEquals("chunk kept while the frame is retained", CHUNKS_PER_SLAB,
+				store.getFrames());
+		retained.release();
+		checkEquals("chunk returned by the last release", CHUNKS_PER_SLAB - 1,
+				store.getFrames());
+
+		for (int round = 0; round < 3; round++) {
+			Frame frame = store(store, payload(SMALL_PAYLOAD, 100 + round));
+			checkEquals("no slab added for a freed chunk, round " + round,
+					FrameStore.SLAB_SIZE, store.getReservedBytes());
+			checkEquals("freed chunk reused, round " + round, 0,
+					store.getOverflowFrames());
+			check("reused chunk holds the new payload, round " + round,
+					sameContents(frame, payload(SMALL_PAYLOAD, 100 + round)));
+			frame.release();
+		}
+		// the other frames were not touched by the reuse
+		boolean intact = true;
+		for (int i = 0; i < frames.size(); i++)
+			intact &= sameContents(frames.get(i), payload(SMALL_PAYLOAD,
+					i < CHUNKS_PER_SLAB / 2 ? i : i + 1));
+		check("frames around the reused chunk intact", intact);
+
+		for (Frame frame : frames)
+			frame.release();
+		checkEquals("no frames after releasing all", 0, store.getFrames());
+		checkEquals("no bytes used after releasing all", 0,
+				store.getUsedBytes());
+		checkEquals("slab kept after releasing all", FrameStore.SLAB_SIZE,
+				store.getReservedBytes());
+	}
+
+	private static void releaseAcrossSlabs() {
+		int slabs = 3;
+		FrameStore store = new FrameStore(FrameStore.SLAB_SIZE * slabs);
+		List<Frame> frames = new ArrayList<Frame>();
+		// each slab is taken whole before the next is reserved
+		for (int i = 0; i < CHUNKS_PER_SLAB * slabs; i++)
+			frames.add(store(store, payload(SMALL_PAYLOAD, i)));
+		checkEquals("slabs reserved for one size class", (long) slabs
+				* FrameStore.SLAB_SIZE, store.getReservedBytes());
+		for (Frame frame : frames)
+			frame.release();
+		checkEquals("every chunk of the size class returned", 0,
+				store.getFrames());
+		frames.clear();
+		for (int i = 0; i < CHUNKS_PER_SLAB * slabs; i++)
+			frames.add(store(store, payload(SMALL_PAYLOAD, i)));
+		checkEquals("every chunk reused", 0, store.getOverflowFrames());
+		checkEquals("no slab added for the reused chunks", (long) slabs
+				* FrameStore.SLAB_SIZE, store.getReservedBytes());
+		for (Frame frame : frames)
+			frame.release();
+	}
+
+	private static void overflow() {
+		FrameStore store = new FrameStore(FrameStore.SLAB_SIZE);
+		byte[] large = payload(FrameStore.MAX_CHUNK_SIZE + 1, 7);
+		Frame frame = store(store, large);
+		checkEquals("payload larger than a chunk on the heap", 1,
+				store.getOverflowFrames());
+		checkEquals("no slab reserved for it", 0, store.getReservedBytes());
+		check("contents of the payload on the heap", sameContents(frame, large));
+
+		// the only slab is divided into the smallest chunks, so a payload of
+		// another size class does not fit
+		List<Frame> frames = new ArrayList<Frame>();
+		for (int i = 0; i < CHUNKS_PER_SLAB; i++)
+			frames.add(store(store, payload(SMALL_PAYLOAD, i)));
+		store(store, payload(SMALL_PAYLOAD, 0));
+		checkEquals("payload on the heap when the store is full", 2,
+				store.getOverflowFrames());
+		store(store, payload(FrameStore.MIN_CHUNK_SIZE * 2, 0));
+		checkEquals("payload on the heap when no slab is left", 3,
+				store.getOverflowFrames());
+		checkEquals("store never exceeds its maximum", FrameStore.SLAB_SIZE,
+				store.getReservedBytes());
+		checkEquals("frames on the heap not counted in the store",
+				CHUNKS_PER_SLAB, store.getFrames());
+	}
+
+	private static void metrics() {
+		FrameStore store = new FrameStore(FrameStore.SLAB_SIZE * 2);
+		checkEquals("empty store occupancy", 0, store.getOccupancy());
+		checkEquals("empty store internal fragmentation", 0,
+				store.getInternalFragmentation());
+		checkEquals("empty store external fragmentation", 0,
+				store.getExternalFragmentation());
+
+		int count = CHUNKS_PER_SLAB / 4;
+		List<Frame> frames = new ArrayList<Frame>();
+		for (int i = 0; i < count; i++)
+			frames.add(store(store, payload(SMALL_PAYLOAD, i)));
+		double slab = FrameStore.SLAB_SIZE;
+		checkEquals("bytes used", (long) count * SMALL_PAYLOAD,
+				store.getUsedBytes());
+		checkEquals("occupancy", count * SMALL_PAYLOAD / slab,
+				store.getOccupancy());
+		checkEquals("internal fragmentation", 1 - (double) SMALL_PAYLOAD
+				/ FrameStore.MIN_CHUNK_SIZE, store.getInternalFragmentation());
+		checkEquals("external fragmentation", 0.75,
+				store.getExternalFragmentation());
+
+		// a full-sized chunk needs a second slab, which then only serves that
+		// size class
+		Frame large = store(store, payload(FrameStore.MAX_CHUNK_SIZE, 0));
+		double used = count * SMALL_PAYLOAD + FrameStore.MAX_CHUNK_SIZE;
+		double allocated = count * FrameStore.MIN_CHUNK_SIZE
+				+ FrameStore.MAX_CHUNK_SIZE;
+		checkEquals("two slabs reserved", 2 * FrameStore.SLAB_SIZE,
+				store.getReservedBytes());
+		checkEquals("occupancy over two slabs", used / (2 * slab),
+				store.getOccupancy());
+		checkEquals("internal fragmentation over two size classes",
+				1 - used / allocated, store.getInternalFragmentation());
+		checkEquals("external fragmentation over two slabs", 1 - allocated
+				/ (2 * slab), store.getExternalFragmentation());
+
+		large.release();
+		for (Frame frame : frames)
+			frame.release();
+		checkEquals("occupancy after releasing all", 0, store.getOccupancy());
+		checkEquals("internal fragmentation after releasing all", 0,
+				store.getInternalFragmentation());
+		checkEquals("all reserved memory free but divided", 1,
+				store.getExternalFragmentation());
+	}
+
+	private static void check(String name, boolean condition) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+
+	private static void checkEquals(String name, long expected, long actual) {
+		if (expected != actual) {
+			failures++;
+			System.out.println("FAILED: " + name + ": expected " + expected
+					+ ", got " + actual);
+		}
+	}
+
+	private static void checkEquals(String name, double expected, double actual) {
+		if (Math.abs(expected - actual) > EPSILON) {
+			failures++;
+			System.out.println("FAILED: " + name + ": expected " + expected
+					+ ", got " + actual);
+		}
+	}
+}
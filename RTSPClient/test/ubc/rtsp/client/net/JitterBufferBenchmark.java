@@ -0,0 +1,262 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import ubc.rtsp.client.model.Frame;
+
+/**
+ * Compares <code>JitterBuffer</code> with the PriorityQueue it replaced
+ * (<code>PriorityQueueJitterBuffer</code>) on the same trace: FRAMES frames
+ * in which half of the packets are displaced by 1 to MAX_DISPLACEMENT
+ * positions, one in ten frames with the marker bit set.
+ *
+ * Both buffers first get the same operations (adds, polls and drops, with a
+ * small and a large frame limit), and must agree on the next frame, the size
+ * and the number of evicted frames after each one. Then each buffer is timed:
+ * <ul>
+ * <li>steady play: frames added in batches of BATCH_SIZE, and played while
+ * more than DEPTH frames are buffered, as the receiving and playout threads
+ * do;</li>
+ * <li>full buffer: frames added with no one playing them, so every frame
+ * evicts another one.</li>
+ * </ul>
+ * Each measurement is repeated ROUNDS times, so the later rounds show the
+ * compiled code. The time and the bytes allocated per frame are printed.
+ *
+ * Usage: <code>JitterBufferBenchmark [frames]</code>. The program exits with
+ * status 1 if the buffers disagree.
+ */
+public class JitterBufferBenchmark {
+
+	private static final int FRAMES = 2000000;
+	private static final int MAX_DISPLACEMENT = 8;
+	private static final int BATCH_SIZE = 8;
+	private static final int DEPTH = 100;
+	private static final int COMPARED_FRAMES = 200000;
+	private static final int FULL_BUFFER_FRAMES = 200000;
+	private static final int ROUNDS = 5;
+
+	/**
+	 * The operations timed, on either buffer.
+	 */
+	private interface Buffer {
+		void addAll(long[] sequenceNumbers, Frame[] frames, int count);
+
+		void add(long sequenceNumber, Frame frame);
+
+		int size();
+
+		long peekSequenceNumber();
+
+		Frame poll();
+
+		int dropOlderThan(long sequenceNumber);
+	}
+
+	private static class Ring implements Buffer {
+		private JitterBuffer buffer = new JitterBuffer();
+
+		public void addAll(long[] sequenceNumbers, Frame[] frames, int count) {
+			buffer.addAll(sequenceNumbers, frames, count);
+		}
+
+		public void add(long sequenceNumber, Frame frame) {
+			buffer.add(sequenceNumber, frame);
+		}
+
+		public int size() {
+			return buffer.size();
+		}
+
+		public long peekSequenceNumber() {
+			return buffer.peekSequenceNumber();
+		}
+
+		public Frame poll() {
+			return buffer.poll();
+		}
+
+		public int dropOlderThan(long sequenceNumber) {
+			return buffer.dropOlderThan(sequenceNumber);
+		}
+	}
+
+	private static class Queue implements Buffer {
+		private PriorityQueueJitterBuffer buffer = new PriorityQueueJitterBuffer();
+
+		public void addAll(long[] sequenceNumbers, Frame[] frames, int count) {
+			buffer.addAll(sequenceNumbers, frames, count);
+		}
+
+		public void add(long sequenceNumber, Frame frame) {
+			buffer.add(sequenceNumber, frame);
+		}
+
+		public int size() {
+			return buffer.size();
+		}
+
+		public long peekSequenceNumber() {
+			return buffer.peekSequenceNumber();
+		}
+
+		public Frame poll() {
+			return buffer.poll();
+		}
+
+		public int dropOlderThan(long sequenceNumber) {
+			return buffer.dropOlderThan(sequenceNumber);
+		}
+	}
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : FRAMES;
+		Random random = new Random(1);
+		long[] order = reorder(count, random);
+		Frame[] frames = frames(count, random);
+
+		boolean agree = compare(order, frames, 300) & compare(order, frames, 20);
+		if (!agree) {
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			System.out.printf("round %d steady play:  priority queue %s  ring %s%n",
+					round, measure(new Queue(), order, frames, false),
+					measure(new Ring(), order, frames, false));
+		}
+		for (int round = 1; round <= ROUNDS; round++) {
+			System.out.printf("round %d full buffer:  priority queue %s  ring %s%n",
+					round, measure(new Queue(), order, frames, true),
+					measure(new Ring(), order, frames, true));
+		}
+	}
+
+	/**
+	 * Returns the sequence numbers 0 to count - 1 in arrival order, half of
+	 * them displaced by up to MAX_DISPLACEMENT positions.
+	 */
+	private static long[] reorder(int count, Random random) {
+		long[] order = new long[count];
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+		for (int i = 0; i < count - MAX_DISPLACEMENT; i++) {
+			if (random.nextBoolean()) {
+				int j = i + 1 + random.nextInt(MAX_DISPLACEMENT);
+				long swapped = order[i];
+				order[i] = order[j];
+				order[j] = swapped;
+			}
+		}
+		return order;
+	}
+
+	private static Frame[] frames(int count, Random random) {
+		Frame[] frames = new Frame[count];
+		byte[] payload = new byte[16];
+		for (int i = 0; i < count; i++)
+			frames[i] = new Frame((byte) 26, random.nextInt(10) == 0,
+					(short) i, i * 40, payload, 0, payload.length);
+		return frames;
+	}
+
+	/**
+	 * Applies the same operations to both buffers, with the given frame
+	 * limit, and checks that they agree after each one.
+	 */
+	private static boolean compare(long[] order, Frame[] frames, int maxFrames) {
+		JitterBuffer ring = new JitterBuffer(maxFrames, Long.MAX_VALUE);
+		PriorityQueueJitterBuffer queue = new PriorityQueueJitterBuffer(
+				maxFrames, Long.MAX_VALUE);
+		int count = Math.min(COMPARED_FRAMES, order.length);
+		byte[] payload = new byte[1];
+		for (int i = 0; i < count; i++) {
+			// spread out, so some frames fall out of the ring
+			long sequenceNumber = order[i] * 3;
+			boolean marker = frames[(int) order[i]].isMarkerOn();
+			ring.add(sequenceNumber, new Frame((byte) 26, marker, (short) 0, 0,
+					payload, 0, 1));
+			queue.add(sequenceNumber, new Frame((byte) 26, marker, (short) 0,
+					0, payload, 0, 1));
+			if (i % 7 == 0) {
+				ring.dropOlderThan(sequenceNumber - 30);
+				queue.dropOlderThan(sequenceNumber - 30);
+			}
+			if (i % 5 == 0) {
+				ring.poll();
+				queue.poll();
+			}
+			if (ring.size() != queue.size()
+					|| ring.peekSequenceNumber() != queue.peekSequenceNumber()) {
+				System.out.printf("limit %d: buffers differ after %d frames%n",
+						maxFrames, i + 1);
+				return false;
+			}
+		}
+		if (ring.getEvictedFrames() != queue.getEvictedFrames()) {
+			System.out.printf("limit %d: evicted %d frames, expected %d%n",
+					maxFrames, ring.getEvictedFrames(), queue.getEvictedFrames());
+			return false;
+		}
+		System.out.printf("limit %d: buffers agree, %d frames evicted%n",
+				maxFrames, ring.getEvictedFrames());
+		return true;
+	}
+
+	/**
+	 * Times one pass over the trace, and returns the time and the bytes
+	 * allocated per frame. The frames are shared by every pass, so each one
+	 * is retained for the buffer, which releases the frames it drops.
+	 */
+	private static String measure(Buffer buffer, long[] order, Frame[] frames,
+			boolean full) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		int count = full ? Math.min(FULL_BUFFER_FRAMES, order.length)
+				: order.length - order.length % BATCH_SIZE;
+		if (full) {
+			for (int i = 0; i < count; i++)
+				buffer.add(order[i], frames[(int) order[i]].retain());
+		} else {
+			long[] batchSequenceNumbers = new long[BATCH_SIZE];
+			Frame[] batchFrames = new Frame[BATCH_SIZE];
+			long playout = 0;
+			for (int i = 0; i < count; i += BATCH_SIZE) {
+				for (int k = 0; k < BATCH_SIZE; k++) {
+					batchSequenceNumbers[k] = order[i + k];
+					batchFrames[k] = frames[(int) order[i + k]].retain();
+				}
+				buffer.addAll(batchSequenceNumbers, batchFrames, BATCH_SIZE);
+				while (buffer.size() > DEPTH) {
+					buffer.dropOlderThan(playout);
+					while (buffer.peekSequenceNumber() == playout)
+						buffer.poll();
+					playout++;
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+		return String.format("%6.1f ns/frame %5.1f B/frame", (double) elapsed
+				/ count, (double) allocated / count);
+	}
+}
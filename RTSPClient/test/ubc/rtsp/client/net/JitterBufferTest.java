@@ -0,0 +1,276 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+import java.nio.ByteBuffer;
+
+import ubc.rtsp.client.model.Frame;
+
+/**
+ * Checks <code>JitterBuffer</code> on hand-built sequences of frames: play
+ * order while the ring wraps around, frames too far ahead or behind to share
+ * the ring, eviction when maxFrames or maxBytes is exceeded (oldest unmarked
+ * frame first, then oldest frame), and the release of every frame the
+ * buffer drops.
+ *
+ * Usage: <code>JitterBufferTest</code>. The program exits with status 1 if
+ * any check fails.
+ */
+public class JitterBufferTest {
+
+	// the smallest ring, used for up to half as many frames
+	private static final int CAPACITY = 1024;
+
+	private static int failures = 0;
+	private static int released = 0;
+
+	public static void main(String[] args) {
+		ringWrap();
+		reorderedAcrossWrap();
+		farAheadPushesOldestOut();
+		farBehindIsDiscarded();
+		duplicateIsReleased();
+		maxFramesEvictsUnmarkedFirst();
+		maxFramesEvictsOldestWhenAllMarked();
+		maxBytesEvicts();
+		shrinkingLimitsEvicts();
+		growingLimitsKeepsFrames();
+		dropOlderThan();
+		if (failures > 0) {
+			System.out.println(failures + " check(s) FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	/**
+	 * Returns a frame of the given size, counted in <code>released</code>
+	 * once released.
+	 */
+	private static Frame frame(boolean marker, int size) {
+		return Frame.wrap((byte) 26, marker, (short) 0, 0, ByteBuffer
+				.allocate(size), new Runnable() {
+			@Override
+			public void run() {
+				released++;
+			}
+		});
+	}
+
+	private static Frame frame(boolean marker) {
+		return frame(marker, 10);
+	}
+
+	private static void ringWrap() {
+		JitterBuffer buffer = new JitterBuffer(100, Long.MAX_VALUE);
+		// several times around the ring, starting just before a wrap
+		long first = 3 * CAPACITY - 5;
+		long expected = first;
+		boolean inOrder = true;
+		for (long s = first; s < first + 5 * CAPACITY; s++) {
+			buffer.add(s, frame(true));
+			if (buffer.size() > 50) {
+				inOrder &= buffer.peekSequenceNumber() == expected;
+				buffer.poll();
+				expected++;
+			}
+		}
+		check("frames played in order around the ring", inOrder);
+		while (!buffer.isEmpty()) {
+			inOrder &= buffer.peekSequenceNumber() == expected;
+			buffer.poll();
+			expected++;
+		}
+		check("remaining frames played in order", inOrder);
+		checkEquals("every frame played", first + 5 * CAPACITY, expected);
+		checkEquals("nothing evicted", 0, buffer.getEvictedFrames());
+		checkEquals("no bytes left", 0, buffer.getBytes());
+	}
+
+	private static void reorderedAcrossWrap() {
+		JitterBuffer buffer = new JitterBuffer(100, Long.MAX_VALUE);
+		long[] arrival = { CAPACITY - 2, CAPACITY + 1, CAPACITY - 1,
+				CAPACITY + 2, CAPACITY, CAPACITY - 3 };
+		for (long s : arrival)
+			buffer.add(s, frame(true));
+		boolean inOrder = true;
+		for (long s = CAPACITY - 3; s <= CAPACITY + 2; s++) {
+			inOrder &= buffer.peekSequenceNumber() == s;
+			buffer.poll();
+		}
+		check("reordered frames played in order across the wrap", inOrder);
+		check("buffer empty", buffer.isEmpty());
+	}
+
+	private static void farAheadPushesOldestOut() {
+		released = 0;
+		JitterBuffer buffer = new JitterBuffer(100, Long.MAX_VALUE);
+		buffer.add(10, frame(true));
+		buffer.add(11, frame(true));
+		buffer.add(12, frame(true));
+		// 11 and 12 still share the ring with 10 + CAPACITY, 10 does not
+		buffer.add(10 + CAPACITY, frame(true));
+		checkEquals("oldest frame pushed out", 11, buffer.peekSequenceNumber());
+		checkEquals("frames left", 3, buffer.size());
+		checkEquals("pushed out frame counted as evicted", 1,
+				buffer.getEvictedFrames());
+		checkEquals("pushed out frame released", 1, released);
+	}
+
+	private static void farBehindIsDiscarded() {
+		released = 0;
+		JitterBuffer buffer = new JitterBuffer(100, Long.MAX_VALUE);
+		buffer.add(5000, frame(true));
+		buffer.add(5000 - CAPACITY, frame(true));
+		checkEquals("frame too far behind discarded", 1, buffer.size());
+		checkEquals("first frame kept", 5000, buffer.peekSequenceNumber());
+		checkEquals("discarded frame counted as evicted", 1,
+				buffer.getEvictedFrames());
+		checkEquals("discarded frame released", 1, released);
+		buffer.add(5000 - CAPACITY + 1, frame(true));
+		checkEquals("frame just within the ring kept", 5000 - CAPACITY + 1,
+				buffer.peekSequenceNumber());
+	}
+
+	private static void duplicateIsReleased() {
+		released = 0;
+		JitterBuffer buffer = new JitterBuffer(100, Long.MAX_VALUE);
+		buffer.add(7, frame(true, 10));
+		buffer.add(7, frame(true, 20));
+		checkEquals("duplicate not added", 1, buffer.size());
+		checkEquals("bytes of the first frame only", 10, buffer.getBytes());
+		checkEquals("duplicate released", 1, released);
+		checkEquals("duplicate not counted as evicted", 0,
+				buffer.getEvictedFrames());
+	}
+
+	private static void maxFramesEvictsUnmarkedFirst() {
+		released = 0;
+		JitterBuffer buffer = new JitterBuffer(4, Long.MAX_VALUE);
+		buffer.add(100, frame(true));
+		buffer.add(101, frame(true));
+		buffer.add(102, frame(false));
+		buffer.add(103, frame(true));
+		buffer.add(104, frame(false));
+		checkEquals("limited to maxFrames", 4, buffer.size());
+		checkEquals("one frame evicted", 1, buffer.getEvictedFrames());
+		checkEquals("evicted frame released", 1, released);
+		// 102 was the oldest unmarked frame
+		long[] expected = { 100, 101, 103, 104 };
+		boolean kept = true;
+		for (long s : expected) {
+			kept &= buffer.peekSequenceNumber() == s;
+			buffer.poll();
+		}
+		check("oldest unmarked frame evicted", kept);
+	}
+
+	private static void maxFramesEvictsOldestWhenAllMarked() {
+		JitterBuffer buffer = new JitterBuffer(3, Long.MAX_VALUE);
+		for (long s = 200; s < 205; s++)
+			buffer.add(s, frame(true));
+		checkEquals("limited to maxFrames", 3, buffer.size());
+		checkEquals("two frames evicted", 2, buffer.getEvictedFrames());
+		checkEquals("oldest frames evicted", 202, buffer.peekSequenceNumber());
+	}
+
+	private static void maxBytesEvicts() {
+		released = 0;
+		JitterBuffer buffer = new JitterBuffer(100, 550);
+		for (long s = 0; s < 8; s++)
+			buffer.add(s, frame(s != 3, 100));
+		checkEquals("limited to maxBytes", 500, buffer.getBytes());
+		checkEquals("frames left", 5, buffer.size());
+		checkEquals("frames evicted", 3, buffer.getEvictedFrames());
+		checkEquals("evicted frames released", 3, released);
+		// first the unmarked frame 3, then the oldest: 0 and 1
+		long[] expected = { 2, 4, 5, 6, 7 };
+		boolean kept = true;
+		for (long s : expected) {
+			kept &= buffer.peekSequenceNumber() == s;
+			buffer.poll();
+		}
+		check("unmarked frame, then oldest frames evicted", kept);
+
+		JitterBuffer large = new JitterBuffer(100, 150);
+		large.add(0, frame(true, 100));
+		large.add(1, frame(true, 100));
+		checkEquals("single frame over half the limit", 1, large.size());
+		checkEquals("newest frame kept", 1, large.peekSequenceNumber());
+	}
+
+	private static void shrinkingLimitsEvicts() {
+		JitterBuffer buffer = new JitterBuffer(10, Long.MAX_VALUE);
+		for (long s = 0; s < 10; s++)
+			buffer.add(s, frame(s % 2 == 0));
+		buffer.setLimits(6, Long.MAX_VALUE);
+		checkEquals("evicted right away", 6, buffer.size());
+		checkEquals("unmarked frames evicted first", 4,
+				buffer.getEvictedFrames());
+		checkEquals("oldest frame kept", 0, buffer.peekSequenceNumber());
+		buffer.setLimits(6, 30);
+		checkEquals("evicted right away by bytes", 3, buffer.size());
+	}
+
+	private static void growingLimitsKeepsFrames() {
+		JitterBuffer buffer = new JitterBuffer(100, Long.MAX_VALUE);
+		long first = CAPACITY - 50;
+		for (long s = first; s < first + 100; s++)
+			buffer.add(s, frame(true));
+		// a larger ring, with the frames rehashed into it
+		buffer.setLimits(4 * CAPACITY, Long.MAX_VALUE);
+		checkEquals("frames kept", 100, buffer.size());
+		boolean inOrder = true;
+		for (long s = first; s < first + 100; s++) {
+			inOrder &= buffer.peekSequenceNumber() == s;
+			buffer.poll();
+		}
+		check("frames played in order after growing", inOrder);
+		buffer.add(5 * CAPACITY, frame(true));
+		buffer.add(5 * CAPACITY + 3 * CAPACITY, frame(true));
+		checkEquals("larger ring holds frames further apart", 2, buffer.size());
+	}
+
+	private static void dropOlderThan() {
+		released = 0;
+		JitterBuffer buffer = new JitterBuffer(100, Long.MAX_VALUE);
+		for (long s = 0; s < 10; s += 2)
+			buffer.add(s, frame(true));
+		checkEquals("frames dropped", 3, buffer.dropOlderThan(5));
+		checkEquals("dropped frames released", 3, released);
+		checkEquals("next frame", 6, buffer.peekSequenceNumber());
+		checkEquals("dropped frames not counted as evicted", 0,
+				buffer.getEvictedFrames());
+		buffer.clear();
+		checkEquals("cleared frames released", 5, released);
+		check("empty after clear", buffer.isEmpty()
+				&& buffer.peekSequenceNumber() == -1 && buffer.poll() == null);
+	}
+
+	private static void check(String name, boolean condition) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+
+	private static void checkEquals(String name, long expected, long actual) {
+		if (expected != actual) {
+			failures++;
+			System.out.println("FAILED: " + name + ": expected " + expected
+					+ ", got " + actual);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import ubc.rtsp.client.model.Frame;
+
+/**
+ * The previous implementation of <code>JitterBuffer</code>, which kept the
+ * frames in a PriorityQueue ordered by sequence number, and searched the whole
+ * queue for the oldest unmarked frame to evict. It is kept unchanged as the
+ * baseline of <code>JitterBufferBenchmark</code>, which also checks that both
+ * buffers play and evict the same frames.
+ */
+class PriorityQueueJitterBuffer {
+
+	public static final int DEFAULT_MAX_FRAMES = 300;
+	public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+	private static class Slot {
+		private long sequenceNumber;
+		private Frame frame;
+
+		private Slot(long sequenceNumber, Frame frame) {
+			this.sequenceNumber = sequenceNumber;
+			this.frame = frame;
+		}
+
+		private long getSequenceNumber() {
+			return sequenceNumber;
+		}
+	}
+
+	private PriorityQueue<Slot> frames = new PriorityQueue<Slot>(100,
+			Comparator.comparingLong(Slot::getSequenceNumber));
+	private int maxFrames;
+	private long maxBytes;
+	private long bytes = 0;
+	private long evictedFrames = 0;
+
+	PriorityQueueJitterBuffer() {
+		this(DEFAULT_MAX_FRAMES, DEFAULT_MAX_BYTES);
+	}
+
+	PriorityQueueJitterBuffer(int maxFrames, long maxBytes) {
+		setLimits(maxFrames, maxBytes);
+	}
+
+	/**
+	 * Changes the maximum number of frames and payload bytes held by the
+	 * buffer, evicting frames right away if needed.
+	 */
+	synchronized void setLimits(int maxFrames, long maxBytes) {
+		if (maxFrames < 1 || maxBytes < 1)
+			throw new IllegalArgumentException("Buffer limits must be positive.");
+		this.maxFrames = maxFrames;
+		this.maxBytes = maxBytes;
+		enforceLimits();
+	}
+
+	synchronized int getMaxFrames() {
+		return maxFrames;
+	}
+
+	synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Adds a frame to the buffer.
+	 * 
+	 * @param sequenceNumber
+	 *            The extended sequence number of the frame.
+	 * @param frame
+	 *            The frame to be added.
+	 */
+	synchronized void add(long sequenceNumber, Frame frame) {
+		frames.add(new Slot(sequenceNumber, frame));
+		bytes += frame.getPayloadLength();
+		enforceLimits();
+	}
+
+	/**
+	 * Adds a batch of frames to the buffer, taking the lock and enforcing the
+	 * limits only once.
+	 * 
+	 * @param sequenceNumbers
+	 *            The extended sequence numbers of the frames.
+	 * @param frames
+	 *            The frames to be added.
+	 * @param count
+	 *            The number of frames to be added from the start of the arrays.
+	 */
+	synchronized void addAll(long[] sequenceNumbers, Frame[] frames, int count) {
+		for (int i = 0; i < count; i++) {
+			this.frames.add(new Slot(sequenceNumbers[i], frames[i]));
+			bytes += frames[i].getPayloadLength();
+		}
+		enforceLimits();
+	}
+
+	/**
+	 * Returns the extended sequence number of the first frame in the buffer.
+	 * 
+	 * @return The lowest sequence number in the buffer, or -1 if the buffer
+	 *         is empty.
+	 */
+	synchronized long peekSequenceNumber() {
+		Slot head = frames.peek();
+		return head == null ? -1 : head.sequenceNumber;
+	}
+
+	synchronized Frame poll() {
+		Slot slot = frames.poll();
+		if (slot == null)
+			return null;
+		bytes -= slot.frame.getPayloadLength();
+		return slot.frame;
+	}
+
+	/**
+	 * Discards all frames with a sequence number lower than the given one.
+	 * These frames arrived too late to be played.
+	 * 
+	 * @return The number of frames discarded.
+	 */
+	synchronized int dropOlderThan(long sequenceNumber) {
+		int dropped = 0;
+		while (!frames.isEmpty()
+				&& frames.peek().sequenceNumber < sequenceNumber) {
+			poll().release();
+			dropped++;
+		}
+		return dropped;
+	}
+
+	synchronized boolean isEmpty() {
+		return frames.isEmpty();
+	}
+
+	synchronized int size() {
+		return frames.size();
+	}
+
+	synchronized long getBytes() {
+		return bytes;
+	}
+
+	synchronized long getEvictedFrames() {
+		return evictedFrames;
+	}
+
+	synchronized void clear() {
+		for (Slot slot : frames)
+			slot.frame.release();
+		frames.clear();
+		bytes = 0;
+	}
+
+	private void enforceLimits() {
+		while (frames.size() > maxFrames || bytes > maxBytes) {
+			Slot victim = oldestUnmarkedSlot();
+			if (victim == null)
+				victim = frames.peek();
+			frames.remove(victim);
+			bytes -= victim.frame.getPayloadLength();
+			evictedFrames++;
+			victim.frame.release();
+		}
+	}
+
+	private Slot oldestUnmarkedSlot() {
+		Slot head = frames.peek();
+		if (head != null && !head.frame.isMarkerOn())
+			return head;
+		Slot oldest = null;
+		Iterator<Slot> it = frames.iterator();
+		while (it.hasNext()) {
+			Slot slot = it.next();
+			if (!slot.frame.isMarkerOn()
+					&& (oldest == null || slot.sequenceNumber < oldest.sequenceNumber))
+				oldest = slot;
+		}
+		return oldest;
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+/**
+ * Checks the decisions of <code>RateController</code> on simulated packet
+ * traces, with no network and no real time involved: a stream of 25 frames
+ * per second, one packet per frame, with loss, queueing delay or a backlog in
+ * the socket added on demand. The simulated server keeps sending at the
+ * nominal rate whatever is requested, so each decision only depends on the
+ * signals given.
+ *
+ * Usage: <code>RateControllerTest</code>. The program exits with status 1 if
+ * any check fails.
+ */
+public class RateControllerTest {
+
+	private static final int FRAME_INTERVAL_MS = 40;
+	private static final int FRAMES_PER_SECOND = 1000 / FRAME_INTERVAL_MS;
+	private static final long BASE_DELAY_MS = 20;
+	private static final double EPSILON = 1e-9;
+
+	private static int failures = 0;
+
+	/**
+	 * A simulated stream feeding a controller, one second at a time.
+	 */
+	private static class Stream {
+		private RateController controller = new RateController();
+		private long sequenceNumber = 1000;
+		private int timestamp = 0;
+		private long sendTime = 100000;
+
+		/**
+		 * Plays one second of the stream, closing one interval of the
+		 * controller.
+		 * 
+		 * @param lossEvery
+		 *            Drops one packet in every lossEvery, or none if 0.
+		 * @param backlog
+		 *            <tt>true</tt> if every batch fills up.
+		 * @param queueDelayMs
+		 *            The queueing delay added to every packet.
+		 * @return <tt>true</tt> if the requested fraction changed.
+		 */
+		private boolean second(int lossEvery, boolean backlog, long queueDelayMs) {
+			boolean changed = false;
+			for (int i = 0; i < FRAMES_PER_SECOND; i++) {
+				sequenceNumber++;
+				timestamp += FRAME_INTERVAL_MS;
+				sendTime += FRAME_INTERVAL_MS;
+				long arrival = sendTime + BASE_DELAY_MS + queueDelayMs;
+				if (lossEvery > 0 && sequenceNumber % lossEvery == 0)
+					continue;
+				controller.packetReceived(sequenceNumber, timestamp, 1000, arrival);
+				controller.batchReceived(backlog);
+				changed |= controller.update(arrival);
+			}
+			// the receiver wakes up again when the next packet is due
+			changed |= controller.update(sendTime + FRAME_INTERVAL_MS
+					+ BASE_DELAY_MS + queueDelayMs);
+			return changed;
+		}
+
+		private boolean clear() {
+			return second(0, false, 0);
+		}
+
+		private double fraction() {
+			return controller.getFraction();
+		}
+	}
+
+	public static void main(String[] args) {
+		nominalRateIsLearned();
+		lossDecreasesFraction();
+		backlogDecreasesFraction();
+		queueDelayDecreasesFraction();
+		decreaseIsHeld();
+		recoveryWaitsForClearIntervals();
+		restartKeepsFraction();
+		if (failures > 0) {
+			System.out.println(failures + " check(s) FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	/**
+	 * Returns a stream that played long enough for the nominal rate to be
+	 * known, and for the delay baseline to be set.
+	 */
+	private static Stream steadyStream() {
+		Stream stream = new Stream();
+		for (int i = 0; i < 3; i++)
+			stream.clear();
+		return stream;
+	}
+
+	private static void nominalRateIsLearned() {
+		Stream stream = new Stream();
+		stream.clear();
+		check("nominal rate unknown after the first interval",
+				stream.controller.getNominalFrameRate() == 0);
+		check("nothing requested before the nominal rate is known",
+				stream.controller.getTargetFrameRate() == 0);
+		stream.clear();
+		stream.clear();
+		checkEquals("nominal rate", FRAMES_PER_SECOND,
+				stream.controller.getNominalFrameRate(), 0.5);
+		checkEquals("full stream requested", 1.0, stream.fraction(), EPSILON);
+		check("not congested", !stream.controller.isCongested());
+	}
+
+	private static void lossDecreasesFraction() {
+		Stream stream = steadyStream();
+		check("loss changes the fraction", stream.second(5, false, 0));
+		checkEquals("loss", 0.2, stream.controller.getLoss(), 0.05);
+		check("congested", stream.controller.isCongested());
+		// cut from what was delivered, 20 of 25 frames
+		checkEquals("fraction after loss", 0.8
+				* RateController.DECREASE_FACTOR, stream.fraction(), 0.05);
+	}
+
+	private static void backlogDecreasesFraction() {
+		Stream stream = steadyStream();
+		check("backlog changes the fraction", stream.second(0, true, 0));
+		checkEquals("backlog", 1.0, stream.controller.getBacklog(), EPSILON);
+		checkEquals("loss without drops", 0, stream.controller.getLoss(), EPSILON);
+		checkEquals("fraction after backlog", RateController.DECREASE_FACTOR,
+				stream.fraction(), 0.05);
+	}
+
+	private static void queueDelayDecreasesFraction() {
+		Stream stream = steadyStream();
+		long delay = RateController.QUEUE_DELAY_THRESHOLD_MS + 50;
+		stream.second(0, false, delay);
+		stream.second(0, false, delay);
+		check("queueing delay measured",
+				stream.controller.getQueueDelay() >= delay - FRAME_INTERVAL_MS);
+		check("queueing delay decreases the fraction", stream.fraction() < 1.0);
+	}
+
+	private static void decreaseIsHeld() {
+		Stream stream = steadyStream();
+		stream.second(5, false, 0);
+		double first = stream.fraction();
+		check("first decrease", first < 1.0);
+		// still congested, but within DECREASE_HOLD_MS of the decrease
+		check("held one interval later", !stream.second(5, false, 0));
+		checkEquals("fraction held", first, stream.fraction(), EPSILON);
+		check("decreased again after the hold", stream.second(5, false, 0));
+		check("second decrease", stream.fraction() < first);
+	}
+
+	private static void recoveryWaitsForClearIntervals() {
+		Stream stream = steadyStream();
+		stream.second(5, false, 0);
+		double decreased = stream.fraction();
+		for (int i = 1; i < RateController.RECOVERY_INTERVALS; i++) {
+			check("no increase after " + i + " clear interval(s)",
+					!stream.clear());
+			checkEquals("fraction kept", decreased, stream.fraction(), EPSILON);
+		}
+		check("increase after " + RateController.RECOVERY_INTERVALS
+				+ " clear intervals", stream.clear());
+		checkEquals("fraction after recovery", decreased
+				+ RateController.INCREASE_STEP, stream.fraction(), EPSILON);
+		// then one step per interval, up to the full stream
+		int intervals = 0;
+		while (stream.fraction() < 1.0 && intervals < 100) {
+			double before = stream.fraction();
+			stream.clear();
+			checkEquals("one step per interval", Math.min(1.0, before
+					+ RateController.INCREASE_STEP), stream.fraction(), EPSILON);
+			intervals++;
+		}
+		checkEquals("full stream requested again", 1.0, stream.fraction(),
+				EPSILON);
+		check("stays at the full stream", !stream.clear());
+	}
+
+	private static void restartKeepsFraction() {
+		Stream stream = steadyStream();
+		stream.second(5, false, 0);
+		double decreased = stream.fraction();
+		double nominal = stream.controller.getNominalFrameRate();
+		stream.controller.restart();
+		checkEquals("fraction kept by restart", decreased, stream.fraction(),
+				EPSILON);
+		checkEquals("nominal rate kept by restart", nominal,
+				stream.controller.getNominalFrameRate(), EPSILON);
+		stream.controller.reset();
+		checkEquals("fraction cleared by reset", 1.0, stream.fraction(), EPSILON);
+		check("nominal rate cleared by reset",
+				stream.controller.getNominalFrameRate() == 0);
+	}
+
+	private static void check(String name, boolean condition) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+
+	private static void checkEquals(String name, double expected,
+			double actual, double tolerance) {
+		if (Math.abs(expected - actual) > tolerance) {
+			failures++;
+			System.out.println("FAILED: " + name + ": expected " + expected
+					+ ", got " + actual);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.model.Frame;
+import ubc.rtsp.client.model.Session;
+import ubc.rtsp.client.model.listener.SessionListener;
+
+/**
+ * Pauses and resumes a stream while the receiving thread is blocked waiting
+ * for a packet, with a blocking receive. The stopped receiver is still
+ * waiting when the stream is resumed, so it must be kept going rather than
+ * joined by a second receiver: the stream should then resume right away, with
+ * no receive error, and with never more than one receiving thread.
+ *
+ * The stream comes from an RtspTestServer. The receive timeout is much
+ * longer than the time allowed for the stream to resume, so a receiver
+ * waiting for the previous one shows up as a late first frame.
+ *
+ * Usage: <code>ReceiverRestartTest</code>. The program exits with status 1 if
+ * any check fails.
+ */
+public class ReceiverRestartTest {
+
+	private static final long RECEIVE_TIMEOUT_MS = 3000;
+	private static final long MAX_RESUME_MS = 1000;
+	private static final long BLOCKED_MS = 300;
+	private static final int CYCLES = 5;
+
+	private static int failures = 0;
+
+	/**
+	 * Counts the frames played, and remembers when the last one was played.
+	 */
+	private static class Counter implements SessionListener {
+		private volatile int frames = 0;
+		private volatile long lastFrameTime = 0;
+
+		@Override
+		public void exceptionThrown(RTSPException exception) {
+			failures++;
+			System.out.println("FAILED: exception " + exception.getMessage());
+		}
+
+		@Override
+		public void frameReceived(Frame frame) {
+			if (frame == null)
+				return;
+			frames++;
+			lastFrameTime = System.nanoTime();
+		}
+
+		@Override
+		public void videoNameChanged(String videoName) {
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		RtspTestServer server = new RtspTestServer();
+		TransportProfile transport = new TransportProfile();
+		transport.setBlockingReceive(true);
+		transport.setReceiveTimeoutMs(RECEIVE_TIMEOUT_MS);
+		Session session = new Session("127.0.0.1", server.getPort(),
+				transport);
+		Counter counter = new Counter();
+		session.addSessionListener(counter);
+		session.open("movie.Mjpeg");
+
+		session.play();
+		Thread.sleep(500);
+		check("frames played before the first pause", counter.frames > 0);
+
+		for (int i = 1; i <= CYCLES; i++) {
+			session.pause();
+			// no packet arrives, so the receiver is blocked in a receive
+			Thread.sleep(BLOCKED_MS);
+			check("at most one receiver while paused (" + i + ")",
+					receiverThreads() <= 1);
+
+			long start = System.nanoTime();
+			session.play();
+			long playMs = (System.nanoTime() - start) / 1000000;
+			check("resumed without waiting for the receiver (" + i + "), "
+					+ playMs + "ms", playMs < MAX_RESUME_MS);
+
+			long firstFrameMs = waitForFrame(counter, start);
+			check("frame played after resuming (" + i + "), " + firstFrameMs
+					+ "ms", firstFrameMs >= 0 && firstFrameMs < MAX_RESUME_MS);
+			check("at most one receiver while playing (" + i + ")",
+					receiverThreads() <= 1);
+		}
+		check("no receive errors, got " + session.getReceiveErrors(),
+				session.getReceiveErrors() == 0);
+
+		session.close();
+		session.closeConnection();
+		server.close();
+		if (failures > 0) {
+			System.out.println(failures + " check(s) FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	/**
+	 * Waits for a frame played after the given time.
+	 * 
+	 * @return The time from the given time to that frame, in milliseconds,
+	 *         or -1 if no frame was played within the receive timeout.
+	 */
+	private static long waitForFrame(Counter counter, long since)
+			throws InterruptedException {
+		long deadline = since + RECEIVE_TIMEOUT_MS * 1000000;
+		while (System.nanoTime() < deadline) {
+			long last = counter.lastFrameTime;
+			if (last - since > 0)
+				return (last - since) / 1000000;
+			Thread.sleep(5);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the number of receiving threads alive. Virtual threads are not
+	 * listed, so the count is only meaningful with platform threads.
+	 */
+	private static int receiverThreads() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("rtp-receiver-"))
+				count++;
+		}
+		return count;
+	}
+
+	private static void check(String name, boolean condition) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal RTSP server for tests, in the same process as the client. Every
+ * request is answered with 200 OK, with no RTP-Info header, and one RTP
+ * packet is sent every FRAME_INTERVAL_MS to the client port given in SETUP
+ * between PLAY and PAUSE. Timestamps are in milliseconds from the start of
+ * the video, and sequence numbers never jump.
+ *
+ * A PLAY with a Range header moves the stream to the requested position,
+ * unless the server is told to ignore it. The server can also be told to
+ * send a few packets from the previous position after answering the PLAY, as
+ * if they were still in flight.
+ */
+class RtspTestServer implements Runnable {
+
+	static final long FRAME_INTERVAL_MS = 40;
+	private static final String CRLF = "\r\n";
+
+	private ServerSocket serverSocket = new ServerSocket(0);
+	private DatagramSocket rtpSocket = new DatagramSocket();
+	private volatile int clientPort;
+	private volatile boolean streaming;
+	private volatile boolean ignoreRange;
+	private volatile int inFlightPackets;
+	private int sequenceNumber = 0;
+	// guarded by this
+	private long timestamp = 0;
+	private long requestedPosition = -1;
+	private int inFlight = 0;
+
+	RtspTestServer() throws IOException {
+		Thread thread = new Thread(this, "test-rtsp-server");
+		thread.setDaemon(true);
+		thread.start();
+		Thread sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				send();
+			}
+		}, "test-rtp-sender");
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	void setIgnoreRange(boolean ignoreRange) {
+		this.ignoreRange = ignoreRange;
+	}
+
+	/**
+	 * Changes the number of packets sent from the previous position after
+	 * each PLAY with a Range header is answered.
+	 */
+	void setInFlightPackets(int inFlightPackets) {
+		this.inFlightPackets = inFlightPackets;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				}, "test-rtsp-connection");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		} catch (IOException e) {
+			// the server was closed
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream output = socket.getOutputStream();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String method = line.split(" ")[0];
+				String cseq = "0";
+				long position = -1;
+				while ((line = reader.readLine()) != null && !line.isEmpty()) {
+					if (line.startsWith("CSeq:"))
+						cseq = line.substring(5).trim();
+					if (line.startsWith("Range: npt="))
+						position = Math.round(Double.parseDouble(line.substring(11,
+								line.indexOf('-'))) * 1000);
+					int port = line.indexOf("client_port=");
+					if (port >= 0)
+						clientPort = Integer.parseInt(line.substring(port + 12)
+								.trim());
+				}
+				if (method.equals("PLAY")) {
+					synchronized (this) {
+						if (position >= 0 && !ignoreRange) {
+							requestedPosition = position;
+							inFlight = inFlightPackets;
+						}
+					}
+					streaming = true;
+				} else if (method.equals("PAUSE") || method.equals("TEARDOWN")) {
+					streaming = false;
+				}
+				output.write(("RTSP/1.0 200 OK" + CRLF + "CSeq: " + cseq + CRLF
+						+ "Session: 1" + CRLF + CRLF)
+						.getBytes(StandardCharsets.US_ASCII));
+				output.flush();
+			}
+		} catch (IOException e) {
+			// the client closed the connection
+		}
+	}
+
+	private void send() {
+		byte[] packet = new byte[12 + 1000];
+		try {
+			InetAddress address = InetAddress.getLoopbackAddress();
+			while (true) {
+				Thread.sleep(FRAME_INTERVAL_MS);
+				if (!streaming)
+					continue;
+				int packetTimestamp;
+				synchronized (this) {
+					if (inFlight > 0) {
+						inFlight--;
+					} else if (requestedPosition >= 0) {
+						timestamp = requestedPosition;
+						requestedPosition = -1;
+					}
+					packetTimestamp = (int) timestamp;
+					timestamp += FRAME_INTERVAL_MS;
+				}
+				sequenceNumber++;
+				packet[0] = (byte) 0x80;
+				packet[1] = (byte) (0x80 | 26);
+				packet[2] = (byte) (sequenceNumber >> 8);
+				packet[3] = (byte) sequenceNumber;
+				packet[4] = (byte) (packetTimestamp >> 24);
+				packet[5] = (byte) (packetTimestamp >> 16);
+				packet[6] = (byte) (packetTimestamp >> 8);
+				packet[7] = (byte) packetTimestamp;
+				rtpSocket.send(new DatagramPacket(packet, packet.length,
+						address, clientPort));
+			}
+		} catch (IOException | InterruptedException e) {
+			// the server was closed
+		}
+	}
+
+	void close() throws IOException {
+		serverSocket.close();
+		rtpSocket.close();
+	}
+}
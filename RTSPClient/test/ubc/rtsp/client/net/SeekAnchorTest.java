@@ -0,0 +1,136 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.model.Frame;
+import ubc.rtsp.client.model.Session;
+import ubc.rtsp.client.model.listener.SessionListener;
+
+/**
+ * Seeks in a stream whose server sends no RTP-Info header, and keeps sending
+ * IN_FLIGHT_PACKETS packets from the previous position after answering the
+ * PLAY. Playback should be anchored on the first packet from the requested
+ * position, so the packets still in flight are never played. A server that
+ * ignores the requested position should still be played, once the client
+ * stops waiting for the position.
+ *
+ * The stream comes from an RtspTestServer, whose timestamps are in
+ * milliseconds from the start of the video.
+ *
+ * Usage: <code>SeekAnchorTest</code>. The program exits with status 1 if any
+ * check fails.
+ */
+public class SeekAnchorTest {
+
+	private static final int IN_FLIGHT_PACKETS = 4;
+	private static final double SEEK_POSITION = 20.0;
+	private static final long SETTLE_MS = 800;
+	private static final long IGNORED_RANGE_WAIT_MS = 2500;
+
+	private static int failures = 0;
+
+	/**
+	 * Records the timestamps of the frames played.
+	 */
+	private static class Recorder implements SessionListener {
+		private List<Integer> timestamps = new ArrayList<Integer>();
+
+		@Override
+		public void exceptionThrown(RTSPException exception) {
+			failures++;
+			System.out.println("FAILED: exception " + exception.getMessage());
+		}
+
+		@Override
+		public synchronized void frameReceived(Frame frame) {
+			if (frame != null)
+				timestamps.add(frame.getTimestamp());
+		}
+
+		@Override
+		public void videoNameChanged(String videoName) {
+		}
+
+		private synchronized int count() {
+			return timestamps.size();
+		}
+
+		private synchronized List<Integer> since(int index) {
+			return new ArrayList<Integer>(timestamps.subList(index,
+					timestamps.size()));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		RtspTestServer server = new RtspTestServer();
+		server.setInFlightPackets(IN_FLIGHT_PACKETS);
+		Session session = new Session("127.0.0.1", server.getPort());
+		Recorder recorder = new Recorder();
+		session.addSessionListener(recorder);
+		session.open("movie.Mjpeg");
+
+		session.play();
+		Thread.sleep(500);
+		check("frames played before seeking", recorder.count() > 0);
+
+		long position = Math.round(SEEK_POSITION * 1000);
+		int before = recorder.count();
+		session.seek(SEEK_POSITION);
+		Thread.sleep(SETTLE_MS);
+		List<Integer> played = recorder.since(before);
+		int old = 0;
+		int first = -1;
+		for (int timestamp : played) {
+			if (timestamp < position)
+				old++;
+			else if (first < 0)
+				first = timestamp;
+		}
+		// one frame may have been on its way to the listener already
+		check("frames from the previous position played after seeking: " + old,
+				old <= 1);
+		check("first frame from the new position: " + first, first >= position
+				&& first < position + 10 * RtspTestServer.FRAME_INTERVAL_MS);
+
+		server.setIgnoreRange(true);
+		before = recorder.count();
+		session.seek(2 * SEEK_POSITION);
+		Thread.sleep(IGNORED_RANGE_WAIT_MS);
+		check("frames played when the server ignores the position",
+				recorder.count() > before);
+
+		check("no receive errors, got " + session.getReceiveErrors(),
+				session.getReceiveErrors() == 0);
+		session.close();
+		session.closeConnection();
+		server.close();
+		if (failures > 0) {
+			System.out.println(failures + " check(s) FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	private static void check(String name, boolean condition) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+}
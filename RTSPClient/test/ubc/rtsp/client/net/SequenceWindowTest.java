@@ -0,0 +1,232 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.net;
+
+/**
+ * Checks <code>SequenceWindow</code> on hand-built sequence numbers: the
+ * extension of 16-bit sequence numbers across wrap-arounds in both
+ * directions, rebasing on a restarted numbering, and duplicate and stale
+ * detection as the window of WINDOW_SIZE bits moves, including across its own
+ * boundary.
+ *
+ * Usage: <code>SequenceWindowTest</code>. The program exits with status 1 if
+ * any check fails.
+ */
+public class SequenceWindowTest {
+
+	private static final int WINDOW = SequenceWindow.WINDOW_SIZE;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		firstSequenceNumber();
+		forwardWrap();
+		lateAcrossWrap();
+		extendFarFromStart();
+		rebase();
+		rebaseThenWrap();
+		duplicatesAcrossWindowBoundary();
+		skippedNumbersAreCleared();
+		olderThanWindowIsStale();
+		jumpBeyondWindow();
+		playoutPointIsStale();
+		reset();
+		if (failures > 0) {
+			System.out.println(failures + " check(s) FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	/**
+	 * Extends and checks a 16-bit sequence number, with no playout point.
+	 */
+	private static long receive(SequenceWindow window, int sequenceNumber,
+			int expected, String name) {
+		long extended = window.extend((short) sequenceNumber);
+		checkEquals(name + " " + sequenceNumber, expected, window.check(
+				extended, 0));
+		return extended;
+	}
+
+	private static long receive(SequenceWindow window, int sequenceNumber) {
+		return receive(window, sequenceNumber, SequenceWindow.ACCEPTED,
+				"accepted");
+	}
+
+	private static void firstSequenceNumber() {
+		SequenceWindow window = new SequenceWindow();
+		checkEquals("first extended to itself", 65000, receive(window, 65000));
+		checkEquals("highest", 65000, window.getHighest());
+	}
+
+	private static void forwardWrap() {
+		SequenceWindow window = new SequenceWindow();
+		boolean continuous = true;
+		long expected = 65530;
+		for (int i = 0; i < 12; i++) {
+			continuous &= receive(window, (65530 + i) & 0xFFFF) == expected;
+			expected++;
+		}
+		check("extended continuously across the wrap", continuous);
+		checkEquals("highest after the wrap", 65541, window.getHighest());
+		// and a second time around
+		for (long s = 65542; s <= 2 * 65536 + 10; s++)
+			receive(window, (int) (s & 0xFFFF));
+		checkEquals("highest after two wraps", 2 * 65536 + 10,
+				window.getHighest());
+	}
+
+	private static void lateAcrossWrap() {
+		SequenceWindow window = new SequenceWindow();
+		receive(window, 65534);
+		receive(window, 65535);
+		receive(window, 1);
+		// 0 arrives after 1, from before the wrap in raw numbers but after it
+		// in extended ones
+		checkEquals("late packet after the wrap", 65536, receive(window, 0));
+		// 65533 arrives after the wrap, and belongs before it
+		checkEquals("late packet before the wrap", 65533, receive(window, 65533));
+		checkEquals("highest unchanged by late packets", 65537,
+				window.getHighest());
+	}
+
+	private static void extendFarFromStart() {
+		SequenceWindow window = new SequenceWindow();
+		receive(window, 100);
+		// the closest extension is chosen, within half the sequence space
+		checkEquals("just under half ahead", 100 + 32767, window
+				.extend((short) (100 + 32767)));
+		checkEquals("more than half ahead is behind", 100 + 32769 - 65536,
+				window.extend((short) (100 + 32769)));
+	}
+
+	private static void rebase() {
+		SequenceWindow window = new SequenceWindow();
+		for (int s = 1000; s < 1010; s++)
+			receive(window, s);
+		window.rebase();
+		// the server restarted its numbering from 7
+		checkEquals("first after rebase follows the highest", 1010, receive(
+				window, 7));
+		checkEquals("next after rebase", 1011, receive(window, 8));
+		checkEquals("late packet after rebase", 1009 + 0, window
+				.extend((short) 6));
+		checkEquals("duplicate after rebase", SequenceWindow.DUPLICATE,
+				window.check(window.extend((short) 8), 0));
+	}
+
+	private static void rebaseThenWrap() {
+		SequenceWindow window = new SequenceWindow();
+		receive(window, 50);
+		window.rebase();
+		// restarted just before the wrap
+		checkEquals("rebased", 51, receive(window, 65534));
+		checkEquals("rebased, before the wrap", 52, receive(window, 65535));
+		checkEquals("rebased, after the wrap", 53, receive(window, 0));
+		checkEquals("rebased, after the wrap", 54, receive(window, 1));
+	}
+
+	private static void duplicatesAcrossWindowBoundary() {
+		SequenceWindow window = new SequenceWindow();
+		// around the point where the bitmap index wraps
+		for (int s = WINDOW - 3; s <= WINDOW + 3; s++)
+			receive(window, s);
+		for (int s = WINDOW - 3; s <= WINDOW + 3; s++)
+			receive(window, s, SequenceWindow.DUPLICATE, "duplicate");
+		checkEquals("duplicates counted", 7, window.getDuplicates());
+		// and across a word of the bitmap, from one window to the next
+		for (int s = WINDOW + 4; s <= 2 * WINDOW + 70; s++)
+			receive(window, s);
+		receive(window, 2 * WINDOW + 64, SequenceWindow.DUPLICATE, "duplicate");
+		receive(window, WINDOW + 71, SequenceWindow.DUPLICATE,
+				"duplicate, oldest in the window");
+	}
+
+	private static void skippedNumbersAreCleared() {
+		SequenceWindow window = new SequenceWindow();
+		for (int s = 0; s < WINDOW; s++)
+			receive(window, s);
+		// every bit is set; skipping ahead must clear the bits of the
+		// numbers skipped, which share their bits with numbers seen before
+		receive(window, WINDOW + 200);
+		for (int s = WINDOW; s < WINDOW + 200; s++)
+			receive(window, s, SequenceWindow.ACCEPTED, "skipped, then received");
+		checkEquals("no duplicates", 0, window.getDuplicates());
+		// the bits of numbers still in the window were kept
+		receive(window, 300, SequenceWindow.DUPLICATE,
+				"seen, still in the window");
+	}
+
+	private static void olderThanWindowIsStale() {
+		SequenceWindow window = new SequenceWindow();
+		receive(window, 5000);
+		receive(window, 5000 - WINDOW, SequenceWindow.STALE,
+				"stale, just out of the window");
+		receive(window, 5000 - WINDOW + 1, SequenceWindow.ACCEPTED,
+				"accepted, oldest in the window");
+		checkEquals("stale counted", 1, window.getStale());
+	}
+
+	private static void jumpBeyondWindow() {
+		SequenceWindow window = new SequenceWindow();
+		for (int s = 0; s < 100; s++)
+			receive(window, s);
+		receive(window, 100 + WINDOW + 5);
+		// the whole window was cleared, so numbers sharing the bits of the
+		// ones seen before are not duplicates
+		for (int s = 100 + 6; s < 100 + 106; s++)
+			receive(window, s, SequenceWindow.ACCEPTED,
+					"accepted after the jump");
+		receive(window, 50, SequenceWindow.STALE, "stale after the jump");
+	}
+
+	private static void playoutPointIsStale() {
+		SequenceWindow window = new SequenceWindow();
+		window.check(window.extend((short) 10), 0);
+		checkEquals("before the playout point", SequenceWindow.STALE, window
+				.check(window.extend((short) 11), 12));
+		checkEquals("at the playout point", SequenceWindow.ACCEPTED, window
+				.check(window.extend((short) 12), 12));
+		checkEquals("negative", SequenceWindow.STALE, window.check(-1, 0));
+	}
+
+	private static void reset() {
+		SequenceWindow window = new SequenceWindow();
+		receive(window, 100);
+		receive(window, 100, SequenceWindow.DUPLICATE, "duplicate");
+		window.rebase();
+		window.reset();
+		checkEquals("highest cleared", -1, window.getHighest());
+		checkEquals("duplicates cleared", 0, window.getDuplicates());
+		// neither a duplicate nor rebased onto the old numbering
+		checkEquals("accepted after reset", 100, receive(window, 100));
+	}
+
+	private static void check(String name, boolean condition) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+
+	private static void checkEquals(String name, long expected, long actual) {
+		if (expected != actual) {
+			failures++;
+			System.out.println("FAILED: " + name + ": expected " + expected
+					+ ", got " + actual);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import ubc.rtsp.client.model.Frame;
+
+/**
+ * Checks what <code>Recorder</code> writes, read back with
+ * <code>Recording</code>: frames keep the RTP sequence numbers they were
+ * received with, including past 32767 frames in a segment and across the
+ * wrap of the 16-bit sequence numbers; and frames received from a session
+ * are stamped with times that never go backwards, even across segments, so
+ * seeking to the time of any frame finds that frame.
+ *
+ * Usage: <code>RecorderTest</code>. The program exits with status 1 if any
+ * check fails.
+ */
+public class RecorderTest {
+
+	// more than fit in a short, starting close to the wrap
+	private static final int FRAMES = 70000;
+	private static final int FIRST_SEQUENCE_NUMBER = 60000;
+	private static final long SEGMENT_DURATION_MS = 20;
+	private static final long RECEIVE_DURATION_MS = 300;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		File directory = Files.createTempDirectory("recorder-test").toFile();
+		try {
+			sequenceNumbers(new File(directory, "sequence"));
+			monotonicTimes(new File(directory, "times"));
+		} finally {
+			delete(directory);
+		}
+		if (failures > 0) {
+			System.out.println(failures + " check(s) FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	private static Frame frame(int sequenceNumber) {
+		byte[] payload = { (byte) sequenceNumber };
+		return new Frame((byte) 26, true, (short) sequenceNumber, 0, payload,
+				0, payload.length);
+	}
+
+	private static void sequenceNumbers(File directory) throws IOException {
+		Recorder recorder = new Recorder(directory, Long.MAX_VALUE,
+				RetentionPolicy.KEEP_ALL);
+		for (int i = 0; i < FRAMES; i++)
+			recorder.record(frame(FIRST_SEQUENCE_NUMBER + i), 1000 + i);
+		recorder.close();
+
+		Recording recording = new Recording(directory);
+		List<Segment> segments = recording.getSegments();
+		checkEquals("segments", 1, segments.size());
+		Segment segment = segments.get(0);
+		checkEquals("frames", FRAMES, segment.getFrameCount());
+		int mismatches = 0;
+		for (int i = 0; i < FRAMES; i++) {
+			if (segment.getSequenceNumber(i) != (short) (FIRST_SEQUENCE_NUMBER + i))
+				mismatches++;
+		}
+		checkEquals("frames with another sequence number", 0, mismatches);
+		int[] positions = { 0, 5535, 5536, 32767, 32768, FRAMES - 1 };
+		for (int position : positions) {
+			Frame frame = segment.readFrame(position);
+			checkEquals("sequence number read at " + position,
+					(FIRST_SEQUENCE_NUMBER + position) & 0xFFFF,
+					frame.getSequenceNumber() & 0xFFFF);
+			frame.release();
+		}
+		recording.close();
+	}
+
+	private static void monotonicTimes(File directory) throws Exception {
+		Recorder recorder = new Recorder(directory, SEGMENT_DURATION_MS,
+				RetentionPolicy.KEEP_ALL);
+		long end = System.currentTimeMillis() + RECEIVE_DURATION_MS;
+		int received = 0;
+		while (System.currentTimeMillis() < end) {
+			recorder.frameReceived(frame(received++));
+			if (received % 10 == 0)
+				Thread.sleep(1);
+		}
+		// a different video, with a frame in the same millisecond
+		recorder.videoNameChanged("other");
+		recorder.frameReceived(frame(received++));
+		recorder.close();
+
+		Recording recording = new Recording(directory);
+		List<Segment> segments = recording.getSegments();
+		check("several segments: " + segments.size(), segments.size() > 2);
+		long previous = Long.MIN_VALUE;
+		long previousStart = Long.MIN_VALUE;
+		int frames = 0;
+		boolean sorted = true;
+		boolean found = true;
+		for (Segment segment : segments) {
+			sorted &= segment.getStartTime() > previousStart;
+			previousStart = segment.getStartTime();
+			for (int i = 0; i < segment.getFrameCount(); i++) {
+				long time = segment.getWallClock(i);
+				sorted &= time >= previous;
+				previous = time;
+				// the last frame received at or before its own time is
+				// itself, or one received in the same millisecond
+				Recording.Position position = recording.seek(time);
+				found &= position != null
+						&& position.getWallClock() == time;
+				frames++;
+			}
+		}
+		checkEquals("frames recorded", received, frames);
+		check("segments start strictly in order", sorted);
+		check("every frame found at its own time", found);
+		recording.close();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+
+	private static void check(String name, boolean condition) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+
+	private static void checkEquals(String name, long expected, long actual) {
+		if (expected != actual) {
+			failures++;
+			System.out.println("FAILED: " + name + ": expected " + expected
+					+ ", got " + actual);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * University of British Columbia
+ * Department of Computer Science
+ * CPSC417 - Computer Networking
+ * Programming Assignment - RTSP Client
+ * 
+ * Author: Jonatan Schroeder
+ * Created: January 2013
+ * Updated: November 2020
+ * 
+ * This code may not be used without written consent of the authors, except for 
+ * current and future projects and assignments of the CPSC417 course at UBC.
+ */
+
+package ubc.rtsp.client.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import ubc.rtsp.client.exception.RTSPException;
+import ubc.rtsp.client.model.Frame;
+import ubc.rtsp.client.model.listener.SessionListener;
+
+/**
+ * Plays a recording of FRAMES frames, one every FRAME_INTERVAL_MS in several
+ * segments, and checks the frames delivered by <code>RecordingPlayer</code>
+ * through their timestamps, which are their times in the recording: every
+ * frame in order at normal speed, with almost all of them loaded ahead;
+ * frames skipped at DISPLAY_RATE above normal speed; every frame in reverse
+ * order when played backwards; and single frames when stepping.
+ *
+ * Usage: <code>RecordingPlayerTest</code>. The program exits with status 1 if
+ * any check fails.
+ */
+public class RecordingPlayerTest {
+
+	private static final int FRAMES = 400;
+	private static final int FRAME_INTERVAL_MS = 40;
+	private static final long SEGMENT_DURATION_MS = 3000;
+	private static final long START = 1000000;
+	private static final long SETTLE_MS = 150;
+	// a seek, and the first frame after it, may be loaded by the playout
+	// thread itself
+	private static final int MAX_MISSES = 2;
+
+	private static int failures = 0;
+
+	/**
+	 * Records the timestamps of the frames delivered.
+	 */
+	private static class Listener implements SessionListener {
+		private List<Integer> timestamps = new ArrayList<Integer>();
+
+		@Override
+		public void exceptionThrown(RTSPException exception) {
+		}
+
+		@Override
+		public synchronized void frameReceived(Frame frame) {
+			if (frame != null)
+				timestamps.add(frame.getTimestamp());
+		}
+
+		@Override
+		public void videoNameChanged(String videoName) {
+		}
+
+		private synchronized List<Integer> take() {
+			List<Integer> taken = timestamps;
+			timestamps = new ArrayList<Integer>();
+			return taken;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		File directory = Files.createTempDirectory("recording-player-test")
+				.toFile();
+		try {
+			record(directory);
+			Recording recording = new Recording(directory);
+			check("several segments", recording.getSegments().size() > 1);
+			RecordingPlayer player = new RecordingPlayer(recording, "test");
+			Listener listener = new Listener();
+			player.addSessionListener(listener);
+
+			normalSpeed(player, listener);
+			fastForward(player, listener);
+			reverse(player, listener);
+			stepping(player, listener);
+
+			player.close();
+			recording.close();
+		} finally {
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+		if (failures > 0) {
+			System.out.println(failures + " check(s) FAILED");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+	}
+
+	/**
+	 * Records frames whose payload is their number, as if received every
+	 * FRAME_INTERVAL_MS from START.
+	 */
+	private static void record(File directory) throws IOException {
+		Recorder recorder = new Recorder(directory, SEGMENT_DURATION_MS,
+				RetentionPolicy.KEEP_ALL);
+		byte[] payload = new byte[4];
+		for (int i = 0; i < FRAMES; i++) {
+			payload[0] = (byte) (i >> 24);
+			payload[1] = (byte) (i >> 16);
+			payload[2] = (byte) (i >> 8);
+			payload[3] = (byte) i;
+			recorder.record(new Frame((byte) 26, true, (short) i, i
+					* FRAME_INTERVAL_MS, payload, 0, payload.length), START + i
+					* FRAME_INTERVAL_MS);
+		}
+		recorder.close();
+		check("frames recorded", recorder.getRecordedFrames() == FRAMES);
+	}
+
+	/**
+	 * Seeks to the given frame, and waits for it to be delivered.
+	 */
+	private static void seek(RecordingPlayer player, Listener listener,
+			int frame) throws InterruptedException {
+		player.pause();
+		player.seek(START + frame * FRAME_INTERVAL_MS);
+		Thread.sleep(SETTLE_MS);
+		List<Integer> delivered = listener.take();
+		check("seek to frame " + frame + " delivered it", !delivered.isEmpty()
+				&& delivered.get(delivered.size() - 1) == frame
+						* FRAME_INTERVAL_MS);
+	}
+
+	private static List<Integer> play(RecordingPlayer player,
+			Listener listener, double speed, long durationMs)
+			throws InterruptedException {
+		player.play(speed);
+		Thread.sleep(durationMs);
+		player.pause();
+		Thread.sleep(SETTLE_MS);
+		return listener.take();
+	}
+
+	private static void normalSpeed(RecordingPlayer player, Listener listener)
+			throws InterruptedException {
+		seek(player, listener, 0);
+		long hits = player.getReadAheadHits();
+		long misses = player.getReadAheadMisses();
+		List<Integer> played = play(player, listener, 1, 1000);
+		check("frames played at normal speed: " + played.size(),
+				played.size() >= 15);
+		checkSteps("normal speed", played, FRAME_INTERVAL_MS, FRAME_INTERVAL_MS);
+		long newHits = player.getReadAheadHits() - hits;
+		long newMisses = player.getReadAheadMisses() - misses;
+		check("read-ahead hits and misses add up to the frames played",
+				newHits + newMisses == played.size());
+		check("read-ahead misses at normal speed: " + newMisses,
+				newMisses <= MAX_MISSES);
+	}
+
+	private static void fastForward(RecordingPlayer player, Listener listener)
+			throws InterruptedException {
+		double speed = 8;
+		seek(player, listener, 0);
+		List<Integer> played = play(player, listener, speed, 1000);
+		check("frames played at " + speed + "x: " + played.size(),
+				played.size() >= 10);
+		// each frame is the one reached by the playhead after one display
+		// interval, so about speed frames apart
+		long step = Math.round(speed * 1000 / RecordingPlayer.DISPLAY_RATE);
+		checkSteps(speed + "x", played, step - FRAME_INTERVAL_MS, step
+				+ FRAME_INTERVAL_MS);
+		if (!played.isEmpty()) {
+			int last = played.get(played.size() - 1);
+			check("frames skipped at " + speed + "x",
+					played.size() < last / FRAME_INTERVAL_MS / 2);
+		}
+	}
+
+	private static void reverse(RecordingPlayer player, Listener listener)
+			throws InterruptedException {
+		seek(player, listener, FRAMES - 1);
+		List<Integer> played = play(player, listener, -1, 600);
+		check("frames played in reverse: " + played.size(),
+				played.size() >= 8);
+		checkSteps("reverse", played, -FRAME_INTERVAL_MS, -FRAME_INTERVAL_MS);
+		if (!played.isEmpty())
+			check("reverse starts before the last frame",
+					played.get(0) == (FRAMES - 2) * FRAME_INTERVAL_MS);
+
+		// across the boundary between two segments
+		int boundary = (int) (SEGMENT_DURATION_MS / FRAME_INTERVAL_MS);
+		seek(player, listener, boundary + 5);
+		played = play(player, listener, -1, 600);
+		checkSteps("reverse across segments", played, -FRAME_INTERVAL_MS,
+				-FRAME_INTERVAL_MS);
+		check("reverse crossed into the previous segment", !played.isEmpty()
+				&& played.get(played.size() - 1) < boundary * FRAME_INTERVAL_MS);
+	}
+
+	private static void stepping(RecordingPlayer player, Listener listener)
+			throws InterruptedException {
+		seek(player, listener, 100);
+		player.step(1);
+		Thread.sleep(SETTLE_MS);
+		player.step(-3);
+		Thread.sleep(SETTLE_MS);
+		List<Integer> stepped = listener.take();
+		check("one frame per step: " + stepped, stepped.size() == 2
+				&& stepped.get(0) == 101 * FRAME_INTERVAL_MS
+				&& stepped.get(1) == 98 * FRAME_INTERVAL_MS);
+	}
+
+	/**
+	 * Checks that the difference between consecutive timestamps is always
+	 * within the given bounds.
+	 */
+	private static void checkSteps(String name, List<Integer> played,
+			long min, long max) {
+		for (int i = 1; i < played.size(); i++) {
+			long step = played.get(i) - played.get(i - 1);
+			if (step < min || step > max) {
+				check(name + ": step of " + step + "ms at " + played.get(i),
+						false);
+				return;
+			}
+		}
+	}
+
+	private static void check(String name, boolean condition) {
+		if (!condition) {
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+}